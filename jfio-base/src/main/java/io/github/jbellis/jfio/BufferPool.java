@@ -0,0 +1,206 @@
+package io.github.jbellis.jfio;
+
+import net.jcip.annotations.ThreadSafe;
+import org.jctools.queues.MessagePassingQueue;
+import org.jctools.queues.MpmcArrayQueue;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of direct buffers aligned on 512 bytes (so suitable for direct I/O), to avoid allocating a new buffer for
+ * every operation.
+ * <p>
+ * Direct buffers are costly to allocate, and their memory is only reclaimed once the garbage collector notices they
+ * are unreachable, so allocating one per read under a high rate of reads leads to a lot of native memory being
+ * retained for nothing. This pool instead keeps released buffers around for reuse.
+ * <p>
+ * Buffers are pooled by size classes: every power of two between 512 bytes and {@link #maxPooledSize}. A request
+ * for a given size is served by a buffer of the smallest class that fits it (with its limit set to the requested
+ * size). Larger requests are not pooled: they are allocated on demand and simply discarded on release. Each class
+ * retains at most a fixed number of released buffers, which bounds the memory held by the pool; buffers released
+ * while their class is full are discarded too.
+ * <p>
+ * Buffers obtained through {@link #acquire} should be returned through {@link #release} once they are not used
+ * anymore. Not doing so is not a leak (the buffer is then reclaimed by the garbage collector as any other buffer),
+ * but it defeats the purpose of the pool.
+ */
+@ThreadSafe
+public final class BufferPool {
+    /** The size of the smallest class, which is also the alignment of all the buffers. */
+    public static final int MIN_POOLED_SIZE = 512;
+    /** The default maximum size of pooled buffers (1MiB). */
+    public static final int DEFAULT_MAX_POOLED_SIZE = 1 << 20;
+    /** The default maximum amount of memory retained by a pool (64MiB). */
+    public static final long DEFAULT_MAX_RETAINED_BYTES = 64L << 20;
+
+    private static final int MIN_CLASS_SHIFT = Integer.numberOfTrailingZeros(MIN_POOLED_SIZE);
+    // Bounds the (eagerly allocated) queue of each class, whatever the memory budget.
+    private static final int MAX_BUFFERS_PER_CLASS = 1 << 16;
+
+    private final int maxPooledSize;
+    private final long maxRetainedBytes;
+    private final MessagePassingQueue<ByteBuffer>[] classes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    private BufferPool(int maxPooledSize, long maxRetainedBytes) {
+        this.maxPooledSize = maxPooledSize;
+        this.maxRetainedBytes = maxRetainedBytes;
+
+        int classCount = Integer.numberOfTrailingZeros(maxPooledSize) - MIN_CLASS_SHIFT + 1;
+        this.classes = (MessagePassingQueue<ByteBuffer>[]) new MessagePassingQueue<?>[classCount];
+        // Every class gets an equal share of the memory budget.
+        long bytesPerClass = maxRetainedBytes / classCount;
+        for (int i = 0; i < classCount; i++) {
+            long buffers = bytesPerClass / classSize(i);
+            // The queue capacity is rounded up to a power of two (and must be at least 2), so round down beforehand
+            // to stay within the budget (for all but the largest classes of small budgets).
+            int capacity = (int) Math.max(2, Long.highestOneBit(Math.min(buffers, MAX_BUFFERS_PER_CLASS)));
+            classes[i] = new MpmcArrayQueue<>(capacity);
+        }
+    }
+
+    /**
+     * Creates a new pool with the default settings, that is pooling buffers of up to
+     * {@link #DEFAULT_MAX_POOLED_SIZE} and retaining up to {@link #DEFAULT_MAX_RETAINED_BYTES}.
+     *
+     * @return the created pool.
+     */
+    public static BufferPool create() {
+        return create(DEFAULT_MAX_POOLED_SIZE, DEFAULT_MAX_RETAINED_BYTES);
+    }
+
+    /**
+     * Creates a new pool.
+     *
+     * @param maxPooledSize the size of the largest pooled buffers, which must be a power of two no smaller than
+     *                      {@link #MIN_POOLED_SIZE}.
+     * @param maxRetainedBytes the (approximate) maximum amount of memory retained by released buffers, split equally
+     *                         among the size classes (no class retains more than 65536 buffers however).
+     * @return the created pool.
+     */
+    public static BufferPool create(int maxPooledSize, long maxRetainedBytes) {
+        if (maxPooledSize < MIN_POOLED_SIZE || Integer.bitCount(maxPooledSize) != 1) {
+            throw new IllegalArgumentException(String.format(
+                    "The maximum pooled size must be a power of two no smaller than %d, got %d",
+                    MIN_POOLED_SIZE, maxPooledSize
+            ));
+        }
+        if (maxRetainedBytes < 0) {
+            throw new IllegalArgumentException("The maximum retained bytes cannot be negative");
+        }
+        return new BufferPool(maxPooledSize, maxRetainedBytes);
+    }
+
+    /**
+     * The size of the largest pooled buffers.
+     *
+     * @return the maximum pooled size.
+     */
+    public int maxPooledSize() {
+        return maxPooledSize;
+    }
+
+    /**
+     * The (approximate) maximum amount of memory retained by this pool.
+     *
+     * @return the maximum retained bytes.
+     */
+    public long maxRetainedBytes() {
+        return maxRetainedBytes;
+    }
+
+    /**
+     * Provides a buffer of the requested size, reusing a previously released one if possible.
+     *
+     * @param size the size of the buffer.
+     * @return a direct buffer, aligned on 512 bytes, with position 0 and limit {@code size}. Its capacity may be
+     * greater than {@code size}.
+     */
+    public ByteBuffer acquire(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("The buffer size cannot be negative");
+        }
+        int sizeClass = classOf(size);
+        if (sizeClass < 0) {
+            misses.increment();
+            return NativeProvider.instance().allocateAligned(size);
+        }
+
+        ByteBuffer buffer = classes[sizeClass].poll();
+        if (buffer == null) {
+            misses.increment();
+            buffer = NativeProvider.instance().allocateAligned(classSize(sizeClass));
+        } else {
+            hits.increment();
+        }
+        return buffer.clear().limit(size);
+    }
+
+    /**
+     * Returns a buffer to the pool.
+     * <p>
+     * This is meant for buffers obtained through {@link #acquire} (or through methods documented as using this pool).
+     * Other buffers are accepted as long as they fit a size class (they are direct, aligned and have a pooled size
+     * as capacity), and are ignored otherwise.
+     *
+     * @param buffer the buffer to release. Neither it nor any view of it (slice, duplicate, ...) must be used after
+     *               this call, and it must not be released twice.
+     */
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (!buffer.isDirect() || capacity < MIN_POOLED_SIZE || capacity > maxPooledSize || Integer.bitCount(capacity) != 1) {
+            return;
+        }
+        if (NativeProvider.instance().address(buffer.clear()) % MIN_POOLED_SIZE != 0) {
+            return;
+        }
+        // If the class is full, the buffer is simply left to the garbage collector.
+        classes[classOf(capacity)].offer(buffer);
+    }
+
+    /**
+     * The number of {@link #acquire} calls served by a previously released buffer.
+     *
+     * @return the number of pool hits.
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * The number of {@link #acquire} calls that required allocating a new buffer.
+     *
+     * @return the number of pool misses.
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    private int classOf(int size) {
+        if (size > maxPooledSize) {
+            return -1;
+        }
+        if (size <= MIN_POOLED_SIZE) {
+            return 0;
+        }
+        // The shift of the smallest power of two >= size.
+        int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+        return shift - MIN_CLASS_SHIFT;
+    }
+
+    private static int classSize(int sizeClass) {
+        return MIN_POOLED_SIZE << sizeClass;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "BufferPool(maxPooledSize=%d, maxRetainedBytes=%d, hits=%d, misses=%d)",
+                maxPooledSize, maxRetainedBytes, hits(), misses()
+        );
+    }
+}
@@ -0,0 +1,77 @@
+package io.github.jbellis.jfio;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.Arrays;
+
+/**
+ * Tracks which slot of a ring registered file table each file descriptor uses.
+ * <p>
+ * Slots are looked up by file descriptor, which are small integers, so the mapping is a simple (growable) array.
+ */
+@NotThreadSafe
+final class FixedFiles {
+    private int[] slotsByFd;
+
+    private final int[] freeSlots;
+    private int freeCount;
+
+    FixedFiles(int capacity) {
+        this.slotsByFd = new int[64];
+        Arrays.fill(slotsByFd, -1);
+
+        this.freeSlots = new int[capacity];
+        // Hands out the lower slots first.
+        for (int i = 0; i < capacity; i++) {
+            freeSlots[i] = capacity - 1 - i;
+        }
+        this.freeCount = capacity;
+    }
+
+    /**
+     * The slot registered for the provided file descriptor.
+     *
+     * @param fd the file descriptor.
+     * @return the slot of {@code fd} in the registered file table, or -1 if {@code fd} is not registered.
+     */
+    int slotOf(int fd) {
+        return fd < slotsByFd.length ? slotsByFd[fd] : -1;
+    }
+
+    /**
+     * Assigns a slot to the provided file descriptor.
+     *
+     * @param fd the file descriptor, which must not be assigned a slot already.
+     * @return the slot assigned, or -1 if there is no free slot.
+     */
+    int assign(int fd) {
+        assert slotOf(fd) < 0 : "File descriptor " + fd + " is already registered";
+        if (freeCount == 0) {
+            return -1;
+        }
+
+        if (fd >= slotsByFd.length) {
+            int previousLength = slotsByFd.length;
+            slotsByFd = Arrays.copyOf(slotsByFd, Math.max(fd + 1, previousLength * 2));
+            Arrays.fill(slotsByFd, previousLength, slotsByFd.length, -1);
+        }
+        int slot = freeSlots[--freeCount];
+        slotsByFd[fd] = slot;
+        return slot;
+    }
+
+    /**
+     * Frees the slot assigned to the provided file descriptor.
+     *
+     * @param fd the file descriptor.
+     * @return the slot that was assigned to {@code fd}, or -1 if it wasn't assigned any.
+     */
+    int release(int fd) {
+        int slot = slotOf(fd);
+        if (slot >= 0) {
+            slotsByFd[fd] = -1;
+            freeSlots[freeCount++] = slot;
+        }
+        return slot;
+    }
+}
@@ -0,0 +1,197 @@
+package io.github.jbellis.jfio;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative long values (typically latencies in nanoseconds, or batch sizes), with a bounded
+ * relative error.
+ * <p>
+ * Values are counted in buckets: values below 8 have their own bucket, and every power of two range above that is
+ * split in 8 equally sized buckets, so any value is known within 12.5%. This makes the histogram fixed size (less than
+ * 500 buckets), and recording a value cheap and allocation-free.
+ * <p>
+ * Values are recorded by a single thread (typically the one driving a ring), without locks nor atomic
+ * read-modify-write operations, but the histogram can be read (through {@link #snapshot}) from any thread.
+ */
+@ThreadSafe
+public final class Histogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // The values < SUB_BUCKETS, and then SUB_BUCKETS buckets for each power of two from SUB_BUCKETS to 2^62.
+    private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value.
+     * <p>
+     * This must only ever be called by a single thread (the "owner" of the histogram).
+     *
+     * @param value the value to record. Negative values are recorded as 0.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int bucket = bucketOf(value);
+        // Single writer: lazySet is enough to publish the updates to readers.
+        counts.lazySet(bucket, counts.get(bucket) + 1);
+        sum.lazySet(sum.get() + value);
+        if (value > max.get()) {
+            max.lazySet(value);
+        }
+    }
+
+    /**
+     * Takes a snapshot of the values recorded so far.
+     * <p>
+     * If values are recorded concurrently, the snapshot may miss some of them, but it is otherwise consistent.
+     *
+     * @return a snapshot of this histogram.
+     */
+    public Snapshot snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        return new Snapshot(snapshot, count, sum.get(), max.get());
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+    /** The largest value counted in the provided bucket. */
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        long subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * An immutable view of a histogram at a point in time.
+     */
+    public static final class Snapshot {
+        private static final Snapshot EMPTY = new Snapshot(new long[BUCKETS], 0, 0, 0);
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * A snapshot with no values.
+         *
+         * @return the empty snapshot.
+         */
+        public static Snapshot empty() {
+            return EMPTY;
+        }
+
+        /**
+         * The number of values recorded.
+         *
+         * @return the count of values.
+         */
+        public long count() {
+            return count;
+        }
+
+        /**
+         * The sum of the values recorded.
+         *
+         * @return the sum of values.
+         */
+        public long sum() {
+            return sum;
+        }
+
+        /**
+         * The largest value recorded.
+         *
+         * @return the maximum value, or 0 if no values were recorded.
+         */
+        public long max() {
+            return max;
+        }
+
+        /**
+         * The mean of the values recorded.
+         *
+         * @return the mean value, or 0 if no values were recorded.
+         */
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * The value at the provided percentile, that is the smallest value such that the provided percentage of the
+         * recorded values are lower or equal to it (within the precision of the histogram).
+         *
+         * @param percentile the percentile, between 0 and 100.
+         * @return the value at {@code percentile}, or 0 if no values were recorded.
+         */
+        public long percentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("Invalid percentile " + percentile + ", must be in [0, 100]");
+            }
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBoundOf(i), max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * Combines this snapshot with another one, as if all the values had been recorded in a single histogram.
+         *
+         * @param other the snapshot to merge with this one.
+         * @return the merged snapshot.
+         */
+        public Snapshot merge(Snapshot other) {
+            long[] merged = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                merged[i] = counts[i] + other.counts[i];
+            }
+            return new Snapshot(merged, count + other.count, sum + other.sum, Math.max(max, other.max));
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "{count=%d, mean=%.1f, p50=%d, p99=%d, p999=%d, max=%d}",
+                    count, mean(), percentile(50), percentile(99), percentile(99.9), max
+            );
+        }
+    }
+}
@@ -3,23 +3,30 @@ package io.github.jbellis.jfio;
 import net.jcip.annotations.NotThreadSafe;
 
 import java.io.IOException;
+import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 /**
- * An io_uring ring to which reads can be submitted.
+ * An io_uring ring to which reads and writes can be submitted.
  * <p>
  * This underlying ring (submission and completion queues) is created upon the construction of an {@code IORing} and
  * destroyed upon closing it.
  * <p>
- * Submissions (reads at the moment) can be added to {@link #submissions} and then submitted to the ring by calling
+ * Submissions (reads or writes) can be added to {@link #submissions} and then submitted to the ring by calling
  * {@link #submitAndCheckCompletions}, which both tries to submit anything in {@link #submissions}
  * and to check for any completion.
  */
 @NotThreadSafe
 public abstract class IORing implements AutoCloseable {
     final Config config;
+    private final RingMetrics metrics = new RingMetrics();
 
-    private boolean closed;
+    private volatile boolean closed;
+    /** Makes sure {@link #wakeup} never races with the ring being destroyed. */
+    private final Object wakeupLock = new Object();
 
     IORing(Config config) {
         this.config = config;
@@ -44,6 +51,17 @@ public abstract class IORing implements AutoCloseable {
         return config;
     }
 
+    /**
+     * The metrics of this ring.
+     * <p>
+     * Contrarily to most methods of this class, this method (and the returned object) can be used from any thread.
+     *
+     * @return the metrics of this ring.
+     */
+    public RingMetrics metrics() {
+        return metrics;
+    }
+
     /**
      * How many submissions are currently in flight, that is genuinely submitted to the kernel but not yet completed
      * (or rather, whose completion hasn't been seen by {@link #submitAndCheckCompletions}).
@@ -65,7 +83,9 @@ public abstract class IORing implements AutoCloseable {
 
     /**
      * How many additional submissions can be added to {@link #submissions}, and have a chance to be submitted by
-     * the next {@link #submitAndCheckCompletions} call.
+     * the next {@link #submitAndCheckCompletions} call. This is bounded both by the room left for pending submissions
+     * and by the number of operations, pending or in flight, the ring can track ({@link #maxInFlight}), which include
+     * the timeouts and cancellations it adds.
      *
      * @return how many new submissions can be added by {@link #add(Submission)}. When this reaches 0, the
      * {@link #submitAndCheckCompletions()} method needs to be call to submit pending submissions.
@@ -97,10 +117,191 @@ public abstract class IORing implements AutoCloseable {
      *
      * @throws IllegalArgumentException if the submission is invalid for the ring configuration. Mostly, when using
      *   direct I/O, the constraints are that the buffer address, the offset and the length must all be aligned on 512
-     *   bytes.
+     *   bytes. Also, a submission with a {@link Submission#setTimeout timeout} takes 2 submission slots, so it can
+     *   never be added to a ring of depth 1.
      */
     public boolean add(Submission submission) {
-        return submissions().add(submission);
+        if (submission.timeoutNanos() > 0 && config.depth() < 2) {
+            throw new IllegalArgumentException("Submissions with a timeout require a ring depth of at least 2");
+        }
+        if (!submissions().add(submission)) {
+            return false;
+        }
+        metrics.onAdded(submissions().pending());
+        return true;
+    }
+
+    /**
+     * Adds a new read or write, described by primitives, as candidate for submission by the next call to
+     * {@link #submitAndCheckCompletions}.
+     * <p>
+     * This is the allocation-free alternative to {@link #add(Submission)}, for callers managing their own memory:
+     * nothing is allocated per operation, and the completion is delivered to the provided handler (which can be
+     * shared by any number of operations) along with the provided tag. Like for {@link #add(Submission)}, operations
+     * on registered files or into registered buffers use the corresponding "fixed" variants.
+     * <p>
+     * The operation is only added if there is room for it (see {@link #submissionSlotsAvailable}).
+     *
+     * @param operation the operation, which must be {@link Submission.Operation#READ} or
+     *                  {@link Submission.Operation#WRITE}.
+     * @param fd the file descriptor of the file to read from or write to.
+     * @param address the address of the memory to read into or to write from, which must stay valid until the
+     *                operation completes. With direct I/O, it must be aligned on 512 bytes.
+     * @param length the number of bytes to read or write.
+     * @param offset the offset in the file at which to read or write.
+     * @param tag an arbitrary value identifying the operation, passed back to {@code handler} on completion.
+     * @param handler the handler to call on completion.
+     * @return whether the operation was added.
+     *
+     * @throws IllegalArgumentException if the operation is not a read nor a write, or if any of the arguments is
+     *   invalid.
+     */
+    public boolean add(
+            Submission.Operation operation,
+            int fd,
+            long address,
+            int length,
+            long offset,
+            long tag,
+            RawCompletionHandler handler
+    ) {
+        if (operation != Submission.Operation.READ && operation != Submission.Operation.WRITE) {
+            throw new IllegalArgumentException("Invalid operation " + operation + ", must be READ or WRITE");
+        }
+        if (handler == null) {
+            throw new IllegalArgumentException("The handler must not be null");
+        }
+        if (fd < 0 || address == 0 || length < 0 || offset < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid operation arguments: fd=%d, address=0x%x, length=%d, offset=%d", fd, address, length, offset
+            ));
+        }
+        if (!submissions().add(operation, fd, address, length, offset, tag, handler)) {
+            return false;
+        }
+        metrics.onAdded(submissions().pending());
+        return true;
+    }
+
+    /**
+     * Cancels the provided submission, previously added through {@link #add(Submission)}, by adding an
+     * {@code IORING_OP_ASYNC_CANCEL} for it as candidate for submission by the next call to
+     * {@link #submitAndCheckCompletions}.
+     * <p>
+     * If the cancellation succeeds, the submission completes with {@code -ECANCELED} (-125), which frees its slot;
+     * otherwise (typically, if it is already executing and cannot be interrupted), it completes normally. Either way,
+     * the submission {@link Submission#onCompletion} method is called exactly once. The submission is also marked as
+     * cancelled, so if it has not been added to a ring yet, it completes with {@code -ECANCELED} as soon as it is
+     * (without being submitted).
+     *
+     * @param submission the submission to cancel.
+     * @return whether a cancellation was added, which it is not if {@code submission} is neither pending nor in
+     * flight in this ring, or if there is no room for the cancellation (see {@link #submissionSlotsAvailable}).
+     */
+    public boolean cancel(Submission submission) {
+        if (this.closed) {
+            throw new IllegalStateException("Ring is closed");
+        }
+        if (!submissions().cancel(submission)) {
+            return false;
+        }
+        metrics.onAdded(submissions().pending());
+        return true;
+    }
+
+    /**
+     * Registers the provided buffers with this ring.
+     * <p>
+     * Once registered, any submission whose buffer lies within one of the registered buffers is submitted as a
+     * "fixed" read or write ({@code IORING_OP_READ_FIXED}/{@code IORING_OP_WRITE_FIXED}), avoiding the cost of
+     * pinning and mapping the buffer pages for every operation. Note that the same {@link RegisteredBuffers} can be
+     * registered with multiple rings.
+     * <p>
+     * A ring can only have a single set of registered buffers, which stay registered until the ring is closed.
+     *
+     * @param buffers the buffers to register.
+     * @throws IllegalStateException if this ring already has registered buffers.
+     */
+    public void registerBuffers(RegisteredBuffers buffers) {
+        if (this.closed) {
+            throw new IllegalStateException("Ring is closed");
+        }
+        if (submissions().registeredBuffers != null) {
+            throw new IllegalStateException("This ring already has registered buffers");
+        }
+
+        int res = registerBuffersInternal(buffers);
+        if (res < 0) {
+            int errno = -res;
+            // ENOMEM is by far the most likely error, and is due to going over RLIMIT_MEMLOCK.
+            throw new RuntimeException(errno == 12
+                    ? "Error registering buffers: cannot lock enough memory (check RLIMIT_MEMLOCK)"
+                    : "Unexpected error registering buffers (errno: " + errno + ")");
+        }
+        submissions().registeredBuffers = buffers;
+    }
+
+    /**
+     * The buffers registered with this ring, if any.
+     *
+     * @return the buffers registered by {@link #registerBuffers}, or {@code null} if no buffers are registered.
+     */
+    public RegisteredBuffers registeredBuffers() {
+        return submissions().registeredBuffers;
+    }
+
+    /**
+     * Registers the provided file descriptor in the ring registered file table.
+     * <p>
+     * Once registered, any submission on {@code fd} automatically uses the registered file slot (with
+     * {@code IOSQE_FIXED_FILE}), which saves the kernel from looking up the file on every operation. This requires
+     * the ring to be configured with a registered file table (see {@link Config.Builder#withRegisteredFiles}).
+     * <p>
+     * The file descriptor <b>must</b> be unregistered (through {@link #unregisterFile}) before being closed.
+     *
+     * @param fd the file descriptor to register.
+     * @return the slot of {@code fd} in the registered file table, or -1 if the ring has no registered file table or
+     * if it is full (in which case submissions on {@code fd} simply do not use a registered file).
+     */
+    public int registerFile(int fd) {
+        FixedFiles fixedFiles = submissions().fixedFiles;
+        if (fixedFiles == null) {
+            return -1;
+        }
+
+        int slot = fixedFiles.assign(fd);
+        if (slot < 0) {
+            return -1;
+        }
+
+        int res = updateRegisteredFileInternal(slot, fd);
+        if (res < 0) {
+            fixedFiles.release(fd);
+            throw new RuntimeException("Unexpected error registering file (errno: " + (-res) + ")");
+        }
+        return slot;
+    }
+
+    /**
+     * Unregisters a file descriptor previously registered through {@link #registerFile}.
+     * <p>
+     * This is a no-op if {@code fd} is not registered.
+     *
+     * @param fd the file descriptor to unregister.
+     */
+    public void unregisterFile(int fd) {
+        FixedFiles fixedFiles = submissions().fixedFiles;
+        if (fixedFiles == null) {
+            return;
+        }
+
+        int slot = fixedFiles.release(fd);
+        if (slot >= 0) {
+            int res = updateRegisteredFileInternal(slot, -1);
+            if (res < 0) {
+                throw new RuntimeException("Unexpected error unregistering file (errno: " + (-res) + ")");
+            }
+        }
     }
 
     /**
@@ -108,19 +309,64 @@ public abstract class IORing implements AutoCloseable {
      * previous or new submissions).
      * <p>
      * Any submission completed will have it's {@link Submission#onCompletion} method called by this method.
+     *
+     * @return the number of completions processed by this call.
      */
-    public void submitAndCheckCompletions() {
+    public int submitAndCheckCompletions() {
         if (this.closed) {
             throw new IllegalStateException("Ring is closed");
         }
 
         this.submitAndCheckCompletionsInternal();
+        return processResults();
+    }
+
+    /**
+     * Like {@link #submitAndCheckCompletions}, but if no completion is immediately available, blocks until at least
+     * one is, the provided timeout elapses, or {@link #wakeup} is called.
+     * <p>
+     * Note that this requires a configuration whose {@link Config#waitStrategy wait strategy} {@link WaitStrategy#blocks
+     * blocks} for {@link #wakeup} to work (if it does not, this can only return early due to a completion).
+     *
+     * @param timeoutNanos the maximum time to wait for, in nanoseconds, or a negative value to wait without timeout.
+     * @return the number of completions processed by this call (which can be 0 if the timeout elapsed, or on wake-up).
+     */
+    public int submitAndWaitCompletions(long timeoutNanos) {
+        if (this.closed) {
+            throw new IllegalStateException("Ring is closed");
+        }
+
+        this.submitAndWaitCompletionsInternal(timeoutNanos);
+        return processResults();
+    }
+
+    private int processResults() {
         int submitted = submitted();
         int completed = completed();
         submissions().onSubmitted(submitted);
 
+        // A single timestamp for all the completions reaped together keeps the cost of latency tracking low.
+        long now = completed > 0 ? System.nanoTime() : 0;
         for (int i = 0; i < completed; i++) {
-            submissions().onCompleted(completedId(i), completedRes(i));
+            submissions().onCompleted(completedId(i), completedRes(i), metrics, now);
+        }
+        metrics.onSubmitCall(submitted, completed, submissions().inFlight(), submissions().pending());
+        return completed;
+    }
+
+    /**
+     * Wakes up a thread blocked in {@link #submitAndWaitCompletions} (or, if no thread is currently blocked, makes
+     * the next such call return promptly).
+     * <p>
+     * Contrarily to most methods of this class, this method is thread-safe, and is in fact meant to be called from a
+     * different thread than the one using the ring. It is a no-op if the ring is closed, or if its configuration
+     * wait strategy does not block.
+     */
+    public void wakeup() {
+        synchronized (wakeupLock) {
+            if (!this.closed) {
+                wakeupInternal();
+            }
         }
     }
 
@@ -132,10 +378,32 @@ public abstract class IORing implements AutoCloseable {
      *
      * @throws IOException if the file cannot be open
      */
-    public abstract int openFile(Path path) throws IOException;
+    public int openFile(Path path) throws IOException {
+        return openFile(path, StandardOpenOption.READ);
+    }
+
+    /**
+     * Open the provided file with the provided options and return the underlying "native" file descriptor.
+     * <p>
+     * The supported options are {@link StandardOpenOption#READ}, {@link StandardOpenOption#WRITE},
+     * {@link StandardOpenOption#APPEND}, {@link StandardOpenOption#CREATE}, {@link StandardOpenOption#CREATE_NEW} and
+     * {@link StandardOpenOption#TRUNCATE_EXISTING}, with the same meaning as for
+     * {@link java.nio.channels.FileChannel#open}. If no options are provided, the file is opened for reading only.
+     * The file is opened for direct I/O if the ring configuration {@link Config#directIO uses direct I/O}.
+     *
+     * @param path the file to open.
+     * @param options the options specifying how the file is opened.
+     * @return the file descriptor of the file.
+     *
+     * @throws IOException if the file cannot be open
+     * @throws UnsupportedOperationException if an unsupported option is specified.
+     */
+    public abstract int openFile(Path path, OpenOption... options) throws IOException;
 
     /**
      * Closes the provided field descriptor (as obtained by {@link #openFile}).
+     * <p>
+     * If the file descriptor was registered with {@link #registerFile}, it must be unregistered first.
      *
      * @param fd the file descriptor to close.
      * @throws IOException if the file cannot be closed.
@@ -144,9 +412,36 @@ public abstract class IORing implements AutoCloseable {
 
     abstract Submissions submissions();
 
+    /**
+     * Registers the provided buffers with the underlying ring.
+     *
+     * @param buffers the buffers to register.
+     * @return 0 on success, the negated {@code errno} on error.
+     */
+    protected abstract int registerBuffersInternal(RegisteredBuffers buffers);
+
+    /**
+     * Updates a slot of the underlying ring registered file table.
+     *
+     * @param slot the slot to update.
+     * @param fd the file descriptor to set in {@code slot}, or -1 to clear the slot.
+     * @return a non-negative value on success, the negated {@code errno} on error.
+     */
+    protected abstract int updateRegisteredFileInternal(int slot, int fd);
+
     /** Actually submits the pending submissions, and reap completions. */
     protected abstract void submitAndCheckCompletionsInternal();
 
+    /**
+     * Actually submits the pending submissions, and reap completions, waiting for at least one completion.
+     *
+     * @param timeoutNanos the maximum time to wait for, or a negative value for no timeout.
+     */
+    protected abstract void submitAndWaitCompletionsInternal(long timeoutNanos);
+
+    /** Interrupts any ongoing (or the next) {@link #submitAndWaitCompletionsInternal} call. */
+    protected abstract void wakeupInternal();
+
     /**
      * Number of pending submissions submitted by the last {@link #submitAndCheckCompletionsInternal} call.
      *
@@ -182,13 +477,40 @@ public abstract class IORing implements AutoCloseable {
      */
     protected abstract void destroy();
 
+    /**
+     * The file descriptor of the underlying ring.
+     *
+     * @return the ring file descriptor.
+     */
+    protected abstract int ringFd();
+
+    /**
+     * The file descriptor of the ring whose workers a new ring with the provided configuration shares (see
+     * {@link Config.Builder#withSharedWorkers}).
+     *
+     * @param config the configuration of the new ring.
+     * @return the ring file descriptor of {@link Config#sharedWorkers}, or -1 if {@code config} does not share workers.
+     * @throws IllegalStateException if the ring whose workers are shared is closed.
+     */
+    static int sharedWorkersFd(Config config) {
+        IORing shared = config.sharedWorkers();
+        if (shared == null) {
+            return -1;
+        }
+        if (shared.closed) {
+            throw new IllegalStateException("Cannot share the workers of a closed ring");
+        }
+        return shared.ringFd();
+    }
+
     @Override
     public void close() {
-        if (this.closed) {
-            return;
+        synchronized (wakeupLock) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
         }
-
-        this.closed = true;
         this.destroy();
     }
 
@@ -200,12 +522,32 @@ public abstract class IORing implements AutoCloseable {
         private final boolean directIO;
         private final boolean useSQPolling;
         private final boolean useIOPolling;
-
-        private Config(int depth, boolean directIO, boolean useSQPolling, boolean useIOPolling) {
+        private final int registeredFiles;
+        private final WaitStrategy waitStrategy;
+        private final int sqThreadCpu;
+        private final int sqThreadIdleMillis;
+        private final IORing sharedWorkers;
+
+        private Config(
+                int depth,
+                boolean directIO,
+                boolean useSQPolling,
+                boolean useIOPolling,
+                int registeredFiles,
+                WaitStrategy waitStrategy,
+                int sqThreadCpu,
+                int sqThreadIdleMillis,
+                IORing sharedWorkers
+        ) {
             this.depth = depth;
             this.directIO = directIO;
             this.useSQPolling = useSQPolling;
             this.useIOPolling = useIOPolling;
+            this.registeredFiles = registeredFiles;
+            this.waitStrategy = waitStrategy;
+            this.sqThreadCpu = sqThreadCpu;
+            this.sqThreadIdleMillis = sqThreadIdleMillis;
+            this.sharedWorkers = sharedWorkers;
         }
 
         /**
@@ -240,6 +582,24 @@ public abstract class IORing implements AutoCloseable {
             return new Builder(depth);
         }
 
+        /**
+         * Creates a configuration builder initialized with the settings of this configuration.
+         *
+         * @return the created builder.
+         */
+        public Builder toBuilder() {
+            Builder builder = new Builder(depth);
+            builder.directIO = directIO;
+            builder.useSQPolling = useSQPolling;
+            builder.useIOPolling = useIOPolling;
+            builder.registeredFiles = registeredFiles;
+            builder.waitStrategy = waitStrategy;
+            builder.sqThreadCpu = sqThreadCpu;
+            builder.sqThreadIdleMillis = sqThreadIdleMillis;
+            builder.sharedWorkers = sharedWorkers;
+            return builder;
+        }
+
         /**
          * The depth of this ring configuration.
          *
@@ -276,6 +636,54 @@ public abstract class IORing implements AutoCloseable {
             return useIOPolling;
         }
 
+        /**
+         * The size of the registered file table of rings using this configuration.
+         *
+         * @return the number of files that can be registered (see {@link IORing#registerFile}), 0 if this
+         * configuration does not use a registered file table.
+         */
+        public int registeredFiles() {
+            return registeredFiles;
+        }
+
+        /**
+         * How the thread driving rings using this configuration waits for work.
+         *
+         * @return the configured wait strategy.
+         */
+        public WaitStrategy waitStrategy() {
+            return waitStrategy;
+        }
+
+        /**
+         * The CPU the kernel submission queue polling thread of rings using this configuration is pinned to.
+         *
+         * @return the CPU of the SQ polling thread, or -1 if it is not pinned.
+         */
+        public int sqThreadCpu() {
+            return sqThreadCpu;
+        }
+
+        /**
+         * How long, in milliseconds, the kernel submission queue polling thread of rings using this configuration
+         * keeps polling without any submission before going to sleep.
+         *
+         * @return the idle time of the SQ polling thread, 0 for the kernel default (1 second).
+         */
+        public int sqThreadIdleMillis() {
+            return sqThreadIdleMillis;
+        }
+
+        /**
+         * The ring whose kernel workers the rings using this configuration share (see
+         * {@link Builder#withSharedWorkers}).
+         *
+         * @return the ring whose workers are shared, or {@code null} if rings using this configuration get their own.
+         */
+        public IORing sharedWorkers() {
+            return sharedWorkers;
+        }
+
         /**
          * Builder for ring configurations.
          */
@@ -284,6 +692,11 @@ public abstract class IORing implements AutoCloseable {
             private boolean directIO = false;
             private boolean useIOPolling = false;
             private boolean useSQPolling = false;
+            private int registeredFiles = 0;
+            private WaitStrategy waitStrategy = WaitStrategy.spin();
+            private int sqThreadCpu = -1;
+            private int sqThreadIdleMillis = 0;
+            private IORing sharedWorkers;
 
             Builder(int depth) {
                 if (depth <= 0) {
@@ -360,10 +773,111 @@ public abstract class IORing implements AutoCloseable {
                 return this;
             }
 
+            /**
+             * Sets up the configuration to use a registered file table of the provided size.
+             * <p>
+             * Files registered in that table (see {@link IORing#registerFile}, which {@code IOExecutor} does
+             * automatically for the files it opens) skip the per-operation file lookup in the kernel. Files opened
+             * once the table is full simply don't benefit from it.
+             *
+             * @param count the size of the registered file table, or 0 to not use one.
+             * @return this builder.
+             */
+            public Builder withRegisteredFiles(int count) {
+                if (count < 0) {
+                    throw new IllegalArgumentException("The number of registered files cannot be negative");
+                }
+                this.registeredFiles = count;
+                return this;
+            }
+
+            /**
+             * Sets how the thread driving the ring (typically an {@code IOExecutor} event loop) waits for work.
+             * <p>
+             * The default is {@link WaitStrategy#spin}. Blocking strategies cannot be used with I/O polling.
+             *
+             * @param waitStrategy the wait strategy to use.
+             * @return this builder.
+             */
+            public Builder withWaitStrategy(WaitStrategy waitStrategy) {
+                this.waitStrategy = Objects.requireNonNull(waitStrategy);
+                return this;
+            }
+
+            /**
+             * Pins the kernel submission queue polling thread to the provided CPU, to keep it off the cores of the
+             * threads driving the rings (and from moving around).
+             * <p>
+             * This requires submission queue polling (see {@link #withSQPolling}), and is ignored if the ring shares
+             * the polling thread of another ring (see {@link #withSharedWorkers}).
+             *
+             * @param cpu the CPU to pin the SQ polling thread to, or -1 to not pin it (the default).
+             * @return this builder.
+             */
+            public Builder withSQThreadCpu(int cpu) {
+                if (cpu < -1) {
+                    throw new IllegalArgumentException("The CPU must be >= 0, or -1 to not pin the SQ thread");
+                }
+                this.sqThreadCpu = cpu;
+                return this;
+            }
+
+            /**
+             * Sets how long the kernel submission queue polling thread keeps polling without any submission before
+             * going to sleep (after which the next submission has to wake it up, through a system call). A longer
+             * time saves those system calls under bursty load, at the cost of a busier core when idle.
+             * <p>
+             * This requires submission queue polling (see {@link #withSQPolling}). A polling thread shared by several
+             * rings (see {@link #withSharedWorkers}) uses the longest idle time of those rings.
+             *
+             * @param idleTime the idle time, which is rounded down to milliseconds; 0 for the kernel default (1
+             *                 second).
+             * @param unit the unit of {@code idleTime}.
+             * @return this builder.
+             */
+            public Builder withSQThreadIdle(long idleTime, TimeUnit unit) {
+                long millis = unit.toMillis(idleTime);
+                if (millis < 0 || millis > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Invalid SQ thread idle time: " + idleTime + " " + unit);
+                }
+                this.sqThreadIdleMillis = (int) millis;
+                return this;
+            }
+
+            /**
+             * Sets up the configuration to share the kernel workers of the provided ring, rather than creating new
+             * ones: with submission queue polling, a single kernel thread then polls the submission queues of all the
+             * rings sharing it (instead of one per ring, each busy on its own core), and the operations the kernel
+             * cannot complete inline go to the async worker pool of that thread. Without submission queue polling,
+             * this shares the async worker pool of {@code ring} (on kernels before 5.12; later kernels give each
+             * thread submitting to rings a pool, whatever the rings).
+             * <p>
+             * {@code ring} is only used when creating rings with this configuration, and can be closed afterwards
+             * without affecting them. If this configuration uses submission queue polling, {@code ring} must too.
+             *
+             * @param ring the ring whose workers to share, or {@code null} to not share any (the default).
+             * @return this builder.
+             */
+            public Builder withSharedWorkers(IORing ring) {
+                this.sharedWorkers = ring;
+                return this;
+            }
+
             private void validate() {
                 if (useIOPolling && !directIO) {
                     throw new IllegalArgumentException("I/O polling can only be used with direct I/O");
                 }
+                if (useIOPolling && waitStrategy.blocks()) {
+                    // Blocking relies on a read on an eventfd to be woken up, which I/O polling rings do not support.
+                    throw new IllegalArgumentException("I/O polling cannot be used with a blocking wait strategy");
+                }
+                if ((sqThreadCpu >= 0 || sqThreadIdleMillis > 0) && !useSQPolling) {
+                    throw new IllegalArgumentException("SQ thread settings can only be used with SQ polling");
+                }
+                if (sharedWorkers != null && useSQPolling && !sharedWorkers.config.useSQPolling) {
+                    // The kernel has no polling thread to attach to in that case.
+                    throw new IllegalArgumentException("The ring whose workers are shared must use SQ polling too");
+                }
             }
 
             /**
@@ -374,7 +888,17 @@ public abstract class IORing implements AutoCloseable {
              */
             public Config build() {
                 validate();
-                return new Config(depth, directIO, useSQPolling, useIOPolling);
+                return new Config(
+                        depth,
+                        directIO,
+                        useSQPolling,
+                        useIOPolling,
+                        registeredFiles,
+                        waitStrategy,
+                        sqThreadCpu,
+                        sqThreadIdleMillis,
+                        sharedWorkers
+                );
             }
         }
     }
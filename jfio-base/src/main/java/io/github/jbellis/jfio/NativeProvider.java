@@ -6,6 +6,17 @@ import java.nio.ByteBuffer;
  * Provide accesses to some native operations.
  */
 public abstract class NativeProvider {
+    /**
+     * The system property selecting the native provider: {@code liburing} for the provider using the jfio native
+     * library (and liburing), {@code syscall} for the one driving io_uring directly through system calls, which
+     * requires no native library, or {@code auto} (the default) to use the former if it can be loaded, and the latter
+     * otherwise.
+     */
+    public static final String PROVIDER_PROPERTY = "jfio.nativeProvider";
+
+    private static final String LIBURING_PROVIDER = "io.github.jbellis.jfio.PanamaNativeProvider";
+    private static final String SYSCALL_PROVIDER = "io.github.jbellis.jfio.SyscallNativeProvider";
+
     /**
      * Creates a new native provider.
      */
@@ -44,17 +55,42 @@ public abstract class NativeProvider {
 
     static NativeProvider lookup() {
         final int runtimeVersion = Runtime.version().feature();
-        if (runtimeVersion >= 20) {
-            try {
-                return (NativeProvider) Class.forName("io.github.jbellis.jfio.PanamaNativeProvider").getConstructor().newInstance();
-            } catch (Throwable t) {
-                return new UnavailableNativeLibraryProvider("Unexpected error loading native jfio library", t);
+        if (runtimeVersion < 20) {
+            return new UnavailableNativeLibraryProvider(
+                    String.format("Native jfio library is only available on java 20+ (running %d)", runtimeVersion),
+                    null
+            );
+        }
+
+        String provider = System.getProperty(PROVIDER_PROPERTY, "auto");
+        switch (provider) {
+            case "liburing":
+                return load(LIBURING_PROVIDER, null);
+            case "syscall":
+                return load(SYSCALL_PROVIDER, null);
+            case "auto":
+                // The library-less provider is the fallback if the jfio native library (or liburing) is not available.
+                NativeProvider loaded = load(LIBURING_PROVIDER, null);
+                return loaded instanceof UnavailableNativeLibraryProvider
+                        ? load(SYSCALL_PROVIDER, ((UnavailableNativeLibraryProvider) loaded).cause)
+                        : loaded;
+            default:
+                return new UnavailableNativeLibraryProvider(
+                        String.format("Invalid value '%s' for %s, must be one of 'auto', 'liburing' or 'syscall'", provider, PROVIDER_PROPERTY),
+                        null
+                );
+        }
+    }
+
+    private static NativeProvider load(String className, Throwable previousFailure) {
+        try {
+            return (NativeProvider) Class.forName(className).getConstructor().newInstance();
+        } catch (Throwable t) {
+            if (previousFailure != null) {
+                t.addSuppressed(previousFailure);
             }
+            return new UnavailableNativeLibraryProvider("Unexpected error loading native jfio library", t);
         }
-        return new UnavailableNativeLibraryProvider(
-                String.format("Native jfio library is only available on java 20+ (running %d)", runtimeVersion),
-                null
-        );
     }
 
     private static final class Holder {
@@ -0,0 +1,58 @@
+package io.github.jbellis.jfio;
+
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Translates {@link OpenOption} to the {@code JFIO_OPEN_*} flags understood by the native library.
+ */
+final class OpenFlags {
+    static final int READ = 1;
+    static final int WRITE = 1 << 1;
+    static final int APPEND = 1 << 2;
+    static final int CREATE = 1 << 3;
+    static final int EXCL = 1 << 4;
+    static final int TRUNCATE = 1 << 5;
+    static final int DIRECT = 1 << 6;
+
+    private OpenFlags() {}
+
+    /**
+     * Computes the native flags corresponding to the provided options.
+     *
+     * @param options the options to translate. If empty, the file is opened for reading only.
+     * @param direct whether the file should be opened for direct I/O.
+     * @return the native flags corresponding to {@code options}.
+     * @throws UnsupportedOperationException if an unsupported option is provided.
+     */
+    static int of(OpenOption[] options, boolean direct) {
+        int flags = direct ? DIRECT : 0;
+        boolean hasWrite = false;
+        for (OpenOption option : options) {
+            if (option == StandardOpenOption.READ) {
+                flags |= READ;
+            } else if (option == StandardOpenOption.WRITE) {
+                hasWrite = true;
+            } else if (option == StandardOpenOption.APPEND) {
+                hasWrite = true;
+                flags |= APPEND;
+            } else if (option == StandardOpenOption.CREATE) {
+                flags |= CREATE;
+            } else if (option == StandardOpenOption.CREATE_NEW) {
+                flags |= CREATE | EXCL;
+            } else if (option == StandardOpenOption.TRUNCATE_EXISTING) {
+                flags |= TRUNCATE;
+            } else {
+                throw new UnsupportedOperationException("Unsupported open option: " + option);
+            }
+        }
+
+        if (hasWrite) {
+            flags |= WRITE;
+        } else {
+            // Like for FileChannel, options that only make sense for writing are ignored when only reading.
+            flags = (flags & DIRECT) | READ;
+        }
+        return flags;
+    }
+}
@@ -0,0 +1,24 @@
+package io.github.jbellis.jfio;
+
+/**
+ * Receives the completions of the operations added to an {@link IORing} through
+ * {@link IORing#add(Submission.Operation, int, long, int, long, long, RawCompletionHandler)}.
+ * <p>
+ * Contrarily to {@link Submission}, a handler is not tied to a single operation: operations are identified by the
+ * tag they were added with, so a single handler can be reused for any number of them, which makes that submission
+ * path allocation-free.
+ */
+@FunctionalInterface
+public interface RawCompletionHandler {
+    /**
+     * Called when an operation has been completed.
+     * <p>
+     * This is called by the thread using the ring, from {@link IORing#submitAndCheckCompletions} (or
+     * {@link IORing#submitAndWaitCompletions}).
+     *
+     * @param tag the tag the operation was added with.
+     * @param res the result of the operation, so either the number of bytes read/written on success, or the negated
+     *            {@code errno}.
+     */
+    void onCompletion(long tag, int res);
+}
@@ -0,0 +1,142 @@
+package io.github.jbellis.jfio;
+
+import net.jcip.annotations.ThreadSafe;
+import org.jctools.queues.MessagePassingQueue;
+import org.jctools.queues.MpmcArrayQueue;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A fixed set of equally sized, aligned, direct buffers that can be registered with one or more {@link IORing}
+ * (see {@link IORing#registerBuffers}).
+ * <p>
+ * Reads and writes whose buffer lies within one of the registered buffers are submitted as "fixed" operations
+ * ({@code IORING_OP_READ_FIXED}/{@code IORING_OP_WRITE_FIXED}), which saves the kernel from having to pin and map
+ * the buffer pages on every operation.
+ * <p>
+ * All the buffers are slices of a single contiguous memory region, and each is aligned on 512 bytes (assuming the
+ * buffer size is itself a multiple of 512), so they are suitable for direct I/O. Buffers can be accessed by index
+ * through {@link #buffer}, or be borrowed through {@link #acquire} and {@link #release}.
+ */
+@ThreadSafe
+public final class RegisteredBuffers {
+    private final int count;
+    private final int bufferSize;
+    private final ByteBuffer region;
+    private final long baseAddress;
+
+    private final MessagePassingQueue<ByteBuffer> available;
+
+    private RegisteredBuffers(int count, int bufferSize) {
+        this.count = count;
+        this.bufferSize = bufferSize;
+        this.region = NativeProvider.instance().allocateAligned(Math.multiplyExact(count, bufferSize));
+        this.baseAddress = NativeProvider.instance().address(region);
+        this.available = new MpmcArrayQueue<>(Math.max(2, count));
+        for (int i = 0; i < count; i++) {
+            available.offer(buffer(i));
+        }
+    }
+
+    /**
+     * Allocates a new set of buffers.
+     * <p>
+     * Note that the allocated memory needs to be pinned by the kernel upon registration, and so is subject to the
+     * {@code RLIMIT_MEMLOCK} resource limit.
+     *
+     * @param count the number of buffers to allocate.
+     * @param bufferSize the size of each buffer.
+     * @return the allocated buffers.
+     */
+    public static RegisteredBuffers allocate(int count, int bufferSize) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("The number of buffers must be positive");
+        }
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("The buffer size must be positive");
+        }
+        return new RegisteredBuffers(count, bufferSize);
+    }
+
+    /**
+     * The number of buffers.
+     *
+     * @return the number of buffers.
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * The size of each buffer.
+     *
+     * @return the size of each buffer.
+     */
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Returns the buffer at the provided index.
+     * <p>
+     * Each call returns a new {@link ByteBuffer} object (with position 0 and limit {@link #bufferSize}), but the
+     * underlying memory is the same for a given index.
+     *
+     * @param index the index of the buffer.
+     * @return the buffer at {@code index}.
+     */
+    public ByteBuffer buffer(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Invalid buffer index: " + index);
+        }
+        return region.duplicate().position(index * bufferSize).limit((index + 1) * bufferSize).slice();
+    }
+
+    /**
+     * Borrows one of the buffers, if any is available.
+     * <p>
+     * The returned buffer should be returned through {@link #release} once it is not used anymore.
+     *
+     * @return a buffer with position 0 and limit {@link #bufferSize}, or {@code null} if all the buffers are
+     * currently borrowed.
+     */
+    public ByteBuffer acquire() {
+        return available.poll();
+    }
+
+    /**
+     * Returns a buffer previously obtained through {@link #acquire}.
+     *
+     * @param buffer the buffer to release. It must not be used after this call.
+     * @throws IllegalArgumentException if {@code buffer} is not one of those buffers.
+     */
+    public void release(ByteBuffer buffer) {
+        if (indexOf(NativeProvider.instance().address(buffer.clear()), 0) < 0) {
+            throw new IllegalArgumentException("The buffer is not one of the registered buffers");
+        }
+        available.offer(buffer);
+    }
+
+    /** The memory region containing all the buffers. */
+    ByteBuffer region() {
+        return region;
+    }
+
+    /**
+     * The index of the buffer containing the provided memory range.
+     *
+     * @param address the start address of the memory range.
+     * @param length the length of the memory range.
+     * @return the index of the buffer fully containing {@code [address, address + length)}, or -1 if the range is not
+     * fully contained within one of the buffers.
+     */
+    int indexOf(long address, int length) {
+        long relative = address - baseAddress;
+        if (relative < 0 || relative >= (long) count * bufferSize) {
+            return -1;
+        }
+        int index = (int) (relative / bufferSize);
+        long end = relative + length;
+        return end <= (long) (index + 1) * bufferSize ? index : -1;
+    }
+}
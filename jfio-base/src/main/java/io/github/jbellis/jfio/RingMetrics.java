@@ -0,0 +1,144 @@
+package io.github.jbellis.jfio;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of an {@link IORing}.
+ * <p>
+ * Those are updated by the thread using the ring, without allocating, and can be read from any thread (values read
+ * from another thread may be very slightly stale).
+ * <p>
+ * Latencies are measured from the creation of a {@link Submission} (or the moment an operation is added, for
+ * operations added without one) to the moment its completion is reaped (just before {@link Submission#onCompletion}
+ * is called), in nanoseconds. When the ring is used through an
+ * {@code IOExecutor}, this includes the time spent queued in the executor.
+ */
+@ThreadSafe
+public final class RingMetrics {
+    private final AtomicLong submitCalls = new AtomicLong();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+
+    private final AtomicLong inFlight = new AtomicLong();
+    private final AtomicLong pending = new AtomicLong();
+
+    private final Histogram submissionsPerCall = new Histogram();
+    private final Histogram completionsPerReap = new Histogram();
+    private final Histogram[] latencies = new Histogram[Submission.Operation.values().length];
+
+    RingMetrics() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new Histogram();
+        }
+    }
+
+    /** Records the outcome of a single submit (and check or wait for completions) call. */
+    void onSubmitCall(int submitted, int completed, int inFlight, int pending) {
+        this.submitCalls.lazySet(this.submitCalls.get() + 1);
+        if (submitted > 0) {
+            this.submitted.lazySet(this.submitted.get() + submitted);
+            this.submissionsPerCall.record(submitted);
+        }
+        if (completed > 0) {
+            this.completed.lazySet(this.completed.get() + completed);
+            this.completionsPerReap.record(completed);
+        }
+        this.inFlight.lazySet(inFlight);
+        this.pending.lazySet(pending);
+    }
+
+    /** Records a new submission being added to the ring. */
+    void onAdded(int pending) {
+        this.pending.lazySet(pending);
+    }
+
+    /** Records the completion of an operation created at {@code createdNanos} and reaped at {@code nowNanos}. */
+    void onCompleted(Submission.Operation operation, long createdNanos, long nowNanos) {
+        latencies[operation.ordinal()].record(nowNanos - createdNanos);
+    }
+
+    /**
+     * The number of calls to submit pending submissions and check (or wait) for completions, whether they submitted
+     * or completed anything or not.
+     *
+     * @return the number of submit calls.
+     */
+    public long submitCalls() {
+        return submitCalls.get();
+    }
+
+    /**
+     * The total number of submissions submitted to the kernel.
+     *
+     * @return the number of submissions submitted.
+     */
+    public long submitted() {
+        return submitted.get();
+    }
+
+    /**
+     * The total number of completions reaped.
+     *
+     * @return the number of completions.
+     */
+    public long completed() {
+        return completed.get();
+    }
+
+    /**
+     * The number of submissions currently in flight (see {@link IORing#inFlight}).
+     *
+     * @return the number of in-flight submissions.
+     */
+    public int inFlight() {
+        return (int) inFlight.get();
+    }
+
+    /**
+     * The number of submissions added but not yet submitted (see {@link IORing#pendingSubmissions}).
+     *
+     * @return the number of pending submissions.
+     */
+    public int pending() {
+        return (int) pending.get();
+    }
+
+    /**
+     * The distribution of the number of submissions submitted by the submit calls that submitted something.
+     *
+     * @return a snapshot of the submissions per submit call.
+     */
+    public Histogram.Snapshot submissionsPerCall() {
+        return submissionsPerCall.snapshot();
+    }
+
+    /**
+     * The distribution of the number of completions reaped by the submit calls that reaped something.
+     *
+     * @return a snapshot of the completions per reap.
+     */
+    public Histogram.Snapshot completionsPerReap() {
+        return completionsPerReap.snapshot();
+    }
+
+    /**
+     * The distribution of the latency, in nanoseconds, of the submissions of the provided operation.
+     *
+     * @param operation the operation.
+     * @return a snapshot of the latencies of {@code operation}.
+     */
+    public Histogram.Snapshot latency(Submission.Operation operation) {
+        return latencies[operation.ordinal()].snapshot();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "{submitCalls=%d, submitted=%d, completed=%d, inFlight=%d, pending=%d, readLatency=%s, writeLatency=%s}",
+                submitCalls(), submitted(), completed(), inFlight(), pending(),
+                latency(Submission.Operation.READ), latency(Submission.Operation.WRITE)
+        );
+    }
+}
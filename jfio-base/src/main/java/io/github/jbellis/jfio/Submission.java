@@ -1,19 +1,69 @@
 package io.github.jbellis.jfio;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 /**
- * A read operation to be submitted to an {@link IORing}.
+ * An operation (typically a read or a write) to be submitted to an {@link IORing}.
  */
 public abstract class Submission {
-    private final int fd;
-    private final int length;
-    private final ByteBuffer buffer;
-    private final long offset;
+    /** The size of a {@code struct statx}, and so of the buffer of {@link Operation#STATX} submissions. */
+    private static final int STATX_STRUCT_SIZE = 256;
+    /** The offset of the {@code stx_size} field in {@code struct statx}. */
+    private static final int STATX_SIZE_OFFSET = 40;
+    /** The size of a {@code struct iovec}. */
+    private static final int IOVEC_SIZE = 16;
+    /** The {@code POSIX_FADV_WILLNEED} advice, the one of {@link Operation#FADVISE} submissions. */
+    private static final int POSIX_FADV_WILLNEED = 3;
+    /** The maximum number of buffers of a vectored operation (IOV_MAX). */
+    public static final int MAX_VECTORED_BUFFERS = 1024;
+    /**
+     * The ECANCELED errno: submissions cancelled (see {@link IORing#cancel}) or timed out (see {@link #setTimeout})
+     * complete with its negation.
+     */
+    public static final int ECANCELED_ERRNO = 125;
+    private static final int ENOENT_ERRNO = 2;
+    private static final int EIO_ERRNO = 5;
+    private static final int EACCES_ERRNO = 13;
+    private static final int EEXIST_ERRNO = 17;
 
+    // Not final, so that submissions can be recycled (see `reset`).
+    private Operation operation;
+    private int fd;
+    private int length;
+    private ByteBuffer buffer;
+    private ByteBuffer[] buffers;
+    private long offset;
     /**
-     * Creates a new submission.
+     * Operation specific flags: the {@link OpenFlags} of {@link Operation#OPEN} submissions, and the advice of
+     * {@link Operation#FADVISE} ones.
+     */
+    private int flags;
+    /** When this submission was created (or reset), to measure latencies (see {@link RingMetrics}). */
+    private long createdNanos = System.nanoTime();
+    /** The maximum time this submission can stay in flight, or 0 if unbounded (see {@link #setTimeout}). */
+    private long timeoutNanos;
+    /** The I/O priority of this submission, or 0 for the default one (see {@link #setIOPriority}). */
+    private int ioPriority;
+    /** Whether this submission was cancelled (see {@link IORing#cancel}). */
+    private volatile boolean cancelled;
+    /**
+     * The id of this submission in the ring it was added to while pending or in flight, or -1 (see
+     * {@link Submissions#cancel}).
+     */
+    private int id = -1;
+
+    /**
+     * Creates a new read submission.
      *
      * @param fd the file descriptor of the file to read from.
      * @param length the number of bytes to read.
@@ -21,6 +71,55 @@ public abstract class Submission {
      * @param offset the offset in the file at which to read.
      */
     protected Submission(int fd, int length, ByteBuffer buffer, long offset) {
+        this(Operation.READ, fd, length, buffer, offset);
+    }
+
+    /**
+     * Creates a new submission.
+     *
+     * @param operation the operation this is a submission for.
+     * @param fd the file descriptor of the file to read from or write to.
+     * @param length the number of bytes to read or write.
+     * @param buffer the buffer to read into or to write from (starting at its current position). This <b>must</b> be
+     *               a direct buffer.
+     * @param offset the offset in the file at which to read or write.
+     * @throws IllegalArgumentException if {@code operation} is neither {@link Operation#READ} nor
+     * {@link Operation#WRITE} (the other operations have dedicated constructors).
+     */
+    protected Submission(Operation operation, int fd, int length, ByteBuffer buffer, long offset) {
+        init(operation, fd, length, buffer, offset);
+    }
+
+    /**
+     * Re-initializes this submission for a new read or write, with the same arguments as
+     * {@link #Submission(Operation, int, int, ByteBuffer, long)}, so that submission objects can be recycled instead
+     * of being allocated for every operation.
+     * <p>
+     * This must only be called when this submission is neither pending nor in flight, typically from (or after) its
+     * {@link #onCompletion} method.
+     *
+     * @param operation the operation this is a submission for.
+     * @param fd the file descriptor of the file to read from or write to.
+     * @param length the number of bytes to read or write.
+     * @param buffer the buffer to read into or to write from (starting at its current position). This <b>must</b> be
+     *               a direct buffer.
+     * @param offset the offset in the file at which to read or write.
+     * @throws IllegalArgumentException if {@code operation} is neither {@link Operation#READ} nor
+     * {@link Operation#WRITE}.
+     */
+    protected final void reset(Operation operation, int fd, int length, ByteBuffer buffer, long offset) {
+        init(operation, fd, length, buffer, offset);
+        this.createdNanos = System.nanoTime();
+        this.timeoutNanos = 0;
+        this.ioPriority = 0;
+        this.cancelled = false;
+    }
+
+    private void init(Operation operation, int fd, int length, ByteBuffer buffer, long offset) {
+        Objects.requireNonNull(operation, "The operation must not be null");
+        if (operation != Operation.READ && operation != Operation.WRITE) {
+            throw new IllegalArgumentException("Submissions for " + operation + " must use the dedicated constructor");
+        }
         Objects.requireNonNull(buffer, "The buffer must not be null");
         if (!buffer.isDirect()) {
             throw new IllegalArgumentException("Only direct buffers are supported");
@@ -35,14 +134,209 @@ public abstract class Submission {
             throw new IllegalArgumentException("Invalid offset, must be >= 0");
         }
 
+        this.operation = operation;
         this.fd = fd;
         this.length = length;
         this.buffer = buffer;
+        this.buffers = null;
         this.offset = offset;
+        this.flags = 0;
     }
 
     /**
-     * The file descriptor of the file to read from.
+     * Creates a new vectored read (scattering the data read into the provided buffers, in order) or write (gathering
+     * the data to write from the provided buffers, in order) submission.
+     *
+     * @param operation the operation this is a submission for, {@link Operation#READV} or {@link Operation#WRITEV}.
+     * @param fd the file descriptor of the file to read from or write to.
+     * @param buffers the buffers to read into or to write from (each between its position and its limit). Those
+     *                <b>must</b> be direct buffers.
+     * @param offset the offset in the file at which to read or write.
+     * @throws IllegalArgumentException if {@code operation} is not {@link Operation#READV} nor
+     * {@link Operation#WRITEV}, or if there is no buffers or more than {@link #MAX_VECTORED_BUFFERS}.
+     */
+    protected Submission(Operation operation, int fd, ByteBuffer[] buffers, long offset) {
+        Objects.requireNonNull(operation, "The operation must not be null");
+        if (operation != Operation.READV && operation != Operation.WRITEV) {
+            throw new IllegalArgumentException("Invalid operation " + operation + ", must be READV or WRITEV");
+        }
+        if (buffers.length == 0 || buffers.length > MAX_VECTORED_BUFFERS) {
+            throw new IllegalArgumentException("Invalid number of buffers, must be in [1, " + MAX_VECTORED_BUFFERS + "]");
+        }
+        if (fd < 0) {
+            throw new IllegalArgumentException("Invalid file descriptor, must be >= 0");
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid offset, must be >= 0");
+        }
+
+        // The array of `struct iovec` passed to the kernel.
+        ByteBuffer iovecs = ByteBuffer.allocateDirect(buffers.length * IOVEC_SIZE).order(ByteOrder.nativeOrder());
+        for (ByteBuffer buffer : buffers) {
+            Objects.requireNonNull(buffer, "The buffers must not be null");
+            if (!buffer.isDirect()) {
+                throw new IllegalArgumentException("Only direct buffers are supported");
+            }
+            iovecs.putLong(NativeProvider.instance().address(buffer));
+            iovecs.putLong(buffer.remaining());
+        }
+        iovecs.flip();
+
+        this.operation = operation;
+        this.fd = fd;
+        this.length = buffers.length;
+        this.buffer = iovecs;
+        this.buffers = buffers;
+        this.offset = offset;
+        this.flags = 0;
+    }
+
+    /**
+     * Creates a new submission opening a file, whose result (see {@link #onCompletion}) is the file descriptor of the
+     * opened file.
+     *
+     * @param path the file to open.
+     * @param directIO whether to open the file for direct I/O.
+     * @param options options specifying how the file is opened (see {@link IORing#openFile(Path, OpenOption...)}).
+     * @throws UnsupportedOperationException if an unsupported option is specified.
+     */
+    protected Submission(Path path, boolean directIO, OpenOption... options) {
+        byte[] bytes = path.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8);
+        // The path is passed to the kernel as a C string.
+        ByteBuffer pathBuffer = ByteBuffer.allocateDirect(bytes.length + 1);
+        pathBuffer.put(bytes).put((byte) 0).flip();
+
+        this.operation = Operation.OPEN;
+        this.fd = -1;
+        this.length = bytes.length;
+        this.buffer = pathBuffer;
+        this.offset = 0;
+        this.flags = OpenFlags.of(options, directIO);
+    }
+
+    /**
+     * Creates a new submission for an operation that only takes a file descriptor, that is {@link Operation#CLOSE}
+     * or {@link Operation#STATX}.
+     *
+     * @param operation the operation this is a submission for.
+     * @param fd the file descriptor of the file to close or to get the status of.
+     * @throws IllegalArgumentException if {@code operation} is not {@link Operation#CLOSE} nor
+     * {@link Operation#STATX}.
+     */
+    protected Submission(Operation operation, int fd) {
+        Objects.requireNonNull(operation, "The operation must not be null");
+        if (operation != Operation.CLOSE && operation != Operation.STATX) {
+            throw new IllegalArgumentException("Invalid operation " + operation + ", must be CLOSE or STATX");
+        }
+        if (fd < 0) {
+            throw new IllegalArgumentException("Invalid file descriptor, must be >= 0");
+        }
+
+        this.operation = operation;
+        this.fd = fd;
+        if (operation == Operation.STATX) {
+            this.buffer = ByteBuffer.allocateDirect(STATX_STRUCT_SIZE);
+            this.length = STATX_STRUCT_SIZE;
+        } else {
+            this.buffer = null;
+            this.length = 0;
+        }
+        this.offset = 0;
+        this.flags = 0;
+    }
+
+    /**
+     * Creates a new submission advising the kernel that a range of a file will be needed soon
+     * ({@link Operation#FADVISE}), so that it starts reading it into the page cache.
+     *
+     * @param operation the operation this is a submission for, which must be {@link Operation#FADVISE}.
+     * @param fd the file descriptor of the file.
+     * @param offset the offset of the range in the file.
+     * @param length the length of the range, in bytes.
+     * @throws IllegalArgumentException if {@code operation} is not {@link Operation#FADVISE}.
+     */
+    protected Submission(Operation operation, int fd, long offset, int length) {
+        Objects.requireNonNull(operation, "The operation must not be null");
+        if (operation != Operation.FADVISE) {
+            throw new IllegalArgumentException("Invalid operation " + operation + ", must be FADVISE");
+        }
+        if (fd < 0) {
+            throw new IllegalArgumentException("Invalid file descriptor, must be >= 0");
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid offset, must be >= 0");
+        }
+        if (length < 0) {
+            throw new IllegalArgumentException("Invalid length, must be >= 0");
+        }
+
+        this.operation = operation;
+        this.fd = fd;
+        this.buffer = null;
+        this.length = length;
+        this.offset = offset;
+        this.flags = POSIX_FADV_WILLNEED;
+    }
+
+    /**
+     * The size of the file, as retrieved by a completed {@link Operation#STATX} submission.
+     *
+     * @param statx the buffer of the {@link Operation#STATX} submission.
+     * @return the size, in bytes, of the file.
+     */
+    public static long statxFileSize(ByteBuffer statx) {
+        return statx.duplicate().order(ByteOrder.nativeOrder()).getLong(STATX_SIZE_OFFSET);
+    }
+
+    /**
+     * The exception corresponding to the failure to open a file, by a {@link Operation#OPEN} submission or by
+     * {@link IORing#openFile}.
+     *
+     * @param path the file that could not be opened.
+     * @param errno the error the open failed with (the negation of the result of the submission).
+     * @return the exception to fail the open with: a {@link NoSuchFileException}, {@link AccessDeniedException} or
+     * {@link FileAlreadyExistsException} for the corresponding errors, and an {@link IOException} for any other.
+     */
+    public static IOException openError(Path path, int errno) {
+        switch (errno) {
+            case ENOENT_ERRNO:
+                return new NoSuchFileException(path.toString());
+            case EACCES_ERRNO:
+                return new AccessDeniedException(path.toString());
+            case EEXIST_ERRNO:
+                return new FileAlreadyExistsException(path.toString());
+            case EIO_ERRNO:
+                return new IOException("Error opening file " + path + ": I/O error");
+            default:
+                return new IOException("Unexpected error opening file " + path + " (errno: " + errno + ")");
+        }
+    }
+
+    /**
+     * The exception corresponding to the failure to close a file, by a {@link Operation#CLOSE} submission or by
+     * {@link IORing#closeFile}.
+     *
+     * @param errno the error the close failed with (the negation of the result of the submission).
+     * @return the exception to fail the close with.
+     */
+    public static IOException closeError(int errno) {
+        if (errno == EIO_ERRNO) {
+            return new IOException("Error closing file: I/O error");
+        }
+        return new IOException("Unexpected error closing file (errno: " + errno + ")");
+    }
+
+    /**
+     * The operation this is a submission for.
+     *
+     * @return the operation of this submission.
+     */
+    public Operation operation() {
+        return operation;
+    }
+
+    /**
+     * The file descriptor of the file to read from or write to.
      *
      * @return the file descriptor of this submission.
      */
@@ -51,32 +345,122 @@ public abstract class Submission {
     }
 
     /**
-     * The number of bytes to read.
+     * The number of bytes to read or write (or, for vectored operations, the number of buffers).
      *
-     * @return the length this submission reads.
+     * @return the length this submission reads or writes.
      */
     public int length() {
         return length;
     }
 
     /**
-     * The buffer to read data into.
+     * The buffer to read data into, or to write data from (or, for other operations, the path of the file to open,
+     * as a C string, the {@code struct statx} to fill, or the {@code struct iovec} array of vectored operations).
      *
-     * @return the buffer to which the read data will be transferred.
+     * @return the buffer to which the read data will be transferred, or from which written data is taken, or
+     * {@code null} for {@link Operation#CLOSE} submissions.
      */
     public ByteBuffer buffer() {
         return buffer;
     }
 
     /**
-     * The offset in the file at which to read.
+     * The buffers to read data into, or to write data from, of vectored operations ({@link Operation#READV} and
+     * {@link Operation#WRITEV}).
+     *
+     * @return the buffers of this submission, or {@code null} if it is not a vectored operation.
+     */
+    public ByteBuffer[] buffers() {
+        return buffers;
+    }
+
+    /**
+     * The offset in the file at which to read or write.
      *
-     * @return the file offset for this submission read.
+     * @return the file offset for this submission.
      */
     public long offset() {
         return offset;
     }
 
+    int flags() {
+        return flags;
+    }
+
+    /**
+     * Bounds the time this submission can stay in flight: if it has not completed once {@code timeout} has elapsed
+     * after it was submitted, the kernel cancels it (through a linked {@code IORING_OP_LINK_TIMEOUT}), and it
+     * completes with {@code -ECANCELED} (-125).
+     * <p>
+     * This must be called before the submission is added to a ring. Note that a submission with a timeout takes 2
+     * of the ring {@link IORing#submissionSlotsAvailable() submission slots}, and that the cancellation is best
+     * effort: an operation the kernel is already executing may not be interruptible, in which case it completes
+     * normally.
+     *
+     * @param timeout the maximum time this submission can stay in flight, or 0 for no timeout.
+     * @param unit the unit of {@code timeout}.
+     */
+    public final void setTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Invalid timeout, must be >= 0");
+        }
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * The maximum time this submission can stay in flight (see {@link #setTimeout}).
+     *
+     * @return the timeout of this submission in nanoseconds, or 0 if it has none.
+     */
+    public final long timeoutNanos() {
+        return timeoutNanos;
+    }
+
+    /**
+     * Sets the I/O priority of this submission, passed to the kernel in the {@code ioprio} field of its submission
+     * queue entry, with the same encoding as for {@code ioprio_set} ({@code (class << 13) | level}).
+     * <p>
+     * This only applies to reads and writes (it is ignored for the other operations), must be called before the
+     * submission is added to a ring, and is only honored by some I/O schedulers (typically for direct I/O).
+     *
+     * @param ioPriority the I/O priority, or 0 for the default one (that of the submitting process).
+     */
+    public final void setIOPriority(int ioPriority) {
+        if (ioPriority < 0 || ioPriority > 0xffff) {
+            throw new IllegalArgumentException("Invalid I/O priority " + ioPriority);
+        }
+        this.ioPriority = ioPriority;
+    }
+
+    /**
+     * The I/O priority of this submission (see {@link #setIOPriority}).
+     *
+     * @return the I/O priority of this submission, or 0 for the default one.
+     */
+    public final int ioPriority() {
+        return ioPriority;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    void markCancelled() {
+        this.cancelled = true;
+    }
+
+    long createdNanos() {
+        return createdNanos;
+    }
+
+    int id() {
+        return id;
+    }
+
+    void setId(int id) {
+        this.id = id;
+    }
+
     /**
      * Called when the submission has been completed.
      *
@@ -87,7 +471,43 @@ public abstract class Submission {
 
     @Override
     public String toString() {
-        long address = NativeProvider.instance().address(buffer);
-        return String.format("{fd=%d, length=%d, address=0x%x, offset=%d}", fd, length,  address, offset);
+        long address = buffer == null ? 0 : NativeProvider.instance().address(buffer);
+        return String.format("{op=%s, fd=%d, length=%d, address=0x%x, offset=%d}", operation, fd, length,  address, offset);
+    }
+
+    /**
+     * The operations that can be submitted.
+     */
+    public enum Operation {
+        /** Reads from the file into the submission buffer. */
+        READ(0),
+        /** Writes the submission buffer to the file. */
+        WRITE(1),
+        /** Opens a file, whose path is in the submission buffer. */
+        OPEN(2),
+        /** Closes the file. */
+        CLOSE(3),
+        /** Retrieves the status of the file into the submission buffer (see {@link Submission#statxFileSize}). */
+        STATX(4),
+        /** Reads from the file into the submission buffers, in order. */
+        READV(5),
+        /** Writes the submission buffers, in order, to the file. */
+        WRITEV(6),
+        /** Advises the kernel that a range of the file will be needed soon (with {@code posix_fadvise}). */
+        FADVISE(7),
+        /**
+         * Cancels the previous operation if it does not complete in time. This is only added internally, for the
+         * submissions with a {@link Submission#setTimeout timeout}.
+         */
+        LINK_TIMEOUT(8),
+        /** Cancels an in-flight operation. This is only added internally, by {@link IORing#cancel}. */
+        CANCEL(9);
+
+        /** The corresponding {@code JFIO_OP_*} value of the native library. */
+        final int opcode;
+
+        Operation(int opcode) {
+            this.opcode = opcode;
+        }
     }
 }
@@ -1,34 +1,78 @@
 package io.github.jbellis.jfio;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 abstract class Submissions {
+    /** The size of a {@code struct __kernel_timespec}. */
+    private static final int TIMESPEC_SIZE = 16;
+    /** The handler of the operations added internally (timeouts and cancellations), whose results do not matter. */
+    private static final RawCompletionHandler INTERNAL_HANDLER = (tag, res) -> {};
+
     private final int maxInFlight;
     private int inFlight;
 
+    /*
+     * The operations that are either pending (in {@code segment}, or are "in flight" (submitted but whose completion
+     * has not yet been acknowledged), indexed by their "id". Those were either added as a Submission object (in
+     * `submissionOf`), or as raw primitives with a handler and tag (in `handlerOf` and `tagOf`).
+     */
+    private final Submission[] submissionOf;
+    private final RawCompletionHandler[] handlerOf;
+    private final long[] tagOf;
+    private final Submission.Operation[] operationOf;
+    private final long[] createdNanosOf;
+    /** The ids not currently used by a submission, as a stack (of {@code freeIdCount} ids). */
+    private final int[] freeIds;
+    private int freeIdCount;
     /**
-     * Submissions that are either pending (in {@code segment}, or are "in flight" (submitted but whose completion
-     * has not yet been acknowledged). The index of the submission in this list is its "id".
+     * The timeouts of the {@link Submission.Operation#LINK_TIMEOUT} operations, as a {@code struct __kernel_timespec}
+     * per id, which must stay valid until the operation is consumed by the kernel.
      */
-    private final Submission[] inFlightOrPending;
-    private int lastSubmittedIndex = -1;
+    private final ByteBuffer timespecs;
+    private long timespecsAddress;
 
     protected final int maxPending;
+    /**
+     * Pending submissions are stored in a circular region of {@code maxPending} slots: the first pending submission
+     * is at slot {@code pendingHead}, and the next ones follow (wrapping around). Submitting the first {@code n}
+     * pending submissions thus only moves the head, and the region can be consumed natively through its head and
+     * {@link #pending} count.
+     */
+    private int pendingHead;
     private int pending;
 
+    /** Buffers registered with the ring, if any; submissions using those are submitted as "fixed" operations. */
+    RegisteredBuffers registeredBuffers;
+
+    /** The registered file table of the ring, if any; submissions on registered files use the fixed file slot. */
+    FixedFiles fixedFiles;
+
     Submissions(int depth) {
         this.maxPending = depth;
         this.maxInFlight = depth * 2;
-        this.inFlightOrPending = new Submission[maxInFlight];
+        this.submissionOf = new Submission[maxInFlight];
+        this.handlerOf = new RawCompletionHandler[maxInFlight];
+        this.tagOf = new long[maxInFlight];
+        this.operationOf = new Submission.Operation[maxInFlight];
+        this.createdNanosOf = new long[maxInFlight];
+        this.freeIds = new int[maxInFlight];
+        // So that ids are initially handed out in increasing order.
+        for (int i = 0; i < maxInFlight; i++) {
+            freeIds[i] = maxInFlight - 1 - i;
+        }
+        this.freeIdCount = maxInFlight;
+        this.timespecs = ByteBuffer.allocateDirect(maxInFlight * TIMESPEC_SIZE).order(ByteOrder.nativeOrder());
     }
 
-    private int assignId(Submission submission) {
-        for (int i = 0; i < maxInFlight; i++) {
-            lastSubmittedIndex = (lastSubmittedIndex + 1) % maxInFlight;
-            if (inFlightOrPending[lastSubmittedIndex] == null) {
-                inFlightOrPending[lastSubmittedIndex] = submission;
-                return lastSubmittedIndex;
-            }
+    private int assignId(Submission.Operation operation, long createdNanos) {
+        if (freeIdCount == 0) {
+            throw new IllegalStateException("Couldn't acquire an ID");
         }
-        throw new IllegalStateException("Couldn't acquire an ID");
+        int id = freeIds[--freeIdCount];
+        operationOf[id] = operation;
+        createdNanosOf[id] = createdNanos;
+        return id;
     }
 
     int pending() {
@@ -43,17 +87,131 @@ abstract class Submissions {
         return maxInFlight;
     }
 
+    /** The slot, in the circular pending region, of the first pending submission. */
+    int pendingHead() {
+        return pendingHead;
+    }
+
+    /** The slot, in the circular pending region, of the {@code index}th pending submission. */
+    int slotOf(int index) {
+        int slot = pendingHead + index;
+        return slot >= maxPending ? slot - maxPending : slot;
+    }
+
     int room() {
-        return this.maxPending - this.pending;
+        // Each operation also takes an id, which the operations in flight may hold most of.
+        return Math.min(this.maxPending - this.pending, freeIdCount);
     }
 
     boolean add(Submission submission) {
-        if (this.pending == this.maxPending) {
+        if (submission.isCancelled()) {
+            // Cancelled before it even reached the ring.
+            submission.onCompletion(-Submission.ECANCELED_ERRNO);
+            return true;
+        }
+        long timeoutNanos = submission.timeoutNanos();
+        // A submission with a timeout is followed by its (linked) timeout, and both must be submitted together.
+        int slots = timeoutNanos > 0 ? 2 : 1;
+        if (this.pending + slots > this.maxPending || freeIdCount < slots) {
+            return false;
+        }
+
+        int id = assignId(submission.operation(), submission.createdNanos());
+        submissionOf[id] = submission;
+        submission.setId(id);
+        ByteBuffer buffer = submission.buffer();
+        long address = buffer == null ? 0 : NativeProvider.instance().address(buffer);
+        addSubmissionInternal(
+                this.pending++,
+                id,
+                submission.operation(),
+                submission.fd(),
+                address,
+                submission.length(),
+                submission.offset(),
+                submission.flags()
+        );
+        if (submission.ioPriority() != 0 && isReadOrWrite(submission.operation())) {
+            setIOPriority(this.pending - 1, submission.ioPriority());
+        }
+        if (timeoutNanos > 0) {
+            linkToNext(this.pending - 1);
+            addLinkTimeout(timeoutNanos);
+        }
+        return true;
+    }
+
+    private static boolean isReadOrWrite(Submission.Operation operation) {
+        switch (operation) {
+            case READ:
+            case WRITE:
+            case READV:
+            case WRITEV:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void addLinkTimeout(long timeoutNanos) {
+        int id = assignId(Submission.Operation.LINK_TIMEOUT, System.nanoTime());
+        handlerOf[id] = INTERNAL_HANDLER;
+        timespecs.putLong(id * TIMESPEC_SIZE, timeoutNanos / 1_000_000_000L);
+        timespecs.putLong(id * TIMESPEC_SIZE + 8, timeoutNanos % 1_000_000_000L);
+        if (timespecsAddress == 0) {
+            timespecsAddress = NativeProvider.instance().address(timespecs);
+        }
+        addSubmissionInternal(
+                this.pending++,
+                id,
+                Submission.Operation.LINK_TIMEOUT,
+                -1,
+                timespecsAddress + (long) id * TIMESPEC_SIZE,
+                0,
+                0,
+                0
+        );
+    }
+
+    /**
+     * Cancels the provided submission (see {@link IORing#cancel}).
+     *
+     * @return whether the cancellation was added, which it is only if the submission is pending or in flight, and
+     * if there is room for it.
+     */
+    boolean cancel(Submission submission) {
+        submission.markCancelled();
+        // The id may be the one of the submission in another ring, in which case it is not the one with that id here.
+        int target = submission.id();
+        boolean found = target >= 0 && target < maxInFlight && submissionOf[target] == submission;
+        if (!found || this.pending == this.maxPending || freeIdCount == 0) {
+            return false;
+        }
+
+        int id = assignId(Submission.Operation.CANCEL, System.nanoTime());
+        handlerOf[id] = INTERNAL_HANDLER;
+        // The cancelled operation is identified by its id, in the offset.
+        addSubmissionInternal(this.pending++, id, Submission.Operation.CANCEL, -1, 0, 0, target, 0);
+        return true;
+    }
+
+    boolean add(
+            Submission.Operation operation,
+            int fd,
+            long address,
+            int length,
+            long offset,
+            long tag,
+            RawCompletionHandler handler
+    ) {
+        if (this.pending == this.maxPending || freeIdCount == 0) {
             return false;
         }
 
-        int id = assignId(submission);
-        addSubmissionInternal(this.pending++, id, submission);
+        int id = assignId(operation, System.nanoTime());
+        handlerOf[id] = handler;
+        tagOf[id] = tag;
+        addSubmissionInternal(this.pending++, id, operation, fd, address, length, offset, 0);
         return true;
     }
 
@@ -63,27 +221,67 @@ abstract class Submissions {
         }
 
         inFlight += count;
-        if (count >= this.pending) {
-            this.pending = 0;
-        } else {
-            int remaining = this.pending - count;
-            for (int i = 0; i < remaining; i++) {
-                move(count + i, i);
-            }
-            this.pending = remaining;
-        }
+        // Whatever was not submitted stays where it is, and will simply be first in line for the next submit.
+        int submitted = Math.min(count, this.pending);
+        this.pendingHead = slotOf(submitted);
+        this.pending -= submitted;
     }
 
-    void onCompleted(int id, int res) {
+    void onCompleted(int id, int res, RingMetrics metrics, long nowNanos) {
         inFlight--;
-        Submission submission = inFlightOrPending[id];
-        assert submission != null;
-        submission.onCompletion(res);
-        inFlightOrPending[id] = null;
+        Submission submission = submissionOf[id];
+        RawCompletionHandler handler = handlerOf[id];
+        long tag = tagOf[id];
+        assert submission != null || handler != null;
+        metrics.onCompleted(operationOf[id], createdNanosOf[id], nowNanos);
+
+        // The id is free before the completion is delivered, so that it can be reused by operations added on
+        // completion.
+        submissionOf[id] = null;
+        handlerOf[id] = null;
+        if (submission != null) {
+            submission.setId(-1);
+        }
+        freeIds[freeIdCount++] = id;
+        if (submission != null) {
+            submission.onCompletion(res);
+        } else {
+            handler.onCompletion(tag, res);
+        }
     }
 
-    abstract void addSubmissionInternal(int index, int id, Submission submission);
-    abstract void move(int from, int to);
+    /**
+     * Stores the provided operation as the {@code index}th pending submission (see {@link #slotOf} for where it goes
+     * in the circular pending region).
+     * <p>
+     * {@code address} is the address of the buffer (or, for {@link Submission.Operation#OPEN}, of the path, and for
+     * {@link Submission.Operation#LINK_TIMEOUT}, of the timeout), or 0 if the operation has none, and {@code flags}
+     * are the operation specific flags (see {@link Submission#flags}). For {@link Submission.Operation#CANCEL},
+     * {@code offset} is the id of the operation to cancel.
+     */
+    abstract void addSubmissionInternal(
+            int index,
+            int id,
+            Submission.Operation operation,
+            int fd,
+            long address,
+            int length,
+            long offset,
+            int flags
+    );
+    /**
+     * Sets the I/O priority (see {@link Submission#setIOPriority}) of the {@code index}th pending submission, which is
+     * always a read or a write.
+     */
+    abstract void setIOPriority(int index, int ioPriority);
+
+    /**
+     * Links the {@code index}th pending submission to the next one (with {@code IOSQE_IO_LINK}), which is always its
+     * {@link Submission.Operation#LINK_TIMEOUT}.
+     */
+    abstract void linkToNext(int index);
+
+    /** The id of the {@code index}th pending submission. */
     abstract int idOfSubmission(int index);
 
     @Override
@@ -99,7 +297,12 @@ abstract class Submissions {
                 sb.append("\n");
             }
             int id = idOfSubmission(i);
-            sb.append("  ").append(id).append(": ").append(inFlightOrPending[id]);
+            sb.append("  ").append(id).append(": ");
+            if (submissionOf[id] != null) {
+                sb.append(submissionOf[id]);
+            } else {
+                sb.append(String.format("{op=%s, tag=%d}", operationOf[id], tagOf[id]));
+            }
         }
         sb.append("\n]");
         return sb.toString();
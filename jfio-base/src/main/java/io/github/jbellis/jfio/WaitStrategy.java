@@ -0,0 +1,83 @@
+package io.github.jbellis.jfio;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How a thread driving an {@link IORing} (typically an {@code IOExecutor} event loop) waits for work: either for
+ * new submissions or for the completion of in-flight ones.
+ * <p>
+ * Spinning gives the lowest latency, but uses a full core per ring even when there is nothing to do. Blocking (in
+ * the kernel, see {@link IORing#submitAndWaitCompletions}, or by parking the thread when idle) saves that CPU at the
+ * cost of some wake-up latency. Spinning for a while before blocking is a middle ground.
+ */
+public final class WaitStrategy {
+    private static final WaitStrategy SPIN = new WaitStrategy(Long.MAX_VALUE);
+    private static final WaitStrategy BLOCK = new WaitStrategy(0);
+
+    private final long spinNanos;
+
+    private WaitStrategy(long spinNanos) {
+        this.spinNanos = spinNanos;
+    }
+
+    /**
+     * A strategy that never blocks: completions are polled continuously while operations are in flight, and the
+     * thread only briefly pauses between checks for new work when idle.
+     *
+     * @return the spinning strategy.
+     */
+    public static WaitStrategy spin() {
+        return SPIN;
+    }
+
+    /**
+     * A strategy that blocks as soon as there is nothing immediately available: in the kernel while operations are
+     * in flight, by parking the thread when idle.
+     *
+     * @return the blocking strategy.
+     */
+    public static WaitStrategy block() {
+        return BLOCK;
+    }
+
+    /**
+     * A strategy that spins for some time after the last activity (submission or completion), and then blocks.
+     *
+     * @param spinTime how long to spin after the last activity before blocking.
+     * @param unit the unit of {@code spinTime}.
+     * @return the created strategy.
+     */
+    public static WaitStrategy spinThenBlock(long spinTime, TimeUnit unit) {
+        if (spinTime < 0) {
+            throw new IllegalArgumentException("The spin time cannot be negative");
+        }
+        long nanos = unit.toNanos(spinTime);
+        return nanos == 0 ? BLOCK : new WaitStrategy(nanos);
+    }
+
+    /**
+     * Whether this strategy ever blocks.
+     *
+     * @return {@code false} for {@link #spin}, {@code true} otherwise.
+     */
+    public boolean blocks() {
+        return spinNanos != Long.MAX_VALUE;
+    }
+
+    /**
+     * How long this strategy spins after the last activity before blocking.
+     *
+     * @return the spin time in nanoseconds, 0 for {@link #block} and {@link Long#MAX_VALUE} for {@link #spin}.
+     */
+    public long spinNanos() {
+        return spinNanos;
+    }
+
+    @Override
+    public String toString() {
+        if (!blocks()) {
+            return "spin";
+        }
+        return spinNanos == 0 ? "block" : String.format("spinThenBlock(%dns)", spinNanos);
+    }
+}
@@ -0,0 +1,49 @@
+package io.github.jbellis.jfio.executor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A vectored read or write, whose result is exposed as a future, shared by {@link FileReader} and {@link FileWriter}.
+ */
+class AsyncVectoredSubmission extends ExecutorSubmission {
+    final CompletableFuture<Integer> future = new CompletableFuture<>();
+
+    private final boolean isDirect;
+
+    AsyncVectoredSubmission(Operation operation, int fd, ByteBuffer[] buffers, long offset, boolean isDirect) {
+        super(operation, fd, buffers, offset);
+        this.isDirect = isDirect;
+    }
+
+    @Override
+    public void onCompletion(int res) {
+        if (res < 0) {
+            int errno = -res;
+            if (errno == 22 && isDirect) {
+                // 22 is EINVAL, and is typically returned when the buffers and/or offset are not correctly aligned.
+                try {
+                    DirectIO.checkAlignments(this);
+                } catch (IllegalArgumentException e) {
+                    future.completeExceptionally(e);
+                    return;
+                }
+            }
+            String name = operation() == Operation.READV ? "Read" : "Write";
+            future.completeExceptionally(new IOException(name + " returned error " + errno));
+        } else {
+            // The kernel fills (or drains) the buffers in order, so the first ones are fully used before the next.
+            int left = res;
+            for (ByteBuffer buffer : buffers()) {
+                int used = Math.min(left, buffer.remaining());
+                buffer.position(buffer.position() + used);
+                left -= used;
+                if (left == 0) {
+                    break;
+                }
+            }
+            future.complete(res);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package io.github.jbellis.jfio.executor;
+
+import net.jcip.annotations.Immutable;
+
+import java.util.Objects;
+
+/**
+ * One of the reads of a {@link IOExecutor#readBatch batch}: {@code length} bytes at {@code offset} in the file of a
+ * {@link FileReader}.
+ */
+@Immutable
+public final class BatchRead {
+    private final FileReader reader;
+    private final long offset;
+    private final int length;
+
+    /**
+     * Creates a new batch read, with the same arguments as {@link FileReader#readAsync(long, int)}.
+     *
+     * @param reader the reader of the file to read from.
+     * @param offset the offset for the read.
+     * @param length the length to read.
+     */
+    public BatchRead(FileReader reader, long offset, int length) {
+        this.reader = Objects.requireNonNull(reader, "The reader must not be null");
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid offset, must be >= 0");
+        }
+        if (length < 0) {
+            throw new IllegalArgumentException("Invalid length, must be >= 0");
+        }
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * The reader of the file to read from.
+     *
+     * @return the reader.
+     */
+    public FileReader reader() {
+        return reader;
+    }
+
+    /**
+     * The offset for the read.
+     *
+     * @return the offset.
+     */
+    public long offset() {
+        return offset;
+    }
+
+    /**
+     * The length to read.
+     *
+     * @return the length.
+     */
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return reader.path() + "@" + offset + "+" + length;
+    }
+}
@@ -0,0 +1,470 @@
+package io.github.jbellis.jfio.executor;
+
+import io.github.jbellis.jfio.BufferPool;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * An off-heap cache of file blocks, in front of the reads of {@link FileReader#readAsync(long, int)}.
+ * <p>
+ * This is mostly useful with direct I/O, which bypasses the OS page cache: without it, every read of a hot block
+ * (say, of an index) goes to the device. A cache is set on an executor through
+ * {@link IOExecutor.Builder#withBlockCache}, and can be shared by multiple executors.
+ * <p>
+ * Files are cached by blocks of {@link #blockSize()} bytes, aligned on that size. Reads whose blocks are all cached
+ * complete immediately, from the calling thread, without involving the event loops. Otherwise, only the missing
+ * blocks are read (and then cached), and concurrent reads missing the same block share a single read of that block
+ * (only on the same thread for a {@link ThreadPerCoreExecutor}, whose reads are only completed by their thread).
+ * Blocks are cached per file path, and shared by the readers of that file (including the ones opened after the
+ * others were closed), which assumes files are not modified while cached. Opening a file for writing through an
+ * executor using the cache invalidates its blocks: the readers opened afterwards do not see them (the previous blocks
+ * are eventually evicted like any other block).
+ * <p>
+ * The cache is split into shards (by block), each holding a fixed number of blocks in a single off-heap buffer, and
+ * evicting blocks with the CLOCK algorithm. Newly cached blocks are not marked as referenced, so blocks only read
+ * once are evicted before the ones that get hits. Lookups are lock-free (each slot is versioned, so a lookup racing
+ * with the eviction of its block simply misses); only inserting a block locks its shard.
+ */
+@ThreadSafe
+public final class BlockCache {
+    /** The default number of shards. */
+    private static final int DEFAULT_SHARDS = 16;
+    /** The maximum size of a shard, which keeps its storage addressable by a single buffer. */
+    private static final long MAX_SHARD_BYTES = 1L << 30;
+
+    private final int blockSize;
+    private final Shard[] shards;
+    private final int shardMask;
+
+    /** The identifiers of the cached files, by path (see {@link #fileId}). */
+    private final ConcurrentHashMap<Path, Long> fileIds = new ConcurrentHashMap<>();
+    private final AtomicLong fileIdGenerator = new AtomicLong();
+    /** The blocks being read, so that concurrent misses of the same block (and read owner) share the same read. */
+    private final ConcurrentHashMap<LoadKey, Load> loads = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder sharedMisses = new LongAdder();
+
+    private BlockCache(long capacity, int blockSize, int shardCount) {
+        this.blockSize = blockSize;
+        this.shards = new Shard[shardCount];
+        this.shardMask = shardCount - 1;
+        int slotsPerShard = (int) (capacity / blockSize / shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(slotsPerShard, blockSize);
+        }
+    }
+
+    /**
+     * Creates a new cache.
+     *
+     * @param capacity the maximum amount of memory, in bytes, used to hold the cached blocks. This is allocated
+     *                 upfront, and rounded down to a whole number of blocks per shard.
+     * @param blockSize the size of the cached blocks, which must be a multiple of 512 (so the blocks can be read with
+     *                  direct I/O).
+     * @return the created cache.
+     * @throws IllegalArgumentException if {@code blockSize} is not a positive multiple of 512, or if {@code capacity}
+     * is smaller than {@code blockSize}.
+     */
+    public static BlockCache create(long capacity, int blockSize) {
+        if (blockSize <= 0 || blockSize % BufferPool.MIN_POOLED_SIZE != 0) {
+            throw new IllegalArgumentException("The block size must be a positive multiple of 512, got " + blockSize);
+        }
+        if (capacity < blockSize) {
+            throw new IllegalArgumentException("The capacity must be at least the block size, got " + capacity);
+        }
+        long blocks = capacity / blockSize;
+        // Enough shards so each fits a buffer, but no more than there are blocks.
+        long shardCount = Math.max(DEFAULT_SHARDS, (capacity + MAX_SHARD_BYTES - 1) / MAX_SHARD_BYTES);
+        shardCount = Long.highestOneBit(Math.min(shardCount * 2 - 1, blocks));
+        return new BlockCache(capacity, blockSize, (int) shardCount);
+    }
+
+    /**
+     * The size of the cached blocks.
+     *
+     * @return the block size, in bytes.
+     */
+    public int blockSize() {
+        return blockSize;
+    }
+
+    /**
+     * The amount of memory holding the cached blocks.
+     *
+     * @return the capacity of the cache, in bytes.
+     */
+    public long capacity() {
+        return (long) shards.length * shards[0].slotCount * blockSize;
+    }
+
+    /**
+     * The number of blocks currently cached.
+     *
+     * @return the number of cached blocks.
+     */
+    public long size() {
+        long total = 0;
+        for (Shard shard : shards) {
+            total += shard.index.size();
+        }
+        return total;
+    }
+
+    /**
+     * The number of blocks found in the cache by reads.
+     *
+     * @return the number of hits.
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * The number of blocks not found in the cache by reads. This includes the misses that shared the read of a block
+     * with another miss (see {@link #sharedMisses}).
+     *
+     * @return the number of misses.
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * The number of misses that did not read their block, because another read of the same block was in flight.
+     *
+     * @return the number of shared misses.
+     */
+    public long sharedMisses() {
+        return sharedMisses.sum();
+    }
+
+    /**
+     * The number of blocks evicted from the cache to make room for other ones.
+     *
+     * @return the number of evictions.
+     */
+    public long evictions() {
+        long total = 0;
+        for (Shard shard : shards) {
+            total += shard.evictions;
+        }
+        return total;
+    }
+
+    private Shard shardOf(BlockKey key) {
+        return shards[key.hashCode() & shardMask];
+    }
+
+    /**
+     * The identifier of the blocks of the provided file in this cache, which is the same for all its readers until
+     * the file is {@link #invalidate invalidated}.
+     */
+    long fileId(Path path) {
+        return fileIds.computeIfAbsent(path.toAbsolutePath().normalize(), p -> fileIdGenerator.incrementAndGet());
+    }
+
+    /** Invalidates the cached blocks of the provided file, typically because it is about to be modified. */
+    void invalidate(Path path) {
+        fileIds.remove(path.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Reads {@code length} bytes at {@code offset} of the file of {@code reader}, with the same result as
+     * {@link FileReader#readAsync(long, int)}, but serving the blocks it can from the cache.
+     */
+    CompletableFuture<ByteBuffer> read(FileReader reader, long offset, int length) {
+        BufferPool pool = reader.executor().bufferPool();
+        ByteBuffer result = pool.acquire(length);
+        long end = offset + length;
+
+        // How many bytes of the result are actually available, which is less than `length` at the end of the file.
+        int available = length;
+        List<CompletableFuture<Integer>> loading = null;
+        for (long block = offset / blockSize; block * blockSize < end; block++) {
+            long blockOffset = block * blockSize;
+            int from = (int) Math.max(0, offset - blockOffset);
+            int to = (int) Math.min(blockSize, end - blockOffset);
+            int resultIndex = (int) (blockOffset + from - offset);
+            BlockKey key = new BlockKey(reader.fileId(), block);
+
+            int blockLength = shardOf(key).read(key, from, to, result, resultIndex);
+            if (blockLength >= 0) {
+                hits.increment();
+                available = Math.min(available, availableUpTo(blockOffset, blockLength, offset, length));
+                continue;
+            }
+
+            misses.increment();
+            if (loading == null) {
+                loading = new ArrayList<>();
+            }
+            loading.add(load(reader, key, blockOffset, data -> {
+                int dataLength = data.remaining();
+                copy(data, data.position(), from, Math.min(to, dataLength), result, resultIndex);
+                return availableUpTo(blockOffset, dataLength, offset, length);
+            }));
+        }
+
+        if (loading == null) {
+            return CompletableFuture.completedFuture(result.limit(available));
+        }
+
+        int cachedAvailable = available;
+        List<CompletableFuture<Integer>> blocks = loading;
+        return CompletableFuture.allOf(blocks.toArray(new CompletableFuture<?>[0])).handle((v, error) -> {
+            if (error != null) {
+                pool.release(result);
+                throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+            }
+            int total = cachedAvailable;
+            for (CompletableFuture<Integer> block : blocks) {
+                total = Math.min(total, block.join());
+            }
+            return result.limit(total);
+        });
+    }
+
+    /**
+     * The number of bytes of a read of {@code length} bytes at {@code offset} that are available given that the
+     * block at {@code blockOffset} has {@code blockLength} bytes (which is less than the block size if it is the
+     * last block of the file).
+     */
+    private int availableUpTo(long blockOffset, int blockLength, long offset, int length) {
+        if (blockLength == blockSize) {
+            return length;
+        }
+        return (int) Math.max(0, Math.min(length, blockOffset + blockLength - offset));
+    }
+
+    /**
+     * Reads the provided block (unless another read of it is in flight already) and caches it, applying {@code use}
+     * to its content once read. The buffer passed to {@code use} must not be accessed once it returns.
+     */
+    private <T> CompletableFuture<T> load(
+            FileReader reader,
+            BlockKey key,
+            long blockOffset,
+            Function<ByteBuffer, T> use
+    ) {
+        // On caller-owned rings, a miss must not wait on a read that only another thread can complete.
+        LoadKey loadKey = new LoadKey(key, reader.executor().readOwner());
+        Load[] created = new Load[1];
+        Load load = loads.compute(loadKey, (k, existing) -> {
+            if (existing != null) {
+                existing.refs.incrementAndGet();
+                return existing;
+            }
+            created[0] = new Load();
+            return created[0];
+        });
+
+        if (load != created[0]) {
+            sharedMisses.increment();
+        } else {
+            reader.readUncached(blockOffset, blockSize).whenComplete((data, error) -> {
+                if (error == null) {
+                    shardOf(key).put(key, data);
+                }
+                // No miss can join the load once removed, so it is safe to release the buffer once all the misses
+                // that joined are done with it.
+                loads.remove(loadKey, load);
+                if (error == null) {
+                    load.future.complete(data);
+                } else {
+                    load.future.completeExceptionally(error);
+                }
+                load.release(reader.executor().bufferPool());
+            });
+        }
+
+        return load.future.thenApply(use).whenComplete((r, error) -> load.release(reader.executor().bufferPool()));
+    }
+
+    private static void copy(ByteBuffer source, int sourceStart, int from, int to, ByteBuffer target, int targetIndex) {
+        if (to <= from) {
+            return;
+        }
+        ByteBuffer src = source.duplicate();
+        src.limit(sourceStart + to).position(sourceStart + from);
+        ByteBuffer dst = target.duplicate();
+        dst.clear().position(targetIndex);
+        dst.put(src);
+    }
+
+    /** The read of a block, shared by all the concurrent misses of that block. */
+    private static class Load {
+        private final CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+        /** The number of users of the buffer read: the read itself, and each miss. */
+        private final AtomicInteger refs = new AtomicInteger(2);
+
+        private void release(BufferPool pool) {
+            if (refs.decrementAndGet() == 0 && !future.isCompletedExceptionally()) {
+                pool.release(future.join());
+            }
+        }
+    }
+
+    private static final class BlockKey {
+        private final long fileId;
+        private final long block;
+
+        private BlockKey(long fileId, long block) {
+            this.fileId = fileId;
+            this.block = block;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof BlockKey)) {
+                return false;
+            }
+            BlockKey that = (BlockKey) o;
+            return fileId == that.fileId && block == that.block;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = fileId * 0x9E3779B97F4A7C15L + block;
+            h ^= h >>> 32;
+            return (int) (h ^ (h >>> 16));
+        }
+    }
+
+    /** A block being read, by the owner of the read (see {@link IOExecutor#readOwner}), if any. */
+    private static final class LoadKey {
+        private final BlockKey block;
+        private final Object owner;
+
+        private LoadKey(BlockKey block, Object owner) {
+            this.block = block;
+            this.owner = owner;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof LoadKey)) {
+                return false;
+            }
+            LoadKey that = (LoadKey) o;
+            return block.equals(that.block) && owner == that.owner;
+        }
+
+        @Override
+        public int hashCode() {
+            return block.hashCode() * 31 + System.identityHashCode(owner);
+        }
+    }
+
+    /**
+     * A fixed number of block slots, evicted with CLOCK.
+     * <p>
+     * Every slot has a stamp, which is odd while the slot is being (re)written: a lookup reads the stamp, copies the
+     * block, and then checks that the stamp did not change, so it never needs to lock.
+     */
+    private static final class Shard {
+        private final int slotCount;
+        private final int blockSize;
+        private final ByteBuffer storage;
+
+        private final ConcurrentHashMap<BlockKey, Integer> index = new ConcurrentHashMap<>();
+        private final BlockKey[] keys;
+        private final int[] lengths;
+        private final AtomicLongArray stamps;
+        /** The CLOCK reference bits; those are set without synchronization on hits, which is benign. */
+        private final byte[] referenced;
+
+        @GuardedBy("this")
+        private int hand;
+        @GuardedBy("this")
+        private int used;
+        private volatile long evictions;
+
+        private Shard(int slotCount, int blockSize) {
+            this.slotCount = slotCount;
+            this.blockSize = blockSize;
+            this.storage = ByteBuffer.allocateDirect(slotCount * blockSize);
+            this.keys = new BlockKey[slotCount];
+            this.lengths = new int[slotCount];
+            this.stamps = new AtomicLongArray(slotCount);
+            this.referenced = new byte[slotCount];
+        }
+
+        /**
+         * Copies the bytes in {@code [from, to)} of the provided block (or those that exist, if the block is
+         * shorter) to {@code target} at {@code targetIndex}, if the block is cached.
+         *
+         * @return the length of the block, or -1 if it is not cached (in which case some bytes may have been copied
+         * anyway).
+         */
+        private int read(BlockKey key, int from, int to, ByteBuffer target, int targetIndex) {
+            Integer found = index.get(key);
+            if (found == null) {
+                return -1;
+            }
+            int slot = found;
+            long stamp = stamps.get(slot);
+            if ((stamp & 1) != 0 || !key.equals(keys[slot])) {
+                return -1;
+            }
+            int length = lengths[slot];
+            copy(storage, slot * blockSize, from, Math.min(to, length), target, targetIndex);
+            // Orders the reads of the block before the stamp check.
+            VarHandle.acquireFence();
+            if (stamps.get(slot) != stamp) {
+                return -1;
+            }
+            referenced[slot] = 1;
+            return length;
+        }
+
+        private synchronized void put(BlockKey key, ByteBuffer data) {
+            if (index.containsKey(key)) {
+                return;
+            }
+            int slot = victim();
+            // Odd: lookups of the slot fail until the write completes.
+            stamps.incrementAndGet(slot);
+            VarHandle.storeStoreFence();
+            copy(data, data.position(), 0, data.remaining(), storage, slot * blockSize);
+            keys[slot] = key;
+            lengths[slot] = data.remaining();
+            referenced[slot] = 0;
+            stamps.incrementAndGet(slot);
+            index.put(key, slot);
+        }
+
+        @GuardedBy("this")
+        private int victim() {
+            if (used < slotCount) {
+                return used++;
+            }
+            while (true) {
+                int slot = hand;
+                hand = (hand + 1) % slotCount;
+                if (referenced[slot] != 0) {
+                    referenced[slot] = 0;
+                } else {
+                    index.remove(keys[slot], slot);
+                    evictions = evictions + 1;
+                    return slot;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package io.github.jbellis.jfio.executor;
+
+import io.github.jbellis.jfio.NativeProvider;
+import io.github.jbellis.jfio.Submission;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Helpers for the constraints of direct I/O.
+ */
+final class DirectIO {
+    static final int ALIGNMENT = 512;
+
+    private DirectIO() {}
+
+    /**
+     * Checks that the provided submission respects direct I/O alignment constraints.
+     *
+     * @param submission the submission to check.
+     * @throws IllegalArgumentException if the offset, buffer address or buffer length of the submission is not
+     * properly aligned.
+     */
+    static void checkAlignments(Submission submission) {
+        checkAlignment(submission.offset(), "offset");
+        if (submission.buffers() == null) {
+            checkBufferAlignments(submission.buffer());
+        } else {
+            for (ByteBuffer buffer : submission.buffers()) {
+                checkBufferAlignments(buffer);
+            }
+        }
+    }
+
+    private static void checkBufferAlignments(ByteBuffer buffer) {
+        checkAlignment(NativeProvider.instance().address(buffer), "the buffer starting address");
+        checkAlignment(buffer.remaining(), "the buffer length");
+    }
+
+    private static void checkAlignment(long value, String name) {
+        if (value % ALIGNMENT != 0) {
+            throw new IllegalArgumentException(String.format("%s must be aligned on %d bytes for direct I/O", name, ALIGNMENT));
+        }
+    }
+}
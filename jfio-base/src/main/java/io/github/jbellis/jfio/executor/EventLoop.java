@@ -1,38 +1,111 @@
 package io.github.jbellis.jfio.executor;
 
+import io.github.jbellis.jfio.BufferPool;
 import io.github.jbellis.jfio.IORing;
+import io.github.jbellis.jfio.RegisteredBuffers;
+import io.github.jbellis.jfio.RingMetrics;
 import io.github.jbellis.jfio.Submission;
+import io.github.jbellis.jfio.WaitStrategy;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jctools.queues.MessagePassingQueue;
 import org.jctools.queues.MpscUnboundedArrayQueue;
 
 import java.io.IOException;
+import java.nio.file.OpenOption;
 import java.nio.file.Path;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
 
-class EventLoop extends IOExecutor {
+class EventLoop extends IOExecutor implements ExecutorMetrics.Loop {
     private static final Logger logger = LogManager.getLogger();
 
     private static final int QUEUE_CHUNK_SIZE = 4096;
+
+    // The possible values of `state`, which let submitters know if (and how) the loop thread needs to be woken up.
+    private static final int RUNNING = 0;
+    private static final int PARKED = 1;
+    private static final int WAITING_IN_RING = 2;
+
     private static final AtomicInteger ID_GENERATOR = new AtomicInteger(0);
 
     private final Thread loopThread;
-    private final ExecutorService fileOperationsExecutor = Executors.newSingleThreadExecutor();
+    /** This loop, as the only one of the executor. */
+    private final EventLoop[] self = { this };
 
     private final MessagePassingQueue<Submission> queue = new MpscUnboundedArrayQueue<>(QUEUE_CHUNK_SIZE);
+    /**
+     * The {@link IOClass#BACKGROUND} submissions, which only get their share of the ring (see
+     * {@link #drainQueues}).
+     */
+    private final MessagePassingQueue<Submission> backgroundQueue = new MpscUnboundedArrayQueue<>(QUEUE_CHUNK_SIZE);
+    private final int foregroundWeight;
+    private final int backgroundWeight;
+    /**
+     * How many background submissions are owed, in units of {@code foregroundWeight}: this grows by
+     * {@code backgroundWeight} for every foreground submission added, and shrinks by {@code foregroundWeight} for
+     * every background one; only used by the loop thread.
+     */
+    private int backgroundCredit;
+    /** The limiters of the I/O of each class, by ordinal, if any (see {@link Builder#withRateLimiter}). */
+    private final RateLimiter[] rateLimiters;
+    /**
+     * Whether the submissions of each class, by ordinal, were held back by its rate limiter during the last drain, and
+     * the time until the first of them can go on; only used by the loop thread.
+     */
+    private final boolean[] throttled = new boolean[IOClass.values().length];
+    private long throttledNanos;
+    /**
+     * The loops of the executor, to hand queued reads off to when this one is backed up, or {@code null} if work
+     * stealing is disabled (see {@link Builder#withWorkStealing}).
+     */
+    private volatile EventLoop[] peers;
+    /** The number of submissions handed off to the peers; only written by the loop thread. */
+    private volatile long handedOff;
+    /** Batches of submissions (see {@link #submitAll}), each queued as a whole. */
+    private final MessagePassingQueue<Submission[]> batches = new MpscUnboundedArrayQueue<>(64);
+    // The batch being added to the ring and the index of its next submission to add; only used by the loop thread.
+    private Submission[] batch;
+    private int batchIndex;
+    /**
+     * Submissions the ring had no room for when they were drained (a submission with a timeout takes 2 slots), which
+     * are added before anything else; only used by the loop thread.
+     */
+    private final ArrayDeque<Submission> deferred = new ArrayDeque<>();
+    /** Submissions to cancel (see {@link #cancel}), once the ring has room for it; only used by the loop thread. */
+    private final ArrayDeque<Submission> cancellations = new ArrayDeque<>();
+    /** Tasks that need to run on the loop thread because they access the (non thread-safe) ring. */
+    private final MessagePassingQueue<Runnable> tasks = new MpscUnboundedArrayQueue<>(64);
     private final IORing ring;
+    private final WaitStrategy waitStrategy;
+    /** Merges close reads before they are added to the ring, if enabled (see {@link Builder#withReadCoalescing}). */
+    private final ReadCoalescer coalescer;
 
     private volatile boolean stopped;
-    private volatile boolean parked;
+    private final AtomicInteger state = new AtomicInteger(RUNNING);
 
-    EventLoop(IORing ring) {
+    EventLoop(
+            IORing ring,
+            BufferPool bufferPool,
+            BlockCache blockCache,
+            ReadCoalescer coalescer,
+            int foregroundWeight,
+            int backgroundWeight,
+            RateLimiter[] rateLimiters
+    ) {
+        super(bufferPool, blockCache);
         this.loopThread = new Thread(this::run, "EventLoop Thread #" + ID_GENERATOR.incrementAndGet());
         this.ring = ring;
+        this.waitStrategy = ring.config().waitStrategy();
+        this.coalescer = coalescer;
+        this.foregroundWeight = foregroundWeight;
+        this.backgroundWeight = backgroundWeight;
+        this.rateLimiters = rateLimiters;
         this.loopThread.start();
     }
 
@@ -41,63 +114,469 @@ class EventLoop extends IOExecutor {
     }
 
     @Override
-    void submit(Submission submission) {
+    EventLoop[] loops() {
+        return self;
+    }
+
+    /** The number of submissions queued, waiting to be added to the ring. */
+    @Override
+    public int queueLength() {
+        return queue.size() + backgroundQueue.size();
+    }
+
+    /**
+     * The number of submissions this loop has yet to complete: queued, pending or in flight (the latter 2 as of the
+     * last submit call of the loop). This is thread-safe, for {@link RoutingPolicy#LEAST_LOADED}.
+     */
+    int load() {
+        RingMetrics metrics = ring.metrics();
+        return queueLength() + metrics.pending() + metrics.inFlight();
+    }
+
+    /**
+     * Enables work stealing (see {@link Builder#withWorkStealing}): when backed up, this loop hands some of its queued
+     * reads off to the provided loops.
+     *
+     * @param peers the loops of the executor (which may include this one, which is then skipped).
+     */
+    void setPeers(EventLoop[] peers) {
+        this.peers = peers;
+    }
+
+    /** The number of queued submissions this loop handed off to its peers (see {@link Builder#withWorkStealing}). */
+    @Override
+    public long handedOff() {
+        return handedOff;
+    }
+
+    /** The number of reads merged with others by this loop (see {@link Builder#withReadCoalescing}). */
+    @Override
+    public long coalescedReads() {
+        return coalescer == null ? 0 : coalescer.coalescedReads();
+    }
+
+    @Override
+    public RingMetrics ringMetrics() {
+        return ring.metrics();
+    }
+
+    @Override
+    void submit(Submission submission, IOClass ioClass) {
+        if (stopped) {
+            throw new IllegalStateException("This I/O executor has been closed");
+        }
+        boolean offered = (ioClass == IOClass.BACKGROUND ? backgroundQueue : queue).offer(submission);
+        assert offered: "Queue is unbounded or what?";
+
+        wakeUpLoop();
+    }
+
+    @Override
+    void submitAll(Submission[] submissions) {
         if (stopped) {
             throw new IllegalStateException("This I/O executor has been closed");
         }
-        boolean offered = queue.offer(submission);
+        boolean offered = batches.offer(submissions);
         assert offered: "Queue is unbounded or what?";
 
-        if (parked) {
-            LockSupport.unpark(loopThread);
+        wakeUpLoop();
+    }
+
+    /**
+     * Queues a submission handed off by a peer, unless this loop is closed.
+     *
+     * @return whether the submission was queued.
+     */
+    private boolean acceptHandOff(Submission submission, IOClass ioClass) {
+        if (stopped) {
+            return false;
         }
+        boolean offered = queueOf(ioClass).offer(submission);
+        assert offered: "Queue is unbounded or what?";
+
+        wakeUpLoop();
+        return true;
+    }
+
+    /**
+     * Makes sure the loop thread notices newly queued work, waking it up if it is parked or waiting on the ring.
+     */
+    private void wakeUpLoop() {
+        switch (state.get()) {
+            case PARKED:
+                LockSupport.unpark(loopThread);
+                break;
+            case WAITING_IN_RING:
+                // Only the first submitter to notice needs to wake up the ring.
+                if (state.compareAndSet(WAITING_IN_RING, RUNNING)) {
+                    ring.wakeup();
+                }
+                break;
+        }
+    }
+
+    /**
+     * Runs the provided function on the loop thread.
+     *
+     * @param task the function to run.
+     * @return a future on the result of {@code task}.
+     */
+    <T> CompletableFuture<T> supplyOnLoop(Supplier<T> task) {
+        if (stopped) {
+            throw new IllegalStateException("This I/O executor has been closed");
+        }
+        CompletableFuture<T> future = new CompletableFuture<>();
+        boolean offered = tasks.offer(() -> {
+            try {
+                future.complete(task.get());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        assert offered: "Queue is unbounded or what?";
+
+        wakeUpLoop();
+        return future;
     }
 
     @Override
-    int openFile(Path path) throws IOException {
+    void cancel(Submission submission) {
+        if (stopped) {
+            return;
+        }
+        boolean offered = tasks.offer(() -> cancellations.add(submission));
+        assert offered: "Queue is unbounded or what?";
+
+        wakeUpLoop();
+    }
+
+    @Override
+    void registerBuffers(RegisteredBuffers buffers) {
         try {
-            return fileOperationsExecutor.submit(() -> ring.openFile(path)).get();
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        } catch (ExecutionException e) {
-            if (e.getCause() instanceof IOException) {
-                throw (IOException) e.getCause();
+            supplyOnLoop(() -> { ring.registerBuffers(buffers); return null; }).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
-            throw new RuntimeException(e);
+            throw e;
         }
     }
 
     @Override
-    void closeFile(int fd) throws IOException {
-        try {
-            fileOperationsExecutor.submit(() -> { ring.closeFile(fd); return 0; }).get();
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        } catch (ExecutionException e) {
-            if (e.getCause() instanceof IOException) {
-                throw (IOException) e.getCause();
+    CompletableFuture<Integer> openFileAsync(Path path, OpenOption... options) {
+        return openFileUnregisteredAsync(path, options)
+                .thenCompose(fd -> registerOrClose(fd, () -> registerFileAsync(fd)));
+    }
+
+    @Override
+    CompletableFuture<Void> closeFileAsync(int fd) {
+        return unregisterFileAsync(fd).thenCompose(v -> closeFileUnregisteredAsync(fd));
+    }
+
+    /**
+     * Registers the provided file in the ring registered file table, if the ring uses one.
+     *
+     * @param fd the file descriptor to register.
+     * @return a future on {@code fd}, completed once it is registered.
+     */
+    CompletableFuture<Integer> registerFileAsync(int fd) {
+        if (ring.config().registeredFiles() == 0) {
+            return CompletableFuture.completedFuture(fd);
+        }
+        return supplyOnLoop(() -> { ring.registerFile(fd); return fd; });
+    }
+
+    /**
+     * Unregisters the provided file from the ring registered file table, if the ring uses one.
+     *
+     * @param fd the file descriptor to unregister.
+     * @return a future completed once {@code fd} is unregistered.
+     */
+    CompletableFuture<Void> unregisterFileAsync(int fd) {
+        if (ring.config().registeredFiles() == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return supplyOnLoop(() -> { ring.unregisterFile(fd); return null; });
+    }
+
+    /** Opens the provided file through the ring, without registering it with the ring. */
+    CompletableFuture<Integer> openFileUnregisteredAsync(Path path, OpenOption... options) {
+        if (ring.config().useIOPolling()) {
+            // I/O polling rings only accept reads and writes, so the file is opened synchronously (on the loop, as
+            // the ring is not thread-safe).
+            return supplyOnLoop(() -> {
+                try {
+                    return ring.openFile(path, options);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        }
+        OpenSubmission submission = new OpenSubmission(path, ring.config().directIO(), options);
+        submit(submission);
+        return submission.future;
+    }
+
+    /** Closes the provided file through the ring; it must have been unregistered from the ring if it was registered. */
+    CompletableFuture<Void> closeFileUnregisteredAsync(int fd) {
+        if (ring.config().useIOPolling()) {
+            // Synchronously, like the open.
+            return supplyOnLoop(() -> {
+                try {
+                    ring.closeFile(fd);
+                    return null;
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        }
+        CloseSubmission submission = new CloseSubmission(fd);
+        submit(submission);
+        return submission.future;
+    }
+
+    private boolean hasQueuedWork() {
+        // The submissions held back by a rate limiter are not work until the limiter lets them go (or the loop stops).
+        return hasQueued(IOClass.FOREGROUND) || hasQueued(IOClass.BACKGROUND) || !tasks.isEmpty() || batch != null
+                || !batches.isEmpty() || !deferred.isEmpty() || !cancellations.isEmpty();
+    }
+
+    private boolean hasQueued(IOClass ioClass) {
+        return (stopped || !throttled[ioClass.ordinal()]) && !queueOf(ioClass).isEmpty();
+    }
+
+    private MessagePassingQueue<Submission> queueOf(IOClass ioClass) {
+        return ioClass == IOClass.BACKGROUND ? backgroundQueue : queue;
+    }
+
+    /**
+     * Adds up to {@code room} submissions of the queued batches to the ring, in order.
+     *
+     * @param room the number of submissions the ring has room for.
+     * @return the number of submissions added.
+     */
+    private int addBatched(int room) {
+        int added = 0;
+        while (added < room) {
+            if (batch == null) {
+                batch = batches.relaxedPoll();
+                batchIndex = 0;
+                if (batch == null) {
+                    break;
+                }
+            }
+            int count = Math.min(room - added, batch.length - batchIndex);
+            for (int i = 0; i < count; i++) {
+                addToRing(batch[batchIndex++]);
+            }
+            added += count;
+            if (batchIndex == batch.length) {
+                batch = null;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Adds up to {@code room} queued submissions to the ring, sharing it between the {@link IOClass classes} by
+     * weight: foreground submissions go first, and a background one is added whenever enough foreground ones were to
+     * pay for it. A class without queued submissions (or held back by its rate limiter) leaves all the room to the
+     * other one.
+     *
+     * @param room the number of submissions the ring has room for.
+     * @return whether all that room was used.
+     */
+    private boolean drainQueues(int room) {
+        Arrays.fill(throttled, false);
+        throttledNanos = 0;
+        for (int added = 0; added < room; added++) {
+            Submission submission = null;
+            if (backgroundCredit >= foregroundWeight) {
+                submission = poll(IOClass.BACKGROUND);
+                if (submission == null) {
+                    // Idle background I/O does not bank credit.
+                    backgroundCredit = 0;
+                } else {
+                    backgroundCredit -= foregroundWeight;
+                }
+            }
+            if (submission == null) {
+                submission = poll(IOClass.FOREGROUND);
+                if (submission != null) {
+                    backgroundCredit += backgroundWeight;
+                } else {
+                    submission = poll(IOClass.BACKGROUND);
+                    if (submission == null) {
+                        return false;
+                    }
+                }
+            }
+            addToRing(submission);
+        }
+        return true;
+    }
+
+    /**
+     * Takes the next queued submission of a class, unless its rate limiter holds it back.
+     *
+     * @param ioClass the class of the submission to take.
+     * @return the submission, or {@code null} if there is none, or if it is held back.
+     */
+    private Submission poll(IOClass ioClass) {
+        MessagePassingQueue<Submission> classQueue = queueOf(ioClass);
+        RateLimiter rateLimiter = rateLimiters[ioClass.ordinal()];
+        if (rateLimiter == null || stopped) {
+            // When closing, the submissions held back go through, so that their futures complete.
+            return classQueue.relaxedPoll();
+        }
+        if (throttled[ioClass.ordinal()]) {
+            return null;
+        }
+        Submission submission = classQueue.relaxedPeek();
+        if (submission == null) {
+            return null;
+        }
+        long waitNanos = rateLimiter.tryAcquire(submission, System.nanoTime());
+        if (waitNanos > 0) {
+            throttled[ioClass.ordinal()] = true;
+            throttledNanos = throttledNanos == 0 ? waitNanos : Math.min(throttledNanos, waitNanos);
+            return null;
+        }
+        return classQueue.relaxedPoll();
+    }
+
+    /**
+     * Hands queued reads off to the peers with spare room, if work stealing is enabled; called when this loop has
+     * filled its ring, so whatever is still queued waits for it.
+     * <p>
+     * This is a push rather than actual stealing since only this thread can consume its queues, and it only moves
+     * reads that are not {@link FileReader#pinnedToLoop pinned} to this loop: it stops at the first queued submission
+     * of another kind (a write or a pinned read, typically), so those are still added to this ring in the order they
+     * were submitted.
+     */
+    private void handOff() {
+        EventLoop[] peers = this.peers;
+        if (peers == null || !deferred.isEmpty()) {
+            return;
+        }
+        int depth = ring.config().depth();
+        for (IOClass ioClass : IOClass.values()) {
+            if (throttled[ioClass.ordinal()]) {
+                // The rate limiter is shared, so the peers would hold those back all the same.
+                continue;
+            }
+            MessagePassingQueue<Submission> classQueue = queueOf(ioClass);
+            for (EventLoop peer : peers) {
+                if (classQueue.isEmpty()) {
+                    break;
+                }
+                if (peer == this) {
+                    continue;
+                }
+                // The peer is given no more than it can submit right away, so it does not get backed up in turn.
+                int room = depth - peer.load();
+                for (int i = 0; i < room; i++) {
+                    Submission submission = classQueue.relaxedPeek();
+                    if (submission == null || !canHandOff(submission) || !peer.acceptHandOff(submission, ioClass)) {
+                        break;
+                    }
+                    classQueue.relaxedPoll();
+                    handedOff = handedOff + 1;
+                }
             }
-            throw new RuntimeException(e);
+        }
+    }
+
+    private static boolean canHandOff(Submission submission) {
+        Submission.Operation operation = submission.operation();
+        if (operation != Submission.Operation.READ && operation != Submission.Operation.READV) {
+            return false;
+        }
+        return !(submission instanceof ExecutorSubmission) || !((ExecutorSubmission) submission).pinned;
+    }
+
+    private void addToRing(Submission submission) {
+        if (coalescer == null) {
+            addOrDefer(submission);
+        } else {
+            coalescer.add(submission, this::addOrDefer);
+        }
+    }
+
+    private void addOrDefer(Submission submission) {
+        if (!deferred.isEmpty() || !ring.add(submission)) {
+            deferred.add(submission);
+        }
+    }
+
+    /** Adds the deferred submissions and the cancellations the ring has room for. */
+    private void addDeferred() {
+        while (!cancellations.isEmpty() && ring.submissionSlotsAvailable() > 0) {
+            // Not added if the submission is not in the ring (anymore), which is fine.
+            ring.cancel(cancellations.poll());
+        }
+        while (!deferred.isEmpty() && ring.add(deferred.peek())) {
+            deferred.poll();
         }
     }
 
     private void run() {
+        boolean spinsForever = !waitStrategy.blocks();
+        long spinNanos = waitStrategy.spinNanos();
+        // Only maintained if the strategy switches from spinning to blocking, to avoid calling nanoTime() otherwise.
+        long lastActivity = spinsForever ? 0 : System.nanoTime();
         try {
             for (; ; ) {
-                int room = ring.submissionSlotsAvailable();
-                if (room > 0) {
-                    queue.drain(ring::add, room);
+                tasks.drain(Runnable::run);
+
+                addDeferred();
+                int room = deferred.isEmpty() ? ring.submissionSlotsAvailable() : 0;
+                room -= addBatched(room);
+                if (drainQueues(room)) {
+                    handOff();
                 }
+                if (coalescer != null) {
+                    coalescer.flush(this::addOrDefer);
+                }
+                boolean shouldSpin = spinsForever || System.nanoTime() - lastActivity < spinNanos;
                 if (ring.inFlight() == 0 && ring.pendingSubmissions() == 0) {
-                    if (stopped) {
+                    if (stopped && !hasQueuedWork()) {
                         break;
                     }
                     // We have nothing that could be completed, and we have nothing in the queue either.
-                    parked = true;
-                    LockSupport.parkNanos(1000);
-                    parked = false;
+                    if (shouldSpin) {
+                        state.set(PARKED);
+                        LockSupport.parkNanos(1000);
+                    } else {
+                        // Publishing the state before checking for work ensures submitters will unpark us otherwise.
+                        state.set(PARKED);
+                        if (!hasQueuedWork() && !stopped) {
+                            if (throttledNanos > 0) {
+                                LockSupport.parkNanos(this, throttledNanos);
+                            } else {
+                                LockSupport.park(this);
+                            }
+                        }
+                        lastActivity = System.nanoTime();
+                    }
+                    state.set(RUNNING);
+                } else if (shouldSpin || ring.pendingSubmissions() > 0) {
+                    boolean submits = ring.pendingSubmissions() > 0;
+                    int completed = ring.submitAndCheckCompletions();
+                    if (!spinsForever && (submits || completed > 0)) {
+                        lastActivity = System.nanoTime();
+                    }
                 } else {
-                    ring.submitAndCheckCompletions();
+                    // Operations are in flight but nothing is completing: wait in the kernel for a completion, or
+                    // for a submitter (or close) to wake us up.
+                    state.set(WAITING_IN_RING);
+                    if (!hasQueuedWork() && !stopped) {
+                        ring.submitAndWaitCompletions(throttledNanos > 0 ? throttledNanos : -1);
+                    } else {
+                        ring.submitAndCheckCompletions();
+                    }
+                    state.set(RUNNING);
+                    lastActivity = System.nanoTime();
                 }
             }
             ring.close();
@@ -108,14 +587,15 @@ class EventLoop extends IOExecutor {
 
     @Override
     public void close() {
+        unregisterMBean();
+        saveWarmup();
         this.stopped = true;
-        fileOperationsExecutor.shutdown();
+        wakeUpLoop();
         boolean interrupted = false;
         try {
             while (true) {
                 try {
                     this.loopThread.join();
-                    fileOperationsExecutor.awaitTermination(1, java.util.concurrent.TimeUnit.SECONDS);
                     break;
                 } catch (InterruptedException e) {
                     interrupted = true;
@@ -127,4 +607,40 @@ class EventLoop extends IOExecutor {
             }
         }
     }
+
+    private static class OpenSubmission extends Submission {
+        private final CompletableFuture<Integer> future = new CompletableFuture<>();
+        private final Path path;
+
+        private OpenSubmission(Path path, boolean directIO, OpenOption... options) {
+            super(path, directIO, options);
+            this.path = path;
+        }
+
+        @Override
+        public void onCompletion(int res) {
+            if (res < 0) {
+                future.completeExceptionally(openError(path, -res));
+            } else {
+                future.complete(res);
+            }
+        }
+    }
+
+    private static class CloseSubmission extends Submission {
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private CloseSubmission(int fd) {
+            super(Operation.CLOSE, fd);
+        }
+
+        @Override
+        public void onCompletion(int res) {
+            if (res < 0) {
+                future.completeExceptionally(closeError(-res));
+            } else {
+                future.complete(null);
+            }
+        }
+    }
 }
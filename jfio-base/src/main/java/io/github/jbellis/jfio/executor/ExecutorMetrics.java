@@ -0,0 +1,230 @@
+package io.github.jbellis.jfio.executor;
+
+import io.github.jbellis.jfio.Histogram;
+import io.github.jbellis.jfio.RingMetrics;
+import io.github.jbellis.jfio.Submission;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.function.Supplier;
+
+/**
+ * Metrics of an {@link IOExecutor}: those of each of its event loops (the length of their submission queue, and
+ * the {@link RingMetrics} of their ring), and aggregates of those.
+ * <p>
+ * This is a live view: every method reads the current values, and can be called from any thread.
+ */
+@ThreadSafe
+public final class ExecutorMetrics {
+    private final Supplier<Loop[]> loops;
+
+    ExecutorMetrics(Supplier<Loop[]> loops) {
+        this.loops = loops;
+    }
+
+    /**
+     * The number of event loops of the executor.
+     *
+     * @return the number of loops.
+     */
+    public int loops() {
+        return loops.get().length;
+    }
+
+    /**
+     * The number of submissions queued in the provided loop, waiting to be added to its ring.
+     *
+     * @param loop the index of the loop, in {@code [0, loops())}.
+     * @return the length of the queue of {@code loop}.
+     */
+    public int queueLength(int loop) {
+        return loops.get()[loop].queueLength();
+    }
+
+    /**
+     * The metrics of the ring of the provided loop.
+     *
+     * @param loop the index of the loop, in {@code [0, loops())}.
+     * @return the ring metrics of {@code loop}.
+     */
+    public RingMetrics ring(int loop) {
+        return loops.get()[loop].ringMetrics();
+    }
+
+    /**
+     * The number of submissions queued in all the loops.
+     *
+     * @return the total queue length.
+     */
+    public int queueLength() {
+        int total = 0;
+        for (Loop loop : loops.get()) {
+            total += loop.queueLength();
+        }
+        return total;
+    }
+
+    /**
+     * The number of submissions in flight in all the loops.
+     *
+     * @return the total number of in-flight submissions.
+     */
+    public int inFlight() {
+        int total = 0;
+        for (Loop loop : loops.get()) {
+            total += loop.ringMetrics().inFlight();
+        }
+        return total;
+    }
+
+    /**
+     * The number of submissions added to the rings of all the loops, but not yet submitted.
+     *
+     * @return the total number of pending submissions.
+     */
+    public int pending() {
+        int total = 0;
+        for (Loop loop : loops.get()) {
+            total += loop.ringMetrics().pending();
+        }
+        return total;
+    }
+
+    /**
+     * The number of submit calls of all the loops (see {@link RingMetrics#submitCalls}).
+     *
+     * @return the total number of submit calls.
+     */
+    public long submitCalls() {
+        long total = 0;
+        for (Loop loop : loops.get()) {
+            total += loop.ringMetrics().submitCalls();
+        }
+        return total;
+    }
+
+    /**
+     * The number of submissions submitted by all the loops.
+     *
+     * @return the total number of submitted submissions.
+     */
+    public long submitted() {
+        long total = 0;
+        for (Loop loop : loops.get()) {
+            total += loop.ringMetrics().submitted();
+        }
+        return total;
+    }
+
+    /**
+     * The number of completions reaped by all the loops.
+     *
+     * @return the total number of completions.
+     */
+    public long completed() {
+        long total = 0;
+        for (Loop loop : loops.get()) {
+            total += loop.ringMetrics().completed();
+        }
+        return total;
+    }
+
+    /**
+     * The number of reads that all the loops merged with other reads (see
+     * {@link IOExecutor.Builder#withReadCoalescing}), which is 0 unless read coalescing is enabled.
+     *
+     * @return the total number of coalesced reads.
+     */
+    public long coalescedReads() {
+        long total = 0;
+        for (Loop loop : loops.get()) {
+            total += loop.coalescedReads();
+        }
+        return total;
+    }
+
+    /**
+     * The number of queued reads that the loops handed off to other loops (see
+     * {@link IOExecutor.Builder#withWorkStealing}), which is 0 unless work stealing is enabled.
+     *
+     * @return the total number of reads handed off.
+     */
+    public long handedOff() {
+        long total = 0;
+        for (Loop loop : loops.get()) {
+            total += loop.handedOff();
+        }
+        return total;
+    }
+
+    /**
+     * The distribution of submissions per submit call, over all the loops.
+     *
+     * @return a snapshot of the submissions per submit call.
+     */
+    public Histogram.Snapshot submissionsPerCall() {
+        Histogram.Snapshot merged = Histogram.Snapshot.empty();
+        for (Loop loop : loops.get()) {
+            merged = merged.merge(loop.ringMetrics().submissionsPerCall());
+        }
+        return merged;
+    }
+
+    /**
+     * The distribution of completions per reap, over all the loops.
+     *
+     * @return a snapshot of the completions per reap.
+     */
+    public Histogram.Snapshot completionsPerReap() {
+        Histogram.Snapshot merged = Histogram.Snapshot.empty();
+        for (Loop loop : loops.get()) {
+            merged = merged.merge(loop.ringMetrics().completionsPerReap());
+        }
+        return merged;
+    }
+
+    /**
+     * The distribution of the latency, in nanoseconds, of the provided operation over all the loops. This measures
+     * the time from submission to the executor to completion.
+     *
+     * @param operation the operation.
+     * @return a snapshot of the latencies of {@code operation}.
+     */
+    public Histogram.Snapshot latency(Submission.Operation operation) {
+        Histogram.Snapshot merged = Histogram.Snapshot.empty();
+        for (Loop loop : loops.get()) {
+            merged = merged.merge(loop.ringMetrics().latency(operation));
+        }
+        return merged;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "{loops=%d, queueLength=%d, inFlight=%d, submitted=%d, completed=%d, readLatency=%s, writeLatency=%s}",
+                loops(), queueLength(), inFlight(), submitted(), completed(),
+                latency(Submission.Operation.READ), latency(Submission.Operation.WRITE)
+        );
+    }
+
+    /**
+     * What the metrics are gathered from: an event loop, or the ring of a thread of a
+     * {@link ThreadPerCoreExecutor}. Its methods are called from any thread.
+     */
+    interface Loop {
+        /** The number of submissions queued, waiting to be added to the ring. */
+        int queueLength();
+
+        /** The metrics of the ring. */
+        RingMetrics ringMetrics();
+
+        /** The number of reads merged with others (see {@link IOExecutor.Builder#withReadCoalescing}). */
+        default long coalescedReads() {
+            return 0;
+        }
+
+        /** The number of queued reads handed off to other loops (see {@link IOExecutor.Builder#withWorkStealing}). */
+        default long handedOff() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package io.github.jbellis.jfio.executor;
+
+import io.github.jbellis.jfio.Histogram;
+import io.github.jbellis.jfio.Submission;
+
+/**
+ * Exposes {@link ExecutorMetrics} through the {@link ExecutorMetricsMXBean} JMX interface.
+ */
+class ExecutorMetricsJmx implements ExecutorMetricsMXBean {
+    private final ExecutorMetrics metrics;
+
+    ExecutorMetricsJmx(ExecutorMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    private static double micros(double nanos) {
+        return nanos / 1000;
+    }
+
+    @Override
+    public int getLoops() {
+        return metrics.loops();
+    }
+
+    @Override
+    public int getQueueLength() {
+        return metrics.queueLength();
+    }
+
+    @Override
+    public int[] getQueueLengths() {
+        int[] lengths = new int[metrics.loops()];
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = metrics.queueLength(i);
+        }
+        return lengths;
+    }
+
+    @Override
+    public int getInFlight() {
+        return metrics.inFlight();
+    }
+
+    @Override
+    public int[] getInFlights() {
+        int[] inFlights = new int[metrics.loops()];
+        for (int i = 0; i < inFlights.length; i++) {
+            inFlights[i] = metrics.ring(i).inFlight();
+        }
+        return inFlights;
+    }
+
+    @Override
+    public int getPending() {
+        return metrics.pending();
+    }
+
+    @Override
+    public long getSubmitCalls() {
+        return metrics.submitCalls();
+    }
+
+    @Override
+    public long getSubmitted() {
+        return metrics.submitted();
+    }
+
+    @Override
+    public long getCompleted() {
+        return metrics.completed();
+    }
+
+    @Override
+    public long getCoalescedReads() {
+        return metrics.coalescedReads();
+    }
+
+    @Override
+    public long getHandedOff() {
+        return metrics.handedOff();
+    }
+
+    @Override
+    public double getMeanSubmissionsPerCall() {
+        return metrics.submissionsPerCall().mean();
+    }
+
+    @Override
+    public double getMeanCompletionsPerReap() {
+        return metrics.completionsPerReap().mean();
+    }
+
+    @Override
+    public long getReadCount() {
+        return metrics.latency(Submission.Operation.READ).count();
+    }
+
+    @Override
+    public double getReadLatencyMean() {
+        return micros(metrics.latency(Submission.Operation.READ).mean());
+    }
+
+    @Override
+    public double getReadLatencyP50() {
+        return micros(metrics.latency(Submission.Operation.READ).percentile(50));
+    }
+
+    @Override
+    public double getReadLatencyP99() {
+        return micros(metrics.latency(Submission.Operation.READ).percentile(99));
+    }
+
+    @Override
+    public double getReadLatencyP999() {
+        return micros(metrics.latency(Submission.Operation.READ).percentile(99.9));
+    }
+
+    @Override
+    public double getReadLatencyMax() {
+        return micros(metrics.latency(Submission.Operation.READ).max());
+    }
+
+    @Override
+    public long getWriteCount() {
+        return metrics.latency(Submission.Operation.WRITE).count();
+    }
+
+    @Override
+    public double getWriteLatencyMean() {
+        return micros(metrics.latency(Submission.Operation.WRITE).mean());
+    }
+
+    @Override
+    public double getWriteLatencyP50() {
+        return micros(metrics.latency(Submission.Operation.WRITE).percentile(50));
+    }
+
+    @Override
+    public double getWriteLatencyP99() {
+        return micros(metrics.latency(Submission.Operation.WRITE).percentile(99));
+    }
+
+    @Override
+    public double getWriteLatencyP999() {
+        return micros(metrics.latency(Submission.Operation.WRITE).percentile(99.9));
+    }
+
+    @Override
+    public double getWriteLatencyMax() {
+        return micros(metrics.latency(Submission.Operation.WRITE).max());
+    }
+}
@@ -0,0 +1,184 @@
+package io.github.jbellis.jfio.executor;
+
+/**
+ * JMX view of the {@link ExecutorMetrics} of an {@link IOExecutor}, registered when the executor is built with
+ * {@link IOExecutor.Builder#withJmxName}.
+ * <p>
+ * Latencies are in microseconds.
+ */
+public interface ExecutorMetricsMXBean {
+    /**
+     * The number of event loops.
+     *
+     * @return the number of event loops.
+     */
+    int getLoops();
+
+    /**
+     * The total number of submissions queued in the loops.
+     *
+     * @return the total number of submissions queued in the loops.
+     */
+    int getQueueLength();
+
+    /**
+     * The number of submissions queued in each loop.
+     *
+     * @return the number of submissions queued in each loop.
+     */
+    int[] getQueueLengths();
+
+    /**
+     * The total number of in-flight submissions.
+     *
+     * @return the total number of in-flight submissions.
+     */
+    int getInFlight();
+
+    /**
+     * The number of in-flight submissions of each loop.
+     *
+     * @return the number of in-flight submissions of each loop.
+     */
+    int[] getInFlights();
+
+    /**
+     * The total number of submissions added to the rings but not yet submitted.
+     *
+     * @return the total number of submissions added to the rings but not yet submitted.
+     */
+    int getPending();
+
+    /**
+     * The total number of submit calls.
+     *
+     * @return the total number of submit calls.
+     */
+    long getSubmitCalls();
+
+    /**
+     * The total number of submissions submitted.
+     *
+     * @return the total number of submissions submitted.
+     */
+    long getSubmitted();
+
+    /**
+     * The total number of completions reaped.
+     *
+     * @return the total number of completions reaped.
+     */
+    long getCompleted();
+
+    /**
+     * The total number of reads merged with other reads.
+     *
+     * @return the total number of reads merged with other reads.
+     */
+    long getCoalescedReads();
+
+    /**
+     * The total number of queued reads handed off from a loop to another.
+     *
+     * @return the total number of queued reads handed off from a loop to another.
+     */
+    long getHandedOff();
+
+    /**
+     * The mean number of submissions of the submit calls that submitted something.
+     *
+     * @return the mean number of submissions of the submit calls that submitted something.
+     */
+    double getMeanSubmissionsPerCall();
+
+    /**
+     * The mean number of completions of the submit calls that reaped something.
+     *
+     * @return the mean number of completions of the submit calls that reaped something.
+     */
+    double getMeanCompletionsPerReap();
+
+    /**
+     * The number of reads completed.
+     *
+     * @return the number of reads completed.
+     */
+    long getReadCount();
+
+    /**
+     * The mean read latency.
+     *
+     * @return the mean read latency.
+     */
+    double getReadLatencyMean();
+
+    /**
+     * The median read latency.
+     *
+     * @return the median read latency.
+     */
+    double getReadLatencyP50();
+
+    /**
+     * The 99th percentile read latency.
+     *
+     * @return the 99th percentile read latency.
+     */
+    double getReadLatencyP99();
+
+    /**
+     * The 99.9th percentile read latency.
+     *
+     * @return the 99.9th percentile read latency.
+     */
+    double getReadLatencyP999();
+
+    /**
+     * The maximum read latency.
+     *
+     * @return the maximum read latency.
+     */
+    double getReadLatencyMax();
+
+    /**
+     * The number of writes completed.
+     *
+     * @return the number of writes completed.
+     */
+    long getWriteCount();
+
+    /**
+     * The mean write latency.
+     *
+     * @return the mean write latency.
+     */
+    double getWriteLatencyMean();
+
+    /**
+     * The median write latency.
+     *
+     * @return the median write latency.
+     */
+    double getWriteLatencyP50();
+
+    /**
+     * The 99th percentile write latency.
+     *
+     * @return the 99th percentile write latency.
+     */
+    double getWriteLatencyP99();
+
+    /**
+     * The 99.9th percentile write latency.
+     *
+     * @return the 99.9th percentile write latency.
+     */
+    double getWriteLatencyP999();
+
+    /**
+     * The maximum write latency.
+     *
+     * @return the maximum write latency.
+     */
+    double getWriteLatencyMax();
+}
@@ -0,0 +1,22 @@
+package io.github.jbellis.jfio.executor;
+
+import io.github.jbellis.jfio.Submission;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A read or write submitted by a {@link FileReader} or {@link FileWriter}, which the event loops may hand off to one
+ * another (see {@link IOExecutor.Builder#withWorkStealing}) unless it is pinned to the loop it was routed to.
+ */
+abstract class ExecutorSubmission extends Submission {
+    /** Whether this must stay on the loop it was routed to (see {@link FileReader#pinnedToLoop}). */
+    boolean pinned;
+
+    ExecutorSubmission(int fd, int length, ByteBuffer buffer, long offset) {
+        super(fd, length, buffer, offset);
+    }
+
+    ExecutorSubmission(Operation operation, int fd, ByteBuffer[] buffers, long offset) {
+        super(operation, fd, buffers, offset);
+    }
+}
@@ -1,30 +1,117 @@
 package io.github.jbellis.jfio.executor;
 
-import io.github.jbellis.jfio.NativeProvider;
+import io.github.jbellis.jfio.BufferPool;
 import io.github.jbellis.jfio.Submission;
 import net.jcip.annotations.ThreadSafe;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.InterruptedByTimeoutException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Allows to read from a file asynchronously.
  */
 @ThreadSafe
 public class FileReader implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger();
+
     private final Path path;
     private final IOExecutor executor;
     private final boolean isDirect;
 
     private final int fd;
+    private final BlockCache blockCache;
+    /** Identifies the file in the {@link BlockCache}, where file descriptors would be ambiguous once reused. */
+    private final long fileId;
+    /** Where the reads are recorded for the warm-up of the next executors, if enabled. */
+    private final Warmup.BlockCounts readBlocks;
+    private final IOClass ioClass;
+    /** Whether the reads stay on the event loop they are routed to (see {@link #pinnedToLoop}). */
+    private final boolean pinned;
 
-    FileReader(Path path, IOExecutor executor) throws IOException {
+    FileReader(Path path, IOExecutor executor, int fd) {
         this.path = path;
         this.executor = executor;
         this.isDirect = executor.ringConfig().directIO();
-        this.fd = executor.openFile(path);
+        this.fd = fd;
+        this.blockCache = executor.blockCache();
+        this.fileId = blockCache == null ? 0 : blockCache.fileId(path);
+        Warmup warmup = executor.warmup();
+        this.readBlocks = warmup == null ? null : warmup.blocksOf(path);
+        this.ioClass = IOClass.FOREGROUND;
+        this.pinned = false;
+    }
+
+    private FileReader(FileReader reader, IOClass ioClass, boolean pinned) {
+        this.path = reader.path;
+        this.executor = reader.executor;
+        this.isDirect = reader.isDirect;
+        this.fd = reader.fd;
+        this.blockCache = reader.blockCache;
+        this.fileId = reader.fileId;
+        this.readBlocks = reader.readBlocks;
+        this.ioClass = ioClass;
+        this.pinned = pinned;
+    }
+
+    /**
+     * Returns a view of this reader submitting its I/O with the provided class.
+     * <p>
+     * The view shares the file of this reader: closing either closes the file for both.
+     *
+     * @param ioClass the class of the I/O of the returned reader.
+     * @return a reader of the same file, with {@code ioClass} as I/O class.
+     */
+    public FileReader withIOClass(IOClass ioClass) {
+        if (ioClass == this.ioClass) {
+            return this;
+        }
+        return new FileReader(this, ioClass, pinned);
+    }
+
+    /**
+     * The class of the I/O of this reader, {@link IOClass#FOREGROUND} unless set through {@link #withIOClass}.
+     *
+     * @return the I/O class.
+     */
+    public IOClass ioClass() {
+        return ioClass;
+    }
+
+    /**
+     * Returns a view of this reader whose reads always go to the ring of the event loop the
+     * {@link RoutingPolicy routing policy} picks for them: with {@link IOExecutor.Builder#withWorkStealing work
+     * stealing}, a backed up loop never hands them off to another one. This keeps the locality of the affinity
+     * policies ({@link RoutingPolicy#FILE_AFFINITY} and {@link RoutingPolicy#THREAD_AFFINITY}) for those reads. As a
+     * loop only hands off the reads at the head of its queues, the reads queued behind a pinned one stay too.
+     * <p>
+     * The view shares the file of this reader: closing either closes the file for both.
+     *
+     * @return a reader of the same file, whose reads are pinned to their loop.
+     */
+    public FileReader pinnedToLoop() {
+        if (pinned) {
+            return this;
+        }
+        return new FileReader(this, ioClass, true);
+    }
+
+    /**
+     * Whether the reads of this reader are pinned to the event loop they are routed to (see {@link #pinnedToLoop}).
+     *
+     * @return whether the reads of this reader are never handed off to another loop.
+     */
+    public boolean isPinnedToLoop() {
+        return pinned;
     }
 
     /**
@@ -36,6 +123,27 @@ public class FileReader implements AutoCloseable {
         return path;
     }
 
+    /**
+     * Asynchronously retrieves the current size of the file (through {@code statx}).
+     * <p>
+     * With {@link io.github.jbellis.jfio.IORing.Config#useIOPolling I/O polling}, whose rings only accept reads and
+     * writes, the size is retrieved synchronously instead.
+     *
+     * @return a future on the size, in bytes, of the file.
+     */
+    public CompletableFuture<Long> sizeAsync() {
+        if (executor.ringConfig().useIOPolling()) {
+            try {
+                return CompletableFuture.completedFuture(Files.size(path));
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        StatxSubmission submission = new StatxSubmission(fd);
+        submit(submission);
+        return submission.future;
+    }
+
     /**
      * Submits an asynchronous read request to the underlying {@link IOExecutor}.
      * <p>
@@ -45,30 +153,63 @@ public class FileReader implements AutoCloseable {
      * in the sense that the returned {@link ByteBuffer} will have its position and limit properly set to expose
      * only what {@code offset} and {@code length} covers, but it means this method may somewhat over-read under
      * the hood in that case).
+     * <p>
+     * The buffer read into is provided by the executor {@link IOExecutor#bufferPool() buffer pool}, and should be
+     * returned to it through {@link #release} once it is not used anymore.
+     * <p>
+     * If the executor has a {@link BlockCache}, the read goes through it, and so may complete immediately.
+     * <p>
+     * Cancelling the returned future (when the read does not go through the block cache) cancels the read in the
+     * ring, and its buffer is returned to the pool once the ring is done with it.
      *
      * @param offset the offset for the read.
      * @param length the length to read.
      * @return a future on the result of the read.
      */
     public CompletableFuture<ByteBuffer> readAsync(long offset, int length) {
-        long origOffset = offset;
-        int origLength = length;
-        ByteBuffer buffer;
-        if (isDirect) {
-            int offsetMod = (int) offset % 512;
-            if (offsetMod != 0) {
-                offset -= offsetMod;
-                length += offsetMod;
-            }
-            int lengthMod = length % 512;
-            if (lengthMod != 0) {
-                length += 512 - lengthMod;
-            }
-            buffer = NativeProvider.instance().allocateAligned(length);
-        } else {
-            buffer = ByteBuffer.allocateDirect(length);
+        recordRead(offset, length);
+        if (blockCache != null) {
+            return blockCache.read(this, offset, length);
         }
-        return readAsync(offset, length, buffer, origOffset, origLength);
+        return readUncached(offset, length);
+    }
+
+    /**
+     * Same as {@link #readAsync(long, int)}, but bounding the time the read can take: if it has not completed once
+     * {@code timeout} has elapsed after it was submitted to the ring, it is cancelled by the kernel, and the returned
+     * future fails with an {@link InterruptedByTimeoutException} (the read slot and buffer being freed). The timeout
+     * is enforced by the kernel, on a best effort basis: a read the device is already executing may not be
+     * interruptible, in which case it completes normally.
+     * <p>
+     * Such a read does not go through the {@link BlockCache} of the executor, if any.
+     *
+     * @param offset the offset for the read.
+     * @param length the length to read.
+     * @param timeout the maximum time the read can take once submitted.
+     * @param unit the unit of {@code timeout}.
+     * @return a future on the result of the read.
+     * @throws IllegalArgumentException if {@code timeout} is not positive, or if the rings of the executor have a
+     * depth of 1 (a read with a timeout taking 2 submission slots).
+     */
+    public CompletableFuture<ByteBuffer> readAsync(long offset, int length, long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("The timeout must be positive");
+        }
+        if (executor.ringConfig().depth() < 2) {
+            throw new IllegalArgumentException("Read timeouts require a ring depth of at least 2");
+        }
+        recordRead(offset, length);
+        AsyncReadSubmission submission = newPooledRead(offset, length);
+        submission.setTimeout(timeout, unit);
+        submit(submission);
+        return submission.future;
+    }
+
+    /** Same as {@link #readAsync(long, int)}, but ignoring the block cache of the executor, if any. */
+    CompletableFuture<ByteBuffer> readUncached(long offset, int length) {
+        AsyncReadSubmission submission = newPooledRead(offset, length);
+        submit(submission);
+        return submission.future;
     }
 
     /**
@@ -77,46 +218,275 @@ public class FileReader implements AutoCloseable {
      * If the underlying executor uses direct I/O, then the arguments to this method must respect a few constraints:
      *  - the offset must be aligned on 512 bytes.
      *  - the buffer must be a direct byte buffer aligned on 512 bytes, and it's length must also be a multiple of 512.
+     * <p>
+     * Cancelling the returned future does not cancel the read itself, since the buffer could not be known to be safe
+     * to reuse.
      *
      * @param offset the offset for the read.
      * @param buffer the buffer to read into; length of the read will be that of the buffer remaining bytes.
      * @return a future on the result of the read.
      */
     public CompletableFuture<ByteBuffer> readAsync(long offset, ByteBuffer buffer) {
-        return readAsync(offset, buffer.remaining(), buffer, offset, buffer.remaining());
+        recordRead(offset, buffer.remaining());
+        AsyncReadSubmission submission = new AsyncReadSubmission(
+                fd,
+                buffer.remaining(),
+                buffer,
+                offset,
+                offset,
+                buffer.remaining(),
+                isDirect,
+                null,
+                null
+        );
+        submit(submission);
+        return submission.future;
     }
 
-    private CompletableFuture<ByteBuffer> readAsync(
-            long offset,
-            int length,
-            ByteBuffer buffer,
-            long origOffset,
-            int origLength
-    ) {
-        AsyncReadSubmission submission = new AsyncReadSubmission(
+    /**
+     * Submits an asynchronous vectored read request to the underlying {@link IOExecutor}, scattering the bytes read
+     * from {@code offset} into the provided buffers, in order, in a single operation.
+     * <p>
+     * Each buffer is filled from its position to its limit before moving to the next one, and once the read
+     * completes, the buffers positions are advanced accordingly. The buffers should not be accessed until the
+     * returned future completes.
+     * <p>
+     * If the underlying executor uses direct I/O, then the offset, and the address and remaining bytes of each buffer,
+     * must be aligned on 512 bytes.
+     *
+     * @param offset the offset for the read.
+     * @param buffers the buffers to read into, at most {@link Submission#MAX_VECTORED_BUFFERS}. Those <b>must</b> be
+     *                direct buffers.
+     * @return a future on the total number of bytes read (which can be less than requested at the end of the file).
+     */
+    public CompletableFuture<Integer> readAsync(long offset, ByteBuffer... buffers) {
+        AsyncVectoredSubmission submission = new AsyncVectoredSubmission(
+                Submission.Operation.READV,
+                fd,
+                buffers,
+                offset,
+                isDirect
+        );
+        long length = 0;
+        for (ByteBuffer buffer : buffers) {
+            length += buffer.remaining();
+        }
+        recordRead(offset, (int) Math.min(length, Integer.MAX_VALUE));
+        submit(submission);
+        return submission.future;
+    }
+
+    /**
+     * Submits an asynchronous read request to the underlying {@link IOExecutor}, whose result is delivered to the
+     * provided handler, similarly to {@link java.nio.channels.AsynchronousFileChannel#read(ByteBuffer, long, Object,
+     * CompletionHandler)}.
+     * <p>
+     * Contrarily to {@link #readAsync(long, ByteBuffer)}, this allocates nothing per read in the steady state: no
+     * future is created, and the submission objects are recycled by the executor.
+     * <p>
+     * The handler is called by the event loop thread that performed the read, as soon as the read completes. It must
+     * therefore be quick and must not block, as it delays all the other operations of that loop. Exceptions it throws
+     * are logged and otherwise ignored.
+     * <p>
+     * The bytes read are transferred to the buffer starting at its position, and the position is then advanced by
+     * the number of bytes read (before the handler is called). If the underlying executor uses direct I/O, the same
+     * constraints as for {@link #readAsync(long, ByteBuffer)} apply.
+     *
+     * @param buffer the buffer to read into; length of the read will be that of the buffer remaining bytes. It
+     *               <b>must</b> be a direct buffer.
+     * @param offset the offset for the read.
+     * @param attachment the object to pass to the handler; can be {@code null}.
+     * @param handler the handler for consuming the result: the number of bytes read (which can be less than
+     *                requested at the end of the file, and is 0 at or past it), or the failure.
+     * @param <A> the type of the attachment.
+     */
+    @SuppressWarnings("unchecked")
+    public <A> void read(ByteBuffer buffer, long offset, A attachment, CompletionHandler<Integer, ? super A> handler) {
+        Objects.requireNonNull(handler, "The handler must not be null");
+        recordRead(offset, buffer.remaining());
+        HandlerReadSubmission submission = executor.pollReadSubmission();
+        if (submission == null) {
+            submission = new HandlerReadSubmission(executor, fd, buffer, offset);
+        } else {
+            try {
+                submission.reuse(fd, buffer, offset);
+            } catch (RuntimeException e) {
+                executor.recycleReadSubmission(submission);
+                throw e;
+            }
+        }
+        submission.isDirect = isDirect;
+        submission.handler = (CompletionHandler<Integer, Object>) handler;
+        submission.attachment = attachment;
+        submit(submission);
+    }
+
+    /**
+     * Scans the whole file, front to back, in chunks, keeping reads in flight ahead of the consumer.
+     * <p>
+     * Each subscriber of the returned publisher gets its own scan, which reads the file from its start up to the
+     * size it has when the scan starts. The chunks are delivered in file order, each as a buffer of
+     * {@code chunkSize} bytes (but the last one, which may be smaller), and the scan respects the subscriber demand:
+     * no more than {@code maxReadsInFlight} chunks are ever read ahead of it.
+     * <p>
+     * The number of reads kept ahead of the subscriber starts at 1 and adapts to the subscriber: it doubles (up to
+     * {@code maxReadsInFlight}) whenever the subscriber has to wait on a read, so a fast consumer ends up with deep
+     * queues (which is what saturates a device, in particular with direct I/O), while a slow one does not hold
+     * onto more buffers than needed.
+     * <p>
+     * The delivered buffers come from the executor {@link IOExecutor#bufferPool() buffer pool}, and should be returned
+     * to it through {@link #release} once consumed, so that the following reads reuse them. The subscriber methods
+     * may be called by the event loop threads, so they must be quick and must not block.
+     *
+     * @param chunkSize the size of the reads; with direct I/O, it should be a multiple of 512.
+     * @param maxReadsInFlight the maximum number of reads ahead of the subscriber.
+     * @return a publisher of the chunks of the file.
+     */
+    public Flow.Publisher<ByteBuffer> scan(int chunkSize, int maxReadsInFlight) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("The chunk size must be positive");
+        }
+        if (maxReadsInFlight <= 0) {
+            throw new IllegalArgumentException("The maximum number of reads in flight must be positive");
+        }
+        return new FileScan(this, chunkSize, maxReadsInFlight);
+    }
+
+    /**
+     * Returns a buffer obtained from {@link #readAsync(long, int)} (or {@link #scan}) to the executor buffer pool.
+     * <p>
+     * This is a shortcut for {@code executor.bufferPool().release(buffer)}.
+     *
+     * @param buffer the buffer to release. Neither it nor any view of it must be used after this call.
+     */
+    public void release(ByteBuffer buffer) {
+        executor.bufferPool().release(buffer);
+    }
+
+    /** Submits to the executor with the I/O class of this reader. */
+    void submit(Submission submission) {
+        if (submission instanceof ExecutorSubmission) {
+            ((ExecutorSubmission) submission).pinned = pinned;
+        }
+        if (executor.usesKernelIOPriorities()) {
+            submission.setIOPriority(ioClass.ioPriority);
+        }
+        executor.submit(submission, ioClass);
+    }
+
+    /** Records a read for the warm-up of the next executors, if enabled. */
+    void recordRead(long offset, int length) {
+        if (readBlocks != null) {
+            readBlocks.record(offset, length);
+        }
+    }
+
+    /** The file descriptor of the file. */
+    int fd() {
+        return fd;
+    }
+
+    /** The identifier of the file in the block cache, if any. */
+    long fileId() {
+        return fileId;
+    }
+
+    /** The executor this is a reader of. */
+    IOExecutor executor() {
+        return executor;
+    }
+
+    /**
+     * Creates, without submitting it, the read of {@link #readAsync(long, int)}: a read into a buffer of the executor
+     * pool, extended to be aligned if the executor uses direct I/O.
+     */
+    AsyncReadSubmission newPooledRead(long offset, int length) {
+        long origOffset = offset;
+        int origLength = length;
+        if (isDirect) {
+            int offsetMod = (int) (offset % 512);
+            if (offsetMod != 0) {
+                offset -= offsetMod;
+                length += offsetMod;
+            }
+            int lengthMod = length % 512;
+            if (lengthMod != 0) {
+                length += 512 - lengthMod;
+            }
+        }
+        ByteBuffer buffer = executor.bufferPool().acquire(length);
+        return new AsyncReadSubmission(
                 fd,
                 length,
                 buffer,
                 offset,
                 origOffset,
                 origLength,
-                isDirect
+                isDirect,
+                executor.bufferPool(),
+                executor
         );
-        executor.submit(submission);
-        return submission.future;
+    }
+
+    /**
+     * Asynchronously closes this reader.
+     * <p>
+     * No read must be submitted on this reader after this call.
+     *
+     * @return a future completed once the file is closed.
+     */
+    public CompletableFuture<Void> closeAsync() {
+        return executor.closeFileAsync(fd);
     }
 
     @Override
     public void close() throws IOException {
-        executor.closeFile(fd);
+        IOExecutor.join(closeAsync());
     }
 
-    private static class AsyncReadSubmission extends Submission {
-        private final CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+    private static class StatxSubmission extends Submission {
+        private final CompletableFuture<Long> future = new CompletableFuture<>();
+
+        private StatxSubmission(int fd) {
+            super(Operation.STATX, fd);
+        }
+
+        @Override
+        public void onCompletion(int res) {
+            if (res < 0) {
+                future.completeExceptionally(new IOException("Statx returned error " + (-res)));
+            } else {
+                future.complete(statxFileSize(buffer()));
+            }
+        }
+    }
+
+    static class AsyncReadSubmission extends ExecutorSubmission {
+        final CompletableFuture<ByteBuffer> future;
 
         private final long origOffset;
         private final int origLength;
         private final boolean isDirect;
+        // The pool the buffer comes from, if we allocated it, so it can be released on failure (or cancellation).
+        private final BufferPool pool;
+
+        /** Cancels the read in the ring when cancelled. Only used for reads into a pooled buffer, released once done. */
+        private class CancellableFuture extends CompletableFuture<ByteBuffer> {
+            private final IOExecutor executor;
+
+            private CancellableFuture(IOExecutor executor) {
+                this.executor = executor;
+            }
+
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                if (cancelled) {
+                    executor.cancel(AsyncReadSubmission.this);
+                }
+                return cancelled;
+            }
+        }
 
         private AsyncReadSubmission(
                 int fd,
@@ -125,49 +495,110 @@ public class FileReader implements AutoCloseable {
                 long offset,
                 long origOffset,
                 int origLength,
-                boolean isDirect
+                boolean isDirect,
+                BufferPool pool,
+                IOExecutor executor
         ) {
             super(fd, length, buffer, offset);
             this.origOffset = origOffset;
             this.origLength = origLength;
             this.isDirect = isDirect;
+            this.pool = pool;
+            this.future = executor == null ? new CompletableFuture<>() : new CancellableFuture(executor);
         }
 
-        private void checkDirectIOAlignments() {
-            checkDirectIOAlignment(offset(), "offset");
-            checkDirectIOAlignment(NativeProvider.instance().address(buffer()), "the buffer starting address");
-            checkDirectIOAlignment(buffer().remaining(), "the buffer length");
-        }
-
-        private static void checkDirectIOAlignment(long value, String name) {
-            if (value % 512 != 0) {
-                throw new IllegalArgumentException(String.format("%s must be aligned on 512 bytes for direct I/O", name));
-            }
+        /** Whether this reads into a buffer of the executor pool, which is the case of {@link #newPooledRead}. */
+        boolean isPooled() {
+            return pool != null;
         }
 
         @Override
         public void onCompletion(int res) {
             if (res < 0) {
                 int errno = -res;
-                if (errno == 22 && isDirect) {
+                Exception error = new IOException("Read returned error " + errno);
+                if (errno == Submission.ECANCELED_ERRNO && timeoutNanos() > 0) {
+                    // Cancelled by its timeout (an explicit cancellation has cancelled the future already).
+                    error = new InterruptedByTimeoutException();
+                } else if (errno == 22 && isDirect) {
                     // 22 is EINVAL, and is typically returned when the buffer and/or offset are not correctly aligned.
                     // So check that and give a more meaningful error message.
                     // Note that we could do those check pre-submission, but no point in taking time doing it since
                     // it's going to be checked by io_uring internally anyway.
                     try {
-                        checkDirectIOAlignments();
+                        DirectIO.checkAlignments(this);
                     } catch (IllegalArgumentException e) {
-                        future.completeExceptionally(e);
-                        return;
+                        error = e;
                     }
                 }
-                future.completeExceptionally(new IOException("Read returned error %d" + errno));
+                // The buffer is never exposed to the caller in that case, so it can go straight back to the pool.
+                if (pool != null) {
+                    pool.release(buffer());
+                }
+                future.completeExceptionally(error);
             } else {
                 ByteBuffer buffer = buffer();
                 int pos = (int) (origOffset - offset());
                 buffer.position(pos);
                 buffer.limit(pos + Math.min(origLength, res));
-                future.complete(buffer);
+                if (!future.complete(buffer) && pool != null) {
+                    // Cancelled, so nobody else will release it.
+                    pool.release(buffer);
+                }
+            }
+        }
+    }
+
+    /** A read submission that reports to a {@link CompletionHandler}, and is recycled once completed. */
+    static class HandlerReadSubmission extends ExecutorSubmission {
+        private final IOExecutor executor;
+        private boolean isDirect;
+        private CompletionHandler<Integer, Object> handler;
+        private Object attachment;
+
+        private HandlerReadSubmission(IOExecutor executor, int fd, ByteBuffer buffer, long offset) {
+            super(fd, buffer.remaining(), buffer, offset);
+            this.executor = executor;
+        }
+
+        private void reuse(int fd, ByteBuffer buffer, long offset) {
+            reset(Operation.READ, fd, buffer.remaining(), buffer, offset);
+        }
+
+        @Override
+        public void onCompletion(int res) {
+            Throwable error = null;
+            if (res < 0) {
+                int errno = -res;
+                error = new IOException("Read returned error " + errno);
+                if (errno == 22 && isDirect) {
+                    // 22 is EINVAL, and is typically returned when the buffer and/or offset are not correctly aligned.
+                    try {
+                        DirectIO.checkAlignments(this);
+                    } catch (IllegalArgumentException e) {
+                        error = e;
+                    }
+                }
+            } else {
+                ByteBuffer buffer = buffer();
+                buffer.position(buffer.position() + res);
+            }
+
+            CompletionHandler<Integer, Object> handler = this.handler;
+            Object attachment = this.attachment;
+            this.handler = null;
+            this.attachment = null;
+            // Recycled before calling the handler, so that the handler's own reads can reuse it.
+            executor.recycleReadSubmission(this);
+
+            try {
+                if (error == null) {
+                    handler.completed(res, attachment);
+                } else {
+                    handler.failed(error, attachment);
+                }
+            } catch (Throwable t) {
+                logger.error("Unexpected error in read completion handler", t);
             }
         }
     }
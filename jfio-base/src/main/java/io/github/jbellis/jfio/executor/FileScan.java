@@ -0,0 +1,176 @@
+package io.github.jbellis.jfio.executor;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The publisher of {@link FileReader#scan}: every subscriber gets its own scan of the whole file, front to back.
+ */
+class FileScan implements Flow.Publisher<ByteBuffer> {
+    private static final Logger logger = LogManager.getLogger();
+
+    private final FileReader reader;
+    private final int chunkSize;
+    private final int maxReadsInFlight;
+
+    FileScan(FileReader reader, int chunkSize, int maxReadsInFlight) {
+        this.reader = reader;
+        this.chunkSize = chunkSize;
+        this.maxReadsInFlight = maxReadsInFlight;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        Objects.requireNonNull(subscriber, "The subscriber must not be null");
+        new Scan(subscriber).start();
+    }
+
+    /**
+     * A scan for a given subscriber.
+     * <p>
+     * All the state but {@link #demand} and {@link #cancelled} is only accessed by {@link #drain}, which never runs
+     * concurrently with itself (callers that find it running just make the running one loop again).
+     */
+    private class Scan implements Flow.Subscription {
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+
+        private final AtomicInteger drainers = new AtomicInteger();
+        private final AtomicLong demand = new AtomicLong();
+        private volatile boolean cancelled;
+        private volatile Throwable requestError;
+
+        private volatile CompletableFuture<Long> size;
+        private long nextOffset;
+        /** The reads ahead of the subscriber, in file order: both in flight and completed but not delivered yet. */
+        private final Queue<CompletableFuture<ByteBuffer>> reads = new ArrayDeque<>();
+        /** The number of reads to keep ahead of the subscriber, which grows whenever it waits on reads. */
+        private int window = 1;
+        private boolean grownSinceDelivery;
+        private boolean done;
+
+        private Scan(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        private void start() {
+            subscriber.onSubscribe(this);
+            CompletableFuture<Long> size;
+            try {
+                size = reader.sizeAsync();
+            } catch (RuntimeException e) {
+                // Typically, the executor is closed.
+                size = CompletableFuture.failedFuture(e);
+            }
+            this.size = size;
+            size.whenComplete((s, e) -> drain());
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                requestError = new IllegalArgumentException("The requested number of buffers must be positive, got " + n);
+            } else {
+                demand.getAndUpdate(d -> d + n < 0 ? Long.MAX_VALUE : d + n);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        private void drain() {
+            if (drainers.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                if (!done) {
+                    try {
+                        drainOnce();
+                    } catch (Throwable t) {
+                        logger.error("Unexpected error from the subscriber of a scan of {}, cancelling", reader.path(), t);
+                        terminate(null);
+                    }
+                }
+            } while (drainers.decrementAndGet() != 0);
+        }
+
+        private void drainOnce() {
+            if (cancelled) {
+                terminate(null);
+                return;
+            }
+            if (requestError != null) {
+                terminate(requestError);
+                return;
+            }
+            if (size == null || !size.isDone()) {
+                return;
+            }
+            if (size.isCompletedExceptionally()) {
+                terminate(size.handle((s, e) -> e).join());
+                return;
+            }
+
+            // Deliver the completed reads, in order, as far as the demand goes.
+            while (demand.get() > 0 && !reads.isEmpty() && reads.peek().isDone()) {
+                CompletableFuture<ByteBuffer> read = reads.poll();
+                if (read.isCompletedExceptionally()) {
+                    terminate(read.handle((b, e) -> e).join());
+                    return;
+                }
+                demand.decrementAndGet();
+                grownSinceDelivery = false;
+                subscriber.onNext(read.join());
+                if (cancelled) {
+                    terminate(null);
+                    return;
+                }
+            }
+
+            long fileSize = size.join();
+            if (reads.isEmpty() && nextOffset >= fileSize) {
+                done = true;
+                subscriber.onComplete();
+                return;
+            }
+
+            // The subscriber waits on a read in flight: we are not reading far enough ahead.
+            if (demand.get() > 0 && !reads.isEmpty() && !grownSinceDelivery && window < maxReadsInFlight && nextOffset < fileSize) {
+                window = Math.min(window * 2, maxReadsInFlight);
+                grownSinceDelivery = true;
+            }
+
+            while (reads.size() < window && nextOffset < fileSize) {
+                int length = (int) Math.min(chunkSize, fileSize - nextOffset);
+                CompletableFuture<ByteBuffer> read = reader.readUncached(nextOffset, length);
+                nextOffset += length;
+                reads.add(read);
+                read.whenComplete((b, e) -> drain());
+            }
+        }
+
+        /** Ends the scan, with the provided error if not {@code null}, returning the buffers read ahead to the pool. */
+        private void terminate(Throwable error) {
+            done = true;
+            for (CompletableFuture<ByteBuffer> read : reads) {
+                read.thenAccept(reader::release);
+            }
+            reads.clear();
+            if (error != null && !cancelled) {
+                subscriber.onError(error);
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package io.github.jbellis.jfio.executor;
+
+import io.github.jbellis.jfio.Submission;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Allows to write to a file asynchronously.
+ */
+@ThreadSafe
+public class FileWriter implements AutoCloseable {
+    private static final OpenOption[] DEFAULT_OPTIONS = { StandardOpenOption.CREATE, StandardOpenOption.WRITE };
+
+    private final Path path;
+    private final IOExecutor executor;
+    private final boolean isDirect;
+
+    private final int fd;
+
+    FileWriter(Path path, IOExecutor executor, int fd) {
+        this.path = path;
+        this.executor = executor;
+        this.isDirect = executor.ringConfig().directIO();
+        this.fd = fd;
+    }
+
+    static OpenOption[] withWrite(OpenOption[] options) {
+        if (options.length == 0) {
+            return DEFAULT_OPTIONS;
+        }
+        OpenOption[] withWrite = Arrays.copyOf(options, options.length + 1);
+        withWrite[options.length] = StandardOpenOption.WRITE;
+        return withWrite;
+    }
+
+    /**
+     * The path of the file this is a writer of.
+     *
+     * @return the file path.
+     */
+    public Path path() {
+        return path;
+    }
+
+    /**
+     * Submits an asynchronous write request to the underlying {@link IOExecutor}.
+     * <p>
+     * The bytes between the buffer position and its limit are written. Once the write completes, the position of the
+     * buffer is advanced by the number of bytes written (which, similarly to
+     * {@link java.nio.channels.AsynchronousFileChannel#write}, may be less than the buffer remaining bytes). The
+     * buffer should not be modified until the returned future completes.
+     * <p>
+     * If the file was opened with {@link StandardOpenOption#APPEND}, the {@code offset} is ignored and the data is
+     * appended to the end of the file.
+     * <p>
+     * If the underlying executor uses direct I/O, then the arguments to this method must respect a few constraints:
+     *  - the offset must be aligned on 512 bytes.
+     *  - the buffer must be a direct byte buffer aligned on 512 bytes, and it's remaining bytes must also be a
+     *  multiple of 512.
+     *
+     * @param offset the offset in the file at which to write.
+     * @param buffer the buffer to write; it <b>must</b> be a direct buffer.
+     * @return a future on the number of bytes written.
+     */
+    public CompletableFuture<Integer> writeAsync(long offset, ByteBuffer buffer) {
+        AsyncWriteSubmission submission = new AsyncWriteSubmission(fd, buffer, offset, isDirect);
+        executor.submit(submission);
+        return submission.future;
+    }
+
+    /**
+     * Submits an asynchronous vectored write request to the underlying {@link IOExecutor}, gathering the bytes to
+     * write at {@code offset} from the provided buffers, in order, in a single operation.
+     * <p>
+     * The bytes between the position and the limit of each buffer are written, and once the write completes, the
+     * buffers positions are advanced by the number of bytes written from each. The buffers should not be modified
+     * until the returned future completes.
+     * <p>
+     * If the underlying executor uses direct I/O, then the offset, and the address and remaining bytes of each buffer,
+     * must be aligned on 512 bytes.
+     *
+     * @param offset the offset in the file at which to write.
+     * @param buffers the buffers to write, at most {@link Submission#MAX_VECTORED_BUFFERS}. Those <b>must</b> be
+     *                direct buffers.
+     * @return a future on the total number of bytes written.
+     */
+    public CompletableFuture<Integer> writeAsync(long offset, ByteBuffer... buffers) {
+        AsyncVectoredSubmission submission = new AsyncVectoredSubmission(
+                Submission.Operation.WRITEV,
+                fd,
+                buffers,
+                offset,
+                isDirect
+        );
+        executor.submit(submission);
+        return submission.future;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOExecutor.join(executor.closeFileAsync(fd));
+    }
+
+    private static class AsyncWriteSubmission extends Submission {
+        private final CompletableFuture<Integer> future = new CompletableFuture<>();
+
+        private final boolean isDirect;
+
+        private AsyncWriteSubmission(int fd, ByteBuffer buffer, long offset, boolean isDirect) {
+            super(Operation.WRITE, fd, buffer.remaining(), buffer, offset);
+            this.isDirect = isDirect;
+        }
+
+        @Override
+        public void onCompletion(int res) {
+            if (res < 0) {
+                int errno = -res;
+                if (errno == 22 && isDirect) {
+                    // 22 is EINVAL, and is typically returned when the buffer and/or offset are not correctly aligned.
+                    try {
+                        DirectIO.checkAlignments(this);
+                    } catch (IllegalArgumentException e) {
+                        future.completeExceptionally(e);
+                        return;
+                    }
+                }
+                future.completeExceptionally(new IOException("Write returned error " + errno));
+            } else {
+                ByteBuffer buffer = buffer();
+                buffer.position(buffer.position() + res);
+                future.complete(res);
+            }
+        }
+    }
+}
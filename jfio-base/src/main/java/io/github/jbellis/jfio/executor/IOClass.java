@@ -0,0 +1,32 @@
+package io.github.jbellis.jfio.executor;
+
+/**
+ * The class of the I/O of a {@link FileReader} (see {@link FileReader#withIOClass}), which decides how its reads are
+ * scheduled relative to the others.
+ * <p>
+ * Each event loop queues the submissions of each class separately, and picks the next ones to add to its ring
+ * {@link IOExecutor.Builder#withIOClassWeights fairly, by weight}: foreground reads jump ahead of queued background
+ * ones, while background ones still get their share instead of being starved. If enabled (see
+ * {@link IOExecutor.Builder#withKernelIOPriorities}), the class is also passed on to the kernel I/O scheduler, and the
+ * I/O of a class can be {@link IOExecutor.Builder#withRateLimiter rate limited}.
+ */
+public enum IOClass {
+    /** Latency-sensitive I/O, typically serving user requests. This is the default. */
+    FOREGROUND(0),
+    /** Throughput-oriented I/O that can be delayed, like compactions or scans. */
+    BACKGROUND(7);
+
+    /** The best-effort I/O scheduling class ({@code IOPRIO_CLASS_BE}). */
+    private static final int IOPRIO_CLASS_BE = 2;
+    private static final int IOPRIO_CLASS_SHIFT = 13;
+
+    /**
+     * The kernel I/O priority of the class: both are in the best-effort class (the idle one could starve background
+     * I/O entirely), foreground at the highest level and background at the lowest.
+     */
+    final int ioPriority;
+
+    IOClass(int level) {
+        this.ioPriority = (IOPRIO_CLASS_BE << IOPRIO_CLASS_SHIFT) | level;
+    }
+}
@@ -1,21 +1,59 @@
 package io.github.jbellis.jfio.executor;
 
+import io.github.jbellis.jfio.BufferPool;
 import io.github.jbellis.jfio.IORing;
+import io.github.jbellis.jfio.RegisteredBuffers;
 import io.github.jbellis.jfio.Submission;
 import net.jcip.annotations.ThreadSafe;
+import org.jctools.queues.MessagePassingQueue;
+import org.jctools.queues.MpmcArrayQueue;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 
 /**
- * An executor that can be used to submit read requests.
+ * An executor that can be used to submit read and write requests.
  * <p>
- * An {@code IOExecutor} abstract one or multiple event loop threads that will be used to submit the read requests
- * and watch for their completion.
+ * An {@code IOExecutor} abstract one or multiple event loop threads that will be used to submit the read and write
+ * requests and watch for their completion (or, for a {@link ThreadPerCoreExecutor}, the rings of the threads using
+ * it).
  */
 @ThreadSafe
 public abstract class IOExecutor implements AutoCloseable {
-    IOExecutor() {}
+    /** The maximum number of recycled submissions kept for {@link FileReader#read}. */
+    private static final int MAX_POOLED_READ_SUBMISSIONS = 1024;
+
+    private final BufferPool bufferPool;
+    private final BlockCache blockCache;
+    /** Submissions of {@link FileReader#read} that completed and can be reused. */
+    private final MessagePassingQueue<FileReader.HandlerReadSubmission> readSubmissionPool =
+            new MpmcArrayQueue<>(MAX_POOLED_READ_SUBMISSIONS);
+    /** Records the blocks read, and prefetches those of the previous executor, if enabled. */
+    private volatile Warmup warmup;
+    private volatile CompletableFuture<Void> warmedUp = CompletableFuture.completedFuture(null);
+    /** The name under which the metrics of this executor are registered with JMX, if they are. */
+    private volatile ObjectName jmxName;
+    /** Whether the {@link IOClass} of reads is passed to the kernel (see {@link Builder#withKernelIOPriorities}). */
+    private volatile boolean kernelIOPriorities;
+
+    IOExecutor(BufferPool bufferPool, BlockCache blockCache) {
+        this.bufferPool = bufferPool;
+        this.blockCache = blockCache;
+    }
 
     /**
      * Creates a new single threaded {@code IOExecutor}.
@@ -24,7 +62,7 @@ public abstract class IOExecutor implements AutoCloseable {
      * @return the created executor.
      */
     public static IOExecutor singleThreaded(IORing.Config ringConfig) {
-        return new EventLoop(IORing.create(ringConfig));
+        return builder(ringConfig).build();
     }
 
     /**
@@ -35,15 +73,17 @@ public abstract class IOExecutor implements AutoCloseable {
      * @return the created executor.
      */
     public static IOExecutor multiThreaded(int threadCount, IORing.Config ringConfig) {
-        if (threadCount == 1) {
-            return singleThreaded(ringConfig);
-        }
+        return builder(ringConfig).withThreads(threadCount).build();
+    }
 
-        EventLoop[] loops = new EventLoop[threadCount];
-        for (int i = 0; i < threadCount; i++) {
-            loops[i] = new EventLoop(IORing.create(ringConfig));
-        }
-        return new MultiLoopExecutor(loops);
+    /**
+     * Creates a builder for an {@code IOExecutor}, for when more than the ring configuration needs to be set.
+     *
+     * @param ringConfig configuration for the underlying {@link IORing}(s).
+     * @return the created builder.
+     */
+    public static Builder builder(IORing.Config ringConfig) {
+        return new Builder(ringConfig);
     }
 
     /**
@@ -53,21 +93,726 @@ public abstract class IOExecutor implements AutoCloseable {
      */
     public abstract IORing.Config ringConfig();
 
+    /**
+     * The pool providing the buffers allocated by this executor, like the ones returned by
+     * {@link FileReader#readAsync(long, int)}.
+     *
+     * @return the buffer pool of this executor.
+     */
+    public BufferPool bufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * The cache of the blocks read through this executor, if it has one (see {@link Builder#withBlockCache}).
+     *
+     * @return the block cache of this executor, or {@code null} if it has none.
+     */
+    public BlockCache blockCache() {
+        return blockCache;
+    }
+
+    /**
+     * A future on the end of the warm-up of this executor (see {@link Builder#withWarmup}), that is of the prefetch
+     * of the blocks read by the previous executor.
+     *
+     * @return a future completed once the warm-up is done (or stopped because this executor is closed), which is
+     * already completed if warm-up is not enabled. It never completes exceptionally.
+     */
+    public CompletableFuture<Void> warmedUp() {
+        return warmedUp;
+    }
+
+    /**
+     * The metrics of this executor.
+     * <p>
+     * The returned object is a live view of the executor metrics, and can be used from any thread.
+     *
+     * @return the executor metrics.
+     */
+    public ExecutorMetrics metrics() {
+        return new ExecutorMetrics(this::loops);
+    }
+
     /**
      * Creates a new {@link FileReader} for the provided path.
+     * <p>
+     * This blocks until the file is opened; see {@link #openForReadingAsync} and {@link #openAll} for non-blocking
+     * alternatives.
      *
      * @param path the path to the file to read.
      * @return the created reader.
      * @throws IOException if the file cannot be opened for reading.
      */
     public FileReader openForReading(Path path) throws IOException {
-        return new FileReader(path, this);
+        return join(openForReadingAsync(path));
+    }
+
+    /**
+     * Asynchronously creates a new {@link FileReader} for the provided path.
+     * <p>
+     * The file is opened through the underlying ring, like any other operation.
+     *
+     * @param path the path to the file to read.
+     * @return a future on the created reader, which completes exceptionally with an {@link IOException} if the file
+     * cannot be opened for reading.
+     */
+    public CompletableFuture<FileReader> openForReadingAsync(Path path) {
+        return openFileAsync(path).thenApply(fd -> new FileReader(path, this, fd));
+    }
+
+    /**
+     * Asynchronously creates a {@link FileReader} for each of the provided paths.
+     * <p>
+     * This is equivalent to calling {@link #openForReadingAsync} for every path (so the files are opened
+     * concurrently, as many at once as the underlying ring(s) allow), but if any of the files cannot be opened, the
+     * readers of the other ones are closed.
+     *
+     * @param paths the paths to the files to read.
+     * @return a future on the created readers, in the order of {@code paths}, which completes exceptionally if any
+     * of the files cannot be opened for reading.
+     */
+    public CompletableFuture<List<FileReader>> openAll(Collection<Path> paths) {
+        List<CompletableFuture<FileReader>> futures = new ArrayList<>(paths.size());
+        for (Path path : paths) {
+            futures.add(openForReadingAsync(path));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).handle((v, error) -> {
+            if (error == null) {
+                List<FileReader> readers = new ArrayList<>(futures.size());
+                for (CompletableFuture<FileReader> future : futures) {
+                    readers.add(future.join());
+                }
+                return readers;
+            }
+
+            for (CompletableFuture<FileReader> future : futures) {
+                if (!future.isCompletedExceptionally()) {
+                    future.join().closeAsync();
+                }
+            }
+            throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+        });
     }
 
-    abstract void submit(Submission submission);
-    abstract int openFile(Path path) throws IOException;
-    abstract void closeFile(int fd) throws IOException;
+    /**
+     * Submits a batch of reads, possibly on different files, as a single unit.
+     * <p>
+     * Each read behaves like {@link FileReader#readAsync(long, int)}, but the whole batch is handed to a single event
+     * loop at once, and so is submitted to its ring with as few system calls as possible (a single one if the ring has
+     * room for the whole batch), and with a single wake-up of the loop. This is typically more efficient than
+     * individual reads for point lookups that need to read multiple small blocks.
+     * <p>
+     * The buffers returned are provided by the {@link #bufferPool() buffer pool}, and should be returned to it once
+     * they are not used anymore.
+     * <p>
+     * If this executor has a {@link #blockCache() block cache}, the reads go through it instead, like those of
+     * {@link FileReader#readAsync(long, int)}: the cached blocks are served directly, and the missing ones read
+     * individually.
+     * <p>
+     * Batches are scheduled as {@link IOClass#FOREGROUND} I/O, whatever the {@link FileReader#ioClass() class} of
+     * their readers (which still sets the kernel priority of each read, if {@link Builder#withKernelIOPriorities
+     * enabled}).
+     *
+     * @param reads the reads to submit, whose readers must all have been opened by this executor.
+     * @return a future on the buffers read, in the order of {@code reads}. If any of the reads fails, the future
+     * completes exceptionally (and the buffers of the other reads are released to the pool).
+     * @throws IllegalArgumentException if one of the readers is not from this executor.
+     */
+    public CompletableFuture<List<ByteBuffer>> readBatch(List<BatchRead> reads) {
+        for (BatchRead read : reads) {
+            if (read.reader().executor() != this) {
+                throw new IllegalArgumentException("The reader of " + read + " was not opened by this executor");
+            }
+        }
+        for (BatchRead read : reads) {
+            read.reader().recordRead(read.offset(), read.length());
+        }
+        if (reads.isEmpty()) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+
+        List<CompletableFuture<ByteBuffer>> futures = new ArrayList<>(reads.size());
+        if (blockCache != null) {
+            for (BatchRead read : reads) {
+                futures.add(blockCache.read(read.reader(), read.offset(), read.length()));
+            }
+        } else {
+            Submission[] submissions = new Submission[reads.size()];
+            try {
+                for (int i = 0; i < submissions.length; i++) {
+                    BatchRead read = reads.get(i);
+                    FileReader.AsyncReadSubmission submission =
+                            read.reader().newPooledRead(read.offset(), read.length());
+                    if (kernelIOPriorities) {
+                        submission.setIOPriority(read.reader().ioClass().ioPriority);
+                    }
+                    submissions[i] = submission;
+                    futures.add(submission.future);
+                }
+                submitAll(submissions);
+            } catch (RuntimeException e) {
+                // Typically a closed executor: nothing was submitted, so the buffers are not used by anything.
+                for (Submission submission : submissions) {
+                    if (submission != null) {
+                        bufferPool.release(submission.buffer());
+                    }
+                }
+                throw e;
+            }
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).handle((v, error) -> {
+            List<ByteBuffer> buffers = new ArrayList<>(futures.size());
+            for (CompletableFuture<ByteBuffer> future : futures) {
+                if (!future.isCompletedExceptionally()) {
+                    buffers.add(future.join());
+                }
+            }
+            if (error == null) {
+                return buffers;
+            }
+
+            for (ByteBuffer buffer : buffers) {
+                bufferPool.release(buffer);
+            }
+            throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+        });
+    }
+
+    /**
+     * Creates a new {@link FileWriter} for the provided path.
+     * <p>
+     * The supported options are {@link StandardOpenOption#WRITE}, {@link StandardOpenOption#APPEND},
+     * {@link StandardOpenOption#CREATE}, {@link StandardOpenOption#CREATE_NEW} and
+     * {@link StandardOpenOption#TRUNCATE_EXISTING}, with the same meaning as for
+     * {@link java.nio.channels.FileChannel#open}. If no options are provided, this behaves as if the
+     * {@link StandardOpenOption#CREATE} and {@link StandardOpenOption#WRITE} options were provided.
+     *
+     * @param path the path to the file to write.
+     * @param options options specifying how the file is opened.
+     * @return the created writer.
+     * @throws IOException if the file cannot be opened for writing.
+     * @throws UnsupportedOperationException if an unsupported option is specified.
+     */
+    public FileWriter openForWriting(Path path, OpenOption... options) throws IOException {
+        if (blockCache != null) {
+            blockCache.invalidate(path);
+        }
+        int fd = join(openFileAsync(path, FileWriter.withWrite(options)));
+        return new FileWriter(path, this, fd);
+    }
+
+    /**
+     * Allocates buffers and registers them with the underlying ring(s) of this executor.
+     * <p>
+     * Reads (and writes) whose buffer is one of the returned buffers (see {@link RegisteredBuffers#acquire} and
+     * {@link RegisteredBuffers#buffer}) then use "fixed" operations, which avoids the kernel pinning and mapping
+     * the buffer pages on every operation. Typically, such buffers are used with
+     * {@link FileReader#readAsync(long, java.nio.ByteBuffer)}.
+     * <p>
+     * Buffers can only be registered once per executor.
+     *
+     * @param count the number of buffers to allocate.
+     * @param bufferSize the size of each buffer. When using direct I/O, this should be a multiple of 512.
+     * @return the registered buffers.
+     * @throws IllegalStateException if this executor already has registered buffers.
+     */
+    public RegisteredBuffers registerBuffers(int count, int bufferSize) {
+        RegisteredBuffers buffers = RegisteredBuffers.allocate(count, bufferSize);
+        registerBuffers(buffers);
+        return buffers;
+    }
+
+    /** Whether the {@link IOClass} of reads is passed to the kernel (see {@link Builder#withKernelIOPriorities}). */
+    boolean usesKernelIOPriorities() {
+        return kernelIOPriorities;
+    }
+
+    /** Records the reads for warm-up, if enabled. */
+    Warmup warmup() {
+        return warmup;
+    }
+
+    /**
+     * What the reads of the calling thread complete through, when only that thread can complete them (as with
+     * caller-owned rings), so that {@link BlockCache} only shares a block read between misses of the same owner; or
+     * {@code null} if any thread can wait on the reads of any other.
+     */
+    Object readOwner() {
+        return null;
+    }
+
+    /** The event loops of this executor (or, without event loop threads, its rings), for its metrics. */
+    abstract ExecutorMetrics.Loop[] loops();
+
+    /** A recycled submission for {@link FileReader#read}, if one is available. */
+    FileReader.HandlerReadSubmission pollReadSubmission() {
+        return readSubmissionPool.relaxedPoll();
+    }
+
+    /** Makes the provided (completed) submission available for reuse; it is simply dropped if the pool is full. */
+    void recycleReadSubmission(FileReader.HandlerReadSubmission submission) {
+        readSubmissionPool.relaxedOffer(submission);
+    }
+
+    private void registerMBean(String name) {
+        try {
+            ObjectName objectName = new ObjectName("io.github.jbellis.jfio:type=IOExecutor,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new ExecutorMetricsJmx(metrics()), objectName);
+            this.jmxName = objectName;
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Cannot register the executor metrics under name " + name, e);
+        }
+    }
+
+    private void startWarmup(Warmup warmup) {
+        this.warmup = warmup;
+        this.warmedUp = warmup.replay(this);
+    }
+
+    /** Persists the blocks read by this executor for the warm-up of the next ones, if enabled. Called on close. */
+    void saveWarmup() {
+        Warmup warmup = this.warmup;
+        if (warmup != null) {
+            this.warmup = null;
+            warmup.save();
+        }
+    }
+
+    /** Unregisters the metrics of this executor from JMX, if they were registered. Called on close. */
+    void unregisterMBean() {
+        ObjectName name = this.jmxName;
+        if (name == null) {
+            return;
+        }
+        this.jmxName = null;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            // Nothing much we can do about it, and there is no reason to fail the close.
+        }
+    }
+
+    abstract void registerBuffers(RegisteredBuffers buffers);
+
+    /** Submits the provided submission as {@link IOClass#FOREGROUND} I/O. */
+    final void submit(Submission submission) {
+        submit(submission, IOClass.FOREGROUND);
+    }
+
+    /** Submits the provided submission, scheduling it according to its class (see {@link IOClass}). */
+    abstract void submit(Submission submission, IOClass ioClass);
+    /** Submits all the provided submissions through the same event loop, handing them to it at once. */
+    abstract void submitAll(Submission[] submissions);
+    /**
+     * Cancels the provided submission, previously submitted to this executor, if it has not completed yet (see
+     * {@link io.github.jbellis.jfio.IORing#cancel}). This is a no-op if this executor is closed.
+     */
+    abstract void cancel(Submission submission);
+    abstract CompletableFuture<Integer> openFileAsync(Path path, OpenOption... options);
+    abstract CompletableFuture<Void> closeFileAsync(int fd);
+
+    /**
+     * Registers the just opened file {@code fd} through {@code registration}, closing the file (through
+     * {@link #closeFileAsync}, which also undoes a partial registration) if that fails.
+     *
+     * @return a future on {@code fd}, completed once it is registered, or failed with the registration error.
+     */
+    CompletableFuture<Integer> registerOrClose(int fd, Supplier<CompletableFuture<?>> registration) {
+        CompletableFuture<?> registered;
+        try {
+            registered = registration.get();
+        } catch (RuntimeException e) {
+            registered = CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        registered.whenComplete((v, error) -> {
+            if (error == null) {
+                result.complete(fd);
+                return;
+            }
+            try {
+                closeFileAsync(fd).whenComplete((w, closeError) -> result.completeExceptionally(error));
+            } catch (RuntimeException e) {
+                // Closed executor, which cannot close the file anymore.
+                error.addSuppressed(e);
+                result.completeExceptionally(error);
+            }
+        });
+        return result;
+    }
+
+    /** Waits on the provided future, rethrowing the {@link IOException} it may have failed with. */
+    static <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+    }
 
     @Override
     public abstract void close();
+
+    /**
+     * Builder for {@code IOExecutor}.
+     */
+    public static class Builder {
+        private static final int DEFAULT_FOREGROUND_WEIGHT = 4;
+        private static final int DEFAULT_BACKGROUND_WEIGHT = 1;
+
+        private final IORing.Config ringConfig;
+        private int threads = 1;
+        private BufferPool bufferPool;
+        private String jmxName;
+        private BlockCache blockCache;
+        private int coalescingMaxGap = -1;
+        private int coalescingMaxLength;
+        private Path warmupFile;
+        private int maxPrefetchesInFlight;
+        private int foregroundWeight = DEFAULT_FOREGROUND_WEIGHT;
+        private int backgroundWeight = DEFAULT_BACKGROUND_WEIGHT;
+        private boolean kernelIOPriorities;
+        private final RateLimiter[] rateLimiters = new RateLimiter[IOClass.values().length];
+        private RoutingPolicy routingPolicy = RoutingPolicy.ROUND_ROBIN;
+        private boolean workStealing;
+        private boolean sharedRingWorkers;
+
+        Builder(IORing.Config ringConfig) {
+            this.ringConfig = Objects.requireNonNull(ringConfig);
+        }
+
+        /**
+         * Sets the number of threads (dedicated event loops, each with its own ring) of the executor.
+         *
+         * @param threads the number of threads, 1 by default.
+         * @return this builder.
+         */
+        public Builder withThreads(int threads) {
+            if (threads <= 0) {
+                throw new IllegalArgumentException("The number of threads must be positive");
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Sets the pool providing the buffers allocated by the executor.
+         * <p>
+         * A pool can be shared by multiple executors. If not set, the executor uses its own pool with the default
+         * settings (see {@link BufferPool#create()}).
+         *
+         * @param bufferPool the buffer pool to use.
+         * @return this builder.
+         */
+        public Builder withBufferPool(BufferPool bufferPool) {
+            this.bufferPool = Objects.requireNonNull(bufferPool);
+            return this;
+        }
+
+        /**
+         * Sets a cache for the blocks read by the executor (through {@link FileReader#readAsync(long, int)} and
+         * {@link IOExecutor#readBatch}).
+         * <p>
+         * This is mostly useful with direct I/O, where reads bypass the OS page cache. A cache can be shared by
+         * multiple executors.
+         *
+         * @param blockCache the cache to use.
+         * @return this builder.
+         */
+        public Builder withBlockCache(BlockCache blockCache) {
+            this.blockCache = Objects.requireNonNull(blockCache);
+            return this;
+        }
+
+        /**
+         * Enables the coalescing of reads by the event loops.
+         * <p>
+         * When enabled, the reads of {@link FileReader#readAsync(long, int)} (and {@link IOExecutor#readBatch}) that
+         * an event loop picks up together are sorted by file and offset, and the ones on the same file that are
+         * adjacent, overlapping, or separated by at most {@code maxGap} bytes are merged into a single larger read
+         * (of at most {@code maxLength} bytes). Once that read completes, the bytes of each original read are copied
+         * to its own buffer. This trades a copy for fewer operations on the device, which helps when concurrent
+         * readers often read close ranges of the same files.
+         * <p>
+         * Reads are never delayed to be merged: only those queued at the same time are.
+         *
+         * @param maxGap the maximum number of bytes between 2 reads for them to be merged (which are read and
+         *               discarded); 0 only merges adjacent or overlapping reads.
+         * @param maxLength the maximum length of a merged read.
+         * @return this builder.
+         */
+        public Builder withReadCoalescing(int maxGap, int maxLength) {
+            if (maxGap < 0) {
+                throw new IllegalArgumentException("The maximum gap must be >= 0");
+            }
+            if (maxLength <= 0) {
+                throw new IllegalArgumentException("The maximum length must be positive");
+            }
+            this.coalescingMaxGap = maxGap;
+            this.coalescingMaxLength = maxLength;
+            return this;
+        }
+
+        /**
+         * Enables the warm-up of the executor from the reads of the previous executors using the same state file.
+         * <p>
+         * With this, the executor records how often the blocks read through it (by {@link FileReader#readAsync},
+         * {@link FileReader#read} and {@link IOExecutor#readBatch}) were read recently, and saves the hottest ones to
+         * {@code stateFile} when closed: no more than its {@link #withBlockCache block cache} holds if it has one,
+         * and up to 2^20 blocks otherwise. When built, it reads the blocks saved by the previous executor in the
+         * background, through its block cache if it has one (so the cache is populated), or otherwise by advising the
+         * kernel to read them into the page cache (which only benefits buffered reads). See
+         * {@link IOExecutor#warmedUp()} for the end of that prefetch.
+         * <p>
+         * This is equivalent to {@code withWarmup(stateFile, 16)}.
+         *
+         * @param stateFile the file where the blocks read are saved, and read from on start.
+         * @return this builder.
+         */
+        public Builder withWarmup(Path stateFile) {
+            return withWarmup(stateFile, 16);
+        }
+
+        /**
+         * Enables the warm-up of the executor from the reads of the previous executors using the same state file
+         * (see {@link #withWarmup(Path)}), with a custom throttling of the prefetch.
+         *
+         * @param stateFile the file where the blocks read are saved, and read from on start.
+         * @param maxPrefetchesInFlight the maximum number of prefetches (of up to 1MiB each) in flight at any time.
+         * @return this builder.
+         */
+        public Builder withWarmup(Path stateFile, int maxPrefetchesInFlight) {
+            if (maxPrefetchesInFlight <= 0) {
+                throw new IllegalArgumentException("The maximum number of prefetches in flight must be positive");
+            }
+            this.warmupFile = Objects.requireNonNull(stateFile);
+            this.maxPrefetchesInFlight = maxPrefetchesInFlight;
+            return this;
+        }
+
+        /**
+         * Sets the weights of the {@link IOClass I/O classes}, which decide how the event loops share their rings
+         * between the classes when both have queued submissions: for every {@code foregroundWeight} foreground
+         * submissions, a loop adds {@code backgroundWeight} background ones. A class without queued submissions does
+         * not hold the other back.
+         *
+         * @param foregroundWeight the weight of {@link IOClass#FOREGROUND} I/O, 4 by default.
+         * @param backgroundWeight the weight of {@link IOClass#BACKGROUND} I/O, 1 by default.
+         * @return this builder.
+         */
+        public Builder withIOClassWeights(int foregroundWeight, int backgroundWeight) {
+            if (foregroundWeight <= 0 || backgroundWeight <= 0) {
+                throw new IllegalArgumentException("The weights must be positive");
+            }
+            this.foregroundWeight = foregroundWeight;
+            this.backgroundWeight = backgroundWeight;
+            return this;
+        }
+
+        /**
+         * Passes the {@link IOClass} of reads on to the kernel, as the I/O priority of their submissions (see
+         * {@link Submission#setIOPriority}), so the device queues favor foreground reads too.
+         * <p>
+         * This only has an effect with I/O schedulers honoring priorities (like BFQ), and mostly for direct I/O.
+         *
+         * @return this builder.
+         */
+        public Builder withKernelIOPriorities() {
+            this.kernelIOPriorities = true;
+            return this;
+        }
+
+        /**
+         * Limits the rate of the I/O of a class, typically to keep background I/O from saturating the device.
+         * <p>
+         * The limiter is shared by all the event loops of the executor, and its limits can be changed at any time
+         * (see {@link RateLimiter#setLimits}). The submissions of the class over the limit stay queued, without
+         * holding back those of the other class.
+         *
+         * @param ioClass the class to limit.
+         * @param rateLimiter the limiter of the I/O of {@code ioClass}, or {@code null} to not limit it (the default).
+         * @return this builder.
+         */
+        public Builder withRateLimiter(IOClass ioClass, RateLimiter rateLimiter) {
+            this.rateLimiters[ioClass.ordinal()] = rateLimiter;
+            return this;
+        }
+
+        /**
+         * Sets how the submissions are spread over the event loops, when there are more than one.
+         *
+         * @param routingPolicy the routing policy, {@link RoutingPolicy#ROUND_ROBIN} by default.
+         * @return this builder.
+         */
+        public Builder withRoutingPolicy(RoutingPolicy routingPolicy) {
+            this.routingPolicy = Objects.requireNonNull(routingPolicy);
+            return this;
+        }
+
+        /**
+         * Lets the event loops share their queued reads, when there are more than one: a loop whose ring is full hands
+         * some of its queued reads off to the loops with room to spare, so a loop backed up by the
+         * {@link #withRoutingPolicy routing} (or by slow operations) does not hold reads while the others idle.
+         * <p>
+         * Only reads are handed off: the other submissions (writes, notably) are always added to the ring of the loop
+         * they were routed to, in the order they were submitted. The reads handed off do not go to the loop the
+         * routing policy picked, which gives up the locality of {@link RoutingPolicy#FILE_AFFINITY} and
+         * {@link RoutingPolicy#THREAD_AFFINITY} for them: the reads of a {@link FileReader#pinnedToLoop pinned}
+         * reader are never handed off, and neither are those queued behind them.
+         *
+         * @return this builder.
+         */
+        public Builder withWorkStealing() {
+            this.workStealing = true;
+            return this;
+        }
+
+        /**
+         * Makes the rings of the executor share the kernel workers of its first ring (see
+         * {@link IORing.Config.Builder#withSharedWorkers}), when there are more than one: with
+         * {@link IORing.Config#useSQPolling SQ polling}, a single kernel thread then polls all the rings, rather than
+         * one per ring competing with the event loop threads for cores. Pinning that thread (see
+         * {@link IORing.Config.Builder#withSQThreadCpu}) to a core the event loops don't use is usually worthwhile.
+         * <p>
+         * This has no effect if the ring configuration already shares the workers of another ring.
+         *
+         * @return this builder.
+         */
+        public Builder withSharedRingWorkers() {
+            this.sharedRingWorkers = true;
+            return this;
+        }
+
+        /**
+         * Exports the {@link IOExecutor#metrics() metrics} of the executor through JMX, as an MXBean (see
+         * {@link ExecutorMetricsMXBean}) named {@code io.github.jbellis.jfio:type=IOExecutor,name="<name>"}. The
+         * MXBean is unregistered when the executor is closed.
+         *
+         * @param name the name of the executor, which must be unique among the registered executors.
+         * @return this builder.
+         */
+        public Builder withJmxName(String name) {
+            this.jmxName = Objects.requireNonNull(name);
+            return this;
+        }
+
+        /**
+         * Creates the executor, starting its threads.
+         *
+         * @return the created executor.
+         * @throws IllegalArgumentException if a JMX name is set but cannot be registered (typically because another
+         * executor is already registered with that name).
+         */
+        public IOExecutor build() {
+            BufferPool pool = bufferPool == null ? BufferPool.create() : bufferPool;
+            IOExecutor executor;
+            if (threads == 1) {
+                executor = newLoop(IORing.create(ringConfig), pool, blockCache);
+            } else {
+                EventLoop[] loops = new EventLoop[threads];
+                IORing.Config config = ringConfig;
+                try {
+                    for (int i = 0; i < threads; i++) {
+                        IORing ring = IORing.create(config);
+                        // The loops are only used through the executor, which holds the cache.
+                        loops[i] = newLoop(ring, pool, null);
+                        if (i == 0 && sharedRingWorkers && ringConfig.sharedWorkers() == null) {
+                            // The other rings share the workers of the first.
+                            config = ringConfig.toBuilder().withSharedWorkers(ring).build();
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    // Stops the threads of (and closes the rings of) the loops created before the failure.
+                    for (EventLoop loop : loops) {
+                        if (loop != null) {
+                            loop.close();
+                        }
+                    }
+                    throw e;
+                }
+                executor = new MultiLoopExecutor(loops, pool, blockCache, routingPolicy, workStealing);
+            }
+            configure(executor);
+            if (warmupFile != null) {
+                int blockSize = Warmup.DEFAULT_BLOCK_SIZE;
+                int maxSavedBlocks = Warmup.MAX_SAVED_BLOCKS;
+                if (blockCache != null) {
+                    // No more blocks than the cache holds, or the prefetch would evict its own blocks.
+                    blockSize = blockCache.blockSize();
+                    maxSavedBlocks = (int) Math.min(maxSavedBlocks, blockCache.capacity() / blockSize);
+                }
+                executor.startWarmup(new Warmup(warmupFile, blockSize, maxSavedBlocks, maxPrefetchesInFlight));
+            }
+            return executor;
+        }
+
+        /**
+         * Creates a {@link ThreadPerCoreExecutor}, in which each thread using the executor gets its own ring, rather
+         * than going through event loop threads.
+         * <p>
+         * Only the buffer pool, block cache, kernel I/O priorities, shared ring workers and JMX name of this builder
+         * apply to such an executor.
+         *
+         * @return the created executor.
+         * @throws IllegalStateException if this builder sets options that require event loops (threads, read
+         * coalescing, warm-up, I/O class weights, rate limiters, routing or work stealing).
+         * @throws IllegalArgumentException if a JMX name is set but cannot be registered.
+         */
+        public ThreadPerCoreExecutor buildThreadPerCore() {
+            boolean usesLoops = threads != 1
+                    || coalescingMaxGap >= 0
+                    || warmupFile != null
+                    || foregroundWeight != DEFAULT_FOREGROUND_WEIGHT
+                    || backgroundWeight != DEFAULT_BACKGROUND_WEIGHT
+                    || Arrays.stream(rateLimiters).anyMatch(Objects::nonNull)
+                    || routingPolicy != RoutingPolicy.ROUND_ROBIN
+                    || workStealing;
+            if (usesLoops) {
+                throw new IllegalStateException("This builder sets options that require event loops");
+            }
+            BufferPool pool = bufferPool == null ? BufferPool.create() : bufferPool;
+            boolean shareWorkers = sharedRingWorkers && ringConfig.sharedWorkers() == null;
+            ThreadPerCoreExecutor executor = new ThreadPerCoreExecutor(ringConfig, pool, blockCache, shareWorkers);
+            configure(executor);
+            return executor;
+        }
+
+        /** Applies the settings common to all executors, closing {@code executor} if that fails. */
+        private void configure(IOExecutor executor) {
+            executor.kernelIOPriorities = kernelIOPriorities;
+            if (jmxName != null) {
+                try {
+                    executor.registerMBean(jmxName);
+                } catch (RuntimeException e) {
+                    executor.close();
+                    throw e;
+                }
+            }
+        }
+
+        private EventLoop newLoop(IORing ring, BufferPool pool, BlockCache blockCache) {
+            return new EventLoop(
+                    ring,
+                    pool,
+                    blockCache,
+                    newCoalescer(pool),
+                    foregroundWeight,
+                    backgroundWeight,
+                    rateLimiters.clone()
+            );
+        }
+
+        private ReadCoalescer newCoalescer(BufferPool pool) {
+            return coalescingMaxGap < 0 ? null : new ReadCoalescer(coalescingMaxGap, coalescingMaxLength, pool);
+        }
+    }
 }
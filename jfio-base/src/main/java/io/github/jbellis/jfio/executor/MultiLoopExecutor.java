@@ -1,22 +1,85 @@
 package io.github.jbellis.jfio.executor;
 
+import io.github.jbellis.jfio.BufferPool;
 import io.github.jbellis.jfio.IORing;
+import io.github.jbellis.jfio.RegisteredBuffers;
 import io.github.jbellis.jfio.Submission;
 
-import java.io.IOException;
+import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
 
 class MultiLoopExecutor extends IOExecutor {
     private final EventLoop[] loops;
+    private final RoutingPolicy routingPolicy;
     private final AtomicInteger idx = new AtomicInteger(0);
+    /** The loop of each submitting thread, with {@link RoutingPolicy#THREAD_AFFINITY}. */
+    private final ThreadLocal<EventLoop> threadLoop = ThreadLocal.withInitial(this::nextInTurn);
 
-    MultiLoopExecutor(EventLoop[] loops) {
+    MultiLoopExecutor(
+            EventLoop[] loops,
+            BufferPool bufferPool,
+            BlockCache blockCache,
+            RoutingPolicy routingPolicy,
+            boolean workStealing
+    ) {
+        super(bufferPool, blockCache);
         this.loops = loops;
+        this.routingPolicy = routingPolicy;
+        if (workStealing) {
+            for (EventLoop loop : loops) {
+                loop.setPeers(loops);
+            }
+        }
+    }
+
+    private EventLoop nextInTurn() {
+        return this.loops[Math.floorMod(idx.getAndIncrement(), this.loops.length)];
     }
 
+    /** The loop for operations not on a given file, like opening one. */
     private EventLoop next() {
-        return this.loops[idx.getAndIncrement() % this.loops.length];
+        return next(-1);
+    }
+
+    /**
+     * The loop to use, following the routing policy.
+     *
+     * @param fd the file descriptor of the file the operation is on, or -1 if it is not on an open file.
+     */
+    private EventLoop next(int fd) {
+        switch (routingPolicy) {
+            case LEAST_LOADED:
+                return leastLoaded();
+            case FILE_AFFINITY:
+                if (fd >= 0) {
+                    // File descriptors are allocated sequentially, so consecutive files already spread over the loops.
+                    return loops[fd % loops.length];
+                }
+                return nextInTurn();
+            case THREAD_AFFINITY:
+                return threadLoop.get();
+            default:
+                return nextInTurn();
+        }
+    }
+
+    private EventLoop leastLoaded() {
+        // Starting from a random loop spreads the ties (typically, between idle loops) without a shared counter.
+        int start = ThreadLocalRandom.current().nextInt(loops.length);
+        EventLoop best = loops[start];
+        int bestLoad = best.load();
+        for (int i = 1; i < loops.length && bestLoad > 0; i++) {
+            EventLoop loop = loops[(start + i) % loops.length];
+            int load = loop.load();
+            if (load < bestLoad) {
+                best = loop;
+                bestLoad = load;
+            }
+        }
+        return best;
     }
 
     @Override
@@ -26,22 +89,61 @@ class MultiLoopExecutor extends IOExecutor {
     }
 
     @Override
-    void submit(Submission submission) {
-        next().submit(submission);
+    EventLoop[] loops() {
+        return loops;
     }
 
     @Override
-    int openFile(Path path) throws IOException {
-        return next().openFile(path);
+    void registerBuffers(RegisteredBuffers buffers) {
+        for (EventLoop loop : this.loops) {
+            loop.registerBuffers(buffers);
+        }
     }
 
     @Override
-    void closeFile(int fd) throws IOException {
-        next().closeFile(fd);
+    void submit(Submission submission, IOClass ioClass) {
+        next(submission.fd()).submit(submission, ioClass);
+    }
+
+    @Override
+    void submitAll(Submission[] submissions) {
+        // The batch goes to a single loop, whose files it may not all be on with FILE_AFFINITY.
+        next(submissions[0].fd()).submitAll(submissions);
+    }
+
+    @Override
+    void cancel(Submission submission) {
+        // Which loop the submission went to is not tracked, and cancellations are rare enough to ask them all.
+        for (EventLoop loop : loops) {
+            loop.cancel(submission);
+        }
+    }
+
+    @Override
+    CompletableFuture<Integer> openFileAsync(Path path, OpenOption... options) {
+        // Any loop can submit operations on the file, so it is registered with all of them.
+        return next().openFileUnregisteredAsync(path, options).thenCompose(fd -> registerOrClose(fd, () -> {
+            CompletableFuture<?>[] registrations = new CompletableFuture<?>[loops.length];
+            for (int i = 0; i < loops.length; i++) {
+                registrations[i] = loops[i].registerFileAsync(fd);
+            }
+            return CompletableFuture.allOf(registrations);
+        }));
+    }
+
+    @Override
+    CompletableFuture<Void> closeFileAsync(int fd) {
+        CompletableFuture<?>[] unregistrations = new CompletableFuture<?>[loops.length];
+        for (int i = 0; i < loops.length; i++) {
+            unregistrations[i] = loops[i].unregisterFileAsync(fd);
+        }
+        return CompletableFuture.allOf(unregistrations).thenCompose(v -> next(fd).closeFileUnregisteredAsync(fd));
     }
 
     @Override
     public void close() {
+        unregisterMBean();
+        saveWarmup();
         for (EventLoop loop : this.loops) {
             loop.close();
         }
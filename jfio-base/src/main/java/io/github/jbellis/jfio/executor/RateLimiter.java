@@ -0,0 +1,161 @@
+package io.github.jbellis.jfio.executor;
+
+import io.github.jbellis.jfio.Submission;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate, in bytes and/or operations per second, at which the submissions of an {@link IOClass} are added to
+ * the rings of an executor (see {@link IOExecutor.Builder#withRateLimiter}).
+ * <p>
+ * This is a token bucket, enforced by the event loops as they drain their queues: a submission over the limit stays
+ * queued (without blocking the loop, nor the submissions of the other classes) until enough tokens were refilled. A
+ * single limiter is shared by all the loops of an executor, so its limits are global to the executor. Bursts of up
+ * to {@link #BURST_MILLIS} worth of the limits are allowed, and a submission larger than that is let through once
+ * the bucket is full, its excess being paid for by the next ones.
+ * <p>
+ * The limits can be changed at any time, taking effect on the next submissions.
+ */
+@ThreadSafe
+public final class RateLimiter {
+    /** The duration of the bursts allowed, which bounds the tokens accumulated while idle. */
+    public static final long BURST_MILLIS = 100;
+
+    private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(BURST_MILLIS);
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private long bytesPerSecond;
+    private long operationsPerSecond;
+
+    // The available tokens, negative while the last submissions are being paid for.
+    private double byteTokens;
+    private double operationTokens;
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * Creates a new rate limiter.
+     *
+     * @param bytesPerSecond the maximum number of bytes read or written per second, or 0 for no limit.
+     * @param operationsPerSecond the maximum number of operations per second, or 0 for no limit.
+     * @throws IllegalArgumentException if a limit is negative.
+     */
+    public RateLimiter(long bytesPerSecond, long operationsPerSecond) {
+        setLimits(bytesPerSecond, operationsPerSecond);
+    }
+
+    /**
+     * Changes the limits of this rate limiter.
+     *
+     * @param bytesPerSecond the maximum number of bytes read or written per second, or 0 for no limit.
+     * @param operationsPerSecond the maximum number of operations per second, or 0 for no limit.
+     * @throws IllegalArgumentException if a limit is negative.
+     */
+    public synchronized void setLimits(long bytesPerSecond, long operationsPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("Invalid bytes per second, must be >= 0");
+        }
+        if (operationsPerSecond < 0) {
+            throw new IllegalArgumentException("Invalid operations per second, must be >= 0");
+        }
+        refill(System.nanoTime());
+        this.bytesPerSecond = bytesPerSecond;
+        this.operationsPerSecond = operationsPerSecond;
+        // Starting afresh: neither banking tokens of a higher limit, nor paying a debt incurred under a lower one.
+        this.byteTokens = Math.min(Math.max(byteTokens, 0), burst(bytesPerSecond));
+        this.operationTokens = Math.min(Math.max(operationTokens, 0), burst(operationsPerSecond));
+    }
+
+    /**
+     * The maximum number of bytes read or written per second.
+     *
+     * @return the limit, or 0 if there is none.
+     */
+    public synchronized long bytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * The maximum number of operations per second.
+     *
+     * @return the limit, or 0 if there is none.
+     */
+    public synchronized long operationsPerSecond() {
+        return operationsPerSecond;
+    }
+
+    /**
+     * Takes the tokens of a submission, if available.
+     *
+     * @param submission the submission about to be added to a ring.
+     * @param now the current {@link System#nanoTime()}.
+     * @return 0 if the tokens were taken, or otherwise the time, in nanoseconds, until they should be.
+     */
+    synchronized long tryAcquire(Submission submission, long now) {
+        refill(now);
+        if (byteTokens < 0 || operationTokens < 0) {
+            return Math.max(waitNanos(byteTokens, bytesPerSecond), waitNanos(operationTokens, operationsPerSecond));
+        }
+        if (bytesPerSecond > 0) {
+            byteTokens -= bytesOf(submission);
+        }
+        if (operationsPerSecond > 0) {
+            operationTokens -= 1;
+        }
+        return 0;
+    }
+
+    private void refill(long now) {
+        long elapsed = now - lastRefill;
+        lastRefill = now;
+        if (elapsed <= 0) {
+            return;
+        }
+        if (bytesPerSecond > 0) {
+            byteTokens = Math.min(
+                    byteTokens + (double) elapsed * bytesPerSecond / NANOS_PER_SECOND,
+                    burst(bytesPerSecond)
+            );
+        }
+        if (operationsPerSecond > 0) {
+            operationTokens = Math.min(
+                    operationTokens + (double) elapsed * operationsPerSecond / NANOS_PER_SECOND,
+                    burst(operationsPerSecond)
+            );
+        }
+    }
+
+    private static double burst(long perSecond) {
+        return (double) perSecond * BURST_NANOS / NANOS_PER_SECOND;
+    }
+
+    private static long waitNanos(double tokens, long perSecond) {
+        if (tokens >= 0 || perSecond == 0) {
+            return 0;
+        }
+        // At least a nanosecond, since 0 means the tokens were taken.
+        return Math.max(1, (long) Math.ceil(-tokens * NANOS_PER_SECOND / perSecond));
+    }
+
+    private static long bytesOf(Submission submission) {
+        switch (submission.operation()) {
+            case READ:
+            case WRITE:
+                return submission.length();
+            case READV:
+            case WRITEV:
+                long bytes = 0;
+                for (var buffer : submission.buffers()) {
+                    bytes += buffer.remaining();
+                }
+                return bytes;
+            default:
+                return 0;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RateLimiter(" + bytesPerSecond + " bytes/s, " + operationsPerSecond + " ops/s)";
+    }
+}
@@ -0,0 +1,149 @@
+package io.github.jbellis.jfio.executor;
+
+import io.github.jbellis.jfio.BufferPool;
+import io.github.jbellis.jfio.Submission;
+import net.jcip.annotations.NotThreadSafe;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Merges the reads drained by an {@link EventLoop} that are on the same file and adjacent, overlapping or close
+ * enough to each other into larger reads, before they are added to the ring. Reads with different
+ * {@link Submission#setIOPriority I/O priorities} are never merged together.
+ * <p>
+ * Only the reads of {@link FileReader#readAsync(long, int)} (and {@link IOExecutor#readBatch}) are merged, since
+ * the buffer they read into is allocated internally: the merged read uses its own (pooled) buffer, and once it
+ * completes, the bytes covered by each original read are copied into that read buffer before it is completed. The
+ * other submissions (including reads with a {@link Submission#setTimeout timeout}) are added to the ring unchanged.
+ * <p>
+ * This is used by the loop thread only.
+ */
+@NotThreadSafe
+class ReadCoalescer {
+    private static final Comparator<Submission> BY_FILE_AND_OFFSET =
+            Comparator.comparingInt(Submission::fd)
+                    .thenComparingInt(Submission::ioPriority)
+                    .thenComparingLong(Submission::offset);
+
+    private final int maxGap;
+    private final int maxLength;
+    private final BufferPool bufferPool;
+
+    /** The reads that can be merged, gathered since the last {@link #flush}. */
+    private final List<FileReader.AsyncReadSubmission> reads = new ArrayList<>();
+
+    /** The number of reads that were merged into larger reads; only written by the loop thread. */
+    private volatile long coalescedReads;
+
+    /**
+     * Creates a new coalescer.
+     *
+     * @param maxGap the maximum number of bytes between 2 reads (of the same file) for them to be merged; those bytes
+     *               are read, but discarded.
+     * @param maxLength the maximum length of a merged read.
+     * @param bufferPool the pool providing the buffers of merged reads.
+     */
+    ReadCoalescer(int maxGap, int maxLength, BufferPool bufferPool) {
+        this.maxGap = maxGap;
+        this.maxLength = maxLength;
+        this.bufferPool = bufferPool;
+    }
+
+    /** The number of reads that were merged into larger reads so far. */
+    long coalescedReads() {
+        return coalescedReads;
+    }
+
+    /**
+     * Adds the provided submission to the ring, or holds on to it until the next {@link #flush} if it may be merged
+     * with other reads.
+     */
+    void add(Submission submission, Consumer<Submission> ring) {
+        if (submission instanceof FileReader.AsyncReadSubmission
+                && ((FileReader.AsyncReadSubmission) submission).isPooled()
+                && submission.timeoutNanos() == 0) {
+            reads.add((FileReader.AsyncReadSubmission) submission);
+        } else {
+            ring.accept(submission);
+        }
+    }
+
+    /**
+     * Adds all the reads held since the last flush to the ring, merged whenever possible.
+     * <p>
+     * This never adds more submissions to the ring than were provided to {@link #add} since the last flush.
+     */
+    void flush(Consumer<Submission> ring) {
+        if (reads.isEmpty()) {
+            return;
+        }
+        reads.sort(BY_FILE_AND_OFFSET);
+
+        int start = 0;
+        while (start < reads.size()) {
+            FileReader.AsyncReadSubmission first = reads.get(start);
+            long offset = first.offset();
+            long end = offset + first.length();
+            int next = start + 1;
+            while (next < reads.size()) {
+                FileReader.AsyncReadSubmission read = reads.get(next);
+                long newEnd = Math.max(end, read.offset() + read.length());
+                if (read.fd() != first.fd()
+                        || read.ioPriority() != first.ioPriority()
+                        || read.offset() - end > maxGap
+                        || newEnd - offset > maxLength) {
+                    break;
+                }
+                end = newEnd;
+                next++;
+            }
+
+            if (next - start == 1) {
+                ring.accept(first);
+            } else {
+                Submission[] merged = reads.subList(start, next).toArray(new Submission[0]);
+                coalescedReads = coalescedReads + merged.length;
+                int length = (int) (end - offset);
+                CoalescedReadSubmission coalesced =
+                        new CoalescedReadSubmission(first.fd(), length, bufferPool.acquire(length), offset, merged);
+                coalesced.setIOPriority(first.ioPriority());
+                ring.accept(coalesced);
+            }
+            start = next;
+        }
+        reads.clear();
+    }
+
+    private class CoalescedReadSubmission extends Submission {
+        private final Submission[] reads;
+
+        private CoalescedReadSubmission(int fd, int length, ByteBuffer buffer, long offset, Submission[] reads) {
+            super(fd, length, buffer, offset);
+            this.reads = reads;
+        }
+
+        @Override
+        public void onCompletion(int res) {
+            ByteBuffer buffer = buffer();
+            for (Submission read : reads) {
+                int readRes = res;
+                if (res >= 0) {
+                    // What the original read would have returned, which is less than its length at the end of file.
+                    long start = read.offset() - offset();
+                    readRes = (int) Math.max(0, Math.min(read.length(), res - start));
+                    ByteBuffer source = buffer.duplicate();
+                    source.limit((int) start + readRes).position((int) start);
+                    ByteBuffer target = read.buffer().duplicate();
+                    target.clear();
+                    target.put(source);
+                }
+                read.onCompletion(readRes);
+            }
+            bufferPool.release(buffer);
+        }
+    }
+}
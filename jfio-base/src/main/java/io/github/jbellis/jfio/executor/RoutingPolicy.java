@@ -0,0 +1,36 @@
+package io.github.jbellis.jfio.executor;
+
+/**
+ * How a multi-threaded executor picks the event loop (and so the ring) each submission goes to (see
+ * {@link IOExecutor.Builder#withRoutingPolicy}).
+ * <p>
+ * With {@link IOExecutor.Builder#withWorkStealing work stealing}, a backed up loop may then hand queued reads off to
+ * another loop, unless they are made through a {@link FileReader#pinnedToLoop pinned} reader.
+ * <p>
+ * This has no effect on single-threaded executors.
+ */
+public enum RoutingPolicy {
+    /**
+     * Each submission goes to the next loop, in turn. This spreads the submissions evenly, but ignores how busy each
+     * loop is, and the shared counter is contended with many submitting threads. This is the default.
+     */
+    ROUND_ROBIN,
+    /**
+     * Each submission goes to the loop with the fewest outstanding submissions (queued, pending or in flight), so a
+     * loop backed up by slow operations gets less of the new ones. This reads the load of every loop on each
+     * submission, which is cheap for the usual handful of loops.
+     */
+    LEAST_LOADED,
+    /**
+     * The submissions on a file always go to the same loop, picked by file descriptor modulo the number of loops,
+     * which keeps the operations on a file local to a ring, but can unbalance the loops if few files get most of the
+     * I/O. This does not order the operations on a file: a ring runs the operations it is submitted concurrently.
+     */
+    FILE_AFFINITY,
+    /**
+     * The submissions of a thread always go to the same loop, the threads being assigned to the loops in turn on
+     * their first submission. This shares nothing between the submitting threads afterwards, which suits a fixed set
+     * of threads at least as numerous as the loops.
+     */
+    THREAD_AFFINITY
+}
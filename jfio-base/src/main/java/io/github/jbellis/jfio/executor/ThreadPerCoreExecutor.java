@@ -0,0 +1,307 @@
+package io.github.jbellis.jfio.executor;
+
+import io.github.jbellis.jfio.BufferPool;
+import io.github.jbellis.jfio.IORing;
+import io.github.jbellis.jfio.RegisteredBuffers;
+import io.github.jbellis.jfio.RingMetrics;
+import io.github.jbellis.jfio.Submission;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.IOException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * An {@link IOExecutor} without event loop threads: each thread using it gets its own ring, created on its first
+ * use, to which it adds its submissions directly. This suits thread-per-core applications, saving them the hand-off
+ * of every operation to an event loop thread (and the wake-ups of that thread and of the caller).
+ * <p>
+ * Since no other thread drives the ring of a thread, the submissions of a thread are only submitted, and their
+ * futures only completed, when that thread {@link #poll polls} or {@link #await awaits}: a thread must do so
+ * regularly, and must not block on the future of one of its own submissions through {@link CompletableFuture#join}
+ * or the like (which never returns). The futures complete on their thread, within those calls.
+ * <p>
+ * Files are opened and closed synchronously, by the calling thread, and are not registered with the rings (whatever
+ * {@link IORing.Config#registeredFiles}). With a {@link BlockCache}, concurrent misses of the same block only share a
+ * read when they are on the same thread: each thread reads the blocks it misses on its own ring. The features relying
+ * on event loops (read coalescing, warm-up, scheduling by I/O class, rate limiting, routing and work stealing) are not
+ * available.
+ * <p>
+ * The rings are only closed with the executor, which must be closed once the threads are done using it, and have
+ * awaited all their submissions.
+ */
+@ThreadSafe
+public final class ThreadPerCoreExecutor extends IOExecutor {
+    private final IORing.Config ringConfig;
+    private final boolean sharedRingWorkers;
+    /** With shared ring workers, the configuration of the rings created after the first, set by the first. */
+    private volatile IORing.Config sharingConfig;
+    private final ThreadLocal<CallerRing> callerRing = new ThreadLocal<>();
+    /** All the rings created, for the metrics and to close them. */
+    private final CopyOnWriteArrayList<CallerRing> rings = new CopyOnWriteArrayList<>();
+    /** The buffers registered with this executor, which each ring registers on its next use. */
+    private volatile RegisteredBuffers registeredBuffers;
+    private volatile boolean stopped;
+
+    ThreadPerCoreExecutor(
+            IORing.Config ringConfig,
+            BufferPool bufferPool,
+            BlockCache blockCache,
+            boolean sharedRingWorkers
+    ) {
+        super(bufferPool, blockCache);
+        this.ringConfig = ringConfig;
+        this.sharedRingWorkers = sharedRingWorkers;
+    }
+
+    @Override
+    public IORing.Config ringConfig() {
+        return ringConfig;
+    }
+
+    /**
+     * Submits the pending submissions of the calling thread, and completes those of its submissions that completed,
+     * without blocking.
+     *
+     * @return the number of submissions completed.
+     */
+    public int poll() {
+        return ring().drive(false);
+    }
+
+    /**
+     * Waits for the provided future, driving the ring of the calling thread meanwhile (like {@link #poll}), so the
+     * future may be on one of the submissions of that thread.
+     * <p>
+     * If the future is on a submission of another thread, this waits for it like {@link CompletableFuture#join} once
+     * the calling thread has nothing in flight.
+     *
+     * @param future the future to wait for.
+     * @return the result of {@code future}.
+     * @throws java.util.concurrent.CompletionException if {@code future} completed exceptionally.
+     * @throws java.util.concurrent.CancellationException if {@code future} was cancelled.
+     */
+    public <T> T await(CompletableFuture<T> future) {
+        CallerRing ring = ring();
+        while (!future.isDone() && ring.hasWork()) {
+            ring.drive(ringConfig.waitStrategy().blocks());
+        }
+        return future.join();
+    }
+
+    private CallerRing ring() {
+        if (stopped) {
+            throw new IllegalStateException("This I/O executor has been closed");
+        }
+        CallerRing ring = callerRing.get();
+        if (ring == null) {
+            ring = new CallerRing(createRing());
+            rings.add(ring);
+            callerRing.set(ring);
+            if (stopped) {
+                // Raced with close, which may not have seen it.
+                rings.remove(ring);
+                ring.ring.close();
+                callerRing.remove();
+                throw new IllegalStateException("This I/O executor has been closed");
+            }
+        }
+        return ring;
+    }
+
+    private IORing createRing() {
+        if (!sharedRingWorkers) {
+            return IORing.create(ringConfig);
+        }
+        IORing.Config config = sharingConfig;
+        if (config == null) {
+            synchronized (this) {
+                config = sharingConfig;
+                if (config == null) {
+                    // The first ring, whose workers the others share (it is only closed with the executor).
+                    IORing ring = IORing.create(ringConfig);
+                    sharingConfig = ringConfig.toBuilder().withSharedWorkers(ring).build();
+                    return ring;
+                }
+            }
+        }
+        return IORing.create(config);
+    }
+
+    @Override
+    Object readOwner() {
+        // A read is only completed by the thread that submitted it, so no other thread may wait on it.
+        return ring();
+    }
+
+    @Override
+    ExecutorMetrics.Loop[] loops() {
+        return rings.toArray(new ExecutorMetrics.Loop[0]);
+    }
+
+    @Override
+    synchronized void registerBuffers(RegisteredBuffers buffers) {
+        if (registeredBuffers != null) {
+            throw new IllegalStateException("This executor already has registered buffers");
+        }
+        registeredBuffers = buffers;
+        // Fails early, from the caller, if the buffers cannot be registered.
+        ring().registerBuffersIfNeeded();
+    }
+
+    @Override
+    void submit(Submission submission, IOClass ioClass) {
+        // Added in submission order, whatever the class.
+        ring().add(submission);
+    }
+
+    @Override
+    void submitAll(Submission[] submissions) {
+        CallerRing ring = ring();
+        for (Submission submission : submissions) {
+            ring.add(submission);
+        }
+    }
+
+    @Override
+    void cancel(Submission submission) {
+        // The submission can only be in the ring of the calling thread, as it is not thread-safe to look elsewhere.
+        CallerRing ring = callerRing.get();
+        if (ring != null && !stopped) {
+            ring.cancel(submission);
+        }
+    }
+
+    @Override
+    CompletableFuture<Integer> openFileAsync(Path path, OpenOption... options) {
+        try {
+            return CompletableFuture.completedFuture(ring().ring.openFile(path, options));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @Override
+    CompletableFuture<Void> closeFileAsync(int fd) {
+        try {
+            ring().ring.closeFile(fd);
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        unregisterMBean();
+        saveWarmup();
+        for (CallerRing ring : rings) {
+            ring.ring.close();
+        }
+        rings.clear();
+    }
+
+    /** The ring of a thread, only used by that thread (but for its metrics). */
+    private final class CallerRing implements ExecutorMetrics.Loop {
+        private final IORing ring;
+        /**
+         * Submissions the ring had no room for, or added while reaping completions (when the ring cannot be added
+         * to), which are added on the next drive.
+         */
+        private final ArrayDeque<Submission> queued = new ArrayDeque<>();
+        /** Submissions to cancel, requested while reaping completions. */
+        private final ArrayDeque<Submission> cancellations = new ArrayDeque<>();
+        private volatile int queueLength;
+        private boolean reaping;
+        private RegisteredBuffers buffers;
+
+        private CallerRing(IORing ring) {
+            this.ring = ring;
+        }
+
+        private void add(Submission submission) {
+            if (reaping || !queued.isEmpty() || !ring.add(submission)) {
+                queued.add(submission);
+                queueLength = queued.size();
+            }
+        }
+
+        private void cancel(Submission submission) {
+            if (reaping) {
+                cancellations.add(submission);
+                return;
+            }
+            if (ring.submissionSlotsAvailable() == 0) {
+                drive(false);
+            }
+            // Not added if the submission is not in the ring (anymore), or if there is no room, which is fine.
+            ring.cancel(submission);
+        }
+
+        private boolean hasWork() {
+            return !queued.isEmpty() || !cancellations.isEmpty() || ring.inFlight() > 0
+                    || ring.pendingSubmissions() > 0;
+        }
+
+        /**
+         * Adds the queued submissions, submits the pending ones and reaps the completions.
+         *
+         * @param wait whether to wait for a completion if there is any in flight.
+         * @return the number of completions reaped.
+         */
+        private int drive(boolean wait) {
+            if (reaping) {
+                // From the completion of a submission: the ongoing drive already does it all.
+                return 0;
+            }
+            registerBuffersIfNeeded();
+            addQueued();
+            reaping = true;
+            try {
+                if (wait && (ring.inFlight() > 0 || ring.pendingSubmissions() > 0)) {
+                    return ring.submitAndWaitCompletions(-1);
+                }
+                return ring.submitAndCheckCompletions();
+            } finally {
+                reaping = false;
+                // Those submitted by the completions, for the next drive.
+                addQueued();
+            }
+        }
+
+        private void addQueued() {
+            while (!cancellations.isEmpty() && ring.submissionSlotsAvailable() > 0) {
+                ring.cancel(cancellations.poll());
+            }
+            while (!queued.isEmpty() && ring.add(queued.peek())) {
+                queued.poll();
+            }
+            queueLength = queued.size();
+        }
+
+        private void registerBuffersIfNeeded() {
+            RegisteredBuffers registered = registeredBuffers;
+            if (registered != buffers) {
+                ring.registerBuffers(registered);
+                buffers = registered;
+            }
+        }
+
+        @Override
+        public int queueLength() {
+            return queueLength;
+        }
+
+        @Override
+        public RingMetrics ringMetrics() {
+            return ring.metrics();
+        }
+    }
+}
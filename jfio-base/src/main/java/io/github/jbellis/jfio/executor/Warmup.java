@@ -0,0 +1,383 @@
+package io.github.jbellis.jfio.executor;
+
+import io.github.jbellis.jfio.Submission;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the blocks read through an executor, persists the hottest ones when the executor is closed, and prefetches
+ * them when a new executor starts (see {@link IOExecutor.Builder#withWarmup}), so a restarted process does not have
+ * to re-read its working set from the device one miss at a time.
+ * <p>
+ * Each read increments a small saturating counter per block it covers. All the counters are halved every time as
+ * many reads of blocks were recorded as there are counters, so the counts reflect the recent reads rather than all of
+ * them, and blocks no longer read eventually drop out. On close, up to a maximum number of blocks with the highest
+ * counts are persisted, as the ranges of consecutive blocks of each file. The prefetch goes through the executor
+ * {@link BlockCache} if it has one (in which case no more blocks are persisted than it holds), and otherwise asks the
+ * kernel to read the ranges into the page cache ({@link Submission.Operation#FADVISE}), which only benefits buffered
+ * reads. It runs on a background thread, with a bounded number of prefetches in flight.
+ */
+@ThreadSafe
+class Warmup {
+    private static final Logger logger = LogManager.getLogger();
+
+    /** The size of the recorded blocks when the executor has no block cache. */
+    static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    /** The maximum number of blocks persisted without a block cache, which bounds the size of the persisted state. */
+    static final int MAX_SAVED_BLOCKS = 1 << 20;
+    /**
+     * The maximum number of counters, of one byte each, over all files; the blocks of a file past those it got
+     * counters for once the maximum is reached are not recorded.
+     */
+    private static final long MAX_COUNTED_BLOCKS = 1 << 24;
+    /** The minimum number of block reads recorded between two halvings of the counters. */
+    private static final long MIN_DECAY_PERIOD = 1 << 16;
+    /** The maximum count of a block. */
+    private static final int MAX_COUNT = 255;
+    /** The maximum length of a single prefetch. */
+    private static final int MAX_PREFETCH_LENGTH = 1 << 20;
+
+    private static final int MAGIC = 0x6a66696f;
+    private static final int VERSION = 1;
+
+    private final Path stateFile;
+    private final int blockSize;
+    private final int maxSavedBlocks;
+    private final int maxPrefetchesInFlight;
+
+    private final ConcurrentHashMap<Path, BlockCounts> files = new ConcurrentHashMap<>();
+    /** The number of counters of all the files. */
+    private final AtomicLong countedBlocks = new AtomicLong();
+    /** The number of block reads recorded since the counters were last halved. */
+    private final AtomicLong recordedSinceDecay = new AtomicLong();
+
+    private volatile boolean stopped;
+
+    /**
+     * @param maxSavedBlocks the maximum number of blocks persisted, which should be no more than the block cache
+     *                       holds, if any.
+     */
+    Warmup(Path stateFile, int blockSize, int maxSavedBlocks, int maxPrefetchesInFlight) {
+        this.stateFile = stateFile;
+        this.blockSize = blockSize;
+        this.maxSavedBlocks = maxSavedBlocks;
+        this.maxPrefetchesInFlight = maxPrefetchesInFlight;
+    }
+
+    /** The read counts of the blocks of the provided file, in which {@link FileReader} records its reads. */
+    BlockCounts blocksOf(Path path) {
+        return files.computeIfAbsent(path.toAbsolutePath().normalize(), p -> new BlockCounts());
+    }
+
+    /** Halves all the counters if enough block reads were recorded since they last were. */
+    private void maybeDecay(long recorded) {
+        long since = recordedSinceDecay.addAndGet(recorded);
+        long period = Math.max(MIN_DECAY_PERIOD, countedBlocks.get());
+        if (since < period || !recordedSinceDecay.compareAndSet(since, 0)) {
+            return;
+        }
+        for (BlockCounts counts : files.values()) {
+            counts.halve();
+        }
+    }
+
+    /**
+     * The read counts of the blocks of a file, as one saturating counter per block. The counters are updated without
+     * synchronization, which may lose some increments when racing, and that is benign: they only rank the blocks.
+     */
+    final class BlockCounts {
+        private volatile byte[] counts = new byte[0];
+
+        void record(long offset, int length) {
+            if (length <= 0) {
+                return;
+            }
+            long first = offset / blockSize;
+            long last = (offset + length - 1) / blockSize;
+            byte[] counts = this.counts;
+            if (last >= counts.length) {
+                counts = grow(last);
+            }
+            for (long block = first; block <= last && block < counts.length; block++) {
+                int count = counts[(int) block] & 0xff;
+                if (count < MAX_COUNT) {
+                    counts[(int) block] = (byte) (count + 1);
+                }
+            }
+            maybeDecay(last - first + 1);
+        }
+
+        /** Makes room for the counter of the provided block, if the maximum number of counters allows it. */
+        private synchronized byte[] grow(long block) {
+            byte[] counts = this.counts;
+            if (block < counts.length || block >= MAX_COUNTED_BLOCKS) {
+                return counts;
+            }
+            long needed = block + 1 - counts.length;
+            // Doubles the counters when possible, so a file read sequentially is not copied over and over.
+            long wanted = Math.max(needed, counts.length);
+            long added;
+            while (true) {
+                long counted = countedBlocks.get();
+                added = Math.min(wanted, MAX_COUNTED_BLOCKS - counted);
+                if (added < needed) {
+                    // Not recorded, rather than using up the counters without covering the block.
+                    return counts;
+                }
+                if (countedBlocks.compareAndSet(counted, counted + added)) {
+                    break;
+                }
+            }
+            counts = Arrays.copyOf(counts, (int) (counts.length + added));
+            this.counts = counts;
+            return counts;
+        }
+
+        private void halve() {
+            byte[] counts = this.counts;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = (byte) ((counts[i] & 0xff) >>> 1);
+            }
+        }
+
+        /** A copy of the counters, which do not change while they are ranked. */
+        private byte[] snapshot() {
+            return counts.clone();
+        }
+    }
+
+    /**
+     * The ranges of consecutive blocks whose count is above {@code threshold}, or at it while {@code atThreshold}
+     * allows, as {offset, length} pairs in bytes.
+     *
+     * @param atThreshold the number of blocks at {@code threshold} that can still be included, which is decremented
+     *                    by those included.
+     */
+    private List<long[]> hotRanges(byte[] counts, int threshold, long[] atThreshold) {
+        List<long[]> ranges = new ArrayList<>();
+        long start = -1;
+        for (int block = 0; block <= counts.length; block++) {
+            boolean hot = false;
+            if (block < counts.length) {
+                int count = counts[block] & 0xff;
+                if (count > threshold) {
+                    hot = true;
+                } else if (count == threshold && atThreshold[0] > 0) {
+                    atThreshold[0]--;
+                    hot = true;
+                }
+            }
+            if (hot && start < 0) {
+                start = block;
+            } else if (!hot && start >= 0) {
+                ranges.add(new long[]{ start * blockSize, (block - start) * blockSize });
+                start = -1;
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Persists the hottest recorded blocks (replacing the previous state, if any). Called when the executor is
+     * closed.
+     */
+    void save() {
+        stopped = true;
+        Map<Path, byte[]> counts = new LinkedHashMap<>();
+        long[] histogram = new long[MAX_COUNT + 1];
+        files.forEach((path, blocks) -> {
+            byte[] fileCounts = blocks.snapshot();
+            counts.put(path, fileCounts);
+            for (byte count : fileCounts) {
+                histogram[count & 0xff]++;
+            }
+        });
+        // The lowest count saved (blocks never read are not), and how many of the blocks with that count fit.
+        int threshold = MAX_COUNT;
+        long remaining = maxSavedBlocks;
+        while (threshold > 1 && histogram[threshold] < remaining) {
+            remaining -= histogram[threshold];
+            threshold--;
+        }
+        long[] atThreshold = { remaining };
+
+        Path tmp = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            Map<Path, List<long[]>> ranges = new LinkedHashMap<>();
+            for (Map.Entry<Path, byte[]> entry : counts.entrySet()) {
+                List<long[]> fileRanges = hotRanges(entry.getValue(), threshold, atThreshold);
+                if (!fileRanges.isEmpty()) {
+                    ranges.put(entry.getKey(), fileRanges);
+                }
+            }
+            out.writeInt(ranges.size());
+            for (Map.Entry<Path, List<long[]>> entry : ranges.entrySet()) {
+                out.writeUTF(entry.getKey().toString());
+                out.writeInt(entry.getValue().size());
+                for (long[] range : entry.getValue()) {
+                    out.writeLong(range[0]);
+                    out.writeLong(range[1]);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Error saving the warm-up state to {}", stateFile, e);
+            return;
+        }
+        try {
+            Files.move(tmp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Error saving the warm-up state to {}", stateFile, e);
+        }
+    }
+
+    /**
+     * Reads the previously persisted state, if any, and prefetches its ranges through the provided executor.
+     *
+     * @return a future completed once the prefetch is done (or stopped, on close), which never fails.
+     */
+    CompletableFuture<Void> replay(IOExecutor executor) {
+        Map<Path, List<long[]>> ranges;
+        try {
+            ranges = load();
+        } catch (IOException e) {
+            logger.warn("Error reading the warm-up state from {}, skipping warm-up", stateFile, e);
+            return CompletableFuture.completedFuture(null);
+        }
+        if (ranges.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                prefetch(executor, ranges);
+            } catch (Throwable t) {
+                if (!stopped) {
+                    logger.warn("Unexpected error during warm-up, stopping it", t);
+                }
+            } finally {
+                done.complete(null);
+            }
+        }, "jfio warm-up");
+        thread.setDaemon(true);
+        thread.start();
+        return done;
+    }
+
+    private Map<Path, List<long[]>> load() throws IOException {
+        Map<Path, List<long[]>> ranges = new LinkedHashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(stateFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unknown file format");
+            }
+            int fileCount = in.readInt();
+            for (int i = 0; i < fileCount; i++) {
+                Path path = Path.of(in.readUTF());
+                int rangeCount = in.readInt();
+                List<long[]> fileRanges = new ArrayList<>(rangeCount);
+                for (int j = 0; j < rangeCount; j++) {
+                    fileRanges.add(new long[]{ in.readLong(), in.readLong() });
+                }
+                ranges.put(path, fileRanges);
+            }
+        } catch (NoSuchFileException e) {
+            // Nothing persisted yet.
+        }
+        return ranges;
+    }
+
+    private void prefetch(IOExecutor executor, Map<Path, List<long[]>> ranges) {
+        Semaphore inFlight = new Semaphore(maxPrefetchesInFlight);
+        BlockCache cache = executor.blockCache();
+        for (Map.Entry<Path, List<long[]>> entry : ranges.entrySet()) {
+            if (stopped) {
+                return;
+            }
+            FileReader reader;
+            try {
+                reader = executor.openForReading(entry.getKey()).withIOClass(IOClass.BACKGROUND);
+            } catch (IOException e) {
+                // Typically, the file was deleted since.
+                logger.debug("Cannot open {} for warm-up, skipping it", entry.getKey(), e);
+                continue;
+            }
+            try {
+                prefetch(reader, cache, entry.getValue(), inFlight);
+            } finally {
+                // Waits for the prefetches of the file before closing it, including when stopped (the executor
+                // completes all the submissions it was handed, even when closed).
+                inFlight.acquireUninterruptibly(maxPrefetchesInFlight);
+                inFlight.release(maxPrefetchesInFlight);
+                try {
+                    reader.closeAsync();
+                } catch (IllegalStateException e) {
+                    // The executor is closed, and cannot close the file anymore.
+                }
+            }
+        }
+    }
+
+    /** Prefetches the provided ranges of the file of {@code reader}, returning early if stopped. */
+    private void prefetch(FileReader reader, BlockCache cache, List<long[]> ranges, Semaphore inFlight) {
+        for (long[] range : ranges) {
+            for (long offset = range[0]; offset < range[0] + range[1]; offset += MAX_PREFETCH_LENGTH) {
+                if (stopped) {
+                    return;
+                }
+                int length = (int) Math.min(MAX_PREFETCH_LENGTH, range[0] + range[1] - offset);
+                inFlight.acquireUninterruptibly();
+                CompletableFuture<?> prefetch;
+                try {
+                    if (cache != null) {
+                        prefetch = cache.read(reader, offset, length).thenAccept(reader::release);
+                    } else {
+                        FadviseSubmission submission = new FadviseSubmission(reader.fd(), offset, length);
+                        reader.submit(submission);
+                        prefetch = submission.future;
+                    }
+                } catch (IllegalStateException e) {
+                    // The executor was closed since `stopped` was checked.
+                    inFlight.release();
+                    return;
+                }
+                prefetch.whenComplete((v, e) -> inFlight.release());
+            }
+        }
+    }
+
+    private static class FadviseSubmission extends Submission {
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private FadviseSubmission(int fd, long offset, int length) {
+            super(Operation.FADVISE, fd, offset, length);
+        }
+
+        @Override
+        public void onCompletion(int res) {
+            // This is only advice, so errors are not a problem.
+            future.complete(null);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package io.github.jbellis.jfio.bench;
+
+/**
+ * How the offsets of successive reads of a benchmark thread are picked.
+ */
+public enum AccessPattern {
+    /** Successive blocks, wrapping around at the end of the file. */
+    SEQUENTIAL,
+    /** Uniformly random blocks. */
+    RANDOM
+}
@@ -0,0 +1,96 @@
+package io.github.jbellis.jfio.bench;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The file read by the benchmarks, and how offsets to read are picked in it.
+ * <p>
+ * The file is created (filled with random data) on first use and then reused by later runs, in the directory set by
+ * the {@code jfio.bench.dir} system property (the working directory by default). Note that this directory must not
+ * be on a {@code tmpfs} for direct I/O benchmarks, since {@code tmpfs} does not support {@code O_DIRECT}.
+ * <p>
+ * To measure actual disk reads rather than page cache hits with buffered I/O, the file should be larger than the
+ * available memory, or the page cache should be dropped before running.
+ */
+final class BenchmarkFile {
+    static final String DIRECTORY_PROPERTY = "jfio.bench.dir";
+
+    private BenchmarkFile() {}
+
+    /**
+     * Returns the benchmark file of the provided size, creating it if necessary.
+     *
+     * @param sizeInMiB the size of the file in MiB.
+     * @return the path of the benchmark file.
+     */
+    static Path get(int sizeInMiB) {
+        long size = (long) sizeInMiB << 20;
+        Path dir = Path.of(System.getProperty(DIRECTORY_PROPERTY, "."));
+        Path file = dir.resolve(String.format("jfio-bench-%dMiB.dat", sizeInMiB));
+        try {
+            if (Files.exists(file) && Files.size(file) == size) {
+                return file;
+            }
+            Files.createDirectories(dir);
+            try (FileChannel channel = FileChannel.open(
+                    file,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING
+            )) {
+                Random random = new Random(42);
+                byte[] chunk = new byte[1 << 20];
+                ByteBuffer buffer = ByteBuffer.wrap(chunk);
+                for (long written = 0; written < size; written += chunk.length) {
+                    random.nextBytes(chunk);
+                    buffer.clear();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                }
+                channel.force(true);
+            }
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create benchmark file " + file, e);
+        }
+    }
+
+    /**
+     * Generates the offsets of the reads of a single thread. All offsets are aligned on the block size.
+     */
+    static final class Offsets {
+        private final AccessPattern access;
+        private final int blockSize;
+        private final long blocks;
+        private long next;
+
+        Offsets(AccessPattern access, long fileSize, int blockSize) {
+            this.access = access;
+            this.blockSize = blockSize;
+            this.blocks = fileSize / blockSize;
+            if (blocks == 0) {
+                throw new IllegalArgumentException("The file is smaller than the block size");
+            }
+            // Spread the threads reading sequentially over the file.
+            this.next = ThreadLocalRandom.current().nextLong(blocks);
+        }
+
+        long next() {
+            if (access == AccessPattern.RANDOM) {
+                return ThreadLocalRandom.current().nextLong(blocks) * blockSize;
+            }
+            long block = next;
+            next = next + 1 == blocks ? 0 : next + 1;
+            return block * blockSize;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package io.github.jbellis.jfio.bench;
+
+import io.github.jbellis.jfio.NativeProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Baseline: blocking {@link FileChannel#read(ByteBuffer, long)} calls executed on a thread pool of {@code poolSize}
+ * threads, the "traditional" way to get concurrent reads in Java.
+ * <p>
+ * Each invocation submits {@code queueDepth} reads to the pool and waits for all of them, mirroring
+ * {@link IOExecutorReadBenchmark}. {@code IOPOLL} has no equivalent here and is not a valid mode.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "--enable-native-access=ALL-UNNAMED"})
+@State(Scope.Benchmark)
+public class FileChannelReadBenchmark {
+    @Param({"1024"})
+    public int fileSizeMiB;
+
+    @Param({"4096", "16384", "131072"})
+    public int blockSize;
+
+    @Param({"1", "8", "32"})
+    public int queueDepth;
+
+    @Param({"RANDOM", "SEQUENTIAL"})
+    public AccessPattern access;
+
+    @Param({"BUFFERED", "DIRECT"})
+    public IOMode mode;
+
+    @Param({"4", "32"})
+    public int poolSize;
+
+    private Path file;
+    private FileChannel channel;
+    private ExecutorService pool;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        if (mode == IOMode.IOPOLL) {
+            throw new IllegalArgumentException("I/O polling is not supported by FileChannel");
+        }
+        file = BenchmarkFile.get(fileSizeMiB);
+        OpenOption[] options = mode.isDirect()
+                ? new OpenOption[]{ StandardOpenOption.READ, com.sun.nio.file.ExtendedOpenOption.DIRECT }
+                : new OpenOption[]{ StandardOpenOption.READ };
+        channel = FileChannel.open(file, options);
+        pool = Executors.newFixedThreadPool(poolSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, InterruptedException {
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+        channel.close();
+    }
+
+    /** The state of each benchmark thread. */
+    @State(Scope.Thread)
+    public static class ThreadState {
+        ByteBuffer[] buffers;
+        Future<?>[] futures;
+        BenchmarkFile.Offsets offsets;
+
+        @Setup(Level.Trial)
+        public void setup(FileChannelReadBenchmark benchmark) throws IOException {
+            buffers = new ByteBuffer[benchmark.queueDepth];
+            for (int i = 0; i < buffers.length; i++) {
+                // Aligned, as required by direct I/O.
+                buffers[i] = NativeProvider.instance().allocateAligned(benchmark.blockSize);
+            }
+            futures = new Future<?>[benchmark.queueDepth];
+            offsets = new BenchmarkFile.Offsets(benchmark.access, Files.size(benchmark.file), benchmark.blockSize);
+        }
+    }
+
+    private int read(ByteBuffer buffer, long offset) {
+        try {
+            return channel.read(buffer, offset);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Benchmark
+    public int read(ThreadState state, ReadCounters counters) throws Exception {
+        for (int i = 0; i < queueDepth; i++) {
+            ByteBuffer buffer = state.buffers[i].clear();
+            long offset = state.offsets.next();
+            state.futures[i] = pool.submit(() -> read(buffer, offset));
+        }
+        int read = 0;
+        for (int i = 0; i < queueDepth; i++) {
+            int bytes = (Integer) state.futures[i].get();
+            counters.onRead(bytes);
+            read += bytes;
+        }
+        return read;
+    }
+}
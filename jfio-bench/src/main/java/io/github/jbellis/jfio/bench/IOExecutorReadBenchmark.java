@@ -0,0 +1,111 @@
+package io.github.jbellis.jfio.bench;
+
+import io.github.jbellis.jfio.NativeProvider;
+import io.github.jbellis.jfio.executor.FileReader;
+import io.github.jbellis.jfio.executor.IOExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Reads through an {@link IOExecutor} ({@link IOExecutor#singleThreaded} when {@code loops} is 1,
+ * {@link IOExecutor#multiThreaded} otherwise) shared by all the benchmark threads (set through JMH {@code -t}
+ * option).
+ * <p>
+ * Each invocation submits {@code queueDepth} reads (into buffers owned by the benchmark thread, so that buffer
+ * allocation is not measured) and waits for all of them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "--enable-native-access=ALL-UNNAMED"})
+@State(Scope.Benchmark)
+public class IOExecutorReadBenchmark {
+    @Param({"1024"})
+    public int fileSizeMiB;
+
+    @Param({"4096", "16384", "131072"})
+    public int blockSize;
+
+    @Param({"1", "8", "32"})
+    public int queueDepth;
+
+    @Param({"RANDOM", "SEQUENTIAL"})
+    public AccessPattern access;
+
+    @Param({"BUFFERED", "DIRECT", "IOPOLL"})
+    public IOMode mode;
+
+    @Param({"1", "4"})
+    public int loops;
+
+    @Param({"128"})
+    public int ringDepth;
+
+    private Path file;
+    private IOExecutor executor;
+    private FileReader reader;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        file = BenchmarkFile.get(fileSizeMiB);
+        executor = loops == 1
+                ? IOExecutor.singleThreaded(mode.ringConfig(ringDepth))
+                : IOExecutor.multiThreaded(loops, mode.ringConfig(ringDepth));
+        reader = executor.openForReading(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        reader.close();
+        executor.close();
+    }
+
+    /** The state of each benchmark thread. */
+    @State(Scope.Thread)
+    public static class ThreadState {
+        ByteBuffer[] buffers;
+        CompletableFuture<?>[] futures;
+        BenchmarkFile.Offsets offsets;
+
+        @Setup(Level.Trial)
+        public void setup(IOExecutorReadBenchmark benchmark) throws IOException {
+            buffers = new ByteBuffer[benchmark.queueDepth];
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = NativeProvider.instance().allocateAligned(benchmark.blockSize);
+            }
+            futures = new CompletableFuture<?>[benchmark.queueDepth];
+            offsets = new BenchmarkFile.Offsets(benchmark.access, Files.size(benchmark.file), benchmark.blockSize);
+        }
+    }
+
+    @Benchmark
+    public int read(ThreadState state, ReadCounters counters) {
+        for (int i = 0; i < queueDepth; i++) {
+            ByteBuffer buffer = state.buffers[i].clear();
+            state.futures[i] = reader.readAsync(state.offsets.next(), buffer);
+        }
+        int read = 0;
+        for (int i = 0; i < queueDepth; i++) {
+            ByteBuffer result = (ByteBuffer) state.futures[i].join();
+            counters.onRead(result.remaining());
+            read += result.remaining();
+        }
+        return read;
+    }
+}
@@ -0,0 +1,162 @@
+package io.github.jbellis.jfio.bench;
+
+import io.github.jbellis.jfio.NativeProvider;
+import io.github.jbellis.jfio.executor.FileReader;
+import io.github.jbellis.jfio.executor.IOExecutor;
+import io.github.jbellis.jfio.executor.RoutingPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link RoutingPolicy routing policies} of a multi-threaded {@link IOExecutor} on the latency
+ * distribution (use the percentiles of the JMH output) of point reads, while another thread keeps large reads in
+ * flight that back up whichever loops they are routed to.
+ * <p>
+ * The point reads are spread over {@code files} readers of the benchmark file (each with its own file descriptor),
+ * so that {@link RoutingPolicy#FILE_AFFINITY} uses as many loops as there are files. With {@code workStealing},
+ * the backed up loops hand their queued reads off to the others (see {@link IOExecutor.Builder#withWorkStealing}).
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "--enable-native-access=ALL-UNNAMED"})
+@State(Scope.Benchmark)
+public class IOExecutorRoutingBenchmark {
+    @Param({"1024"})
+    public int fileSizeMiB;
+
+    @Param({"4096"})
+    public int pointReadSize;
+
+    @Param({"1048576"})
+    public int bulkReadSize;
+
+    @Param({"16"})
+    public int bulkQueueDepth;
+
+    @Param({"BUFFERED", "DIRECT"})
+    public IOMode mode;
+
+    @Param({"4"})
+    public int loops;
+
+    @Param({"1", "8"})
+    public int files;
+
+    @Param({"ROUND_ROBIN", "LEAST_LOADED", "FILE_AFFINITY", "THREAD_AFFINITY"})
+    public RoutingPolicy routing;
+
+    @Param({"false", "true"})
+    public boolean workStealing;
+
+    @Param({"128"})
+    public int ringDepth;
+
+    private Path file;
+    private IOExecutor executor;
+    private FileReader[] readers;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        file = BenchmarkFile.get(fileSizeMiB);
+        IOExecutor.Builder builder = IOExecutor.builder(mode.ringConfig(ringDepth))
+                .withThreads(loops)
+                .withRoutingPolicy(routing);
+        if (workStealing) {
+            builder.withWorkStealing();
+        }
+        executor = builder.build();
+        readers = new FileReader[files];
+        for (int i = 0; i < files; i++) {
+            readers[i] = executor.openForReading(file);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (FileReader reader : readers) {
+            reader.close();
+        }
+        executor.close();
+    }
+
+    /** The state of each point read thread. */
+    @State(Scope.Thread)
+    public static class PointReadState {
+        ByteBuffer buffer;
+        BenchmarkFile.Offsets offsets;
+
+        @Setup(Level.Trial)
+        public void setup(IOExecutorRoutingBenchmark benchmark) throws IOException {
+            buffer = NativeProvider.instance().allocateAligned(benchmark.pointReadSize);
+            long fileSize = Files.size(benchmark.file);
+            offsets = new BenchmarkFile.Offsets(AccessPattern.RANDOM, fileSize, benchmark.pointReadSize);
+        }
+    }
+
+    /** The state of the bulk read thread. */
+    @State(Scope.Thread)
+    public static class BulkReadState {
+        ByteBuffer[] buffers;
+        CompletableFuture<?>[] futures;
+        BenchmarkFile.Offsets offsets;
+
+        @Setup(Level.Trial)
+        public void setup(IOExecutorRoutingBenchmark benchmark) throws IOException {
+            buffers = new ByteBuffer[benchmark.bulkQueueDepth];
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = NativeProvider.instance().allocateAligned(benchmark.bulkReadSize);
+            }
+            futures = new CompletableFuture<?>[benchmark.bulkQueueDepth];
+            long fileSize = Files.size(benchmark.file);
+            offsets = new BenchmarkFile.Offsets(AccessPattern.SEQUENTIAL, fileSize, benchmark.bulkReadSize);
+        }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(6)
+    public int pointRead(PointReadState state, ReadCounters counters) {
+        FileReader reader = readers[ThreadLocalRandom.current().nextInt(readers.length)];
+        ByteBuffer result = reader.readAsync(state.offsets.next(), state.buffer.clear()).join();
+        counters.onRead(result.remaining());
+        return result.remaining();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public int bulkRead(BulkReadState state) {
+        for (int i = 0; i < bulkQueueDepth; i++) {
+            ByteBuffer buffer = state.buffers[i].clear();
+            state.futures[i] = readers[i % readers.length].readAsync(state.offsets.next(), buffer);
+        }
+        int read = 0;
+        for (int i = 0; i < bulkQueueDepth; i++) {
+            read += ((ByteBuffer) state.futures[i].join()).remaining();
+        }
+        return read;
+    }
+}
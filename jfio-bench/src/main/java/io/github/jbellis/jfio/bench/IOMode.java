@@ -0,0 +1,34 @@
+package io.github.jbellis.jfio.bench;
+
+import io.github.jbellis.jfio.IORing;
+
+/**
+ * The ring configurations compared by the jfio benchmarks.
+ */
+public enum IOMode {
+    /** Reads through the page cache. */
+    BUFFERED,
+    /** Reads bypassing the page cache ({@code O_DIRECT}). */
+    DIRECT,
+    /**
+     * Direct reads with completions polled rather than interrupt-driven. This requires a device configured with poll
+     * queues (for NVMe, the {@code nvme.poll_queues} module parameter); reads otherwise fail with
+     * {@code EOPNOTSUPP}.
+     */
+    IOPOLL;
+
+    boolean isDirect() {
+        return this != BUFFERED;
+    }
+
+    IORing.Config ringConfig(int depth) {
+        IORing.Config.Builder builder = IORing.Config.builder(depth);
+        if (isDirect()) {
+            builder.withDirectIO();
+        }
+        if (this == IOPOLL) {
+            builder.withIOPolling();
+        }
+        return builder.build();
+    }
+}
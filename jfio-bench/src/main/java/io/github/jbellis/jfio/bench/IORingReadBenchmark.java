@@ -0,0 +1,103 @@
+package io.github.jbellis.jfio.bench;
+
+import io.github.jbellis.jfio.IORing;
+import io.github.jbellis.jfio.NativeProvider;
+import io.github.jbellis.jfio.Submission;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads through a raw {@link IORing}, driven by the benchmark thread itself (each benchmark thread has its own ring,
+ * so the thread count is set through JMH {@code -t} option).
+ * <p>
+ * Each invocation keeps {@code queueDepth} reads in flight until they all complete.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "--enable-native-access=ALL-UNNAMED"})
+@State(Scope.Thread)
+public class IORingReadBenchmark {
+    @Param({"1024"})
+    public int fileSizeMiB;
+
+    @Param({"4096", "16384", "131072"})
+    public int blockSize;
+
+    @Param({"1", "8", "32"})
+    public int queueDepth;
+
+    @Param({"RANDOM", "SEQUENTIAL"})
+    public AccessPattern access;
+
+    @Param({"BUFFERED", "DIRECT", "IOPOLL"})
+    public IOMode mode;
+
+    private IORing ring;
+    private int fd;
+    private ByteBuffer[] buffers;
+    private BenchmarkFile.Offsets offsets;
+    private ReadCounters counters;
+    private int completed;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Path file = BenchmarkFile.get(fileSizeMiB);
+        ring = IORing.create(mode.ringConfig(queueDepth));
+        fd = ring.openFile(file);
+        buffers = new ByteBuffer[queueDepth];
+        for (int i = 0; i < queueDepth; i++) {
+            buffers[i] = NativeProvider.instance().allocateAligned(blockSize);
+        }
+        offsets = new BenchmarkFile.Offsets(access, Files.size(file), blockSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        ring.closeFile(fd);
+        ring.close();
+    }
+
+    @Benchmark
+    public int read(ReadCounters counters) {
+        this.counters = counters;
+        completed = 0;
+        for (int i = 0; i < queueDepth; i++) {
+            ring.add(new Read(fd, buffers[i], offsets.next()));
+        }
+        while (completed < queueDepth) {
+            ring.submitAndCheckCompletions();
+        }
+        return completed;
+    }
+
+    private class Read extends Submission {
+        Read(int fd, ByteBuffer buffer, long offset) {
+            super(fd, buffer.capacity(), buffer, offset);
+        }
+
+        @Override
+        public void onCompletion(int res) {
+            if (res < 0) {
+                throw new IllegalStateException("Read failed with errno " + (-res));
+            }
+            counters.onRead(res);
+            completed++;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package io.github.jbellis.jfio.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Baseline: reads by copying from a {@link MappedByteBuffer} of the file, so page faults are the only "I/O". There is
+ * no notion of queue depth: concurrency comes from the number of benchmark threads (JMH {@code -t} option).
+ * <p>
+ * Each invocation copies one block into a buffer owned by the benchmark thread.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "--enable-native-access=ALL-UNNAMED"})
+@State(Scope.Benchmark)
+public class MappedByteBufferReadBenchmark {
+    // A single mapping is limited to 2GiB, so larger files are mapped in chunks. This is a multiple of any block size
+    // benchmarked, so no block spans two chunks.
+    private static final int CHUNK_SIZE = 1 << 30;
+
+    @Param({"1024"})
+    public int fileSizeMiB;
+
+    @Param({"4096", "16384", "131072"})
+    public int blockSize;
+
+    @Param({"RANDOM", "SEQUENTIAL"})
+    public AccessPattern access;
+
+    private Path file;
+    private MappedByteBuffer[] chunks;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        if (CHUNK_SIZE % blockSize != 0) {
+            throw new IllegalArgumentException("The block size must divide " + CHUNK_SIZE);
+        }
+        file = BenchmarkFile.get(fileSizeMiB);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            chunks = new MappedByteBuffer[(int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = (long) i * CHUNK_SIZE;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, size - start));
+            }
+        }
+    }
+
+    /** The state of each benchmark thread. */
+    @State(Scope.Thread)
+    public static class ThreadState {
+        ByteBuffer buffer;
+        BenchmarkFile.Offsets offsets;
+
+        @Setup(Level.Trial)
+        public void setup(MappedByteBufferReadBenchmark benchmark) throws IOException {
+            buffer = ByteBuffer.allocateDirect(benchmark.blockSize);
+            offsets = new BenchmarkFile.Offsets(benchmark.access, Files.size(benchmark.file), benchmark.blockSize);
+        }
+    }
+
+    @Benchmark
+    public int read(ThreadState state, ReadCounters counters) {
+        long offset = state.offsets.next();
+        ByteBuffer chunk = chunks[(int) (offset / CHUNK_SIZE)].duplicate();
+        int start = (int) (offset % CHUNK_SIZE);
+        chunk.position(start).limit(start + blockSize);
+
+        ByteBuffer buffer = state.buffer.clear();
+        buffer.put(chunk);
+        counters.onRead(blockSize);
+        return buffer.position();
+    }
+}
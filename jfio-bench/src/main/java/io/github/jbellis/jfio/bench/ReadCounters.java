@@ -0,0 +1,33 @@
+package io.github.jbellis.jfio.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Per-thread counters reported alongside the benchmark score.
+ * <p>
+ * Benchmark methods issue a batch of reads per invocation (up to the queue depth), so the primary score (batches per
+ * second) is not comparable across queue depths; those counters, reported as rates, are.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class ReadCounters {
+    /** The number of reads completed. */
+    public long reads;
+    /** The number of bytes read. */
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        reads = 0;
+        bytes = 0;
+    }
+
+    void onRead(int bytesRead) {
+        reads++;
+        bytes += bytesRead;
+    }
+}
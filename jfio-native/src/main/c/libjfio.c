@@ -2,93 +2,321 @@
 #include <stdlib.h>
 #include <liburing.h>
 #include <fcntl.h>
+#include <errno.h>
+#include <unistd.h>
+#include <sys/eventfd.h>
+#include <sys/stat.h>
 
 // #include <stdio.h>
 
 #include "libjfio.h"
 
-extern struct io_uring* create_ring(int depth, bool enableSQPoll, bool enableIOPoll) {
-    unsigned flags = 0;
+extern struct io_uring* create_ring(int depth, bool enableSQPoll, bool enableIOPoll, int sqThreadCpu,
+                                    int sqThreadIdle, int attachToFd) {
+    struct io_uring_params params = {0};
     if (enableSQPoll) {
-        flags |= IORING_SETUP_SQPOLL;
+        params.flags |= IORING_SETUP_SQPOLL;
+        if (sqThreadCpu >= 0) {
+            params.flags |= IORING_SETUP_SQ_AFF;
+            params.sq_thread_cpu = sqThreadCpu;
+        }
+        params.sq_thread_idle = sqThreadIdle;
     }
     if (enableIOPoll) {
-        flags |= IORING_SETUP_IOPOLL;
+        params.flags |= IORING_SETUP_IOPOLL;
+    }
+    if (attachToFd >= 0) {
+        params.flags |= IORING_SETUP_ATTACH_WQ;
+        params.wq_fd = attachToFd;
     }
 
     struct io_uring *ring = malloc(sizeof(struct io_uring));
-    io_uring_queue_init(depth, ring, flags);
+    if (io_uring_queue_init_params(depth, ring, &params) < 0) {
+        // Typically an invalid SQ thread CPU or ring to attach to.
+        free(ring);
+        return NULL;
+    }
     return ring;
 }
 
-extern void submit_and_check_completions(
+extern int ring_fd(struct io_uring* ring) {
+    return ring->ring_fd;
+}
+
+// The user_data of the read on the wake-up eventfd (submission ids are always positive ints).
+#define WAKEUP_USER_DATA ((__u64) -1)
+
+static int to_open_flags(int jfio_flags) {
+    int flags;
+    if (jfio_flags & JFIO_OPEN_WRITE) {
+        flags = (jfio_flags & JFIO_OPEN_READ) ? O_RDWR : O_WRONLY;
+    } else {
+        flags = O_RDONLY;
+    }
+    if (jfio_flags & JFIO_OPEN_APPEND) {
+        flags |= O_APPEND;
+    }
+    if (jfio_flags & JFIO_OPEN_CREATE) {
+        flags |= O_CREAT;
+    }
+    if (jfio_flags & JFIO_OPEN_EXCL) {
+        flags |= O_EXCL;
+    }
+    if (jfio_flags & JFIO_OPEN_TRUNCATE) {
+        flags |= O_TRUNC;
+    }
+    if (jfio_flags & JFIO_OPEN_DIRECT) {
+        flags |= O_DIRECT;
+    }
+    // Like the syscall provider, so the descriptors are not inherited by child processes.
+    return flags | O_CLOEXEC;
+}
+
+// Adds as many of the provided submissions as there is room for in the submission queue (without submitting them).
+static void prepare_submissions(
     struct io_uring* ring,
-    const struct submission* submissions,
+    const struct submission* region,
+    int capacity,
+    int head,
     int nr_submissions,
     struct submission_and_completion_result *res
 ) {
-    unsigned head;
-    struct io_uring_cqe *cqe;
     struct io_uring_sqe *sqe;
+    const struct submission* submissions = region + head;
+    const struct submission* end = region + capacity;
 
-    res->nr_submitted = 0;
-    res->nr_completed = 0;
-
-    // First submit as much submission as there is room.
-    bool has_submitted = false;
     for (int i = 0; i < nr_submissions; i++) {
+        if (submissions == end) {
+            submissions = region;
+        }
+        // A linked submission and its timeout must be submitted together, or the timeout would not be linked.
+        if ((submissions->flags & JFIO_SUBMISSION_LINK) && io_uring_sq_space_left(ring) < 2) {
+            break;
+        }
         sqe = io_uring_get_sqe(ring);
         if (!sqe) {
             break;
         }
 
-        has_submitted = true;
         //fprintf(stdout, "[S %d] id=%ld\n", i, submissions->id);
         //fprintf(stdout, "[S %d] fd=%d\n", i, submissions->fd);
         //fprintf(stdout, "[S %d] address=%p\n", i, submissions->buf_base);
         //fprintf(stdout, "[S %d] offset=%ld\n", i, submissions->offset);
         //fprintf(stdout, "[S %d] length=%d\n", i, submissions->buf_length);
-        io_uring_prep_read(sqe, submissions->fd, submissions->buf_base, submissions->buf_length, submissions->offset);
+        switch (submissions->opcode) {
+        case JFIO_OP_WRITE:
+            if (submissions->buf_index >= 0) {
+                io_uring_prep_write_fixed(sqe, submissions->fd, submissions->buf_base, submissions->buf_length, submissions->offset, submissions->buf_index);
+            } else {
+                io_uring_prep_write(sqe, submissions->fd, submissions->buf_base, submissions->buf_length, submissions->offset);
+            }
+            break;
+        case JFIO_OP_OPEN:
+            io_uring_prep_openat(sqe, AT_FDCWD, submissions->buf_base, to_open_flags(submissions->op_flags), 0666);
+            break;
+        case JFIO_OP_CLOSE:
+            io_uring_prep_close(sqe, submissions->fd);
+            break;
+        case JFIO_OP_READV:
+            io_uring_prep_readv(sqe, submissions->fd, (const struct iovec*) submissions->buf_base, submissions->buf_length, submissions->offset);
+            break;
+        case JFIO_OP_WRITEV:
+            io_uring_prep_writev(sqe, submissions->fd, (const struct iovec*) submissions->buf_base, submissions->buf_length, submissions->offset);
+            break;
+        case JFIO_OP_FADVISE:
+            io_uring_prep_fadvise(sqe, submissions->fd, submissions->offset, submissions->buf_length, submissions->op_flags);
+            break;
+        case JFIO_OP_LINK_TIMEOUT:
+            io_uring_prep_link_timeout(sqe, (struct __kernel_timespec*) submissions->buf_base, 0);
+            break;
+        case JFIO_OP_CANCEL:
+            io_uring_prep_cancel(sqe, (void*) (uintptr_t) submissions->offset, 0);
+            break;
+        case JFIO_OP_STATX:
+            io_uring_prep_statx(sqe, submissions->fd, "", AT_EMPTY_PATH, STATX_BASIC_STATS, (struct statx*) submissions->buf_base);
+            break;
+        default:
+            if (submissions->buf_index >= 0) {
+                io_uring_prep_read_fixed(sqe, submissions->fd, submissions->buf_base, submissions->buf_length, submissions->offset, submissions->buf_index);
+            } else {
+                io_uring_prep_read(sqe, submissions->fd, submissions->buf_base, submissions->buf_length, submissions->offset);
+            }
+            break;
+        }
+        if (submissions->ioprio) {
+            sqe->ioprio = submissions->ioprio;
+        }
+        unsigned sqe_flags = 0;
+        if (submissions->flags & JFIO_SUBMISSION_FIXED_FILE) {
+            sqe_flags |= IOSQE_FIXED_FILE;
+        }
+        if (submissions->flags & JFIO_SUBMISSION_LINK) {
+            sqe_flags |= IOSQE_IO_LINK;
+        }
+        io_uring_sqe_set_flags(sqe, sqe_flags);
         io_uring_sqe_set_data(sqe, (void*) (uintptr_t) submissions->id);
         submissions++;
         res->nr_submitted++;
     }
-    if (has_submitted) {
-        io_uring_submit(ring);
-    } else if (ring->flags & IORING_SETUP_IOPOLL) {
-        io_uring_peek_cqe(ring, &cqe);
-    }
+}
+
+// Reaps as many completions as there are available (without waiting).
+static void reap_completions(struct io_uring* ring, struct submission_and_completion_result *res) {
+    unsigned head;
+    struct io_uring_cqe *cqe;
 
-    // Now, reap as many completions as there are available.
     unsigned i = 0;
     io_uring_for_each_cqe(ring, head, cqe) {
+        i++;
         //fprintf(stdout, "[C] res = %d\n", cqe->res);
         //fprintf(stdout, "[C %d] completed[%ld] = %ld, \n", i, res->nr_completed, (long) io_uring_cqe_get_data(cqe));
+        if (cqe->user_data == WAKEUP_USER_DATA) {
+            // Internal to the wake-up mechanism: simply means the read needs to be re-armed.
+            res->wakeup_armed = 0;
+            continue;
+        }
         res->completed_res[res->nr_completed] = cqe->res;
         res->completed_ids[res->nr_completed] = (int)(long) io_uring_cqe_get_data(cqe);
         res->nr_completed++;
-        i++;
     }
 
     io_uring_cq_advance(ring, i);
 }
 
+extern void submit_and_check_completions(
+    struct io_uring* ring,
+    const struct submission* submissions,
+    int capacity,
+    int head,
+    int nr_submissions,
+    struct submission_and_completion_result *res
+) {
+    struct io_uring_cqe *cqe;
+
+    res->nr_submitted = 0;
+    res->nr_completed = 0;
+
+    // First submit as much submission as there is room.
+    prepare_submissions(ring, submissions, capacity, head, nr_submissions, res);
+    if (res->nr_submitted > 0) {
+        io_uring_submit(ring);
+    } else if (ring->flags & IORING_SETUP_IOPOLL) {
+        io_uring_peek_cqe(ring, &cqe);
+    }
+
+    // Now, reap as many completions as there are available.
+    reap_completions(ring, res);
+}
+
+extern void submit_and_wait_completions(
+    struct io_uring* ring,
+    const struct submission* submissions,
+    int capacity,
+    int head,
+    int nr_submissions,
+    struct submission_and_completion_result *res,
+    long timeout_nanos
+) {
+    struct io_uring_cqe *cqe;
+    struct io_uring_sqe *sqe;
+
+    res->nr_submitted = 0;
+    res->nr_completed = 0;
+
+    prepare_submissions(ring, submissions, capacity, head, nr_submissions, res);
+
+    // Make sure a read on the wake-up eventfd is in flight, so `wakeup_ring` can interrupt the wait below. If the
+    // submission queue is full, we wait without it, but then there are plenty of operations in flight to wake us.
+    if (res->wakeup_fd >= 0 && !res->wakeup_armed) {
+        sqe = io_uring_get_sqe(ring);
+        if (sqe) {
+            io_uring_prep_read(sqe, res->wakeup_fd, &res->wakeup_value, sizeof(res->wakeup_value), 0);
+            io_uring_sqe_set_data64(sqe, WAKEUP_USER_DATA);
+            res->wakeup_armed = 1;
+        }
+    }
+
+    if (timeout_nanos >= 0) {
+        struct __kernel_timespec ts = {
+            .tv_sec = timeout_nanos / 1000000000L,
+            .tv_nsec = timeout_nanos % 1000000000L
+        };
+        io_uring_submit_and_wait_timeout(ring, &cqe, 1, &ts, NULL);
+    } else {
+        io_uring_submit_and_wait_timeout(ring, &cqe, 1, NULL, NULL);
+    }
+
+    reap_completions(ring, res);
+}
+
+extern int setup_wakeup(struct submission_and_completion_result *res) {
+    int fd = eventfd(0, EFD_CLOEXEC);
+    if (fd < 0) {
+        return -errno;
+    }
+    res->wakeup_fd = fd;
+    res->wakeup_armed = 0;
+    return 0;
+}
+
+extern void wakeup_ring(struct submission_and_completion_result *res) {
+    if (res->wakeup_fd >= 0) {
+        eventfd_write(res->wakeup_fd, 1);
+    }
+}
+
+extern void teardown_wakeup(struct submission_and_completion_result *res) {
+    if (res->wakeup_fd >= 0) {
+        close(res->wakeup_fd);
+        res->wakeup_fd = -1;
+    }
+}
+
+extern int register_buffers(struct io_uring* ring, void* base, int count, int buffer_size) {
+    struct iovec *iovecs = malloc(count * sizeof(struct iovec));
+    if (!iovecs) {
+        return -ENOMEM;
+    }
+    for (int i = 0; i < count; i++) {
+        iovecs[i].iov_base = (char*) base + ((size_t) i * buffer_size);
+        iovecs[i].iov_len = buffer_size;
+    }
+    int res = io_uring_register_buffers(ring, iovecs, count);
+    // The kernel has its own copy once registered.
+    free(iovecs);
+    return res;
+}
+
+extern int register_files(struct io_uring* ring, int count) {
+    int *fds = malloc(count * sizeof(int));
+    if (!fds) {
+        return -ENOMEM;
+    }
+    // -1 entries are empty slots, to be set later through `update_registered_file`.
+    for (int i = 0; i < count; i++) {
+        fds[i] = -1;
+    }
+    int res = io_uring_register_files(ring, fds, count);
+    free(fds);
+    return res;
+}
+
+extern int update_registered_file(struct io_uring* ring, int slot, int fd) {
+    return io_uring_register_files_update(ring, slot, &fd, 1);
+}
+
 extern void destroy_ring(struct io_uring* ring) {
     io_uring_queue_exit(ring);
     free(ring);
 }
 
-extern int open_file(struct io_uring* ring, const char* path, bool direct) {
+extern int open_file(struct io_uring* ring, const char* path, int flags) {
     struct io_uring_cqe *cqe;
     struct io_uring_sqe *sqe = io_uring_get_sqe(ring);
     if (!sqe) {
         return -1;
     }
-    int flags = O_RDONLY;
-    if (direct) {
-        flags |= O_DIRECT;
-    }
-    io_uring_prep_openat(sqe, -1, path, flags, 0);
+    io_uring_prep_openat(sqe, -1, path, to_open_flags(flags), 0666);
     io_uring_submit(ring);
     io_uring_wait_cqe(ring, &cqe);
 
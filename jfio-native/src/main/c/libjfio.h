@@ -14,13 +14,47 @@
 #include <sys/uio.h>
 #include <liburing.h>
 
-// A submission for the `submit_and_check_completions` function. Only supports reads at present.
+// The operations a `struct submission` can describe (its `opcode` field).
+enum submission_opcode {
+    JFIO_OP_READ = 0,
+    JFIO_OP_WRITE = 1,
+    JFIO_OP_OPEN = 2,   // `buf_base` is the path to open, and `op_flags` the `JFIO_OPEN_*` flags. Completes with the fd.
+    JFIO_OP_CLOSE = 3,  // Closes `fd`.
+    JFIO_OP_STATX = 4,  // Retrieves the `struct statx` of `fd` into `buf_base`.
+    JFIO_OP_READV = 5,  // `buf_base` is an array of `buf_length` `struct iovec` to read into.
+    JFIO_OP_WRITEV = 6, // `buf_base` is an array of `buf_length` `struct iovec` to write from.
+    JFIO_OP_FADVISE = 7, // Advises `op_flags` for the `buf_length` bytes of `fd` at `offset`.
+    JFIO_OP_LINK_TIMEOUT = 8, // Cancels the previous (linked) submission after the `struct __kernel_timespec` at `buf_base`.
+    JFIO_OP_CANCEL = 9, // Cancels the in-flight submission whose id is `offset`.
+};
+
+// Flags for `open_file`. Those are translated to the corresponding `O_*` flags by `open_file` (so that the Java side
+// does not have to redeclare those).
+#define JFIO_OPEN_READ      (1 << 0) // Open for reading.
+#define JFIO_OPEN_WRITE     (1 << 1) // Open for writing (O_WRONLY, or O_RDWR if combined with JFIO_OPEN_READ).
+#define JFIO_OPEN_APPEND    (1 << 2) // O_APPEND.
+#define JFIO_OPEN_CREATE    (1 << 3) // O_CREAT.
+#define JFIO_OPEN_EXCL      (1 << 4) // O_EXCL (only meaningful with JFIO_OPEN_CREATE).
+#define JFIO_OPEN_TRUNCATE  (1 << 5) // O_TRUNC.
+#define JFIO_OPEN_DIRECT    (1 << 6) // O_DIRECT.
+
+// Flags for the `flags` field of `struct submission`.
+#define JFIO_SUBMISSION_FIXED_FILE (1 << 0) // `fd` is the slot of a registered file (see `register_files`).
+#define JFIO_SUBMISSION_LINK       (1 << 1) // Linked to the next submission (its JFIO_OP_LINK_TIMEOUT).
+
+// A submission for the `submit_and_check_completions` function.
 struct submission {
     int id;         // Id of the submission (how we'll identify when this submission completes).
-    int fd;         // File descriptor on which the read operates
-    int buf_length; // Length of the buffer to read into.
-    void* buf_base; // Base address of the buffer to read to.
-    long offset;    // Offset in the file at which to read.
+    int fd;         // File descriptor on which the operation operates
+    int buf_length; // Length of the buffer to read into/write from.
+    int opcode;     // The operation to perform (one of `enum submission_opcode`).
+    void* buf_base; // Base address of the buffer to read into/write from.
+    long offset;    // Offset in the file at which to read/write.
+    int buf_index;  // Index of the registered buffer (see `register_buffers`) containing the buffer, or -1 if the
+                    // buffer is not within a registered buffer. If set, a "fixed" read/write is used.
+    int flags;      // Combination of the `JFIO_SUBMISSION_*` flags.
+    int op_flags;   // Operation specific flags (the `JFIO_OPEN_*` flags for `JFIO_OP_OPEN`).
+    int ioprio;     // The I/O priority of reads and writes (the `ioprio` of the SQE), or 0 for the default one.
 };
 
 // Stores the result of a `submit_and_check_completions` call.
@@ -31,6 +65,10 @@ struct submission_and_completion_result {
     // entries for all the completions found (tl;dr, those array should have size `depth * 2`).
     int* completed_res;  // results of the completions found.
     int* completed_ids; // ids of the completions found.
+    // State of the wake-up mechanism used by `submit_and_wait_completions` (see `setup_wakeup`).
+    int wakeup_fd;          // eventfd used to interrupt waits, or -1 if not set up.
+    int wakeup_armed;       // whether a read on `wakeup_fd` is currently in flight.
+    uint64_t wakeup_value;  // buffer for the read on `wakeup_fd`.
 };
 
 /*
@@ -38,29 +76,91 @@ struct submission_and_completion_result {
  * completions as possible (_without_ blocking). There is no guarantee on how many submissions will actually be
  * submitted; this depend on how much room the submission queue has. Note that `nr_submissions` can be 0 if we only
  * want to reap completions.
+ *
+ * `submissions` is a circular region of `capacity` submissions: the submissions to submit start at index `head`, and
+ * wrap around to index 0 after index `capacity - 1`.
  */
 extern void submit_and_check_completions(
     struct io_uring* ring,
     const struct submission* submissions,
+    int capacity,
+    int head,
     int nr_submissions,
     struct submission_and_completion_result *result
 );
 
-/* Creates a new ring with the provided `depth`. */
-extern struct io_uring* create_ring(int depth, bool enableSQPoll, bool enableIOPoll);
+/*
+ * Like `submit_and_check_completions`, but if no completion is immediately available, waits until at least one is
+ * (or `timeout_nanos` have elapsed if it is non-negative, or `wakeup_ring` is called on `result`).
+ *
+ * Interrupting a wait with `wakeup_ring` requires `setup_wakeup` to have been called on `result` first: this works by
+ * keeping a read on an eventfd in flight (its completion is never reported in `result`).
+ */
+extern void submit_and_wait_completions(
+    struct io_uring* ring,
+    const struct submission* submissions,
+    int capacity,
+    int head,
+    int nr_submissions,
+    struct submission_and_completion_result *result,
+    long timeout_nanos
+);
+
+/* Sets up the eventfd used by `wakeup_ring`. Returns 0 on success or the negated errno on failure. */
+extern int setup_wakeup(struct submission_and_completion_result *result);
+
+/*
+ * Interrupts any ongoing (or the next) `submit_and_wait_completions` call using `result`. This can be called from
+ * any thread.
+ */
+extern void wakeup_ring(struct submission_and_completion_result *result);
+
+/* Closes the eventfd set up by `setup_wakeup` (to be called after the ring has been destroyed). */
+extern void teardown_wakeup(struct submission_and_completion_result *result);
+
+/*
+ * Creates a new ring with the provided `depth`. With SQ polling, `sqThreadCpu` is the CPU to pin the polling thread
+ * to (-1 to not pin it) and `sqThreadIdle` its idle time in milliseconds (0 for the default). `attachToFd` is the
+ * file descriptor of the ring whose kernel workers to share (IORING_SETUP_ATTACH_WQ), -1 to not share any. Returns
+ * NULL if the ring cannot be created.
+ */
+extern struct io_uring* create_ring(int depth, bool enableSQPoll, bool enableIOPoll, int sqThreadCpu,
+                                    int sqThreadIdle, int attachToFd);
+
+/* The file descriptor of the provided ring. */
+extern int ring_fd(struct io_uring* ring);
+
+/*
+ * Registers `count` buffers of `buffer_size` bytes each, laid out contiguously in memory starting at `base`, with
+ * the provided ring. Returns 0 on success or the negated errno on failure.
+ */
+extern int register_buffers(struct io_uring* ring, void* base, int count, int buffer_size);
+
+/*
+ * Sets up a registered file table of `count` (initially empty) slots for the provided ring. Returns 0 on success or
+ * the negated errno on failure.
+ */
+extern int register_files(struct io_uring* ring, int count);
+
+/*
+ * Sets the file descriptor of `slot` in the ring registered file table (`fd` can be -1 to clear the slot). Returns
+ * a non-negative value on success or the negated errno on failure.
+ */
+extern int update_registered_file(struct io_uring* ring, int slot, int fd);
 
 /* Destroy the provided ring. */
 extern void destroy_ring(struct io_uring* ring);
 
 /*
  * Submit an "openat" request to the provided ring for the provided file, and wait on it's completion (returning the
- * resulting fd (or error). The `direct` flag allows the file to be opened with O_DIRECT (and this is the main
- * reason for this to exists: we can open a file from Java, but not with O_DIRECT). This currently only ever
- * open the file in read-only mode.
+ * resulting fd (or error). The `flags` are a combination of the `JFIO_OPEN_*` flags above; in particular,
+ * `JFIO_OPEN_DIRECT` allows the file to be opened with O_DIRECT (and this is the main reason for this to exists: we
+ * can open a file from Java, but not with O_DIRECT). Files created due to `JFIO_OPEN_CREATE` get mode 0666 (minus
+ * the process umask).
  *
  * This function assumes that the ring is _empty_ when this is called.
  */
-extern int open_file(struct io_uring* ring, const char* path, bool direct);
+extern int open_file(struct io_uring* ring, const char* path, int flags);
 
 /*
  * Closes a file opened with `open_file` (this is also a synchronous operation which waits on the completion).
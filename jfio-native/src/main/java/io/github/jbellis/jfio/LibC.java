@@ -0,0 +1,178 @@
+package io.github.jbellis.jfio;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.VarHandle;
+
+import static io.github.jbellis.jfio.NativeUtils.lookupNativeFunction;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+/**
+ * The few libc functions used to drive io_uring without liburing (see {@link SyscallIORing}), which are all part of
+ * the default (libc) symbol lookup.
+ * <p>
+ * All methods return the negated {@code errno} on failure, like the raw system calls (and the jfio native library)
+ * do. The {@code errno} is captured in a segment owned by each instance, which is why instances must not be shared
+ * between threads.
+ */
+@NotThreadSafe
+final class LibC {
+    // The io_uring system call numbers are the same on all architectures.
+    static final long SYS_IO_URING_SETUP = 425;
+    static final long SYS_IO_URING_ENTER = 426;
+    static final long SYS_IO_URING_REGISTER = 427;
+
+    static final int PROT_READ = 0x1;
+    static final int PROT_WRITE = 0x2;
+    static final int MAP_SHARED = 0x01;
+    static final int MAP_POPULATE = 0x08000;
+
+    static final int O_RDONLY = 0;
+    static final int O_WRONLY = 01;
+    static final int O_RDWR = 02;
+    static final int O_CREAT = 0100;
+    static final int O_EXCL = 0200;
+    static final int O_TRUNC = 01000;
+    static final int O_APPEND = 02000;
+    static final int O_CLOEXEC = 02000000;
+    // One of the few flags whose value depends on the architecture.
+    static final int O_DIRECT = System.getProperty("os.arch").equals("aarch64") ? 0200000 : 040000;
+
+    static final int EFD_CLOEXEC = 02000000;
+
+    private static final Linker.Option.CaptureCallState CAPTURE_ERRNO = Linker.Option.captureCallState("errno");
+    private static final StructLayout CAPTURE_LAYOUT = CAPTURE_ERRNO.layout();
+    private static final VarHandle errnoVH = CAPTURE_LAYOUT.varHandle(MemoryLayout.PathElement.groupElement("errno"));
+
+    private static final MethodHandle syscallMH;
+    private static final MethodHandle mmapMH;
+    private static final MethodHandle munmapMH;
+    private static final MethodHandle openMH;
+    private static final MethodHandle closeMH;
+    private static final MethodHandle eventfdMH;
+    private static final MethodHandle writeMH;
+
+    static {
+        // long syscall(long number, ...): we always pass 6 (long) arguments, the maximum any system call takes.
+        syscallMH = lookupNativeFunction(
+                "syscall",
+                FunctionDescriptor.of(JAVA_LONG, JAVA_LONG, JAVA_LONG, JAVA_LONG, JAVA_LONG, JAVA_LONG, JAVA_LONG, JAVA_LONG),
+                Linker.Option.firstVariadicArg(1),
+                CAPTURE_ERRNO
+        );
+        // void *mmap(void *addr, size_t length, int prot, int flags, int fd, off_t offset)
+        mmapMH = lookupNativeFunction(
+                "mmap",
+                FunctionDescriptor.of(JAVA_LONG, JAVA_LONG, JAVA_LONG, JAVA_INT, JAVA_INT, JAVA_INT, JAVA_LONG),
+                CAPTURE_ERRNO
+        );
+        // int munmap(void *addr, size_t length)
+        munmapMH = lookupNativeFunction(
+                "munmap",
+                FunctionDescriptor.of(JAVA_INT, JAVA_LONG, JAVA_LONG),
+                CAPTURE_ERRNO
+        );
+        // int open(const char *pathname, int flags, ... /* mode_t mode */)
+        openMH = lookupNativeFunction(
+                "open",
+                FunctionDescriptor.of(JAVA_INT, NativeUtils.POINTER, JAVA_INT, JAVA_INT),
+                Linker.Option.firstVariadicArg(2),
+                CAPTURE_ERRNO
+        );
+        // int close(int fd)
+        closeMH = lookupNativeFunction("close", FunctionDescriptor.of(JAVA_INT, JAVA_INT), CAPTURE_ERRNO);
+        // int eventfd(unsigned int initval, int flags)
+        eventfdMH = lookupNativeFunction("eventfd", FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT), CAPTURE_ERRNO);
+        // ssize_t write(int fd, const void *buf, size_t count)
+        writeMH = lookupNativeFunction(
+                "write",
+                FunctionDescriptor.of(JAVA_LONG, JAVA_INT, NativeUtils.POINTER, JAVA_LONG),
+                CAPTURE_ERRNO
+        );
+    }
+
+    private final MemorySegment capturedState = NativeUtils.ALLOCATOR.allocate(CAPTURE_LAYOUT);
+
+    private int errno() {
+        return (int) errnoVH.get(capturedState);
+    }
+
+    long syscall(long number, long arg1, long arg2, long arg3, long arg4, long arg5, long arg6) {
+        long res;
+        try {
+            res = (long) syscallMH.invokeExact(capturedState, number, arg1, arg2, arg3, arg4, arg5, arg6);
+        } catch (Throwable e) {
+            throw new RuntimeException("Error invoking native method", e);
+        }
+        return res == -1 ? -errno() : res;
+    }
+
+    /** Maps the provided range of {@code fd} shared, read-write and pre-populated, returning the mapped address. */
+    long mmap(long length, int fd, long offset) {
+        long res;
+        try {
+            res = (long) mmapMH.invokeExact(capturedState, 0L, length, PROT_READ | PROT_WRITE, MAP_SHARED | MAP_POPULATE, fd, offset);
+        } catch (Throwable e) {
+            throw new RuntimeException("Error invoking native method", e);
+        }
+        // MAP_FAILED is (void *) -1.
+        return res == -1 ? -errno() : res;
+    }
+
+    int munmap(long address, long length) {
+        int res;
+        try {
+            res = (int) munmapMH.invokeExact(capturedState, address, length);
+        } catch (Throwable e) {
+            throw new RuntimeException("Error invoking native method", e);
+        }
+        return res == -1 ? -errno() : res;
+    }
+
+    int open(MemorySegment path, int flags, int mode) {
+        int res;
+        try {
+            res = (int) openMH.invokeExact(capturedState, path, flags, mode);
+        } catch (Throwable e) {
+            throw new RuntimeException("Error invoking native method", e);
+        }
+        return res == -1 ? -errno() : res;
+    }
+
+    int close(int fd) {
+        int res;
+        try {
+            res = (int) closeMH.invokeExact(capturedState, fd);
+        } catch (Throwable e) {
+            throw new RuntimeException("Error invoking native method", e);
+        }
+        return res == -1 ? -errno() : res;
+    }
+
+    int eventfd(int initialValue, int flags) {
+        int res;
+        try {
+            res = (int) eventfdMH.invokeExact(capturedState, initialValue, flags);
+        } catch (Throwable e) {
+            throw new RuntimeException("Error invoking native method", e);
+        }
+        return res == -1 ? -errno() : res;
+    }
+
+    long write(int fd, MemorySegment buffer, long count) {
+        long res;
+        try {
+            res = (long) writeMH.invokeExact(capturedState, fd, buffer, count);
+        } catch (Throwable e) {
+            throw new RuntimeException("Error invoking native method", e);
+        }
+        return res == -1 ? -errno() : res;
+    }
+}
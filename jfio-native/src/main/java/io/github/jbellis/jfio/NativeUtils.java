@@ -15,7 +15,10 @@ import static java.lang.foreign.ValueLayout.ADDRESS;
 final class NativeUtils {
     private static final Logger LOG = LogManager.getLogger();
 
-    static final int EIO_ERRNO = 5;
+    static final int EINTR_ERRNO = 4;
+    static final int EAGAIN_ERRNO = 11;
+    static final int EBUSY_ERRNO = 16;
+    static final int ETIME_ERRNO = 62;
 
     static final ValueLayout.OfAddress POINTER = ADDRESS.withBitAlignment(64).asUnbounded();
     private static final Linker LINKER = Linker.nativeLinker();
@@ -76,10 +79,10 @@ final class NativeUtils {
         }
     }
 
-    static MethodHandle lookupNativeFunction(String name, FunctionDescriptor descriptor) {
+    static MethodHandle lookupNativeFunction(String name, FunctionDescriptor descriptor, Linker.Option... options) {
         return LOOK_BY_NAME
                 .find(name)
-                .map(addr -> LINKER.downcallHandle(addr, descriptor))
+                .map(addr -> LINKER.downcallHandle(addr, descriptor, options))
                 .orElseThrow(() -> new RuntimeException("Error finding/loading symbol: " + name));
     }
 }
@@ -5,6 +5,7 @@ import net.jcip.annotations.NotThreadSafe;
 import java.io.IOException;
 import java.lang.foreign.*;
 import java.lang.invoke.MethodHandle;
+import java.nio.file.OpenOption;
 import java.nio.file.Path;
 
 import static io.github.jbellis.jfio.NativeUtils.lookupNativeFunction;
@@ -18,41 +19,94 @@ class PanamaIORing extends IORing {
     private static final OfAddress POINTER = ADDRESS.withBitAlignment(64).asUnbounded();
 
     private static final MethodHandle submitAndCheckCompletionsMH;
+    private static final MethodHandle submitAndWaitCompletionsMH;
+
+    private static final MethodHandle setupWakeupMH;
+    private static final MethodHandle wakeupRingMH;
+    private static final MethodHandle teardownWakeupMH;
 
     private static final MethodHandle createRingMH;
     private static final MethodHandle destroyRingMH;
+    private static final MethodHandle ringFdMH;
+    private static final MethodHandle registerBuffersMH;
+    private static final MethodHandle registerFilesMH;
+    private static final MethodHandle updateRegisteredFileMH;
 
     private static final MethodHandle openFileMH;
     private static final MethodHandle closeFileMH;
 
     static {
-        NativeUtils.loadNativeLibrary("jfio", "native-lib");
-
+        // Note that the native library is loaded by PanamaNativeProvider, the only way to create this.
         FunctionDescriptor submitAndCheckCompletionsDesc = FunctionDescriptor.ofVoid(
                 POINTER,
                 POINTER,
                 JAVA_INT,
+                JAVA_INT,
+                JAVA_INT,
                 POINTER
         );
         submitAndCheckCompletionsMH = lookupNativeFunction("submit_and_check_completions", submitAndCheckCompletionsDesc);
 
+        FunctionDescriptor submitAndWaitCompletionsDesc = FunctionDescriptor.ofVoid(
+                POINTER,
+                POINTER,
+                JAVA_INT,
+                JAVA_INT,
+                JAVA_INT,
+                POINTER,
+                JAVA_LONG
+        );
+        submitAndWaitCompletionsMH = lookupNativeFunction("submit_and_wait_completions", submitAndWaitCompletionsDesc);
+
+        setupWakeupMH = lookupNativeFunction("setup_wakeup", FunctionDescriptor.of(JAVA_INT, POINTER));
+        wakeupRingMH = lookupNativeFunction("wakeup_ring", FunctionDescriptor.ofVoid(POINTER));
+        teardownWakeupMH = lookupNativeFunction("teardown_wakeup", FunctionDescriptor.ofVoid(POINTER));
+
         FunctionDescriptor createRingDesc = FunctionDescriptor.of(
                 POINTER,
                 JAVA_INT,
                 JAVA_BOOLEAN,
-                JAVA_BOOLEAN
+                JAVA_BOOLEAN,
+                JAVA_INT,
+                JAVA_INT,
+                JAVA_INT
         );
         createRingMH = lookupNativeFunction("create_ring", createRingDesc);
 
-
         FunctionDescriptor destroyRingDesc = FunctionDescriptor.ofVoid(POINTER);
         destroyRingMH = lookupNativeFunction("destroy_ring", destroyRingDesc);
 
+        ringFdMH = lookupNativeFunction("ring_fd", FunctionDescriptor.of(JAVA_INT, POINTER));
+
+        FunctionDescriptor registerBuffersDesc = FunctionDescriptor.of(
+                JAVA_INT,
+                POINTER,
+                POINTER,
+                JAVA_INT,
+                JAVA_INT
+        );
+        registerBuffersMH = lookupNativeFunction("register_buffers", registerBuffersDesc);
+
+        FunctionDescriptor registerFilesDesc = FunctionDescriptor.of(
+                JAVA_INT,
+                POINTER,
+                JAVA_INT
+        );
+        registerFilesMH = lookupNativeFunction("register_files", registerFilesDesc);
+
+        FunctionDescriptor updateRegisteredFileDesc = FunctionDescriptor.of(
+                JAVA_INT,
+                POINTER,
+                JAVA_INT,
+                JAVA_INT
+        );
+        updateRegisteredFileMH = lookupNativeFunction("update_registered_file", updateRegisteredFileDesc);
+
         FunctionDescriptor openFileDesc = FunctionDescriptor.of(
                 JAVA_INT,
                 POINTER,
                 POINTER,
-                JAVA_BOOLEAN
+                JAVA_INT
         );
         openFileMH = lookupNativeFunction("open_file", openFileDesc);
 
@@ -72,14 +126,59 @@ class PanamaIORing extends IORing {
     PanamaIORing(Config config) {
         super(config);
         try {
-            this.ring = (MemorySegment) createRingMH.invoke(config.depth(), config.useSQPolling(), config.useIOPolling());
-            this.fileOperationsRing = (MemorySegment) createRingMH.invoke(1, false, false);
+            this.ring = (MemorySegment) createRingMH.invoke(
+                    config.depth(),
+                    config.useSQPolling(),
+                    config.useIOPolling(),
+                    config.sqThreadCpu(),
+                    config.sqThreadIdleMillis(),
+                    sharedWorkersFd(config)
+            );
+            if (this.ring.address() == 0) {
+                throw new RuntimeException("Unexpected error creating io_uring ring");
+            }
+            this.fileOperationsRing = (MemorySegment) createRingMH.invoke(1, false, false, -1, 0, -1);
+            if (this.fileOperationsRing.address() == 0) {
+                destroyRingMH.invoke(this.ring);
+                throw new RuntimeException("Unexpected error creating io_uring ring");
+            }
+        } catch (RuntimeException e) {
+            throw e;
         } catch (Throwable e) {
             throw new RuntimeException("Error invoking native method", e);
         }
 
         this.submissions = new PanamaSubmissions(config.depth());
         this.result = new SubmissionAndCompletionResult(submissions.maxInFlight());
+
+        if (config.registeredFiles() > 0) {
+            int res;
+            try {
+                res = (int) registerFilesMH.invoke(this.ring, config.registeredFiles());
+            } catch (Throwable e) {
+                destroy();
+                throw new RuntimeException("Error invoking native method", e);
+            }
+            if (res < 0) {
+                destroy();
+                throw new RuntimeException("Unexpected error setting up registered file table (errno: " + (-res) + ")");
+            }
+            this.submissions.fixedFiles = new FixedFiles(config.registeredFiles());
+        }
+
+        if (config.waitStrategy().blocks()) {
+            int res;
+            try {
+                res = (int) setupWakeupMH.invoke(this.result.segment);
+            } catch (Throwable e) {
+                destroy();
+                throw new RuntimeException("Error invoking native method", e);
+            }
+            if (res < 0) {
+                destroy();
+                throw new RuntimeException("Unexpected error creating wake-up eventfd (errno: " + (-res) + ")");
+            }
+        }
     }
 
     @Override
@@ -88,6 +187,8 @@ class PanamaIORing extends IORing {
             submitAndCheckCompletionsMH.invoke(
                     this.ring,
                     this.submissions.segment,
+                    this.submissions.maxPending,
+                    this.submissions.pendingHead(),
                     this.submissions.pending(),
                     this.result.segment
             );
@@ -96,11 +197,51 @@ class PanamaIORing extends IORing {
         }
     }
 
+    @Override
+    protected void submitAndWaitCompletionsInternal(long timeoutNanos) {
+        try {
+            submitAndWaitCompletionsMH.invoke(
+                    this.ring,
+                    this.submissions.segment,
+                    this.submissions.maxPending,
+                    this.submissions.pendingHead(),
+                    this.submissions.pending(),
+                    this.result.segment,
+                    timeoutNanos
+            );
+        } catch (Throwable e) {
+            throw new RuntimeException("Error invoking native method", e);
+        }
+    }
+
+    @Override
+    protected void wakeupInternal() {
+        try {
+            wakeupRingMH.invoke(this.result.segment);
+        } catch (Throwable e) {
+            throw new RuntimeException("Error invoking native method", e);
+        }
+    }
+
     @Override
     Submissions submissions() {
         return submissions;
     }
 
+    @Override
+    protected int registerBuffersInternal(RegisteredBuffers buffers) {
+        try {
+            return (int) registerBuffersMH.invoke(
+                    this.ring,
+                    MemorySegment.ofBuffer(buffers.region()),
+                    buffers.count(),
+                    buffers.bufferSize()
+            );
+        } catch (Throwable e) {
+            throw new RuntimeException("Error invoking native method", e);
+        }
+    }
+
     @Override
     protected int submitted() {
         return result.submitted();
@@ -121,37 +262,50 @@ class PanamaIORing extends IORing {
         return result.res(i);
     }
 
+    @Override
+    protected int ringFd() {
+        try {
+            return (int) ringFdMH.invoke(this.ring);
+        } catch (Throwable e) {
+            throw new RuntimeException("Error invoking native method", e);
+        }
+    }
+
     @Override
     protected void destroy() {
         try {
             destroyRingMH.invoke(this.ring);
             destroyRingMH.invoke(this.fileOperationsRing);
+            // Only after the ring is destroyed, as the ring may have a read in flight on the eventfd.
+            teardownWakeupMH.invoke(this.result.segment);
         } catch (Throwable e) {
             throw new RuntimeException("Error invoking native method", e);
         }
     }
 
     @Override
-    public int openFile(Path path) throws IOException {
-        String absolutePath = path.toAbsolutePath().toString();
-        int length = absolutePath.length();
-        MemorySegment segment = NativeUtils.ALLOCATOR.allocate(length + 1);
-        segment.setUtf8String(0, absolutePath);
-        int fd = openFileInternal(segment);
+    protected int updateRegisteredFileInternal(int slot, int fd) {
+        try {
+            return (int) updateRegisteredFileMH.invoke(this.ring, slot, fd);
+        } catch (Throwable e) {
+            throw new RuntimeException("Error invoking native method", e);
+        }
+    }
+
+    @Override
+    public int openFile(Path path, OpenOption... options) throws IOException {
+        int flags = OpenFlags.of(options, config.directIO());
+        MemorySegment segment = NativeUtils.ALLOCATOR.allocateUtf8String(path.toAbsolutePath().toString());
+        int fd = openFileInternal(segment, flags);
         if (fd < 0) {
-            int errno = -fd;
-            if (errno == NativeUtils.EIO_ERRNO) {
-                throw new IOException(String.format("Error opening file '%s': I/O error", path));
-            } else {
-                throw new RuntimeException(String.format("Unexpected error opening file '%s' (errno: %d)", path, errno));
-            }
+            throw Submission.openError(path, -fd);
         }
         return fd;
     }
 
-    private int openFileInternal(MemorySegment filePathAsSegment) {
+    private int openFileInternal(MemorySegment filePathAsSegment, int flags) {
         try {
-            return (int) openFileMH.invoke(fileOperationsRing, filePathAsSegment, config.directIO());
+            return (int) openFileMH.invoke(fileOperationsRing, filePathAsSegment, flags);
         } catch (Throwable e) {
             throw new RuntimeException("Error invoking native method", e);
         }
@@ -161,12 +315,7 @@ class PanamaIORing extends IORing {
     public void closeFile(int fd) throws IOException {
         int res = closeFileInternal(fd);
         if (res < 0) {
-            int errno = -res;
-            if (errno == NativeUtils.EIO_ERRNO) {
-                throw new IOException("Error closing file: I/O error");
-            } else {
-                throw new RuntimeException("Unexpected error closing file (errno: " + errno + ")");
-            }
+            throw Submission.closeError(-res);
         }
     }
 
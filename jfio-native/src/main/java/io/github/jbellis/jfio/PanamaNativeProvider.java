@@ -4,13 +4,18 @@ import java.lang.foreign.MemorySegment;
 import java.nio.ByteBuffer;
 
 /**
- * Native provider for jfio using Panama Foreign Function and Memory API.
+ * Native provider for jfio using Panama Foreign Function and Memory API to call the jfio native library (which relies
+ * on liburing).
  */
 public class PanamaNativeProvider extends NativeProvider {
     /**
-     * Creates a new FFM-based native provider.
+     * Creates a new FFM-based native provider, loading the jfio native library.
+     *
+     * @throws RuntimeException if the native library cannot be loaded.
      */
-    public PanamaNativeProvider() {}
+    public PanamaNativeProvider() {
+        NativeUtils.loadNativeLibrary("jfio", "native-lib");
+    }
 
     @Override
     public IORing createRing(IORing.Config config) {
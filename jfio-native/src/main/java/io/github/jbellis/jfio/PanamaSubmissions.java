@@ -3,14 +3,14 @@ package io.github.jbellis.jfio;
 import java.lang.foreign.MemoryLayout;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.StructLayout;
-import java.lang.invoke.VarHandle;
 
 import static java.lang.foreign.ValueLayout.*;
 
 class PanamaSubmissions extends Submissions {
-    private static final long SUBMISSION_STRUCT_SIZE = Native.LAYOUT.byteSize();
-
-    /** Stores that are pending; this is the submission to pass to the next `submit_and_check_completions` call */
+    /**
+     * The circular region of pending submissions (see {@link Submissions#pendingHead}), passed to the
+     * `submit_and_check_completions` calls.
+     */
     final MemorySegment segment;
 
     PanamaSubmissions(int depth) {
@@ -19,61 +19,129 @@ class PanamaSubmissions extends Submissions {
     }
 
     @Override
-    void addSubmissionInternal(int index, int id, Submission submission) {
-        Native.set(this.segment, index, id, submission);
+    void addSubmissionInternal(
+            int index,
+            int id,
+            Submission.Operation operation,
+            int fd,
+            long address,
+            int length,
+            long offset,
+            int flags
+    ) {
+        // Only (vectored or not) reads and writes use the registered files, and only non-vectored ones the registered
+        // buffers.
+        boolean readOrWrite = operation == Submission.Operation.READ || operation == Submission.Operation.WRITE;
+        boolean vectored = operation == Submission.Operation.READV || operation == Submission.Operation.WRITEV;
+        int fixedFileSlot = fixedFiles == null || !(readOrWrite || vectored) ? -1 : fixedFiles.slotOf(fd);
+        int bufIndex = registeredBuffers == null || !readOrWrite ? -1 : registeredBuffers.indexOf(address, length);
+        Native.set(this.segment, slotOf(index), id, operation, fd, address, length, offset, bufIndex, fixedFileSlot, flags);
+    }
+
+    @Override
+    void setIOPriority(int index, int ioPriority) {
+        Native.setIOPriority(this.segment, slotOf(index), ioPriority);
     }
 
     @Override
-    void move(int from, int to) {
-        long fromOffset = from * SUBMISSION_STRUCT_SIZE;
-        long toOffset = to * SUBMISSION_STRUCT_SIZE;
-        MemorySegment.copy(this.segment, fromOffset, this.segment, toOffset, SUBMISSION_STRUCT_SIZE);
+    void linkToNext(int index) {
+        Native.link(this.segment, slotOf(index));
     }
 
     @Override
     int idOfSubmission(int index) {
-        return Native.getId(this.segment, index);
+        return Native.getId(this.segment, slotOf(index));
     }
 
     static class Native {
         static final StructLayout LAYOUT;
-
-        private static final VarHandle idVH;
-        private static final VarHandle fdVH;
-        private static final VarHandle bufLengthVH;
-        private static final VarHandle bufBaseVH;
-        private static final VarHandle offsetVH;
+        private static final long SIZE;
+
+        // The fields are accessed through their offsets, which (unlike slicing) allocates nothing.
+        private static final long ID_OFFSET;
+        private static final long FD_OFFSET;
+        private static final long BUF_LENGTH_OFFSET;
+        private static final long OPCODE_OFFSET;
+        private static final long BUF_BASE_OFFSET;
+        private static final long OFFSET_OFFSET;
+        private static final long BUF_INDEX_OFFSET;
+        private static final long FLAGS_OFFSET;
+        private static final long OP_FLAGS_OFFSET;
+        private static final long IOPRIO_OFFSET;
+
+        /** Mirrors JFIO_SUBMISSION_FIXED_FILE */
+        private static final int FIXED_FILE_FLAG = 1;
+        /** Mirrors JFIO_SUBMISSION_LINK */
+        private static final int LINK_FLAG = 1 << 1;
 
         static {
             LAYOUT = MemoryLayout.structLayout(
                     JAVA_INT.withName("id"),
                     JAVA_INT.withName("fd"),
                     JAVA_INT.withName("buf_length"),
-                    MemoryLayout.paddingLayout(32),
+                    JAVA_INT.withName("opcode"),
                     NativeUtils.POINTER.withName("buf_base"),
-                    JAVA_LONG.withName("offset")
+                    JAVA_LONG.withName("offset"),
+                    JAVA_INT.withName("buf_index"),
+                    JAVA_INT.withName("flags"),
+                    JAVA_INT.withName("op_flags"),
+                    JAVA_INT.withName("ioprio")
             ).withName("submission");
+            SIZE = LAYOUT.byteSize();
+
+            ID_OFFSET = offsetOf("id");
+            FD_OFFSET = offsetOf("fd");
+            BUF_LENGTH_OFFSET = offsetOf("buf_length");
+            OPCODE_OFFSET = offsetOf("opcode");
+            BUF_BASE_OFFSET = offsetOf("buf_base");
+            OFFSET_OFFSET = offsetOf("offset");
+            BUF_INDEX_OFFSET = offsetOf("buf_index");
+            FLAGS_OFFSET = offsetOf("flags");
+            OP_FLAGS_OFFSET = offsetOf("op_flags");
+            IOPRIO_OFFSET = offsetOf("ioprio");
+        }
 
+        private static long offsetOf(String field) {
+            return LAYOUT.byteOffset(MemoryLayout.PathElement.groupElement(field));
+        }
 
-            idVH = LAYOUT.varHandle(MemoryLayout.PathElement.groupElement("id"));
-            fdVH = LAYOUT.varHandle(MemoryLayout.PathElement.groupElement("fd"));
-            bufLengthVH = LAYOUT.varHandle(MemoryLayout.PathElement.groupElement("buf_length"));
-            bufBaseVH = LAYOUT.varHandle(MemoryLayout.PathElement.groupElement("buf_base"));
-            offsetVH = LAYOUT.varHandle(MemoryLayout.PathElement.groupElement("offset"));
+        static void set(
+                MemorySegment segment,
+                int slot,
+                int id,
+                Submission.Operation operation,
+                int fd,
+                long address,
+                int length,
+                long offset,
+                int bufIndex,
+                int fixedFileSlot,
+                int flags
+        ) {
+            long base = slot * SIZE;
+            segment.set(JAVA_INT, base + ID_OFFSET, id);
+            segment.set(JAVA_INT, base + FD_OFFSET, fixedFileSlot >= 0 ? fixedFileSlot : fd);
+            segment.set(JAVA_INT, base + BUF_LENGTH_OFFSET, length);
+            segment.set(JAVA_INT, base + OPCODE_OFFSET, operation.opcode);
+            segment.set(JAVA_LONG, base + BUF_BASE_OFFSET, address);
+            segment.set(JAVA_LONG, base + OFFSET_OFFSET, offset);
+            segment.set(JAVA_INT, base + BUF_INDEX_OFFSET, bufIndex);
+            segment.set(JAVA_INT, base + FLAGS_OFFSET, fixedFileSlot >= 0 ? FIXED_FILE_FLAG : 0);
+            segment.set(JAVA_INT, base + OP_FLAGS_OFFSET, flags);
+            segment.set(JAVA_INT, base + IOPRIO_OFFSET, 0);
         }
 
-        static void set(MemorySegment segment, int index, int id, Submission submission) {
-            MemorySegment toSet = segment.asSlice(index * LAYOUT.byteSize());
+        static void setIOPriority(MemorySegment segment, int slot, int ioPriority) {
+            segment.set(JAVA_INT, slot * SIZE + IOPRIO_OFFSET, ioPriority);
+        }
 
-            idVH.set(toSet, id);
-            fdVH.set(toSet, submission.fd());
-            bufLengthVH.set(toSet, submission.length());
-            bufBaseVH.set(toSet, MemorySegment.ofBuffer(submission.buffer()));
-            offsetVH.set(toSet, submission.offset());
+        static void link(MemorySegment segment, int slot) {
+            long flagsOffset = slot * SIZE + FLAGS_OFFSET;
+            segment.set(JAVA_INT, flagsOffset, segment.get(JAVA_INT, flagsOffset) | LINK_FLAG);
         }
 
-        static int getId(MemorySegment segment, int index) {
-            return (int) idVH.get(segment.asSlice(index * LAYOUT.byteSize()));
+        static int getId(MemorySegment segment, int slot) {
+            return segment.get(JAVA_INT, slot * SIZE + ID_OFFSET);
         }
 
         static MemorySegment allocateArray(int size) {
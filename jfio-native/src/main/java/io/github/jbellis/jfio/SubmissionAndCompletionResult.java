@@ -16,6 +16,7 @@ class SubmissionAndCompletionResult {
 
         Native.setCompletedRes(this.segment, NativeUtils.ALLOCATOR.allocateArray(JAVA_INT, maxCompleted));
         Native.setCompletedIds(this.segment, NativeUtils.ALLOCATOR.allocateArray(JAVA_INT, maxCompleted));
+        Native.setWakeupFd(this.segment, -1);
     }
 
     int submitted() {
@@ -41,19 +42,24 @@ class SubmissionAndCompletionResult {
         private static final VarHandle nrCompletedVH;
         private static final VarHandle completedResVH;
         private static final VarHandle completedIdsVH;
+        private static final VarHandle wakeupFdVH;
 
         static {
             LAYOUT = MemoryLayout.structLayout(
                     JAVA_INT.withName("nr_submitted"),
                     JAVA_INT.withName("nr_completed"),
                     NativeUtils.POINTER.withName("completed_res"),
-                    NativeUtils.POINTER.withName("completed_ids")
+                    NativeUtils.POINTER.withName("completed_ids"),
+                    JAVA_INT.withName("wakeup_fd"),
+                    JAVA_INT.withName("wakeup_armed"),
+                    JAVA_LONG.withName("wakeup_value")
             ).withName("submission_and_completion_result");
 
             nrSubmittedVH = LAYOUT.varHandle(MemoryLayout.PathElement.groupElement("nr_submitted"));
             nrCompletedVH = LAYOUT.varHandle(MemoryLayout.PathElement.groupElement("nr_completed"));
             completedResVH = LAYOUT.varHandle(MemoryLayout.PathElement.groupElement("completed_res"));
             completedIdsVH = LAYOUT.varHandle(MemoryLayout.PathElement.groupElement("completed_ids"));
+            wakeupFdVH = LAYOUT.varHandle(MemoryLayout.PathElement.groupElement("wakeup_fd"));
         }
 
         static int submitted(MemorySegment seg) {
@@ -80,6 +86,10 @@ class SubmissionAndCompletionResult {
             return ((MemorySegment) completedIdsVH.get(seg)).getAtIndex(JAVA_INT, i);
         }
 
+        static void setWakeupFd(MemorySegment seg, int fd) {
+            wakeupFdVH.set(seg, fd);
+        }
+
         static MemorySegment allocate() {
             return NativeUtils.ALLOCATOR.allocate(LAYOUT);
         }
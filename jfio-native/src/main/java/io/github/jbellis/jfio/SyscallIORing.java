@@ -0,0 +1,582 @@
+package io.github.jbellis.jfio;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentScope;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+import static java.lang.foreign.ValueLayout.JAVA_SHORT;
+
+/**
+ * Implementation of {@link IORing} that drives io_uring directly through its system calls, without the jfio native
+ * library nor liburing.
+ * <p>
+ * The submission and completion queues are mapped in memory, and accessed as {@link MemorySegment}: submissions are
+ * written directly as submission queue entries when {@link #add added}, and completions are reaped from the
+ * completion queue without any native call. The only native calls are the {@code io_uring_enter} system calls, which
+ * are skipped entirely when there is nothing to submit (or, with SQ polling, unless the kernel thread needs waking
+ * up) and nothing to wait for.
+ */
+@NotThreadSafe
+class SyscallIORing extends IORing {
+    // Offsets within struct io_uring_params.
+    private static final long PARAMS_SIZE = 120;
+    private static final long PARAMS_SQ_ENTRIES = 0;
+    private static final long PARAMS_CQ_ENTRIES = 4;
+    private static final long PARAMS_FLAGS = 8;
+    private static final long PARAMS_SQ_THREAD_CPU = 12;
+    private static final long PARAMS_SQ_THREAD_IDLE = 16;
+    private static final long PARAMS_FEATURES = 20;
+    private static final long PARAMS_WQ_FD = 24;
+    private static final long PARAMS_SQ_OFF = 40;
+    private static final long PARAMS_CQ_OFF = 80;
+
+    // Offsets within struct io_sqring_offsets and io_cqring_offsets (shared fields first).
+    private static final long OFF_HEAD = 0;
+    private static final long OFF_TAIL = 4;
+    private static final long OFF_RING_MASK = 8;
+    private static final long OFF_SQ_FLAGS = 16;
+    private static final long OFF_SQ_ARRAY = 24;
+    private static final long OFF_CQ_CQES = 20;
+
+    // Offsets within struct io_uring_sqe.
+    private static final long SQE_SIZE = 64;
+    private static final long SQE_OPCODE = 0;
+    private static final long SQE_FLAGS = 1;
+    private static final long SQE_IOPRIO = 2;
+    private static final long SQE_FD = 4;
+    private static final long SQE_OFF = 8;
+    private static final long SQE_ADDR = 16;
+    private static final long SQE_LEN = 24;
+    private static final long SQE_OP_FLAGS = 28;
+    private static final long SQE_USER_DATA = 32;
+    private static final long SQE_BUF_INDEX = 40;
+
+    // Offsets within struct io_uring_cqe.
+    private static final long CQE_SIZE = 16;
+    private static final long CQE_USER_DATA = 0;
+    private static final long CQE_RES = 8;
+
+    private static final int IORING_SETUP_IOPOLL = 1;
+    private static final int IORING_SETUP_SQPOLL = 1 << 1;
+    private static final int IORING_SETUP_SQ_AFF = 1 << 2;
+    private static final int IORING_SETUP_ATTACH_WQ = 1 << 5;
+    private static final int IORING_FEAT_SINGLE_MMAP = 1;
+    private static final long IORING_OFF_SQ_RING = 0;
+    private static final long IORING_OFF_CQ_RING = 0x8000000L;
+    private static final long IORING_OFF_SQES = 0x10000000L;
+
+    private static final int IORING_SQ_NEED_WAKEUP = 1;
+    private static final int IORING_SQ_CQ_OVERFLOW = 1 << 1;
+    private static final int IORING_SQ_TASKRUN = 1 << 2;
+
+    private static final int IORING_ENTER_GETEVENTS = 1;
+    private static final int IORING_ENTER_SQ_WAKEUP = 1 << 1;
+    private static final int IORING_ENTER_EXT_ARG = 1 << 3;
+
+    private static final int IORING_REGISTER_BUFFERS = 0;
+    private static final int IORING_REGISTER_FILES = 2;
+    private static final int IORING_REGISTER_FILES_UPDATE = 6;
+
+    static final byte IORING_OP_READV = 1;
+    static final byte IORING_OP_WRITEV = 2;
+    static final byte IORING_OP_READ_FIXED = 4;
+    static final byte IORING_OP_ASYNC_CANCEL = 14;
+    static final byte IORING_OP_LINK_TIMEOUT = 15;
+    static final byte IORING_OP_WRITE_FIXED = 5;
+    static final byte IORING_OP_OPENAT = 18;
+    static final byte IORING_OP_CLOSE = 19;
+    static final byte IORING_OP_STATX = 21;
+    static final byte IORING_OP_READ = 22;
+    static final byte IORING_OP_WRITE = 23;
+    static final byte IORING_OP_FADVISE = 24;
+    static final byte IOSQE_FIXED_FILE = 1;
+    static final byte IOSQE_IO_LINK = 1 << 2;
+
+    // The user_data of the read on the wake-up eventfd (submission ids are always positive ints).
+    private static final long WAKEUP_USER_DATA = -1L;
+
+    // Views with ordering semantics (acquire/release) on the ring head and tail fields shared with the kernel.
+    private static final VarHandle INT_HANDLE = MethodHandles.memorySegmentViewVarHandle(JAVA_INT);
+
+    private final LibC libc = new LibC();
+    private final int ringFd;
+
+    private final long sqRingAddress;
+    private final long sqRingSize;
+    private final long cqRingAddress;
+    private final long cqRingSize;
+    private final long sqesAddress;
+    private final long sqesSize;
+
+    private final MemorySegment sqRing;
+    private final MemorySegment cqRing;
+    final MemorySegment sqes;
+
+    private final int sqEntries;
+    final int sqMask;
+    private final int cqMask;
+    private final long sqHead;
+    private final long sqTail;
+    private final long sqFlags;
+    private final long cqHead;
+    private final long cqTail;
+    private final long cqes;
+
+    private final SyscallSubmissions submissions;
+
+    /** The kernel submission queue head when last checked: every entry before it has been consumed. */
+    private int sqConsumed;
+    /**
+     * Whether the wake-up eventfd read is in the submission queue but not yet consumed, in which case it is at
+     * {@code wakeupPosition}, and the pending submissions added after it are shifted by one.
+     */
+    private boolean wakeupQueued;
+    private int wakeupPosition;
+    private int cqConsumed;
+
+    private int submitted;
+    private int completed;
+    private final int[] completedIds;
+    private final int[] completedRes;
+
+    // Wake-up mechanism for blocking waits, see IORing#wakeup.
+    private final int wakeupFd;
+    private boolean wakeupArmed;
+    private final MemorySegment wakeupValue;
+    private final LibC wakeupLibc;
+    private final MemorySegment wakeupIncrement;
+
+    private final MemorySegment getEventsArg;
+    private final MemorySegment timespec;
+    private final MemorySegment filesUpdate;
+
+    SyscallIORing(Config config) {
+        super(config);
+
+        MemorySegment params = NativeUtils.ALLOCATOR.allocate(PARAMS_SIZE, 8);
+        params.fill((byte) 0);
+        int setupFlags = 0;
+        if (config.useSQPolling()) {
+            setupFlags |= IORING_SETUP_SQPOLL;
+            if (config.sqThreadCpu() >= 0) {
+                setupFlags |= IORING_SETUP_SQ_AFF;
+                params.set(JAVA_INT, PARAMS_SQ_THREAD_CPU, config.sqThreadCpu());
+            }
+            params.set(JAVA_INT, PARAMS_SQ_THREAD_IDLE, config.sqThreadIdleMillis());
+        }
+        if (config.useIOPolling()) {
+            setupFlags |= IORING_SETUP_IOPOLL;
+        }
+        int sharedWorkersFd = sharedWorkersFd(config);
+        if (sharedWorkersFd >= 0) {
+            setupFlags |= IORING_SETUP_ATTACH_WQ;
+            params.set(JAVA_INT, PARAMS_WQ_FD, sharedWorkersFd);
+        }
+        params.set(JAVA_INT, PARAMS_FLAGS, setupFlags);
+
+        // With blocking waits, the submission queue may hold the wake-up read on top of a full set of submissions.
+        int entries = config.waitStrategy().blocks() ? config.depth() + 1 : config.depth();
+        long fd = libc.syscall(LibC.SYS_IO_URING_SETUP, entries, params.address(), 0, 0, 0, 0);
+        if (fd < 0) {
+            throw new RuntimeException("Unexpected error creating io_uring ring (errno: " + (-fd) + ")");
+        }
+        this.ringFd = (int) fd;
+
+        this.sqEntries = params.get(JAVA_INT, PARAMS_SQ_ENTRIES);
+        int cqEntries = params.get(JAVA_INT, PARAMS_CQ_ENTRIES);
+        int features = params.get(JAVA_INT, PARAMS_FEATURES);
+        int sqArrayOffset = params.get(JAVA_INT, PARAMS_SQ_OFF + OFF_SQ_ARRAY);
+        int cqesOffset = params.get(JAVA_INT, PARAMS_CQ_OFF + OFF_CQ_CQES);
+
+        long sqSize = sqArrayOffset + (long) sqEntries * Integer.BYTES;
+        long cqSize = cqesOffset + (long) cqEntries * CQE_SIZE;
+        boolean singleMmap = (features & IORING_FEAT_SINGLE_MMAP) != 0;
+        if (singleMmap) {
+            sqSize = cqSize = Math.max(sqSize, cqSize);
+        }
+
+        try {
+            this.sqRingSize = sqSize;
+            this.sqRingAddress = map(sqSize, IORING_OFF_SQ_RING);
+            if (singleMmap) {
+                this.cqRingSize = 0;
+                this.cqRingAddress = sqRingAddress;
+            } else {
+                this.cqRingSize = cqSize;
+                this.cqRingAddress = map(cqSize, IORING_OFF_CQ_RING);
+            }
+            this.sqesSize = (long) sqEntries * SQE_SIZE;
+            this.sqesAddress = map(sqesSize, IORING_OFF_SQES);
+        } catch (RuntimeException e) {
+            // Unmaps whatever was mapped before the failure (the other mappings are still unset, so skipped).
+            destroyRing();
+            throw e;
+        }
+
+        this.sqRing = MemorySegment.ofAddress(sqRingAddress, sqSize, SegmentScope.global());
+        this.cqRing = MemorySegment.ofAddress(cqRingAddress, cqSize, SegmentScope.global());
+        this.sqes = MemorySegment.ofAddress(sqesAddress, sqesSize, SegmentScope.global());
+
+        this.sqHead = params.get(JAVA_INT, PARAMS_SQ_OFF + OFF_HEAD);
+        this.sqTail = params.get(JAVA_INT, PARAMS_SQ_OFF + OFF_TAIL);
+        this.sqFlags = params.get(JAVA_INT, PARAMS_SQ_OFF + OFF_SQ_FLAGS);
+        this.sqMask = sqRing.get(JAVA_INT, params.get(JAVA_INT, PARAMS_SQ_OFF + OFF_RING_MASK));
+        this.cqHead = params.get(JAVA_INT, PARAMS_CQ_OFF + OFF_HEAD);
+        this.cqTail = params.get(JAVA_INT, PARAMS_CQ_OFF + OFF_TAIL);
+        this.cqMask = cqRing.get(JAVA_INT, params.get(JAVA_INT, PARAMS_CQ_OFF + OFF_RING_MASK));
+        this.cqes = cqesOffset;
+
+        // Entry i of the submission queue always uses submission queue entry i, so that indirection is set once.
+        for (int i = 0; i < sqEntries; i++) {
+            sqRing.set(JAVA_INT, sqArrayOffset + (long) i * Integer.BYTES, i);
+        }
+        this.sqConsumed = (int) INT_HANDLE.getAcquire(sqRing, sqHead);
+        this.cqConsumed = (int) INT_HANDLE.getAcquire(cqRing, cqHead);
+
+        this.submissions = new SyscallSubmissions(config.depth(), this);
+        this.completedIds = new int[cqEntries];
+        this.completedRes = new int[cqEntries];
+
+        this.getEventsArg = NativeUtils.ALLOCATOR.allocate(24, 8);
+        this.getEventsArg.fill((byte) 0);
+        this.timespec = NativeUtils.ALLOCATOR.allocate(16, 8);
+        this.filesUpdate = NativeUtils.ALLOCATOR.allocate(24, 8);
+        this.filesUpdate.fill((byte) 0);
+
+        if (config.registeredFiles() > 0) {
+            MemorySegment fds = NativeUtils.ALLOCATOR.allocateArray(JAVA_INT, config.registeredFiles());
+            // -1 entries are empty slots, to be set later through `updateRegisteredFileInternal`.
+            for (int i = 0; i < config.registeredFiles(); i++) {
+                fds.setAtIndex(JAVA_INT, i, -1);
+            }
+            long res = libc.syscall(LibC.SYS_IO_URING_REGISTER, ringFd, IORING_REGISTER_FILES, fds.address(), config.registeredFiles(), 0, 0);
+            if (res < 0) {
+                destroyRing();
+                throw new RuntimeException("Unexpected error setting up registered file table (errno: " + (-res) + ")");
+            }
+            this.submissions.fixedFiles = new FixedFiles(config.registeredFiles());
+        }
+
+        if (config.waitStrategy().blocks()) {
+            int efd = libc.eventfd(0, LibC.EFD_CLOEXEC);
+            if (efd < 0) {
+                destroyRing();
+                throw new RuntimeException("Unexpected error creating wake-up eventfd (errno: " + (-efd) + ")");
+            }
+            this.wakeupFd = efd;
+            this.wakeupValue = NativeUtils.ALLOCATOR.allocate(JAVA_LONG);
+            this.wakeupLibc = new LibC();
+            this.wakeupIncrement = NativeUtils.ALLOCATOR.allocate(JAVA_LONG);
+            this.wakeupIncrement.set(JAVA_LONG, 0, 1L);
+        } else {
+            this.wakeupFd = -1;
+            this.wakeupValue = null;
+            this.wakeupLibc = null;
+            this.wakeupIncrement = null;
+        }
+    }
+
+    private long map(long size, long offset) {
+        long address = libc.mmap(size, ringFd, offset);
+        if (address < 0) {
+            throw new RuntimeException("Unexpected error mapping io_uring ring (errno: " + (-address) + ")");
+        }
+        return address;
+    }
+
+    /** The position in the submission queue of the {@code index}th pending submission. */
+    int positionOfPending(int index) {
+        int position = sqConsumed + index;
+        return wakeupQueued && position - wakeupPosition >= 0 ? position + 1 : position;
+    }
+
+    private int toSubmit() {
+        return submissions.pending() + (wakeupQueued ? 1 : 0);
+    }
+
+    @Override
+    Submissions submissions() {
+        return submissions;
+    }
+
+    /** Makes all the pending submissions (and internal entries) visible to the kernel. */
+    private void publish() {
+        INT_HANDLE.setRelease(sqRing, sqTail, sqConsumed + toSubmit());
+    }
+
+    /** Checks what the kernel consumed from the submission queue, and deduce how many submissions were submitted. */
+    private void updateSubmitted() {
+        int head = (int) INT_HANDLE.getAcquire(sqRing, sqHead);
+        int consumed = head - sqConsumed;
+        if (wakeupQueued && wakeupPosition - sqConsumed < consumed) {
+            wakeupQueued = false;
+            consumed--;
+        }
+        submitted = consumed;
+        sqConsumed = head;
+    }
+
+    private boolean needsWakingUpSQThread() {
+        // The tail store must be visible to the SQ thread before we read whether it went to sleep.
+        VarHandle.fullFence();
+        return (sqRing.get(JAVA_INT, sqFlags) & IORING_SQ_NEED_WAKEUP) != 0;
+    }
+
+    private boolean hasCompletions() {
+        return (int) INT_HANDLE.getAcquire(cqRing, cqTail) != cqConsumed;
+    }
+
+    private void enter(int toSubmit, int minComplete, int flags, long arg, long argSize) {
+        long res = libc.syscall(LibC.SYS_IO_URING_ENTER, ringFd, toSubmit, minComplete, flags, arg, argSize);
+        if (res < 0) {
+            int errno = (int) -res;
+            switch (errno) {
+                // Interrupted, timed out, or temporarily out of resources: whatever wasn't done will be on next call.
+                case NativeUtils.EINTR_ERRNO:
+                case NativeUtils.ETIME_ERRNO:
+                case NativeUtils.EAGAIN_ERRNO:
+                case NativeUtils.EBUSY_ERRNO:
+                    return;
+                default:
+                    throw new RuntimeException("Unexpected error from io_uring_enter (errno: " + errno + ")");
+            }
+        }
+    }
+
+    @Override
+    protected void submitAndCheckCompletionsInternal() {
+        int toSubmit = toSubmit();
+        publish();
+        if (config.useSQPolling()) {
+            if (toSubmit > 0 && needsWakingUpSQThread()) {
+                enter(0, 0, IORING_ENTER_SQ_WAKEUP, 0, 0);
+            }
+        } else if (toSubmit > 0) {
+            enter(toSubmit, 0, config.useIOPolling() ? IORING_ENTER_GETEVENTS : 0, 0, 0);
+        } else if (!hasCompletions()) {
+            // Nothing to submit: we only need the kernel if it has to be polled for completions, or if it has
+            // completions it could not post yet.
+            if (config.useIOPolling() || (sqRing.get(JAVA_INT, sqFlags) & (IORING_SQ_CQ_OVERFLOW | IORING_SQ_TASKRUN)) != 0) {
+                enter(0, 0, IORING_ENTER_GETEVENTS, 0, 0);
+            }
+        }
+        updateSubmitted();
+        reapCompletions();
+    }
+
+    @Override
+    protected void submitAndWaitCompletionsInternal(long timeoutNanos) {
+        // (Re-)arms the wake-up read, queued after the pending submissions (the ring has room for both).
+        if (wakeupFd >= 0 && !wakeupArmed) {
+            wakeupPosition = sqConsumed + submissions.pending();
+            long sqe = (long) (wakeupPosition & sqMask) * SQE_SIZE;
+            writeSqe(sqe, IORING_OP_READ, (byte) 0, wakeupFd, 0, wakeupValue.address(), Long.BYTES, 0, WAKEUP_USER_DATA, 0);
+            wakeupQueued = true;
+            wakeupArmed = true;
+        }
+
+        int toSubmit = toSubmit();
+        publish();
+        int flags = IORING_ENTER_GETEVENTS;
+        if (config.useSQPolling()) {
+            if (toSubmit > 0 && needsWakingUpSQThread()) {
+                flags |= IORING_ENTER_SQ_WAKEUP;
+            }
+            // The SQ thread does the submitting.
+            toSubmit = 0;
+        }
+
+        if (toSubmit > 0 || flags != IORING_ENTER_GETEVENTS || !hasCompletions()) {
+            if (timeoutNanos >= 0) {
+                timespec.set(JAVA_LONG, 0, timeoutNanos / 1_000_000_000L);
+                timespec.set(JAVA_LONG, 8, timeoutNanos % 1_000_000_000L);
+                // struct io_uring_getevents_arg: no sigmask, and the timeout.
+                getEventsArg.set(JAVA_LONG, 16, timespec.address());
+                enter(toSubmit, 1, flags | IORING_ENTER_EXT_ARG, getEventsArg.address(), getEventsArg.byteSize());
+            } else {
+                enter(toSubmit, 1, flags, 0, 0);
+            }
+        }
+        updateSubmitted();
+        reapCompletions();
+    }
+
+    private void reapCompletions() {
+        completed = 0;
+        int tail = (int) INT_HANDLE.getAcquire(cqRing, cqTail);
+        int head = cqConsumed;
+        for (; head != tail; head++) {
+            long cqe = cqes + (long) (head & cqMask) * CQE_SIZE;
+            long userData = cqRing.get(JAVA_LONG, cqe + CQE_USER_DATA);
+            if (userData == WAKEUP_USER_DATA) {
+                // Internal to the wake-up mechanism: simply means the read needs to be re-armed.
+                wakeupArmed = false;
+                continue;
+            }
+            completedIds[completed] = (int) userData;
+            completedRes[completed] = cqRing.get(JAVA_INT, cqe + CQE_RES);
+            completed++;
+        }
+        cqConsumed = head;
+        INT_HANDLE.setRelease(cqRing, cqHead, head);
+    }
+
+    /** Writes a full submission queue entry at the provided offset of the entries. */
+    void writeSqe(long sqe, byte opcode, byte flags, int fd, long offset, long address, int length, int opFlags, long userData, int bufIndex) {
+        // Clears all the fields we don't set (ioprio, op flags, personality, ...).
+        for (long i = 0; i < SQE_SIZE; i += Long.BYTES) {
+            sqes.set(JAVA_LONG, sqe + i, 0L);
+        }
+        sqes.set(JAVA_BYTE, sqe + SQE_OPCODE, opcode);
+        sqes.set(JAVA_BYTE, sqe + SQE_FLAGS, flags);
+        sqes.set(JAVA_INT, sqe + SQE_FD, fd);
+        sqes.set(JAVA_LONG, sqe + SQE_OFF, offset);
+        sqes.set(JAVA_LONG, sqe + SQE_ADDR, address);
+        sqes.set(JAVA_INT, sqe + SQE_LEN, length);
+        sqes.set(JAVA_INT, sqe + SQE_OP_FLAGS, opFlags);
+        sqes.set(JAVA_LONG, sqe + SQE_USER_DATA, userData);
+        sqes.set(JAVA_SHORT, sqe + SQE_BUF_INDEX, (short) bufIndex);
+    }
+
+    /** Sets the I/O priority of the submission queue entry at the provided offset. */
+    void setSqeIOPriority(long sqe, int ioPriority) {
+        sqes.set(JAVA_SHORT, sqe + SQE_IOPRIO, (short) ioPriority);
+    }
+
+    /** Adds the provided flags to those of the submission queue entry at the provided offset. */
+    void addSqeFlags(long sqe, byte flags) {
+        sqes.set(JAVA_BYTE, sqe + SQE_FLAGS, (byte) (sqes.get(JAVA_BYTE, sqe + SQE_FLAGS) | flags));
+    }
+
+    int userDataAt(long sqe) {
+        return (int) sqes.get(JAVA_LONG, sqe + SQE_USER_DATA);
+    }
+
+    @Override
+    protected void wakeupInternal() {
+        if (wakeupFd >= 0) {
+            wakeupLibc.write(wakeupFd, wakeupIncrement, Long.BYTES);
+        }
+    }
+
+    @Override
+    protected int registerBuffersInternal(RegisteredBuffers buffers) {
+        MemorySegment iovecs = NativeUtils.ALLOCATOR.allocate(16L * buffers.count(), 8);
+        long base = MemorySegment.ofBuffer(buffers.region()).address();
+        for (int i = 0; i < buffers.count(); i++) {
+            iovecs.set(JAVA_LONG, 16L * i, base + (long) i * buffers.bufferSize());
+            iovecs.set(JAVA_LONG, 16L * i + 8, buffers.bufferSize());
+        }
+        return (int) libc.syscall(LibC.SYS_IO_URING_REGISTER, ringFd, IORING_REGISTER_BUFFERS, iovecs.address(), buffers.count(), 0, 0);
+    }
+
+    @Override
+    protected int updateRegisteredFileInternal(int slot, int fd) {
+        // struct io_uring_files_update, followed by the (single) fd it points to.
+        filesUpdate.set(JAVA_INT, 0, slot);
+        filesUpdate.set(JAVA_INT, 16, fd);
+        filesUpdate.set(JAVA_LONG, 8, filesUpdate.address() + 16);
+        return (int) libc.syscall(LibC.SYS_IO_URING_REGISTER, ringFd, IORING_REGISTER_FILES_UPDATE, filesUpdate.address(), 1, 0, 0);
+    }
+
+    @Override
+    protected int submitted() {
+        return submitted;
+    }
+
+    @Override
+    protected int completed() {
+        return completed;
+    }
+
+    @Override
+    protected int completedId(int i) {
+        return completedIds[i];
+    }
+
+    @Override
+    protected int completedRes(int i) {
+        return completedRes[i];
+    }
+
+    @Override
+    protected int ringFd() {
+        return ringFd;
+    }
+
+    @Override
+    protected void destroy() {
+        destroyRing();
+        // Only after the ring is closed, as the ring may have a read in flight on the eventfd.
+        if (wakeupFd >= 0) {
+            libc.close(wakeupFd);
+        }
+    }
+
+    private void destroyRing() {
+        // The addresses are only set once mapped (see the constructor, which calls this on a failed mapping).
+        if (sqesAddress != 0) {
+            libc.munmap(sqesAddress, sqesSize);
+        }
+        if (cqRingSize > 0 && cqRingAddress != 0) {
+            libc.munmap(cqRingAddress, cqRingSize);
+        }
+        if (sqRingAddress != 0) {
+            libc.munmap(sqRingAddress, sqRingSize);
+        }
+        libc.close(ringFd);
+    }
+
+    @Override
+    public int openFile(Path path, OpenOption... options) throws IOException {
+        int flags = toOpenFlags(OpenFlags.of(options, config.directIO()));
+        MemorySegment segment = NativeUtils.ALLOCATOR.allocateUtf8String(path.toAbsolutePath().toString());
+        int fd = libc.open(segment, flags, 0666);
+        if (fd < 0) {
+            throw Submission.openError(path, -fd);
+        }
+        return fd;
+    }
+
+    static int toOpenFlags(int jfioFlags) {
+        int flags;
+        if ((jfioFlags & OpenFlags.WRITE) != 0) {
+            flags = (jfioFlags & OpenFlags.READ) != 0 ? LibC.O_RDWR : LibC.O_WRONLY;
+        } else {
+            flags = LibC.O_RDONLY;
+        }
+        if ((jfioFlags & OpenFlags.APPEND) != 0) {
+            flags |= LibC.O_APPEND;
+        }
+        if ((jfioFlags & OpenFlags.CREATE) != 0) {
+            flags |= LibC.O_CREAT;
+        }
+        if ((jfioFlags & OpenFlags.EXCL) != 0) {
+            flags |= LibC.O_EXCL;
+        }
+        if ((jfioFlags & OpenFlags.TRUNCATE) != 0) {
+            flags |= LibC.O_TRUNC;
+        }
+        if ((jfioFlags & OpenFlags.DIRECT) != 0) {
+            flags |= LibC.O_DIRECT;
+        }
+        return flags | LibC.O_CLOEXEC;
+    }
+
+    @Override
+    public void closeFile(int fd) throws IOException {
+        int res = libc.close(fd);
+        if (res < 0) {
+            throw Submission.closeError(-res);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package io.github.jbellis.jfio;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+
+/**
+ * Native provider for jfio using Panama Foreign Function and Memory API to drive io_uring directly through system
+ * calls (see {@link SyscallIORing}), which requires neither the jfio native library nor liburing.
+ */
+public class SyscallNativeProvider extends NativeProvider {
+    /**
+     * Creates a new system call based native provider.
+     */
+    public SyscallNativeProvider() {}
+
+    @Override
+    public IORing createRing(IORing.Config config) {
+        return new SyscallIORing(config);
+    }
+
+    @Override
+    public ByteBuffer allocateAligned(int length) {
+        return NativeUtils.ALLOCATOR.allocate(length, 512).asByteBuffer();
+    }
+
+    @Override
+    public long address(ByteBuffer buffer) {
+        return MemorySegment.ofBuffer(buffer).address();
+    }
+}
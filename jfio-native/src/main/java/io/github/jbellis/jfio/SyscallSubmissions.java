@@ -0,0 +1,146 @@
+package io.github.jbellis.jfio;
+
+import java.lang.foreign.MemorySegment;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+
+/**
+ * Submissions of a {@link SyscallIORing}, which are written directly as entries of the ring submission queue.
+ */
+class SyscallSubmissions extends Submissions {
+    private static final long SQE_SIZE = 64;
+
+    private static final int AT_FDCWD = -100;
+    private static final int AT_EMPTY_PATH = 0x1000;
+    private static final int STATX_BASIC_STATS = 0x7ff;
+    /** The empty path passed to statx, which (with AT_EMPTY_PATH) then gets the status of the file descriptor. */
+    private static final MemorySegment EMPTY_PATH = NativeUtils.ALLOCATOR.allocate(JAVA_BYTE);
+
+    private final SyscallIORing ring;
+
+    SyscallSubmissions(int depth, SyscallIORing ring) {
+        super(depth);
+        this.ring = ring;
+    }
+
+    private long sqeOf(int index) {
+        return (long) (ring.positionOfPending(index) & ring.sqMask) * SQE_SIZE;
+    }
+
+    @Override
+    void addSubmissionInternal(
+            int index,
+            int id,
+            Submission.Operation operation,
+            int fd,
+            long address,
+            int length,
+            long offset,
+            int flags
+    ) {
+        long sqe = sqeOf(index);
+        switch (operation) {
+            case OPEN:
+                ring.writeSqe(
+                        sqe,
+                        SyscallIORing.IORING_OP_OPENAT,
+                        (byte) 0,
+                        AT_FDCWD,
+                        0,
+                        address,
+                        0666,
+                        SyscallIORing.toOpenFlags(flags),
+                        id,
+                        0
+                );
+                break;
+            case CLOSE:
+                ring.writeSqe(sqe, SyscallIORing.IORING_OP_CLOSE, (byte) 0, fd, 0, 0, 0, 0, id, 0);
+                break;
+            case STATX:
+                // The statx buffer goes in the `off` field (`addr2`).
+                ring.writeSqe(
+                        sqe,
+                        SyscallIORing.IORING_OP_STATX,
+                        (byte) 0,
+                        fd,
+                        address,
+                        EMPTY_PATH.address(),
+                        STATX_BASIC_STATS,
+                        AT_EMPTY_PATH,
+                        id,
+                        0
+                );
+                break;
+            case FADVISE:
+                // The advice goes in the `rw_flags` field (`fadvise_advice`).
+                ring.writeSqe(sqe, SyscallIORing.IORING_OP_FADVISE, (byte) 0, fd, offset, 0, length, flags, id, 0);
+                break;
+            case LINK_TIMEOUT:
+                // The timeout is a `struct __kernel_timespec`, at `address`.
+                ring.writeSqe(sqe, SyscallIORing.IORING_OP_LINK_TIMEOUT, (byte) 0, -1, 0, address, 1, 0, id, 0);
+                break;
+            case CANCEL:
+                // The user_data of the operation to cancel goes in the `addr` field.
+                ring.writeSqe(sqe, SyscallIORing.IORING_OP_ASYNC_CANCEL, (byte) 0, -1, 0, offset, 0, 0, id, 0);
+                break;
+            case READV:
+            case WRITEV:
+                int fixedFileSlot = fixedFiles == null ? -1 : fixedFiles.slotOf(fd);
+                ring.writeSqe(
+                        sqe,
+                        operation == Submission.Operation.READV ? SyscallIORing.IORING_OP_READV : SyscallIORing.IORING_OP_WRITEV,
+                        fixedFileSlot >= 0 ? SyscallIORing.IOSQE_FIXED_FILE : 0,
+                        fixedFileSlot >= 0 ? fixedFileSlot : fd,
+                        offset,
+                        address,
+                        length,
+                        0,
+                        id,
+                        0
+                );
+                break;
+            default:
+                addReadOrWrite(sqe, id, operation == Submission.Operation.WRITE, fd, address, length, offset);
+        }
+    }
+
+    private void addReadOrWrite(long sqe, int id, boolean write, int fd, long address, int length, long offset) {
+        int fixedFileSlot = fixedFiles == null ? -1 : fixedFiles.slotOf(fd);
+        int bufIndex = registeredBuffers == null ? -1 : registeredBuffers.indexOf(address, length);
+
+        byte opcode;
+        if (bufIndex >= 0) {
+            opcode = write ? SyscallIORing.IORING_OP_WRITE_FIXED : SyscallIORing.IORING_OP_READ_FIXED;
+        } else {
+            opcode = write ? SyscallIORing.IORING_OP_WRITE : SyscallIORing.IORING_OP_READ;
+        }
+        ring.writeSqe(
+                sqe,
+                opcode,
+                fixedFileSlot >= 0 ? SyscallIORing.IOSQE_FIXED_FILE : 0,
+                fixedFileSlot >= 0 ? fixedFileSlot : fd,
+                offset,
+                address,
+                length,
+                0,
+                id,
+                Math.max(bufIndex, 0)
+        );
+    }
+
+    @Override
+    void setIOPriority(int index, int ioPriority) {
+        ring.setSqeIOPriority(sqeOf(index), ioPriority);
+    }
+
+    @Override
+    void linkToNext(int index) {
+        ring.addSqeFlags(sqeOf(index), SyscallIORing.IOSQE_IO_LINK);
+    }
+
+    @Override
+    int idOfSubmission(int index) {
+        return ring.userDataAt(sqeOf(index));
+    }
+}
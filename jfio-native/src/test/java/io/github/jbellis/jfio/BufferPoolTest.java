@@ -0,0 +1,67 @@
+package io.github.jbellis.jfio;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BufferPoolTest {
+    @Test
+    void acquiresBuffersOfTheSmallestFittingClass() {
+        BufferPool pool = BufferPool.create(4096, 1 << 20);
+
+        ByteBuffer small = pool.acquire(10);
+        assertEquals(10, small.limit());
+        assertEquals(512, small.capacity());
+        assertEquals(0, NativeProvider.instance().address(small) % 512);
+
+        assertEquals(2048, pool.acquire(1025).capacity());
+        assertEquals(4096, pool.acquire(4096).capacity());
+        // Not pooled.
+        assertEquals(5000, pool.acquire(5000).capacity());
+
+        assertEquals(4, pool.misses());
+        assertEquals(0, pool.hits());
+    }
+
+    @Test
+    void reusesReleasedBuffers() {
+        BufferPool pool = BufferPool.create(4096, 1 << 20);
+
+        ByteBuffer buffer = pool.acquire(1000);
+        buffer.position(10);
+        pool.release(buffer);
+
+        ByteBuffer reused = pool.acquire(600);
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(600, reused.limit());
+        assertNotSame(buffer, pool.acquire(600));
+
+        assertEquals(2, pool.misses());
+        assertEquals(1, pool.hits());
+    }
+
+    @Test
+    void ignoresUnpoolableBuffers() {
+        BufferPool pool = BufferPool.create(4096, 1 << 20);
+
+        pool.release(ByteBuffer.allocate(512));
+        pool.release(pool.acquire(8192));
+        pool.acquire(512);
+        pool.acquire(8192);
+        assertEquals(0, pool.hits());
+    }
+
+    @Test
+    void cannotCreatePoolWithInvalidMaxSize() {
+        assertThrows(IllegalArgumentException.class, () -> BufferPool.create(1000, 1 << 20));
+        assertThrows(IllegalArgumentException.class, () -> BufferPool.create(256, 1 << 20));
+        assertTrue(BufferPool.create().maxPooledSize() >= BufferPool.MIN_POOLED_SIZE);
+    }
+}
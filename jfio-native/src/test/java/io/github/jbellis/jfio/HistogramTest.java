@@ -0,0 +1,51 @@
+package io.github.jbellis.jfio;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistogramTest {
+    @Test
+    void bucketsBoundTheRelativeError() {
+        for (long value : new long[]{ 0, 1, 7, 8, 15, 16, 17, 1000, 123_456_789, Long.MAX_VALUE }) {
+            long upperBound = Histogram.upperBoundOf(Histogram.bucketOf(value));
+            assertTrue(upperBound >= value, "Upper bound " + upperBound + " < " + value);
+            assertTrue(upperBound - value <= value / 8, "Upper bound " + upperBound + " too far from " + value);
+        }
+    }
+
+    @Test
+    void computesPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.count());
+        assertEquals(1000, snapshot.max());
+        assertEquals(500.5, snapshot.mean(), 0.001);
+        assertEquals(1, snapshot.percentile(0));
+        assertEquals(1000, snapshot.percentile(100));
+
+        long p50 = snapshot.percentile(50);
+        assertTrue(p50 >= 500 && p50 <= 500 * 9 / 8, "Unexpected p50: " + p50);
+        long p99 = snapshot.percentile(99);
+        assertTrue(p99 >= 990 && p99 <= 1000, "Unexpected p99: " + p99);
+    }
+
+    @Test
+    void canMergeSnapshots() {
+        Histogram first = new Histogram();
+        Histogram second = new Histogram();
+        first.record(10);
+        second.record(20);
+        second.record(30);
+
+        Histogram.Snapshot merged = first.snapshot().merge(second.snapshot());
+        assertEquals(3, merged.count());
+        assertEquals(60, merged.sum());
+        assertEquals(30, merged.max());
+        assertEquals(0, Histogram.Snapshot.empty().merge(Histogram.Snapshot.empty()).count());
+    }
+}
@@ -2,17 +2,23 @@ package io.github.jbellis.jfio;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 class IORingTest {
     @Test
-    void canReadFileWithBufferedIO() throws InterruptedException, IOException {
+    void canReadFileWithBufferedIO() throws IOException {
         try (var ring = IORing.create(IORing.Config.buffered(2))) {
             int fd = ring.openFile(TestUtils.TEST_FILE);
             ByteBuffer buffer = ByteBuffer.allocateDirect(7);
@@ -25,22 +31,14 @@ class IORingTest {
                 }
             });
 
-            // Surely, it shouldn't take more than 100ms to read 7 bytes from a file.
-            for (int i = 0; i < 10; i++) {
-                ring.submitAndCheckCompletions();
-                if (done.get()) {
-                    break;
-                }
-                Thread.sleep(10);
-            }
-            assertTrue(done.get());
+            TestUtils.awaitCompletions(ring, done::get);
             Assertions.assertEquals("tre Cor", TestUtils.bufferToString(buffer));
             ring.closeFile(fd);
         }
     }
 
     @Test
-    void canReadFileWithDirectIO() throws IOException, InterruptedException {
+    void canReadFileWithDirectIO() throws IOException {
         try (var ring = IORing.create(IORing.Config.direct(2))) {
             int fd = ring.openFile(TestUtils.TEST_FILE);
             // With direct IO, we ask for multiples of 512 bytes. So while at it, we get the whole thing.
@@ -54,18 +52,174 @@ class IORingTest {
                 }
             });
 
-            // Surely, it shouldn't take more than 100ms to read 7 bytes from a file.
-            for (int i = 0; i < 10; i++) {
+            TestUtils.awaitCompletions(ring, done::get);
+            buffer.limit(699);
+            Assertions.assertEquals(Files.readString(TestUtils.TEST_FILE), TestUtils.bufferToString(buffer));
+            ring.closeFile(fd);
+        }
+    }
+
+    @Test
+    void canReadFileWithRawSubmissions() throws IOException {
+        try (var ring = IORing.create(IORing.Config.buffered(2))) {
+            int fd = ring.openFile(TestUtils.TEST_FILE);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(32);
+            long address = NativeProvider.instance().address(buffer);
+            // A single handler for all reads, which are identified by their tag.
+            int[] results = { -1, -1 };
+            RawCompletionHandler handler = (tag, res) -> results[(int) tag] = res;
+            assertTrue(ring.add(Submission.Operation.READ, fd, address, 7, 4, 0, handler));
+            assertTrue(ring.add(Submission.Operation.READ, fd, address + 16, 7, 49, 1, handler));
+
+            while (results[0] < 0 || results[1] < 0) {
                 ring.submitAndCheckCompletions();
-                if (done.get()) {
-                    break;
-                }
-                Thread.sleep(10);
             }
-            assertTrue(done.get());
+            assertEquals(7, results[0]);
+            assertEquals(7, results[1]);
+            assertEquals("tre Cor", TestUtils.bufferToString(buffer.duplicate().limit(7)));
+            assertEquals("son bec", TestUtils.bufferToString(buffer.duplicate().position(16).limit(23)));
+            assertEquals(2, ring.metrics().latency(Submission.Operation.READ).count());
+            ring.closeFile(fd);
+        }
+    }
+
+    @Test
+    void canReadFileWithRegisteredBuffers() throws IOException {
+        try (var ring = IORing.create(IORing.Config.direct(2))) {
+            RegisteredBuffers buffers = RegisteredBuffers.allocate(2, 1024);
+            ring.registerBuffers(buffers);
+            assertThrows(IllegalStateException.class, () -> ring.registerBuffers(buffers));
+
+            int fd = ring.openFile(TestUtils.TEST_FILE);
+            ByteBuffer buffer = buffers.buffer(1);
+            AtomicBoolean done = new AtomicBoolean();
+            ring.add(new Submission(fd, 1024, buffer, 0) {
+                @Override
+                public void onCompletion(int res) {
+                    assertEquals(699, res);
+                    done.set(true);
+                }
+            });
+
+            TestUtils.awaitCompletions(ring, done::get);
             buffer.limit(699);
             Assertions.assertEquals(Files.readString(TestUtils.TEST_FILE), TestUtils.bufferToString(buffer));
             ring.closeFile(fd);
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void canReadRegisteredFile() throws IOException {
+        try (var ring = IORing.create(IORing.Config.builder(2).withRegisteredFiles(4).build())) {
+            int fd = ring.openFile(TestUtils.TEST_FILE);
+            assertEquals(0, ring.registerFile(fd));
+            ByteBuffer buffer = ByteBuffer.allocateDirect(7);
+            AtomicBoolean done = new AtomicBoolean();
+            ring.add(new Submission(fd, 7, buffer, 4) {
+                @Override
+                public void onCompletion(int res) {
+                    assertEquals(7, res);
+                    done.set(true);
+                }
+            });
+
+            TestUtils.awaitCompletions(ring, done::get);
+            Assertions.assertEquals("tre Cor", TestUtils.bufferToString(buffer));
+            ring.unregisterFile(fd);
+            ring.closeFile(fd);
+        }
+    }
+
+    @Test
+    void canTrackMetrics() throws IOException {
+        try (var ring = IORing.create(IORing.Config.buffered(2))) {
+            int fd = ring.openFile(TestUtils.TEST_FILE);
+            AtomicBoolean done = new AtomicBoolean();
+            ring.add(new Submission(fd, 7, ByteBuffer.allocateDirect(7), 4) {
+                @Override
+                public void onCompletion(int res) {
+                    done.set(true);
+                }
+            });
+            assertEquals(1, ring.metrics().pending());
+
+            TestUtils.awaitCompletions(ring, done::get);
+
+            RingMetrics metrics = ring.metrics();
+            assertEquals(1, metrics.submitted());
+            assertEquals(1, metrics.completed());
+            assertEquals(0, metrics.inFlight());
+            assertEquals(0, metrics.pending());
+            assertEquals(1, metrics.submissionsPerCall().count());
+            assertEquals(1, metrics.latency(Submission.Operation.READ).count());
+            assertTrue(metrics.latency(Submission.Operation.READ).max() > 0);
+            assertEquals(0, metrics.latency(Submission.Operation.WRITE).count());
+            ring.closeFile(fd);
+        }
+    }
+
+    @Test
+    void canWakeupBlockingWait() throws InterruptedException {
+        var config = IORing.Config.builder(2).withWaitStrategy(WaitStrategy.block()).build();
+        try (var ring = IORing.create(config)) {
+            // Nothing is in flight, so only the timeout can end this wait.
+            long start = System.nanoTime();
+            assertEquals(0, ring.submitAndWaitCompletions(TimeUnit.MILLISECONDS.toNanos(20)));
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(10));
+
+            Thread waker = new Thread(() -> {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                ring.wakeup();
+            });
+            waker.start();
+            assertEquals(0, ring.submitAndWaitCompletions(TimeUnit.SECONDS.toNanos(10)));
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            waker.join();
+        }
+    }
+
+    @Test
+    void cannotBlockWithIOPolling() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> IORing.Config.builder(2).withDirectIO().withIOPolling().withWaitStrategy(WaitStrategy.block()).build()
+        );
+    }
+
+    @Test
+    void canWriteFile(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("written.txt");
+        try (var ring = IORing.create(IORing.Config.buffered(2))) {
+            int fd = ring.openFile(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+            byte[] content = "Maître Corbeau".getBytes(StandardCharsets.UTF_8);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(content.length);
+            buffer.put(content).flip();
+            AtomicBoolean done = new AtomicBoolean();
+            ring.add(new Submission(Submission.Operation.WRITE, fd, content.length, buffer, 0) {
+                @Override
+                public void onCompletion(int res) {
+                    assertEquals(content.length, res);
+                    done.set(true);
+                }
+            });
+
+            TestUtils.awaitCompletions(ring, done::get);
+            ring.closeFile(fd);
+        }
+        assertEquals("Maître Corbeau", Files.readString(file));
+    }
+
+    @Test
+    void cannotCreateExistingFile() throws IOException {
+        try (var ring = IORing.create(IORing.Config.buffered(2))) {
+            assertThrows(
+                    FileAlreadyExistsException.class,
+                    () -> ring.openFile(TestUtils.TEST_FILE, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)
+            );
+        }
+    }
+}
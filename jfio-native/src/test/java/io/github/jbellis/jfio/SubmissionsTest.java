@@ -0,0 +1,108 @@
+package io.github.jbellis.jfio;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SubmissionsTest {
+    /** Stores the ids of the pending submissions by slot, like the native implementations do. */
+    private static class TestSubmissions extends Submissions {
+        private final int[] ids;
+
+        TestSubmissions(int depth) {
+            super(depth);
+            this.ids = new int[depth];
+        }
+
+        @Override
+        void addSubmissionInternal(
+                int index,
+                int id,
+                Submission.Operation operation,
+                int fd,
+                long address,
+                int length,
+                long offset,
+                int flags
+        ) {
+            ids[slotOf(index)] = id;
+        }
+
+        @Override
+        void linkToNext(int index) {
+        }
+
+        @Override
+        void setIOPriority(int index, int ioPriority) {
+        }
+
+        @Override
+        int idOfSubmission(int index) {
+            return ids[slotOf(index)];
+        }
+    }
+
+    private static boolean addRead(Submissions submissions, List<Integer> completed, int tag) {
+        // Raw operations, as those don't need the native provider.
+        return submissions.add(Submission.Operation.READ, 0, 4096, 1, tag, tag, (t, res) -> completed.add((int) t));
+    }
+
+    @Test
+    void canWrapAroundOnPartialSubmits() {
+        TestSubmissions submissions = new TestSubmissions(4);
+        RingMetrics metrics = new RingMetrics();
+        List<Integer> completed = new ArrayList<>();
+
+        int nextTag = 0;
+        for (int round = 0; round < 10; round++) {
+            // Fill up, then only submit some, so the pending region head keeps moving around.
+            while (addRead(submissions, completed, nextTag)) {
+                nextTag++;
+            }
+            assertEquals(4, submissions.pending());
+            List<Integer> submittedIds = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                submittedIds.add(submissions.idOfSubmission(i));
+            }
+            submissions.onSubmitted(3);
+            assertEquals(1, submissions.pending());
+            for (int id : submittedIds) {
+                submissions.onCompleted(id, 1, metrics, 0);
+            }
+        }
+        // Everything but the last pending submission completed, in order.
+        assertEquals(nextTag - 1, completed.size());
+        for (int i = 0; i < completed.size(); i++) {
+            assertEquals(i, completed.get(i));
+        }
+    }
+
+    @Test
+    void canReuseIds() {
+        TestSubmissions submissions = new TestSubmissions(2);
+        RingMetrics metrics = new RingMetrics();
+        List<Integer> completed = new ArrayList<>();
+
+        // Up to maxInFlight submissions can be either pending or in flight, with distinct ids.
+        Set<Integer> ids = new HashSet<>();
+        for (int i = 0; i < submissions.maxInFlight(); i++) {
+            assertTrue(addRead(submissions, completed, i));
+            ids.add(submissions.idOfSubmission(submissions.pending() - 1));
+            if (submissions.pending() == 2) {
+                submissions.onSubmitted(2);
+            }
+        }
+        assertEquals(submissions.maxInFlight(), ids.size());
+        assertEquals(submissions.maxInFlight(), submissions.inFlight());
+
+        int freed = ids.iterator().next();
+        submissions.onCompleted(freed, 1, metrics, 0);
+        assertTrue(addRead(submissions, completed, 42));
+        assertEquals(freed, submissions.idOfSubmission(0));
+    }
+}
@@ -0,0 +1,131 @@
+package io.github.jbellis.jfio;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SyscallIORingTest {
+    private static final NativeProvider PROVIDER = new SyscallNativeProvider();
+
+    @Test
+    void canReadFile() throws IOException {
+        try (var ring = PROVIDER.createRing(IORing.Config.buffered(2))) {
+            int fd = ring.openFile(TestUtils.TEST_FILE);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(7);
+            AtomicInteger result = new AtomicInteger(-1);
+            ring.add(new Submission(fd, 7, buffer, 4) {
+                @Override
+                public void onCompletion(int res) {
+                    result.set(res);
+                }
+            });
+
+            while (result.get() < 0) {
+                ring.submitAndWaitCompletions(TimeUnit.SECONDS.toNanos(1));
+            }
+            assertEquals(7, result.get());
+            assertEquals("tre Cor", TestUtils.bufferToString(buffer));
+            ring.closeFile(fd);
+        }
+    }
+
+    @Test
+    void canReadMoreThanDepthWithDirectIO() throws IOException {
+        // More reads than the ring depth, so some have to wait in the submission queue for others to complete.
+        try (var ring = PROVIDER.createRing(IORing.Config.direct(2))) {
+            int fd = ring.openFile(TestUtils.TEST_FILE);
+            ByteBuffer[] buffers = new ByteBuffer[5];
+            AtomicInteger done = new AtomicInteger();
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = PROVIDER.allocateAligned(1024);
+                Submission submission = new Submission(fd, 1024, buffers[i], 0) {
+                    @Override
+                    public void onCompletion(int res) {
+                        assertEquals(699, res);
+                        done.incrementAndGet();
+                    }
+                };
+                while (!ring.add(submission)) {
+                    ring.submitAndCheckCompletions();
+                }
+            }
+            while (done.get() < buffers.length) {
+                ring.submitAndCheckCompletions();
+            }
+            for (ByteBuffer buffer : buffers) {
+                buffer.limit(699);
+                assertEquals(Files.readString(TestUtils.TEST_FILE), TestUtils.bufferToString(buffer));
+            }
+            ring.closeFile(fd);
+        }
+    }
+
+    @Test
+    void canWriteFileWithRegisteredFile(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("written.txt");
+        var config = IORing.Config.builder(2).withRegisteredFiles(4).build();
+        try (var ring = PROVIDER.createRing(config)) {
+            int fd = ring.openFile(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+            ring.registerFile(fd);
+            byte[] content = "Maître Corbeau".getBytes(StandardCharsets.UTF_8);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(content.length);
+            buffer.put(content).flip();
+            AtomicInteger result = new AtomicInteger(-1);
+            ring.add(new Submission(Submission.Operation.WRITE, fd, content.length, buffer, 0) {
+                @Override
+                public void onCompletion(int res) {
+                    result.set(res);
+                }
+            });
+
+            while (result.get() < 0) {
+                ring.submitAndCheckCompletions();
+            }
+            assertEquals(content.length, result.get());
+            ring.unregisterFile(fd);
+            ring.closeFile(fd);
+        }
+        assertEquals("Maître Corbeau", Files.readString(file));
+    }
+
+    @Test
+    void canWakeupBlockingWait() throws InterruptedException {
+        var config = IORing.Config.builder(2).withWaitStrategy(WaitStrategy.block()).build();
+        try (var ring = PROVIDER.createRing(config)) {
+            long start = System.nanoTime();
+            assertEquals(0, ring.submitAndWaitCompletions(TimeUnit.MILLISECONDS.toNanos(20)));
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(10));
+
+            Thread waker = new Thread(() -> {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                ring.wakeup();
+            });
+            waker.start();
+            assertEquals(0, ring.submitAndWaitCompletions(TimeUnit.SECONDS.toNanos(10)));
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            waker.join();
+        }
+    }
+
+    @Test
+    void cannotOpenMissingFile(@TempDir Path dir) {
+        try (var ring = PROVIDER.createRing(IORing.Config.buffered(2))) {
+            assertThrows(NoSuchFileException.class, () -> ring.openFile(dir.resolve("missing")));
+        }
+    }
+}
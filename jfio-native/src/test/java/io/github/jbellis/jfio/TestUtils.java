@@ -1,8 +1,12 @@
 package io.github.jbellis.jfio;
 
+import org.junit.jupiter.api.Assertions;
+
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 
 public class TestUtils {
     public static final Path RESOURCES_DIR = Path.of("src", "test", "resources");
@@ -11,4 +15,16 @@ public class TestUtils {
     public static String bufferToString(ByteBuffer buffer) {
         return Charset.defaultCharset().decode(buffer).toString();
     }
+
+    /**
+     * Submits the pending submissions of {@code ring} and waits for completions until {@code done}, failing if that
+     * takes more than 5 seconds.
+     */
+    public static void awaitCompletions(IORing ring, BooleanSupplier done) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!done.getAsBoolean() && System.nanoTime() < deadline) {
+            ring.submitAndWaitCompletions(TimeUnit.MILLISECONDS.toNanos(100));
+        }
+        Assertions.assertTrue(done.getAsBoolean());
+    }
 }
@@ -1,9 +1,34 @@
 package io.github.jbellis.jfio.executor;
 
+import io.github.jbellis.jfio.BufferPool;
 import io.github.jbellis.jfio.IORing;
+import io.github.jbellis.jfio.Submission;
 import io.github.jbellis.jfio.TestUtils;
+import io.github.jbellis.jfio.WaitStrategy;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.channels.InterruptedByTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
 
 class IOExecutorTest {
     private void canReadFile(int threadCount, IORing.Config config) throws Exception {
@@ -32,4 +57,794 @@ class IOExecutorTest {
     public void canReadFileWithMultipleLoop() throws Exception {
         canReadFile(2, IORing.Config.direct(2));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void canReadFileWithBlockingWaitStrategy() throws Exception {
+        var config = IORing.Config.builder(2).withWaitStrategy(WaitStrategy.block()).build();
+        canReadFile(1, config);
+        // Also check the loops wake up properly after having blocked for a while.
+        try (var executor = IOExecutor.multiThreaded(2, config);
+             var file = executor.openForReading(TestUtils.TEST_FILE)) {
+            Thread.sleep(50);
+            Assertions.assertEquals("Maître Corbeau", TestUtils.bufferToString(file.readAsync(0, 15).get(5, TimeUnit.SECONDS)));
+        }
+    }
+
+    @Test
+    public void canReadFileWithSpinThenBlockWaitStrategy() throws Exception {
+        canReadFile(2, IORing.Config.builder(2).withWaitStrategy(WaitStrategy.spinThenBlock(10, TimeUnit.MICROSECONDS)).build());
+    }
+
+    @Test
+    public void canReadFileWithRegisteredFiles() throws Exception {
+        canReadFile(2, IORing.Config.builder(2).withDirectIO().withRegisteredFiles(16).build());
+    }
+
+    @Test
+    public void canOpenReadAndCloseFileWithIOPolling() throws Exception {
+        var config = IORing.Config.builder(2).withDirectIO().withIOPolling().build();
+        try (var executor = IOExecutor.multiThreaded(2, config)) {
+            // The rings reject anything but reads and writes, so the open, size and close must not go through them.
+            var file = executor.openForReading(TestUtils.TEST_FILE);
+            Assertions.assertEquals(699L, file.sizeAsync().get(5, TimeUnit.SECONDS));
+            try {
+                ByteBuffer buffer = file.readAsync(0, 15).get(5, TimeUnit.SECONDS);
+                Assertions.assertEquals("Maître Corbeau", TestUtils.bufferToString(buffer));
+            } catch (ExecutionException e) {
+                // Devices without poll queues reject polled reads (EOPNOTSUPP), which the test cannot help.
+                Assertions.assertTrue(e.getCause() instanceof IOException, e.toString());
+            }
+            file.close();
+        }
+    }
+
+    @Test
+    public void canReadFileWithSharedSQThread() throws Exception {
+        var config = IORing.Config.builder(2)
+                .withSQPolling()
+                .withSQThreadCpu(0)
+                .withSQThreadIdle(10, TimeUnit.MILLISECONDS)
+                .build();
+        long before = sqPollingThreads();
+        IORing probe;
+        try {
+            probe = IORing.create(config);
+        } catch (RuntimeException e) {
+            // SQ polling requires privileges before Linux 5.11, and CPU 0 may not be available to this process.
+            Assumptions.abort("Cannot create an SQ polling ring pinned to CPU 0: " + e.getMessage());
+            return;
+        }
+        try (probe) {
+            long withProbe = sqPollingThreads();
+            // The polling threads are only threads of the process (named iou-sqp-<pid>) since Linux 5.12.
+            Assumptions.assumeTrue(withProbe > before, "SQ polling threads are not visible");
+
+            var executor = IOExecutor.builder(config).withThreads(3).withSharedRingWorkers().build();
+            try (executor; var file = executor.openForReading(TestUtils.TEST_FILE)) {
+                // The rings of the loops share the polling thread of the first one.
+                Assertions.assertEquals(withProbe + 1, sqPollingThreads());
+                ExecutorMetrics.Loop[] loops = executor.loops();
+                Assertions.assertNull(((EventLoop) loops[0]).ringConfig().sharedWorkers());
+                for (int i = 1; i < loops.length; i++) {
+                    Assertions.assertNotNull(((EventLoop) loops[i]).ringConfig().sharedWorkers());
+                }
+
+                // Round-robin, so every loop (and ring) gets one.
+                for (int i = 0; i < 3; i++) {
+                    ByteBuffer buffer = file.readAsync(0, 15).get(5, TimeUnit.SECONDS);
+                    Assertions.assertEquals("Maître Corbeau", TestUtils.bufferToString(buffer));
+                    file.release(buffer);
+                }
+            }
+        }
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> IORing.Config.builder(2).withSQThreadCpu(0).build()
+        );
+    }
+
+    /** The number of kernel SQ polling threads of this process. */
+    private static long sqPollingThreads() throws IOException {
+        try (var tasks = Files.list(Path.of("/proc/self/task"))) {
+            return tasks.filter(task -> {
+                try {
+                    return Files.readString(task.resolve("comm")).startsWith("iou-sqp");
+                } catch (IOException e) {
+                    // The thread exited meanwhile.
+                    return false;
+                }
+            }).count();
+        }
+    }
+
+    @Test
+    public void canReadFileWithRoutingPolicies() throws Exception {
+        for (RoutingPolicy policy : RoutingPolicy.values()) {
+            var executor = IOExecutor.builder(IORing.Config.buffered(2))
+                    .withThreads(3)
+                    .withRoutingPolicy(policy)
+                    .build();
+            try (executor; var file = executor.openForReading(TestUtils.TEST_FILE)) {
+                // From several threads, for THREAD_AFFINITY to use several loops.
+                List<CompletableFuture<ByteBuffer>> reads = new ArrayList<>();
+                Thread[] threads = new Thread[4];
+                for (int i = 0; i < threads.length; i++) {
+                    CompletableFuture<ByteBuffer> read = new CompletableFuture<>();
+                    reads.add(read);
+                    threads[i] = new Thread(() -> file.readAsync(0, 15).whenComplete((buffer, error) -> {
+                        if (error == null) {
+                            read.complete(buffer);
+                        } else {
+                            read.completeExceptionally(error);
+                        }
+                    }));
+                    threads[i].start();
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                for (CompletableFuture<ByteBuffer> read : reads) {
+                    ByteBuffer buffer = read.get(5, TimeUnit.SECONDS);
+                    Assertions.assertEquals("Maître Corbeau", TestUtils.bufferToString(buffer), policy.toString());
+                    file.release(buffer);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void canHandOffReadsBetweenLoops() throws Exception {
+        // All the reads of this thread go to the same loop, whose small ring gets backed up, so the other picks up some.
+        var executor = IOExecutor.builder(IORing.Config.buffered(2))
+                .withThreads(2)
+                .withRoutingPolicy(RoutingPolicy.THREAD_AFFINITY)
+                .withWorkStealing()
+                .build();
+        try (executor; var file = executor.openForReading(TestUtils.TEST_FILE)) {
+            // The loop may keep up with a round of reads, so this retries a few times.
+            for (int round = 0; round < 100 && executor.metrics().handedOff() == 0; round++) {
+                List<CompletableFuture<ByteBuffer>> reads = new ArrayList<>();
+                for (int i = 0; i < 64; i++) {
+                    reads.add(file.readAsync(0, 15));
+                }
+                for (CompletableFuture<ByteBuffer> read : reads) {
+                    ByteBuffer buffer = read.get(5, TimeUnit.SECONDS);
+                    Assertions.assertEquals("Maître Corbeau", TestUtils.bufferToString(buffer));
+                    file.release(buffer);
+                }
+            }
+            Assertions.assertTrue(executor.metrics().handedOff() > 0);
+
+            // The reads of a pinned reader stay on the loop they are routed to.
+            FileReader pinned = file.pinnedToLoop();
+            Assertions.assertTrue(pinned.isPinnedToLoop());
+            long handedOff = executor.metrics().handedOff();
+            for (int round = 0; round < 10; round++) {
+                List<CompletableFuture<ByteBuffer>> reads = new ArrayList<>();
+                for (int i = 0; i < 64; i++) {
+                    reads.add(pinned.readAsync(0, 15));
+                }
+                for (CompletableFuture<ByteBuffer> read : reads) {
+                    pinned.release(read.get(5, TimeUnit.SECONDS));
+                }
+            }
+            Assertions.assertEquals(handedOff, executor.metrics().handedOff());
+        }
+    }
+
+    @Test
+    public void canReadFileWithRegisteredBuffers() throws Exception {
+        try (var executor = IOExecutor.multiThreaded(2, IORing.Config.direct(2));
+             var file = executor.openForReading(TestUtils.TEST_FILE)) {
+            var buffers = executor.registerBuffers(4, 512);
+
+            ByteBuffer buffer = buffers.acquire();
+            ByteBuffer read = file.readAsync(0, buffer).get();
+            Assertions.assertEquals("Maître Corbeau", TestUtils.bufferToString(read.limit(15)));
+            buffers.release(buffer);
+        }
+    }
+
+    @Test
+    public void canReuseReleasedReadBuffers() throws Exception {
+        var pool = BufferPool.create();
+        try (var executor = IOExecutor.builder(IORing.Config.direct(2)).withBufferPool(pool).build();
+             var file = executor.openForReading(TestUtils.TEST_FILE)) {
+            ByteBuffer first = file.readAsync(0, 15).get();
+            Assertions.assertEquals("Maître Corbeau", TestUtils.bufferToString(first));
+            file.release(first);
+
+            ByteBuffer second = file.readAsync(49, 18).get();
+            Assertions.assertEquals("son bec un fromage", TestUtils.bufferToString(second));
+            file.release(second);
+
+            Assertions.assertEquals(1, pool.misses());
+            Assertions.assertEquals(1, pool.hits());
+        }
+    }
+
+    @Test
+    public void canReadFileWithCompletionHandler() throws Exception {
+        try (var executor = IOExecutor.singleThreaded(IORing.Config.buffered(2));
+             var file = executor.openForReading(TestUtils.TEST_FILE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(15);
+            CompletableFuture<Integer> result = new CompletableFuture<>();
+            CompletionHandler<Integer, CompletableFuture<Integer>> handler = new CompletionHandler<>() {
+                @Override
+                public void completed(Integer read, CompletableFuture<Integer> future) {
+                    future.complete(read);
+                }
+
+                @Override
+                public void failed(Throwable error, CompletableFuture<Integer> future) {
+                    future.completeExceptionally(error);
+                }
+            };
+
+            file.read(buffer, 0, result, handler);
+            Assertions.assertEquals(15, result.get(5, TimeUnit.SECONDS));
+            Assertions.assertFalse(buffer.hasRemaining());
+            Assertions.assertEquals("Maître Corbeau", TestUtils.bufferToString(buffer.flip()));
+
+            // Reads keep working with recycled submissions, including when reading past the end of the file.
+            for (int i = 0; i < 10; i++) {
+                CompletableFuture<Integer> next = new CompletableFuture<>();
+                file.read(buffer.clear(), i == 9 ? 10_000 : 49, next, handler);
+                Assertions.assertEquals(i == 9 ? 0 : 15, next.get(5, TimeUnit.SECONDS));
+            }
+            Assertions.assertEquals("son bec un from", TestUtils.bufferToString(buffer.clear().limit(15)));
+        }
+    }
+
+    @Test
+    public void canExposeMetrics() throws Exception {
+        var server = ManagementFactory.getPlatformMBeanServer();
+        var name = new ObjectName("io.github.jbellis.jfio:type=IOExecutor,name=\"metrics-test\"");
+        var builder = IOExecutor.builder(IORing.Config.buffered(2)).withThreads(2).withJmxName("metrics-test");
+        try (var executor = builder.build();
+             var file = executor.openForReading(TestUtils.TEST_FILE)) {
+            file.readAsync(0, 15).get();
+            file.readAsync(49, 18).get();
+
+            ExecutorMetrics metrics = executor.metrics();
+            Assertions.assertEquals(2, metrics.loops());
+            // The open of the file goes through the loops too.
+            Assertions.assertEquals(3, metrics.completed());
+            Assertions.assertEquals(2, metrics.latency(Submission.Operation.READ).count());
+            Assertions.assertEquals(0, metrics.inFlight());
+
+            Assertions.assertEquals(3L, server.getAttribute(name, "Completed"));
+            Assertions.assertEquals(2L, server.getAttribute(name, "ReadCount"));
+        }
+        Assertions.assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void canWriteFile(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("written.txt");
+        try (var executor = IOExecutor.singleThreaded(IORing.Config.buffered(2))) {
+            try (var writer = executor.openForWriting(file)) {
+                ByteBuffer first = ByteBuffer.allocateDirect(16);
+                first.put("Maître ".getBytes(StandardCharsets.UTF_8)).flip();
+                ByteBuffer second = ByteBuffer.allocateDirect(16);
+                second.put("Corbeau".getBytes(StandardCharsets.UTF_8)).flip();
+
+                Assertions.assertEquals(8, writer.writeAsync(0, first).get());
+                Assertions.assertEquals(7, writer.writeAsync(8, second).get());
+                Assertions.assertFalse(first.hasRemaining());
+            }
+            try (var writer = executor.openForWriting(file, StandardOpenOption.APPEND)) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+                buffer.put(", sur un arbre".getBytes(StandardCharsets.UTF_8)).flip();
+                writer.writeAsync(0, buffer).get();
+            }
+        }
+        Assertions.assertEquals("Maître Corbeau, sur un arbre", Files.readString(file));
+    }
+
+    @Test
+    public void canReadAndWriteVectored(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("written.txt");
+        try (var executor = IOExecutor.singleThreaded(IORing.Config.builder(2).withRegisteredFiles(4).build())) {
+            try (var writer = executor.openForWriting(file)) {
+                ByteBuffer first = ByteBuffer.allocateDirect(16);
+                first.put("Maître ".getBytes(StandardCharsets.UTF_8)).flip();
+                ByteBuffer second = ByteBuffer.allocateDirect(16);
+                second.put("Corbeau".getBytes(StandardCharsets.UTF_8)).flip();
+
+                Assertions.assertEquals(15, writer.writeAsync(0, first, second).get());
+                Assertions.assertFalse(first.hasRemaining());
+                Assertions.assertFalse(second.hasRemaining());
+            }
+            Assertions.assertEquals("Maître Corbeau", Files.readString(file));
+
+            try (var reader = executor.openForReading(TestUtils.TEST_FILE)) {
+                ByteBuffer first = ByteBuffer.allocateDirect(8);
+                ByteBuffer second = ByteBuffer.allocateDirect(7);
+                ByteBuffer third = ByteBuffer.allocateDirect(4);
+                // Reads up to the end of the file, so the last buffer is only partially filled.
+                long size = reader.sizeAsync().get();
+                Assertions.assertEquals(17, reader.readAsync(size - 17, first, second, third).get());
+                Assertions.assertFalse(first.hasRemaining());
+                Assertions.assertFalse(second.hasRemaining());
+                Assertions.assertEquals(2, third.position());
+            }
+
+            try (var reader = executor.openForReading(TestUtils.TEST_FILE)) {
+                ByteBuffer first = ByteBuffer.allocateDirect(8);
+                ByteBuffer second = ByteBuffer.allocateDirect(7);
+                Assertions.assertEquals(15, reader.readAsync(0, first, second).get());
+                Assertions.assertEquals("Maître ", TestUtils.bufferToString(first.flip()));
+                Assertions.assertEquals("Corbeau", TestUtils.bufferToString(second.flip()));
+            }
+        }
+    }
+
+    @Test
+    public void canReadBatch(@TempDir Path dir) throws Exception {
+        Path other = dir.resolve("other.txt");
+        Files.writeString(other, "Maître Renard");
+        // More reads than the ring depth, so the batch is added to the ring in multiple steps.
+        try (var executor = IOExecutor.multiThreaded(2, IORing.Config.direct(2));
+             var first = executor.openForReading(TestUtils.TEST_FILE);
+             var second = executor.openForReading(other)) {
+            List<BatchRead> reads = List.of(
+                    new BatchRead(first, 0, 15),
+                    new BatchRead(second, 8, 6),
+                    new BatchRead(first, 49, 18),
+                    new BatchRead(second, 0, 7)
+            );
+            List<ByteBuffer> buffers = executor.readBatch(reads).get(5, TimeUnit.SECONDS);
+            Assertions.assertEquals(4, buffers.size());
+            Assertions.assertEquals("Maître Corbeau", TestUtils.bufferToString(buffers.get(0)));
+            Assertions.assertEquals("Renard", TestUtils.bufferToString(buffers.get(1)));
+            Assertions.assertEquals("son bec un fromage", TestUtils.bufferToString(buffers.get(2)));
+            Assertions.assertEquals("Maître", TestUtils.bufferToString(buffers.get(3)));
+            buffers.forEach(executor.bufferPool()::release);
+
+            Assertions.assertTrue(executor.readBatch(List.of()).get().isEmpty());
+            try (var otherExecutor = IOExecutor.singleThreaded(IORing.Config.buffered(2))) {
+                Assertions.assertThrows(
+                        IllegalArgumentException.class,
+                        () -> otherExecutor.readBatch(List.of(new BatchRead(first, 0, 15)))
+                );
+            }
+        }
+    }
+
+    @Test
+    public void canCoalesceReads() throws Exception {
+        var executor = IOExecutor.builder(IORing.Config.buffered(8)).withReadCoalescing(16, 4096).build();
+        try (executor; var file = executor.openForReading(TestUtils.TEST_FILE)) {
+            // A batch is drained by the loop at once, so its close reads are merged (whatever their order), but not
+            // the far away one.
+            List<BatchRead> reads = List.of(
+                    new BatchRead(file, 49, 18),
+                    new BatchRead(file, 0, 15),
+                    new BatchRead(file, 8, 13),
+                    new BatchRead(file, 30, 7),
+                    new BatchRead(file, 690, 20)
+            );
+            List<ByteBuffer> buffers = executor.readBatch(reads).get(5, TimeUnit.SECONDS);
+            Assertions.assertEquals("son bec un fromage", TestUtils.bufferToString(buffers.get(0)));
+            Assertions.assertEquals("Maître Corbeau", TestUtils.bufferToString(buffers.get(1)));
+            Assertions.assertEquals("Corbeau, sur ", TestUtils.bufferToString(buffers.get(2)));
+            Assertions.assertEquals("perché", TestUtils.bufferToString(buffers.get(3)));
+            // Past the end of the file.
+            Assertions.assertEquals(9, buffers.get(4).remaining());
+            Assertions.assertEquals(4, executor.metrics().coalescedReads());
+            buffers.forEach(executor.bufferPool()::release);
+        }
+    }
+
+    private static byte[] scan(FileReader reader, int chunkSize) throws Exception {
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        reader.scan(chunkSize, 4).subscribe(new Flow.Subscriber<>() {
+            private final java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(ByteBuffer buffer) {
+                Assertions.assertTrue(buffer.remaining() <= chunkSize);
+                byte[] bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                out.writeBytes(bytes);
+                reader.release(buffer);
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                result.completeExceptionally(error);
+            }
+
+            @Override
+            public void onComplete() {
+                result.complete(out.toByteArray());
+            }
+        });
+        return result.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void canScanFile() throws Exception {
+        byte[] expected = Files.readAllBytes(TestUtils.TEST_FILE);
+        try (var executor = IOExecutor.multiThreaded(2, IORing.Config.buffered(4));
+             var file = executor.openForReading(TestUtils.TEST_FILE)) {
+            Assertions.assertArrayEquals(expected, scan(file, 64));
+            Assertions.assertArrayEquals(expected, scan(file, 4096));
+        }
+        try (var executor = IOExecutor.singleThreaded(IORing.Config.direct(2));
+             var file = executor.openForReading(TestUtils.TEST_FILE)) {
+            Assertions.assertArrayEquals(expected, scan(file, 512));
+        }
+    }
+
+    @Test
+    public void canReadThroughBlockCache() throws Exception {
+        BlockCache cache = BlockCache.create(64 * 512, 512);
+        var executor = IOExecutor.builder(IORing.Config.direct(2)).withThreads(2).withBlockCache(cache).build();
+        try (executor; var file = executor.openForReading(TestUtils.TEST_FILE)) {
+            ByteBuffer buffer = file.readAsync(0, 15).get();
+            Assertions.assertEquals("Maître Corbeau", TestUtils.bufferToString(buffer));
+            file.release(buffer);
+            Assertions.assertEquals(0, cache.hits());
+            Assertions.assertEquals(1, cache.misses());
+
+            // Cached, so served without going through the loops.
+            var cached = file.readAsync(49, 18);
+            Assertions.assertTrue(cached.isDone());
+            Assertions.assertEquals("son bec un fromage", TestUtils.bufferToString(cached.get()));
+            Assertions.assertEquals(1, cache.hits());
+
+            // Across the 2 blocks of the file, so only the second one is read; then up to the end of the file.
+            Assertions.assertEquals(30, file.readAsync(500, 30).get().remaining());
+            Assertions.assertEquals(2, cache.hits());
+            Assertions.assertEquals(2, cache.misses());
+            Assertions.assertEquals(9, file.readAsync(690, 20).get().remaining());
+            Assertions.assertEquals(3, cache.hits());
+            Assertions.assertEquals(2, cache.size());
+        }
+    }
+
+    @Test
+    public void canWarmUpFromPreviousReads(@TempDir Path dir) throws Exception {
+        Path stateFile = dir.resolve("warmup");
+        BlockCache cache = BlockCache.create(64 * 512, 512);
+        var executor = IOExecutor.builder(IORing.Config.direct(2)).withBlockCache(cache).withWarmup(stateFile).build();
+        try (executor; var file = executor.openForReading(TestUtils.TEST_FILE)) {
+            executor.warmedUp().get(5, TimeUnit.SECONDS);
+            file.release(file.readAsync(600, 10).get());
+        }
+        Assertions.assertTrue(Files.exists(stateFile));
+
+        BlockCache newCache = BlockCache.create(64 * 512, 512);
+        var newExecutor = IOExecutor.builder(IORing.Config.direct(2)).withBlockCache(newCache).withWarmup(stateFile).build();
+        try (newExecutor; var file = newExecutor.openForReading(TestUtils.TEST_FILE)) {
+            newExecutor.warmedUp().get(5, TimeUnit.SECONDS);
+            Assertions.assertEquals(1, newCache.size());
+            Assertions.assertEquals(10, file.readAsync(600, 10).get().remaining());
+            Assertions.assertEquals(1, newCache.hits());
+        }
+    }
+
+    @Test
+    public void canReadWithIOClasses() throws Exception {
+        var executor = IOExecutor.builder(IORing.Config.buffered(8))
+                .withIOClassWeights(2, 1)
+                .withKernelIOPriorities()
+                .build();
+        try (executor; var file = executor.openForReading(TestUtils.TEST_FILE)) {
+            FileReader background = file.withIOClass(IOClass.BACKGROUND);
+            Assertions.assertEquals(IOClass.FOREGROUND, file.ioClass());
+            Assertions.assertEquals(IOClass.BACKGROUND, background.ioClass());
+            Assertions.assertSame(file, file.withIOClass(IOClass.FOREGROUND));
+
+            List<CompletableFuture<ByteBuffer>> reads = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                reads.add((i % 2 == 0 ? file : background).readAsync(0, 15));
+            }
+            for (CompletableFuture<ByteBuffer> read : reads) {
+                ByteBuffer buffer = read.get(5, TimeUnit.SECONDS);
+                Assertions.assertEquals("Maître Corbeau", TestUtils.bufferToString(buffer));
+                file.release(buffer);
+            }
+        }
+    }
+
+    @Test
+    public void canAddForegroundReadsAheadOfQueuedBackgroundOnes(@TempDir Path dir) throws Exception {
+        Path fifo = dir.resolve("fifo");
+        CompletableFuture<FileChannel> writerFuture = createFifo(fifo);
+        var executor = IOExecutor.builder(IORing.Config.buffered(2)).withIOClassWeights(2, 1).build();
+        try (executor;
+             var background = executor.openForReading(fifo).withIOClass(IOClass.BACKGROUND);
+             var file = executor.openForReading(TestUtils.TEST_FILE);
+             var writer = writerFuture.get(5, TimeUnit.SECONDS)) {
+            // The first 2 fill the ring, where they stay until data is written, and the others queue up.
+            List<CompletableFuture<ByteBuffer>> reads = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                reads.add(background.readAsync(0, 5));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (executor.metrics().inFlight() < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            var foreground = file.readAsync(0, 15);
+            Assertions.assertFalse(foreground.isDone());
+
+            // Completing a single background read frees the slot the foreground read takes, ahead of the queued ones.
+            writer.write(ByteBuffer.wrap("ready".getBytes(StandardCharsets.UTF_8)));
+            ByteBuffer buffer = foreground.get(5, TimeUnit.SECONDS);
+            Assertions.assertEquals("Maître Corbeau", TestUtils.bufferToString(buffer));
+            file.release(buffer);
+            Assertions.assertEquals(1, reads.stream().filter(CompletableFuture::isDone).count());
+
+            for (int i = 1; i < reads.size(); i++) {
+                writer.write(ByteBuffer.wrap("ready".getBytes(StandardCharsets.UTF_8)));
+            }
+            for (CompletableFuture<ByteBuffer> read : reads) {
+                buffer = read.get(5, TimeUnit.SECONDS);
+                Assertions.assertEquals("ready", TestUtils.bufferToString(buffer));
+                file.release(buffer);
+            }
+        }
+    }
+
+    @Test
+    public void canRateLimitIOClasses() throws Exception {
+        // A burst is 100ms worth of the limit, so a single read, and the next ones are spaced by 100ms.
+        RateLimiter limiter = new RateLimiter(0, 10);
+        var executor = IOExecutor.builder(IORing.Config.buffered(8))
+                .withRateLimiter(IOClass.BACKGROUND, limiter)
+                .build();
+        try (executor; var file = executor.openForReading(TestUtils.TEST_FILE)) {
+            FileReader background = file.withIOClass(IOClass.BACKGROUND);
+            List<CompletableFuture<ByteBuffer>> reads = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                reads.add(background.readAsync(0, 15));
+            }
+
+            // The foreground reads are not held back by the throttled background ones.
+            ByteBuffer buffer = file.readAsync(0, 15).get(5, TimeUnit.SECONDS);
+            Assertions.assertEquals("Maître Corbeau", TestUtils.bufferToString(buffer));
+            file.release(buffer);
+            Assertions.assertFalse(reads.get(4).isDone());
+
+            // Lifting the limit lets the remaining ones through.
+            limiter.setLimits(0, 0);
+            for (CompletableFuture<ByteBuffer> read : reads) {
+                buffer = read.get(5, TimeUnit.SECONDS);
+                Assertions.assertEquals("Maître Corbeau", TestUtils.bufferToString(buffer));
+                file.release(buffer);
+            }
+        }
+    }
+
+    @Test
+    public void canCloseWithThrottledReads() throws Exception {
+        // At 1 read per second, all but the first read are held back for seconds.
+        var executor = IOExecutor.builder(IORing.Config.buffered(8))
+                .withRateLimiter(IOClass.BACKGROUND, new RateLimiter(0, 1))
+                .build();
+        FileReader background = executor.openForReading(TestUtils.TEST_FILE).withIOClass(IOClass.BACKGROUND);
+        List<CompletableFuture<ByteBuffer>> reads = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            reads.add(background.readAsync(0, 15));
+        }
+        Assertions.assertFalse(reads.get(4).isDone());
+
+        // The reads held back go through on close, rather than never completing.
+        executor.close();
+        for (CompletableFuture<ByteBuffer> read : reads) {
+            Assertions.assertTrue(read.isDone());
+            Assertions.assertEquals("Maître Corbeau", TestUtils.bufferToString(read.get()));
+        }
+    }
+
+    @Test
+    public void canReadWithThreadPerCoreRings() throws Exception {
+        try (var executor = IOExecutor.builder(IORing.Config.buffered(2)).buildThreadPerCore();
+             var file = executor.openForReading(TestUtils.TEST_FILE)) {
+            // More reads than the ring has room for, submitted together on the next poll.
+            List<CompletableFuture<ByteBuffer>> reads = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                reads.add(file.readAsync(0, 15));
+            }
+            Assertions.assertFalse(reads.get(0).isDone());
+            for (CompletableFuture<ByteBuffer> read : reads) {
+                ByteBuffer buffer = executor.await(read);
+                Assertions.assertEquals("Maître Corbeau", TestUtils.bufferToString(buffer));
+                file.release(buffer);
+            }
+
+            // Another thread gets its own ring.
+            CompletableFuture<String> other = new CompletableFuture<>();
+            Thread thread = new Thread(() -> {
+                try {
+                    ByteBuffer buffer = executor.await(file.readAsync(49, 18));
+                    other.complete(TestUtils.bufferToString(buffer));
+                    file.release(buffer);
+                } catch (Throwable t) {
+                    other.completeExceptionally(t);
+                }
+            });
+            thread.start();
+            Assertions.assertEquals("son bec un fromage", other.get(5, TimeUnit.SECONDS));
+            thread.join();
+            Assertions.assertEquals(2, executor.metrics().loops());
+            Assertions.assertEquals(5, executor.metrics().latency(Submission.Operation.READ).count());
+        }
+
+        // Options that require event loops are rejected.
+        var builder = IOExecutor.builder(IORing.Config.buffered(2)).withThreads(2);
+        Assertions.assertThrows(IllegalStateException.class, builder::buildThreadPerCore);
+    }
+
+    @Test
+    public void canMissSameCachedBlockFromThreadPerCoreRings() throws Exception {
+        BlockCache cache = BlockCache.create(64 * 512, 512);
+        var executor = IOExecutor.builder(IORing.Config.direct(2)).withBlockCache(cache).buildThreadPerCore();
+        try (executor; var file = executor.openForReading(TestUtils.TEST_FILE)) {
+            // Another thread misses the block first, but does not drive its ring until told to.
+            CompletableFuture<CompletableFuture<ByteBuffer>> missed = new CompletableFuture<>();
+            CompletableFuture<Void> drive = new CompletableFuture<>();
+            CompletableFuture<String> other = new CompletableFuture<>();
+            Thread thread = new Thread(() -> {
+                try {
+                    CompletableFuture<ByteBuffer> read = file.readAsync(0, 15);
+                    missed.complete(read);
+                    drive.join();
+                    ByteBuffer buffer = executor.await(read);
+                    other.complete(TestUtils.bufferToString(buffer));
+                    file.release(buffer);
+                } catch (Throwable t) {
+                    missed.completeExceptionally(t);
+                    other.completeExceptionally(t);
+                }
+            });
+            thread.start();
+            Assertions.assertFalse(missed.get(5, TimeUnit.SECONDS).isDone());
+
+            // The miss of this thread does not wait on the read of the other one, which only it can complete.
+            CompletableFuture<String> read = CompletableFuture.supplyAsync(() -> {
+                ByteBuffer buffer = executor.await(file.readAsync(0, 15));
+                String result = TestUtils.bufferToString(buffer);
+                file.release(buffer);
+                return result;
+            });
+            Assertions.assertEquals("Maître Corbeau", read.get(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(2, cache.misses());
+            Assertions.assertEquals(0, cache.sharedMisses());
+
+            drive.complete(null);
+            Assertions.assertEquals("Maître Corbeau", other.get(5, TimeUnit.SECONDS));
+            thread.join();
+        }
+    }
+
+    /**
+     * Creates a named pipe, on which reads only complete once something is written to it (so they stay in flight
+     * until then), and opens it for writing once it is opened for reading.
+     */
+    private static CompletableFuture<FileChannel> createFifo(Path fifo) throws Exception {
+        Assertions.assertEquals(0, new ProcessBuilder("mkfifo", fifo.toString()).start().waitFor());
+        // Opening either end of a pipe blocks until the other end is opened.
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return FileChannel.open(fifo, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Test
+    public void canTimeOutAndCancelReads(@TempDir Path dir) throws Exception {
+        Path fifo = dir.resolve("fifo");
+        CompletableFuture<FileChannel> writerFuture = createFifo(fifo);
+        try (var executor = IOExecutor.singleThreaded(IORing.Config.buffered(4));
+             var file = executor.openForReading(fifo);
+             var writer = writerFuture.get(5, TimeUnit.SECONDS)) {
+            var timedOut = file.readAsync(0, 16, 50, TimeUnit.MILLISECONDS);
+            var e = Assertions.assertThrows(ExecutionException.class, () -> timedOut.get(5, TimeUnit.SECONDS));
+            Assertions.assertInstanceOf(InterruptedByTimeoutException.class, e.getCause());
+
+            var cancelled = file.readAsync(0, 16);
+            Assertions.assertTrue(cancelled.cancel(false));
+            // Once cancelled, the read leaves the ring.
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (executor.metrics().inFlight() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            Assertions.assertEquals(0, executor.metrics().inFlight());
+
+            writer.write(ByteBuffer.wrap("ready".getBytes(StandardCharsets.UTF_8)));
+            Assertions.assertEquals("ready", TestUtils.bufferToString(file.readAsync(0, 5).get(5, TimeUnit.SECONDS)));
+        }
+    }
+
+    @Test
+    public void canQueueMoreReadsThanRingIds(@TempDir Path dir) throws Exception {
+        Path fifo = dir.resolve("fifo");
+        CompletableFuture<FileChannel> writerFuture = createFifo(fifo);
+        // A ring of depth 2 tracks 4 operations; the 2 reads with a timeout (and their timeouts) hold all of them.
+        try (var executor = IOExecutor.singleThreaded(IORing.Config.buffered(2));
+             var file = executor.openForReading(fifo);
+             var writer = writerFuture.get(5, TimeUnit.SECONDS)) {
+            List<CompletableFuture<ByteBuffer>> reads = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                reads.add(file.readAsync(0, 5, 10, TimeUnit.SECONDS));
+            }
+            for (int i = 0; i < 4; i++) {
+                reads.add(file.readAsync(0, 5));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (executor.metrics().inFlight() < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            Assertions.assertFalse(reads.get(5).isDone());
+
+            // The reads that did not fit wait for ids rather than failing the loop, and complete once data arrives.
+            for (int i = 0; i < reads.size(); i++) {
+                writer.write(ByteBuffer.wrap("ready".getBytes(StandardCharsets.UTF_8)));
+            }
+            for (CompletableFuture<ByteBuffer> read : reads) {
+                ByteBuffer buffer = read.get(5, TimeUnit.SECONDS);
+                Assertions.assertEquals("ready", TestUtils.bufferToString(buffer));
+                file.release(buffer);
+            }
+        }
+    }
+
+    @Test
+    public void cannotTimeOutReadsWithDepthOneRings() throws Exception {
+        // A read with a timeout takes 2 submission slots, so it could never be added to the ring.
+        try (var executor = IOExecutor.singleThreaded(IORing.Config.buffered(1));
+             var file = executor.openForReading(TestUtils.TEST_FILE)) {
+            Assertions.assertThrows(
+                    IllegalArgumentException.class,
+                    () -> file.readAsync(0, 15, 1, TimeUnit.SECONDS)
+            );
+            // Which does not hold the other reads back.
+            ByteBuffer buffer = file.readAsync(0, 15).get(5, TimeUnit.SECONDS);
+            Assertions.assertEquals("Maître Corbeau", TestUtils.bufferToString(buffer));
+        }
+    }
+
+    @Test
+    public void canOpenManyFiles(@TempDir Path dir) throws Exception {
+        // More files than the ring depth, so the opens are pipelined.
+        List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Path path = dir.resolve("file-" + i);
+            Files.writeString(path, "file " + i);
+            paths.add(path);
+        }
+        try (var executor = IOExecutor.multiThreaded(2, IORing.Config.builder(4).withRegisteredFiles(8).build())) {
+            List<FileReader> readers = executor.openAll(paths).get(5, TimeUnit.SECONDS);
+            Assertions.assertEquals(paths.size(), readers.size());
+            for (int i = 0; i < readers.size(); i++) {
+                FileReader reader = readers.get(i);
+                Assertions.assertEquals(paths.get(i), reader.path());
+                long size = reader.sizeAsync().get();
+                Assertions.assertEquals(Files.size(paths.get(i)), size);
+                Assertions.assertEquals("file " + i, TestUtils.bufferToString(reader.readAsync(0, (int) size).get()));
+            }
+            for (FileReader reader : readers) {
+                reader.closeAsync().get();
+            }
+
+            paths.add(dir.resolve("missing"));
+            var failed = executor.openAll(paths);
+            var e = Assertions.assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+            Assertions.assertInstanceOf(NoSuchFileException.class, e.getCause());
+        }
+    }
+}